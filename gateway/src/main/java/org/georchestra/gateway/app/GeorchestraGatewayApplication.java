@@ -82,15 +82,17 @@ public class GeorchestraGatewayApplication {
     @GetMapping(path = "/whoami", produces = "application/json")
     @ResponseBody
     public Mono<Map<String, Object>> whoami(Authentication principal, ServerWebExchange exchange) {
-        GeorchestraUser user = Optional.ofNullable(principal).flatMap(userMapper::resolve).orElse(null);
-        Map<String, Object> ret = new LinkedHashMap<>();
-        ret.put("GeorchestraUser", user);
-        if (principal == null) {
-            ret.put("Authentication", null);
-        } else {
-            ret.put(principal.getClass().getCanonicalName(), principal);
-        }
-        return Mono.just(ret);
+        Mono<GeorchestraUser> user = principal == null ? Mono.empty() : userMapper.resolveReactive(principal, exchange);
+        return user.map(Optional::of).defaultIfEmpty(Optional.empty()).map(resolved -> {
+            Map<String, Object> ret = new LinkedHashMap<>();
+            ret.put("GeorchestraUser", resolved.orElse(null));
+            if (principal == null) {
+                ret.put("Authentication", null);
+            } else {
+                ret.put(principal.getClass().getCanonicalName(), principal);
+            }
+            return ret;
+        });
         // return principal == null ? Mono.empty() :
         // Mono.just(Map.of(principal.getClass().getCanonicalName(), principal));
     }
@@ -0,0 +1,55 @@
+package org.georchestra.gateway.events;
+
+import java.util.Optional;
+
+import org.springframework.context.ApplicationEvent;
+
+import lombok.NonNull;
+
+/**
+ * Application event signaling that an LDAP entry was modified outside the
+ * gateway (e.g. through the console), so that caches holding data derived from
+ * it can evict it.
+ * <p>
+ * The {@link #getName() name} identifies the modified entry according to its
+ * {@link #getType() type}: the user name for {@link Type#USER users}, the role
+ * name for {@link Type#ROLE roles}, and the organization short name for
+ * {@link Type#ORGANIZATION organizations}. If empty, any entry of that type may
+ * have been modified.
+ * <p>
+ * Published by {@link RabbitmqEventsListener} upon reception of the
+ * corresponding RabbitMQ messages.
+ */
+@SuppressWarnings("serial")
+public class LdapModificationEvent extends ApplicationEvent {
+
+    public enum Type {
+        USER, ROLE, ORGANIZATION
+    }
+
+    private final @NonNull Type type;
+
+    private final String name;
+
+    public LdapModificationEvent(@NonNull Object source, @NonNull Type type, String name) {
+        super(source);
+        this.type = type;
+        this.name = name;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the name of the modified entry, or empty if unknown
+     */
+    public Optional<String> getName() {
+        return Optional.ofNullable(name).filter(n -> !n.isBlank());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s %s]", getClass().getSimpleName(), type, getName().orElse("*"));
+    }
+}
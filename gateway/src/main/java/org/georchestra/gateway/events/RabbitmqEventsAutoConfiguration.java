@@ -8,6 +8,7 @@ import org.springframework.boot.autoconfigure.AutoConfigureAfter;
 import org.springframework.amqp.core.Queue;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.gateway.config.GatewayAutoConfiguration;
 import org.springframework.context.annotation.*;
 
@@ -16,12 +17,13 @@ import org.springframework.context.annotation.*;
 @AutoConfigureAfter(GatewayAutoConfiguration.class)
 @ImportResource({ "classpath:rabbit-listener-context.xml", "classpath:rabbit-sender-context.xml" })
 @ConditionalOnProperty(name = "enableRabbitmqEvents", havingValue = "true", matchIfMissing = false)
+@EnableConfigurationProperties(RabbitmqEventsSenderConfigProperties.class)
 public class RabbitmqEventsAutoConfiguration {
 
     @Bean
     @DependsOn({ "eventTemplate" })
-    public RabbitmqEventsSender eventsSender(AmqpTemplate eventTemplate) {
-        return new RabbitmqEventsSender(eventTemplate);
+    public RabbitmqEventsSender eventsSender(AmqpTemplate eventTemplate, RabbitmqEventsSenderConfigProperties config) {
+        return new RabbitmqEventsSender(eventTemplate, config);
     }
 
     Queue OAuth2ReplyQueue() {
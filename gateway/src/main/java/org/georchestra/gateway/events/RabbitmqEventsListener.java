@@ -1,31 +1,166 @@
 package org.georchestra.gateway.events;
 
+import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
+import org.georchestra.gateway.events.LdapModificationEvent.Type;
 import org.json.JSONObject;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.core.MessageListener;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Listens to the messages sent by the console through the
+ * {@literal OAUTH2-EXCHANGE-GATEWAY} exchange.
+ * <p>
+ * Besides logging OAuth2 account creation acknowledgements, publishes an
+ * {@link LdapModificationEvent} for each LDAP modification message, for the
+ * gateway caches to evict the modified entries. LDAP modification messages are
+ * JSON objects with the following properties:
+ * <ul>
+ * <li>{@literal subject}: one of {@link #LDAP_USER_MODIFIED},
+ * {@link #LDAP_ROLE_MODIFIED}, or {@link #LDAP_ORG_MODIFIED}
+ * <li>{@literal name}: the user name, role name, or organization short name of
+ * the modified entry. Optional, if missing all entries of that kind are
+ * evicted.
+ * </ul>
+ * <p>
+ * Account creation acknowledgements are de-duplicated by message uid, keeping
+ * the uids received within the last {@link #DEFAULT_DEDUPLICATION_WINDOW hour},
+ * up to {@link #DEFAULT_DEDUPLICATION_SIZE} of them, so memory use doesn't grow
+ * with the number of messages received.
+ * <p>
+ * Implements {@link MeterBinder} to publish the number of uids kept as the
+ * {@literal georchestra.events.deduplication.size} gauge, and the number of
+ * duplicate messages dropped as the
+ * {@literal georchestra.events.deduplication.duplicates} counter.
+ */
 @Slf4j(topic = "org.georchestra.gateway.events")
-public class RabbitmqEventsListener implements MessageListener {
+public class RabbitmqEventsListener implements MessageListener, ApplicationEventPublisherAware, MeterBinder {
 
     public static final String OAUTH2_ACCOUNT_CREATION_RECEIVED = "OAUTH2-ACCOUNT-CREATION-RECEIVED";
 
-    private static Set<String> synReceivedMessageUid = Collections.synchronizedSet(new HashSet<String>());
+    public static final String LDAP_USER_MODIFIED = "LDAP-USER-MODIFIED";
+    public static final String LDAP_ROLE_MODIFIED = "LDAP-ROLE-MODIFIED";
+    public static final String LDAP_ORG_MODIFIED = "LDAP-ORG-MODIFIED";
+
+    private static final Map<String, Type> MODIFICATION_SUBJECTS = Map.of(//
+            LDAP_USER_MODIFIED, Type.USER, //
+            LDAP_ROLE_MODIFIED, Type.ROLE, //
+            LDAP_ORG_MODIFIED, Type.ORGANIZATION);
+
+    static final long DEFAULT_DEDUPLICATION_SIZE = 10_000;
+
+    static final Duration DEFAULT_DEDUPLICATION_WINDOW = Duration.ofHours(1);
+
+    /**
+     * Uids of the messages received, values are unused
+     */
+    private final Cache<String, Boolean> receivedMessageUids;
+
+    private volatile Counter duplicates;
+
+    private ApplicationEventPublisher eventPublisher;
+
+    public RabbitmqEventsListener() {
+        this(DEFAULT_DEDUPLICATION_SIZE, DEFAULT_DEDUPLICATION_WINDOW);
+    }
+
+    /**
+     * @param maximumSize maximum number of message uids kept for de-duplication,
+     *                    the oldest ones are evicted first
+     * @param window      how long a message uid is kept for de-duplication
+     */
+    public RabbitmqEventsListener(long maximumSize, @NonNull Duration window) {
+        this(maximumSize, window, Ticker.systemTicker());
+    }
+
+    /**
+     * @param ticker the time source of the de-duplication window
+     */
+    @VisibleForTesting
+    RabbitmqEventsListener(long maximumSize, @NonNull Duration window, @NonNull Ticker ticker) {
+        this.receivedMessageUids = CacheBuilder.newBuilder()//
+                .maximumSize(maximumSize)//
+                .expireAfterWrite(window)//
+                .ticker(ticker)//
+                .build();
+    }
+
+    @Override
+    public void setApplicationEventPublisher(ApplicationEventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
 
     public void onMessage(Message message) {
-        String messageBody = new String(message.getBody());
+        String messageBody = new String(message.getBody(), StandardCharsets.UTF_8);
         JSONObject jsonObj = new JSONObject(messageBody);
-        String uid = jsonObj.getString("uid");
         String subject = jsonObj.getString("subject");
-        if (subject.equals(OAUTH2_ACCOUNT_CREATION_RECEIVED)
-                && !synReceivedMessageUid.stream().anyMatch(s -> s.equals(uid))) {
+        Type modification = MODIFICATION_SUBJECTS.get(subject);
+        if (modification != null) {
+            publish(modification, jsonObj.optString("name", null));
+            return;
+        }
+        String uid = jsonObj.getString("uid");
+        if (subject.equals(OAUTH2_ACCOUNT_CREATION_RECEIVED) && firstReceived(uid)) {
             String msg = jsonObj.getString("msg");
-            synReceivedMessageUid.add(uid);
             log.info(msg);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * @return {@code true} if no message with this uid was received within the
+     *         de-duplication window, {@code false} if it's a duplicate
+     */
+    @VisibleForTesting
+    boolean firstReceived(@NonNull String uid) {
+        boolean first = receivedMessageUids.asMap().putIfAbsent(uid, Boolean.TRUE) == null;
+        if (!first) {
+            log.debug("Dropping duplicate message {}", uid);
+            final Counter counter = this.duplicates;
+            if (counter != null) {
+                counter.increment();
+            }
+        }
+        return first;
+    }
+
+    @VisibleForTesting
+    long deduplicationSize() {
+        return receivedMessageUids.size();
+    }
+
+    private void publish(Type type, String name) {
+        if (eventPublisher == null) {
+            log.warn("No event publisher set, ignoring {} modification of {}", type, name);
+            return;
+        }
+        LdapModificationEvent event = new LdapModificationEvent(this, type, name);
+        log.debug("Publishing {}", event);
+        eventPublisher.publishEvent(event);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("georchestra.events.deduplication.size", receivedMessageUids, Cache::size)//
+                .description("Number of message uids kept to drop duplicate messages")//
+                .register(registry);
+        duplicates = Counter.builder("georchestra.events.deduplication.duplicates")//
+                .description("Number of duplicate messages dropped")//
+                .register(registry);
+    }
+}
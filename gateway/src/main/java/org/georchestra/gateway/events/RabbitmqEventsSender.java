@@ -1,35 +1,237 @@
 package org.georchestra.gateway.events;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.georchestra.gateway.events.RabbitmqEventsSenderConfigProperties.OverflowPolicy;
 import org.json.JSONObject;
 import org.springframework.amqp.core.AmqpTemplate;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.ApplicationContext;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.DisposableBean;
 
-import java.util.UUID;
+import com.google.common.annotations.VisibleForTesting;
 
-public class RabbitmqEventsSender {
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sends the gateway events to the {@literal OAUTH2-EXCHANGE} exchange, with
+ * routing key {@link #ROUTING_KEY}.
+ * <p>
+ * Events are not sent by the calling thread, so that a slow or unavailable
+ * broker doesn't stall logins. Instead, they're put in a bounded in-memory
+ * queue, and published in batches of up to
+ * {@link RabbitmqEventsSenderConfigProperties#getBatchSize() batch-size} events
+ * by a background thread. If the template's connection factory has publisher
+ * confirms enabled, each batch is published on a single channel, and waits for
+ * the broker to confirm all of its events. Failed batches are retried with an
+ * exponential backoff, up to
+ * {@link RabbitmqEventsSenderConfigProperties#getMaxAttempts() max-attempts}
+ * times. A retried batch may have been partially published already, so events
+ * are delivered at least once, and consumers are expected to de-duplicate them
+ * by {@literal uid}.
+ * <p>
+ * While the queue is full, new events are either discarded or make the caller
+ * wait for some room, as per the
+ * {@link RabbitmqEventsSenderConfigProperties#getOverflowPolicy() overflow
+ * policy}. Events still queued upon shutdown are lost.
+ * <p>
+ * Implements {@link MeterBinder} to publish the number of queued events as the
+ * {@literal georchestra.events.outbox.depth} gauge, and the number of events
+ * published, discarded because the queue was full, and discarded after failing
+ * to publish them, as the {@literal georchestra.events.outbox.published},
+ * {@literal georchestra.events.outbox.dropped}, and
+ * {@literal georchestra.events.outbox.failed} counters.
+ */
+@Slf4j(topic = "org.georchestra.gateway.events")
+public class RabbitmqEventsSender implements DisposableBean, MeterBinder {
 
     public static final String OAUTH2_ACCOUNT_CREATION = "OAUTH2-ACCOUNT-CREATION";
 
-    @Autowired
-    private ApplicationContext applicationContext;
+    static final String ROUTING_KEY = "routing-gateway";
+
+    private final AmqpTemplate eventTemplate;
+
+    private final RabbitmqEventsSenderConfigProperties config;
+
+    /**
+     * Whether to wait for publisher confirms after each batch
+     */
+    private final boolean confirms;
 
-    private AmqpTemplate eventTemplate;
+    private final BlockingQueue<String> queue;
+
+    private final Thread worker;
+
+    private volatile boolean closed;
+
+    private volatile Counter published;
+    private volatile Counter dropped;
+    private volatile Counter failed;
 
     public RabbitmqEventsSender(AmqpTemplate eventTemplate) {
+        this(eventTemplate, new RabbitmqEventsSenderConfigProperties());
+    }
+
+    public RabbitmqEventsSender(@NonNull AmqpTemplate eventTemplate,
+            @NonNull RabbitmqEventsSenderConfigProperties config) {
         this.eventTemplate = eventTemplate;
+        this.config = config;
+        this.confirms = eventTemplate instanceof RabbitTemplate
+                && ((RabbitTemplate) eventTemplate).getConnectionFactory().isSimplePublisherConfirms();
+        this.queue = new LinkedBlockingQueue<>(config.getQueueCapacity());
+        log.info("Events sender queue capacity: {}, overflow policy: {}, batch size: {}, publisher confirms: {}",
+                config.getQueueCapacity(), config.getOverflowPolicy(), config.getBatchSize(), confirms);
+        this.worker = new Thread(this::run, "georchestra-events-sender");
+        this.worker.setDaemon(true);
+        this.worker.start();
     }
 
-    public void sendNewOAuthAccountMessage(String username, String email, String provider) throws Exception {
-        // beans
-        // getting a reference to
-        // the sender
+    /**
+     * Queues an {@link #OAUTH2_ACCOUNT_CREATION} event, returning once queued or
+     * discarded, as per the overflow policy
+     */
+    public void sendNewOAuthAccountMessage(String username, String email, String provider) {
         JSONObject jsonObj = new JSONObject();
         jsonObj.put("uid", UUID.randomUUID());
         jsonObj.put("subject", OAUTH2_ACCOUNT_CREATION);
-        jsonObj.put("username", username); // bean
-        jsonObj.put("email", email); // bean
-        jsonObj.put("provider", provider); // bean
-        eventTemplate.convertAndSend("routing-gateway", jsonObj.toString());// send
+        jsonObj.put("username", username);
+        jsonObj.put("email", email);
+        jsonObj.put("provider", provider);
+        if (!enqueue(jsonObj.toString())) {
+            log.warn("Events queue full, discarding {} event for provider {}", OAUTH2_ACCOUNT_CREATION, provider);
+        }
+    }
+
+    /**
+     * @return {@code true} if the message was queued, {@code false} if it was
+     *         discarded
+     */
+    @VisibleForTesting
+    boolean enqueue(@NonNull String message) {
+        boolean queued = false;
+        if (!closed) {
+            if (config.getOverflowPolicy() == OverflowPolicy.BLOCK) {
+                try {
+                    queued = queue.offer(message, config.getOfferTimeout().toMillis(), MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                queued = queue.offer(message);
+            }
+        }
+        if (!queued) {
+            increment(dropped, 1);
+        }
+        return queued;
+    }
+
+    @VisibleForTesting
+    int depth() {
+        return queue.size();
+    }
+
+    private void run() {
+        final List<String> batch = new ArrayList<>(config.getBatchSize());
+        while (!closed || !queue.isEmpty()) {
+            try {
+                String first = queue.poll(100, MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, config.getBatchSize() - 1);
+                    publishWithRetry(batch);
+                }
+            } catch (InterruptedException e) {
+                log.warn("Events sender interrupted, discarding {} events", batch.size() + queue.size());
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void publishWithRetry(List<String> batch) throws InterruptedException {
+        Duration backoff = config.getInitialBackoff();
+        for (int attempt = 1;; attempt++) {
+            try {
+                publish(batch);
+                increment(published, batch.size());
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= config.getMaxAttempts() || closed) {
+                    log.error("Discarding {} events after {} failed attempts to publish them", batch.size(), attempt,
+                            e);
+                    increment(failed, batch.size());
+                    return;
+                }
+                log.warn("Error publishing {} events, retrying in {}: {}", batch.size(), backoff, e.getMessage());
+                Thread.sleep(backoff.toMillis());
+                backoff = min(backoff.multipliedBy(2), config.getMaxBackoff());
+            }
+        }
+    }
+
+    private void publish(List<String> batch) {
+        if (confirms) {
+            ((RabbitTemplate) eventTemplate).invoke(ops -> {
+                batch.forEach(message -> ops.convertAndSend(ROUTING_KEY, message));
+                ops.waitForConfirmsOrDie(config.getConfirmTimeout().toMillis());
+                return null;
+            });
+        } else {
+            batch.forEach(message -> eventTemplate.convertAndSend(ROUTING_KEY, message));
+        }
+    }
+
+    private static Duration min(Duration d1, Duration d2) {
+        return d1.compareTo(d2) <= 0 ? d1 : d2;
+    }
+
+    private static void increment(Counter counter, int amount) {
+        if (counter != null) {
+            counter.increment(amount);
+        }
+    }
+
+    /**
+     * Stops accepting events, and waits up to
+     * {@link RabbitmqEventsSenderConfigProperties#getShutdownTimeout()
+     * shutdown-timeout} for the queued ones to be published
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        closed = true;
+        worker.join(config.getShutdownTimeout().toMillis());
+        if (worker.isAlive()) {
+            worker.interrupt();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("georchestra.events.outbox.depth", queue, BlockingQueue::size)//
+                .description("Number of events waiting to be published")//
+                .register(registry);
+        published = Counter.builder("georchestra.events.outbox.published")//
+                .description("Number of events published")//
+                .register(registry);
+        dropped = Counter.builder("georchestra.events.outbox.dropped")//
+                .description("Number of events discarded because the queue was full")//
+                .register(registry);
+        failed = Counter.builder("georchestra.events.outbox.failed")//
+                .description("Number of events discarded after failing to publish them")//
+                .register(registry);
     }
-}
\ No newline at end of file
+}
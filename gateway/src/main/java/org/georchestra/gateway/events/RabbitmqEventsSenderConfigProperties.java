@@ -0,0 +1,90 @@
+package org.georchestra.gateway.events;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+import lombok.Generated;
+import lombok.experimental.Accessors;
+
+/**
+ * Settings of the {@link RabbitmqEventsSender} outbox, for example:
+ *
+ * <pre>
+ * <code>
+ * georchestra:
+ *   gateway:
+ *     events:
+ *       sender:
+ *         queue-capacity: 10000
+ *         overflow-policy: drop
+ *         batch-size: 100
+ * </code>
+ * </pre>
+ */
+@Data
+@Generated
+@Accessors(chain = true)
+@ConfigurationProperties(prefix = "georchestra.gateway.events.sender")
+public class RabbitmqEventsSenderConfigProperties {
+
+    public enum OverflowPolicy {
+        /**
+         * Discard new events right away while the queue is full
+         */
+        DROP,
+        /**
+         * Make the caller wait up to {@link #getOfferTimeout() offer-timeout} for
+         * room in the queue, discarding the event if there's still none
+         */
+        BLOCK
+    }
+
+    /**
+     * Maximum number of events waiting to be published
+     */
+    private int queueCapacity = 10_000;
+
+    /**
+     * What to do with new events while {@literal queue-capacity} events are
+     * waiting to be published
+     */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+
+    /**
+     * Maximum time to wait for room in the queue with the {@literal BLOCK}
+     * overflow policy
+     */
+    private Duration offerTimeout = Duration.ofMillis(500);
+
+    /**
+     * Maximum number of events published at once
+     */
+    private int batchSize = 100;
+
+    /**
+     * Maximum time to wait for the broker to confirm a batch, if publisher
+     * confirms are enabled on the connection factory
+     */
+    private Duration confirmTimeout = Duration.ofSeconds(5);
+
+    /**
+     * Maximum number of attempts to publish a batch, after which its events are
+     * discarded
+     */
+    private int maxAttempts = 10;
+
+    /**
+     * Time to wait before the first retry of a failed batch, doubled on each
+     * attempt up to {@literal max-backoff}
+     */
+    private Duration initialBackoff = Duration.ofSeconds(1);
+
+    private Duration maxBackoff = Duration.ofMinutes(1);
+
+    /**
+     * Maximum time to wait for the queued events to be published upon shutdown
+     */
+    private Duration shutdownTimeout = Duration.ofSeconds(10);
+}
@@ -21,6 +21,8 @@ package org.georchestra.gateway.filter.global;
 import static org.springframework.cloud.gateway.support.ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR;
 
 import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 
 import org.georchestra.gateway.model.GatewayConfigProperties;
@@ -30,14 +32,15 @@ import org.georchestra.gateway.security.ResolveGeorchestraUserGlobalFilter;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.cloud.gateway.filter.GlobalFilter;
 import org.springframework.cloud.gateway.filter.RouteToRequestUrlFilter;
+import org.springframework.cloud.gateway.event.RefreshRoutesEvent;
 import org.springframework.cloud.gateway.route.Route;
+import org.springframework.context.event.EventListener;
 import org.springframework.core.Ordered;
 import org.springframework.web.server.ServerWebExchange;
 
 import com.google.common.annotations.VisibleForTesting;
 
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Mono;
 
@@ -47,8 +50,14 @@ import reactor.core.publisher.Mono;
  * {@link GeorchestraTargetConfig#setTarget stores} it to be
  * {@link GeorchestraTargetConfig#getTarget acquired} by non-global filters as
  * needed.
+ * <p>
+ * The {@link GeorchestraTargetConfig} for each configured {@link Service}
+ * target URI is computed once and kept in an immutable index, so that
+ * resolving it for a request is a single map lookup. The index is rebuilt and
+ * atomically replaced whenever the routes are refreshed, which includes
+ * configuration refreshes, since Spring Cloud Gateway publishes a
+ * {@link RefreshRoutesEvent} after the environment is refreshed.
  */
-@RequiredArgsConstructor
 @Slf4j
 public class ResolveTargetGlobalFilter implements GlobalFilter, Ordered {
 
@@ -56,6 +65,13 @@ public class ResolveTargetGlobalFilter implements GlobalFilter, Ordered {
 
     private final @NonNull GatewayConfigProperties config;
 
+    private volatile TargetConfigIndex index;
+
+    public ResolveTargetGlobalFilter(@NonNull GatewayConfigProperties config) {
+        this.config = config;
+        this.index = TargetConfigIndex.build(config);
+    }
+
     /**
      * @return a lower precedence than {@link RouteToRequestUrlFilter}'s, in order
      *         to make sure the matched {@link Route} has been set as a
@@ -84,23 +100,62 @@ public class ResolveTargetGlobalFilter implements GlobalFilter, Ordered {
     @VisibleForTesting
     @NonNull
     GeorchestraTargetConfig resolveTarget(@NonNull Route route) {
+        return index.resolve(route.getUri());
+    }
+
+    /**
+     * Rebuilds the target configs index, since the routes or the
+     * {@link GatewayConfigProperties} they relate to may have changed.
+     */
+    @EventListener(RefreshRoutesEvent.class)
+    public void onRefreshRoutes() {
+        rebuildIndex();
+    }
+
+    @VisibleForTesting
+    void rebuildIndex() {
+        this.index = TargetConfigIndex.build(config);
+        log.debug("Rebuilt geOrchestra target configs index");
+    }
 
-        GeorchestraTargetConfig target = new GeorchestraTargetConfig().headers(config.getDefaultHeaders())
-                .accessRules(config.getGlobalAccessRules());
+    /**
+     * Immutable service target URI to {@link GeorchestraTargetConfig} index
+     */
+    private static class TargetConfigIndex {
 
-        final URI routeURI = route.getUri();
+        private final GeorchestraTargetConfig defaults;
+        private final Map<URI, GeorchestraTargetConfig> byTargetURI;
 
-        for (Service service : config.getServices().values()) {
-            var serviceURI = service.getTarget();
-            if (Objects.equals(routeURI, serviceURI)) {
+        private TargetConfigIndex(GeorchestraTargetConfig defaults, Map<URI, GeorchestraTargetConfig> byTargetURI) {
+            this.defaults = defaults;
+            this.byTargetURI = byTargetURI;
+        }
+
+        GeorchestraTargetConfig resolve(URI routeURI) {
+            GeorchestraTargetConfig target = routeURI == null ? null : byTargetURI.get(routeURI);
+            return target == null ? defaults : target;
+        }
+
+        static TargetConfigIndex build(GatewayConfigProperties config) {
+            GeorchestraTargetConfig defaults = new GeorchestraTargetConfig().headers(config.getDefaultHeaders())
+                    .accessRules(config.getGlobalAccessRules());
+
+            Map<URI, GeorchestraTargetConfig> byTargetURI = new HashMap<>();
+            for (Service service : config.getServices().values()) {
+                URI serviceURI = service.getTarget();
+                if (serviceURI == null || byTargetURI.containsKey(serviceURI)) {
+                    // first match wins
+                    continue;
+                }
+                GeorchestraTargetConfig target = new GeorchestraTargetConfig().headers(config.getDefaultHeaders())
+                        .accessRules(config.getGlobalAccessRules());
                 if (!service.getAccessRules().isEmpty())
                     target.accessRules(service.getAccessRules());
                 if (service.getHeaders().isPresent())
                     target.headers(service.getHeaders().get());
-                break;
+                byTargetURI.put(serviceURI, target);
             }
+            return new TargetConfigIndex(defaults, Map.copyOf(byTargetURI));
         }
-        return target;
     }
-
-}
\ No newline at end of file
+}
@@ -30,7 +30,6 @@ import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.web.server.ServerWebExchange;
 
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
 import reactor.core.publisher.Mono;
 
 public class AddSecHeadersGatewayFilterFactory
@@ -53,18 +52,23 @@ public class AddSecHeadersGatewayFilterFactory
         return new AddSecHeadersGatewayFilter(providers);
     }
 
-    @RequiredArgsConstructor
     private static class AddSecHeadersGatewayFilter implements GatewayFilter, Ordered {
 
-        private final @NonNull List<HeaderContributor> providers;
+        private final HeaderContributor[] providers;
+
+        AddSecHeadersGatewayFilter(@NonNull List<HeaderContributor> providers) {
+            this.providers = providers.toArray(HeaderContributor[]::new);
+        }
 
         public @Override Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
             if (exchange.getAttribute(DISABLE_SECURITY_HEADERS) == null) {
                 ServerHttpRequest.Builder requestBuilder = exchange.getRequest().mutate();
 
-                providers.stream()//
-                        .map(provider -> provider.prepare(exchange))//
-                        .forEach(requestBuilder::headers);
+                requestBuilder.headers(headers -> {
+                    for (HeaderContributor provider : providers) {
+                        provider.prepare(exchange).accept(headers);
+                    }
+                });
 
                 ServerHttpRequest request = requestBuilder.build();
                 ServerWebExchange updatedExchange = exchange.mutate().request(request).build();
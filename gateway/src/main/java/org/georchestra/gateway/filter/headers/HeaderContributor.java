@@ -20,17 +20,24 @@ package org.georchestra.gateway.filter.headers;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.georchestra.gateway.filter.headers.providers.GeorchestraOrganizationHeadersContributor;
 import org.georchestra.gateway.filter.headers.providers.GeorchestraUserHeadersContributor;
 import org.georchestra.gateway.filter.headers.providers.SecProxyHeaderContributor;
+import org.georchestra.gateway.model.HeaderMappings;
+import org.springframework.cloud.gateway.event.RefreshRoutesEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.core.Ordered;
 import org.springframework.http.HttpHeaders;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
 import org.springframework.web.server.ServerWebExchange;
 
+import com.google.common.cache.CacheBuilder;
+
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 
@@ -48,6 +55,13 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j(topic = "org.georchestra.gateway.filter.headers")
 public abstract class HeaderContributor implements Ordered {
 
+    /**
+     * Compiled {@link HeaderPlan}s by {@link HeaderMappings} instance (weak keys
+     * use identity comparison)
+     */
+    private final ConcurrentMap<HeaderMappings, HeaderPlan<?>> plans = CacheBuilder.newBuilder().weakKeys()
+            .<HeaderMappings, HeaderPlan<?>>build().asMap();
+
     /**
      * Prepare a header contributor for the given HTTP request-response interaction.
      * <p>
@@ -70,6 +84,25 @@ public abstract class HeaderContributor implements Ordered {
         return 0;
     }
 
+    /**
+     * @return the {@link HeaderPlan} for {@code mappings}, compiled with
+     *         {@code compiler} the first time it's requested
+     */
+    @SuppressWarnings("unchecked")
+    protected <T> HeaderPlan<T> plan(@NonNull HeaderMappings mappings,
+            @NonNull Function<HeaderMappings, HeaderPlan<T>> compiler) {
+        return (HeaderPlan<T>) plans.computeIfAbsent(mappings, compiler);
+    }
+
+    /**
+     * Discards the compiled {@link HeaderPlan}s, since the {@link HeaderMappings}
+     * may have been modified in place by a configuration refresh
+     */
+    @EventListener(RefreshRoutesEvent.class)
+    public void clearHeaderPlans() {
+        plans.clear();
+    }
+
     protected void add(@NonNull HttpHeaders target, @NonNull String header, @NonNull Optional<Boolean> enabled,
             @NonNull Optional<String> value) {
         add(target, header, enabled, value.orElse(null));
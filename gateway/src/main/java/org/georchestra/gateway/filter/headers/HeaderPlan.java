@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.filter.headers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+import org.georchestra.gateway.model.HeaderMappings;
+import org.springframework.http.HttpHeaders;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A {@link HeaderMappings} compiled into the flat list of enabled header names
+ * and their value extractors, so that appending the headers for a request is a
+ * tight loop over the enabled headers only.
+ * <p>
+ * {@link HeaderContributor}s compile a plan once per {@link HeaderMappings} and
+ * {@link #apply apply} it to each request's source object (e.g. the
+ * authenticated user).
+ *
+ * @param <T> the type of object header values are extracted from
+ */
+@Slf4j(topic = "org.georchestra.gateway.filter.headers")
+public final class HeaderPlan<T> {
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static final HeaderPlan<?> EMPTY = new HeaderPlan<>(new String[0], new Function[0]);
+
+    private final String[] headers;
+    private final Function<T, String>[] extractors;
+
+    private HeaderPlan(String[] headers, Function<T, String>[] extractors) {
+        this.headers = headers;
+        this.extractors = extractors;
+    }
+
+    public static <T> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> HeaderPlan<T> empty() {
+        return (HeaderPlan<T>) EMPTY;
+    }
+
+    public boolean isEmpty() {
+        return headers.length == 0;
+    }
+
+    /**
+     * Adds the value of each planned header extracted from {@code source} to
+     * {@code target}, skipping {@code null} values.
+     */
+    public void apply(@NonNull T source, @NonNull HttpHeaders target) {
+        for (int i = 0; i < headers.length; i++) {
+            final String header = headers[i];
+            final String value = extractors[i].apply(source);
+            if (null == value) {
+                log.trace("Value for header {} is not present", header);
+            } else {
+                log.debug("Appending header {}: {}", header, value);
+                target.add(header, value);
+            }
+        }
+    }
+
+    public static class Builder<T> {
+        private final List<String> headers = new ArrayList<>();
+        private final List<Function<T, String>> extractors = new ArrayList<>();
+
+        /**
+         * Adds {@code header} to the plan only if {@code enabled} is {@code true}
+         */
+        public Builder<T> add(@NonNull String header, @NonNull Optional<Boolean> enabled,
+                @NonNull Function<T, String> extractor) {
+            if (enabled.orElse(Boolean.FALSE).booleanValue()) {
+                add(header, extractor);
+            } else {
+                log.trace("Header {} is not enabled", header);
+            }
+            return this;
+        }
+
+        /**
+         * Adds {@code header} to the plan unconditionally
+         */
+        public Builder<T> add(@NonNull String header, @NonNull Function<T, String> extractor) {
+            headers.add(header);
+            extractors.add(extractor);
+            return this;
+        }
+
+        @SuppressWarnings("unchecked")
+        public HeaderPlan<T> build() {
+            if (headers.isEmpty()) {
+                return empty();
+            }
+            return new HeaderPlan<>(headers.toArray(String[]::new), extractors.toArray(Function[]::new));
+        }
+    }
+}
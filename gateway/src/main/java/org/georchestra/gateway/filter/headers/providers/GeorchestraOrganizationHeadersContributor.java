@@ -18,12 +18,13 @@
  */
 package org.georchestra.gateway.filter.headers.providers;
 
-import java.util.Optional;
 import java.util.function.Consumer;
 
 import org.georchestra.gateway.filter.headers.HeaderContributor;
+import org.georchestra.gateway.filter.headers.HeaderPlan;
 import org.georchestra.gateway.model.GeorchestraOrganizations;
 import org.georchestra.gateway.model.GeorchestraTargetConfig;
+import org.georchestra.gateway.model.HeaderMappings;
 import org.georchestra.security.model.Organization;
 import org.springframework.http.HttpHeaders;
 import org.springframework.web.server.ServerWebExchange;
@@ -32,14 +33,23 @@ public class GeorchestraOrganizationHeadersContributor extends HeaderContributor
 
     public @Override Consumer<HttpHeaders> prepare(ServerWebExchange exchange) {
         return headers -> {
-            GeorchestraTargetConfig.getTarget(exchange)//
-                    .map(GeorchestraTargetConfig::headers)//
-                    .ifPresent(mappings -> {
-                        Optional<Organization> org = GeorchestraOrganizations.resolve(exchange);
-                        add(headers, "sec-orgname", mappings.getOrgname(), org.map(Organization::getName));
-                        add(headers, "sec-orgid", mappings.getOrgid(), org.map(Organization::getId));
-                        add(headers, "sec-org-lastupdated", mappings.getOrgid(), org.map(Organization::getLastUpdated));
-                    });
+            GeorchestraTargetConfig target = GeorchestraTargetConfig.getTarget(exchange).orElse(null);
+            if (target == null || target.headers() == null) {
+                return;
+            }
+            Organization org = GeorchestraOrganizations.resolve(exchange).orElse(null);
+            if (org != null) {
+                HeaderPlan<Organization> plan = plan(target.headers(), this::compile);
+                plan.apply(org, headers);
+            }
         };
     }
+
+    private HeaderPlan<Organization> compile(HeaderMappings mappings) {
+        return HeaderPlan.<Organization>builder()//
+                .add("sec-orgname", mappings.getOrgname(), Organization::getName)//
+                .add("sec-orgid", mappings.getOrgid(), Organization::getId)//
+                .add("sec-org-lastupdated", mappings.getOrgid(), Organization::getLastUpdated)//
+                .build();
+    }
 }
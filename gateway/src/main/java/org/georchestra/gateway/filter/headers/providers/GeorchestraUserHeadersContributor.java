@@ -19,13 +19,13 @@
 package org.georchestra.gateway.filter.headers.providers;
 
 import java.util.List;
-import java.util.Optional;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
 import org.georchestra.gateway.filter.headers.HeaderContributor;
+import org.georchestra.gateway.filter.headers.HeaderPlan;
 import org.georchestra.gateway.model.GeorchestraTargetConfig;
 import org.georchestra.gateway.model.GeorchestraUsers;
+import org.georchestra.gateway.model.HeaderMappings;
 import org.georchestra.security.model.GeorchestraUser;
 import org.springframework.http.HttpHeaders;
 import org.springframework.web.server.ServerWebExchange;
@@ -40,31 +40,42 @@ public class GeorchestraUserHeadersContributor extends HeaderContributor {
 
     public @Override Consumer<HttpHeaders> prepare(ServerWebExchange exchange) {
         return headers -> {
-            GeorchestraTargetConfig.getTarget(exchange)//
-                    .map(GeorchestraTargetConfig::headers)//
-                    .ifPresent(mappings -> {
-                        Optional<GeorchestraUser> user = GeorchestraUsers.resolve(exchange);
-                        add(headers, "sec-userid", mappings.getUserid(), user.map(GeorchestraUser::getId));
-                        add(headers, "sec-username", mappings.getUsername(), user.map(GeorchestraUser::getUsername));
-                        add(headers, "sec-org", mappings.getOrg(), user.map(GeorchestraUser::getOrganization));
-                        add(headers, "sec-email", mappings.getEmail(), user.map(GeorchestraUser::getEmail));
-                        add(headers, "sec-firstname", mappings.getFirstname(), user.map(GeorchestraUser::getFirstName));
-                        add(headers, "sec-lastname", mappings.getLastname(), user.map(GeorchestraUser::getLastName));
-                        add(headers, "sec-tel", mappings.getTel(), user.map(GeorchestraUser::getTelephoneNumber));
+            GeorchestraTargetConfig target = GeorchestraTargetConfig.getTarget(exchange).orElse(null);
+            if (target == null || target.headers() == null) {
+                return;
+            }
+            GeorchestraUser user = GeorchestraUsers.resolve(exchange).orElse(null);
+            if (user != null) {
+                HeaderPlan<GeorchestraUser> plan = plan(target.headers(), this::compile);
+                plan.apply(user, headers);
+            }
+        };
+    }
 
-                        List<String> roles = user.map(GeorchestraUser::getRoles).orElse(List.of());
+    private HeaderPlan<GeorchestraUser> compile(HeaderMappings mappings) {
+        return HeaderPlan.<GeorchestraUser>builder()//
+                .add("sec-userid", mappings.getUserid(), GeorchestraUser::getId)//
+                .add("sec-username", mappings.getUsername(), GeorchestraUser::getUsername)//
+                .add("sec-org", mappings.getOrg(), GeorchestraUser::getOrganization)//
+                .add("sec-email", mappings.getEmail(), GeorchestraUser::getEmail)//
+                .add("sec-firstname", mappings.getFirstname(), GeorchestraUser::getFirstName)//
+                .add("sec-lastname", mappings.getLastname(), GeorchestraUser::getLastName)//
+                .add("sec-tel", mappings.getTel(), GeorchestraUser::getTelephoneNumber)//
+                .add("sec-roles", mappings.getRoles(), GeorchestraUserHeadersContributor::roles)//
+                .add("sec-lastupdated", mappings.getLastUpdated(), GeorchestraUser::getLastUpdated)//
+                .add("sec-address", mappings.getAddress(), GeorchestraUser::getPostalAddress)//
+                .add("sec-title", mappings.getTitle(), GeorchestraUser::getTitle)//
+                .add("sec-notes", mappings.getNotes(), GeorchestraUser::getNotes)//
+                .add("sec-ldap-remaining-days", GeorchestraUserHeadersContributor::ldapRemainingDays)//
+                .build();
+    }
 
-                        add(headers, "sec-roles", mappings.getRoles(), roles);
+    private static String roles(GeorchestraUser user) {
+        List<String> roles = user.getRoles();
+        return roles == null || roles.isEmpty() ? null : String.join(";", roles);
+    }
 
-                        add(headers, "sec-lastupdated", mappings.getLastUpdated(),
-                                user.map(GeorchestraUser::getLastUpdated));
-                        add(headers, "sec-address", mappings.getAddress(), user.map(GeorchestraUser::getPostalAddress));
-                        add(headers, "sec-title", mappings.getTitle(), user.map(GeorchestraUser::getTitle));
-                        add(headers, "sec-notes", mappings.getNotes(), user.map(GeorchestraUser::getNotes));
-                        add(headers, "sec-ldap-remaining-days", Optional
-                                .of(user.isPresent() && user.get().getLdapWarn() != null && user.get().getLdapWarn()),
-                                user.map(GeorchestraUser::getLdapRemainingDays));
-                    });
-        };
+    private static String ldapRemainingDays(GeorchestraUser user) {
+        return Boolean.TRUE.equals(user.getLdapWarn()) ? user.getLdapRemainingDays() : null;
     }
 }
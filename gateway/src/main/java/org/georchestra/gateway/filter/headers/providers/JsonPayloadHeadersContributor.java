@@ -18,8 +18,12 @@
  */
 package org.georchestra.gateway.filter.headers.providers;
 
-import java.util.Optional;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 import org.georchestra.commons.security.SecurityHeaders;
 import org.georchestra.ds.security.OrganizationsApiImpl;
@@ -36,13 +40,22 @@ import org.springframework.web.server.ServerWebExchange;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.cache.CacheBuilder;
+
+import lombok.RequiredArgsConstructor;
 
 /**
  * Contributes {@literal sec-user} and {@literal sec-organization}
  * Base64-encoded JSON payloads, based on {@link HeaderMappings#getJsonUser()}
  * and {@link HeaderMappings#getJsonOrganization()} matched-route headers
  * configuration.
+ * <p>
+ * Encoded payloads are memoized per {@link GeorchestraUser} and
+ * {@link Organization} instance (resolved users and organizations are cached
+ * and reused across requests), and recomputed if the object's
+ * {@literal lastUpdated} property changed.
  * 
  * @see GeorchestraUsers#resolve
  * @see GeorchestraOrganizations#resolve
@@ -50,17 +63,43 @@ import com.fasterxml.jackson.databind.SerializationFeature;
  */
 public class JsonPayloadHeadersContributor extends HeaderContributor {
 
+    private static final long MAX_CACHED_PAYLOADS = 10_000;
+
     /**
      * Encoder to create the JSON String value for a {@link GeorchestraUser}
      * obtained from {@link OrganizationsApiImpl}
      */
-    private ObjectMapper encoder;
+    private final ObjectWriter encoder;
+
+    /**
+     * The prefix {@link SecurityHeaders#encodeBase64(String)} prepends to the
+     * Base64 encoded value, so that {@link SecurityHeaders#decode(String)} can
+     * tell it apart from a plain value
+     */
+    private final byte[] base64Prefix = SecurityHeaders.encodeBase64("").getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Encoded payloads by user/organization instance (weak keys use identity
+     * comparison)
+     */
+    private final ConcurrentMap<Object, EncodedPayload> payloads = CacheBuilder.newBuilder()//
+            .weakKeys()//
+            .maximumSize(MAX_CACHED_PAYLOADS)//
+            .<Object, EncodedPayload>build()//
+            .asMap();
+
+    @RequiredArgsConstructor
+    private static class EncodedPayload {
+        final String lastUpdated;
+        final String value;
+    }
 
     public JsonPayloadHeadersContributor() {
-        this.encoder = new ObjectMapper();
-        this.encoder.configure(SerializationFeature.INDENT_OUTPUT, Boolean.FALSE);
-        this.encoder.configure(SerializationFeature.WRITE_SINGLE_ELEM_ARRAYS_UNWRAPPED, Boolean.FALSE);
-        this.encoder.setSerializationInclusion(Include.NON_NULL);
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.configure(SerializationFeature.INDENT_OUTPUT, Boolean.FALSE);
+        mapper.configure(SerializationFeature.WRITE_SINGLE_ELEM_ARRAYS_UNWRAPPED, Boolean.FALSE);
+        mapper.setSerializationInclusion(Include.NON_NULL);
+        this.encoder = mapper.writer();
     }
 
     public @Override Consumer<HttpHeaders> prepare(ServerWebExchange exchange) {
@@ -68,32 +107,45 @@ public class JsonPayloadHeadersContributor extends HeaderContributor {
             GeorchestraTargetConfig.getTarget(exchange)//
                     .map(GeorchestraTargetConfig::headers)//
                     .ifPresent(mappings -> {
-                        Optional<GeorchestraUser> user = GeorchestraUsers.resolve(exchange);
-                        Optional<Organization> org = GeorchestraOrganizations.resolve(exchange);
-
-                        addJson(headers, "sec-user", mappings.getJsonUser(), user);
-                        addJson(headers, "sec-organization", mappings.getJsonOrganization(), org);
+                        if (mappings.getJsonUser().orElse(false)) {
+                            GeorchestraUsers.resolve(exchange).ifPresent(
+                                    user -> add(headers, "sec-user", encode(user, GeorchestraUser::getLastUpdated)));
+                        }
+                        if (mappings.getJsonOrganization().orElse(false)) {
+                            GeorchestraOrganizations.resolve(exchange).ifPresent(org -> add(headers,
+                                    "sec-organization", encode(org, Organization::getLastUpdated)));
+                        }
                     });
         };
     }
 
-    private void addJson(HttpHeaders target, String headerName, Optional<Boolean> enabled, Optional<?> toEncode) {
-        if (enabled.orElse(false)) {
-            toEncode.map(this::encodeJson)//
-                    .map(this::encodeBase64)//
-                    .ifPresent(encoded -> target.add(headerName, encoded));
+    private <T> String encode(T payloadObject, Function<T, String> lastUpdated) {
+        final String currentLastUpdated = lastUpdated.apply(payloadObject);
+        EncodedPayload encoded = payloads.get(payloadObject);
+        if (encoded == null || !Objects.equals(currentLastUpdated, encoded.lastUpdated)) {
+            encoded = new EncodedPayload(currentLastUpdated, encodeBase64(encodeJson(payloadObject)));
+            payloads.put(payloadObject, encoded);
         }
+        return encoded.value;
     }
 
-    private String encodeJson(Object payloadObject) {
+    private byte[] encodeJson(Object payloadObject) {
         try {
-            return this.encoder.writer().writeValueAsString(payloadObject);
+            return this.encoder.writeValueAsBytes(payloadObject);
         } catch (JsonProcessingException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private String encodeBase64(String json) {
-        return SecurityHeaders.encodeBase64(json);
+    /**
+     * Equivalent to {@link SecurityHeaders#encodeBase64(String)}, but encoding the
+     * UTF-8 JSON bytes straight into the header value
+     */
+    private String encodeBase64(byte[] json) {
+        final byte[] base64 = Base64.getEncoder().encode(json);
+        final byte[] value = new byte[base64Prefix.length + base64.length];
+        System.arraycopy(base64Prefix, 0, value, 0, base64Prefix.length);
+        System.arraycopy(base64, 0, value, base64Prefix.length, base64.length);
+        return new String(value, StandardCharsets.US_ASCII);
     }
 }
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.model;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Generated;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+
+/**
+ * Externalized configuration properties for the in-memory caches the gateway
+ * uses to avoid hitting the authentication back-ends on every request.
+ * <p>
+ * Each cache is configured through a {@link CacheSpec} under
+ * {@literal georchestra.gateway.cache.<cache-name>}, for example:
+ * 
+ * <pre>
+ * <code>
+ * georchestra:
+ *   gateway:
+ *     cache:
+ *       users:
+ *         enabled: true
+ *         maximum-size: 10000
+ *         time-to-live: 1m
+ * </code>
+ * </pre>
+ */
+@Data
+@Generated
+@ConfigurationProperties("georchestra.gateway.cache")
+public class CacheConfigProperties {
+
+    /**
+     * Cache of {@link org.georchestra.security.model.GeorchestraUser}s resolved
+     * from the request's authentication token, keyed by authentication source,
+     * principal name, and granted authorities.
+     */
+    private UsersCacheSpec users = new UsersCacheSpec();
+
+    /**
+     * Cache of role-based access rule decisions, keyed by matched access rule and
+     * the user's role set. Entries don't expire, so {@literal time-to-live} does
+     * not apply.
+     */
+    private CacheSpec accessDecisions = new CacheSpec();
+
+    /**
+     * Cache of LDAP user lookups by user name or e-mail that found no user, per
+     * LDAP configuration, so that repeated misses don't hit the LDAP server.
+     * Short-lived by default, since new accounts can't be found until the entry
+     * expires.
+     */
+    private CacheSpec negativeLookups = new CacheSpec().setTimeToLive(Duration.ofSeconds(30));
+
+    /**
+     * Users loaded from the LDAP database while authenticating, per LDAP
+     * configuration and login name, kept so that resolving the authenticated
+     * user right after the login doesn't query the LDAP database again. Only
+     * needs to outlive the login request, hence the short default
+     * {@literal time-to-live}.
+     */
+    private CacheSpec authenticatedUsers = new CacheSpec().setTimeToLive(Duration.ofSeconds(30));
+
+    /**
+     * Cache of the LDAP accounts of OpenID Connect users, by OAuth2 provider id,
+     * used when {@literal createNonExistingUsersInLDAP} is enabled.
+     */
+    private CacheSpec oauth2Accounts = new CacheSpec();
+
+    /**
+     * Cache of the organizations of LDAP authenticated users, per LDAP
+     * configuration and organization short name. Entries older than
+     * {@literal time-to-live} are re-validated against the LDAP database.
+     */
+    private CacheSpec organizations = new CacheSpec();
+
+    /**
+     * Pre-loading of the users and organizations of the enabled extended LDAP
+     * configurations at startup
+     */
+    private WarmUp warmUp = new WarmUp();
+
+    /**
+     * Cache of the JSON Web Key sets of the OpenID Connect providers, used to
+     * verify the signature of ID tokens, per JWK set URI
+     */
+    private Jwks jwks = new Jwks();
+
+    /**
+     * Cache of the OpenID Connect providers' user info responses, per client
+     * registration, ID token subject, and granted scopes. Entries expire after
+     * {@literal time-to-live}, or when the access token used to fetch them
+     * expires, whichever comes first. Disabled by default, since the user info
+     * claims of a returning user are not re-fetched until the entry expires.
+     */
+    private CacheSpec userInfo = new CacheSpec().setEnabled(false);
+
+    /**
+     * Size and expiration settings of a single cache
+     */
+    @Data
+    @Generated
+    @Accessors(chain = true)
+    public static class CacheSpec {
+
+        /**
+         * Whether the cache is enabled. If disabled, every lookup goes straight to
+         * the back-end.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Maximum number of entries the cache may contain. Least recently used
+         * entries are evicted once the limit is reached.
+         */
+        private long maximumSize = 10_000;
+
+        /**
+         * Time after which an entry is evicted since it was added to the cache
+         */
+        private Duration timeToLive = Duration.ofMinutes(1);
+    }
+
+    /**
+     * Settings of the resolved users cache, which may be kept in memory or shared
+     * across gateway instances
+     */
+    @Data
+    @Generated
+    @EqualsAndHashCode(callSuper = true)
+    @ToString(callSuper = true)
+    @Accessors(chain = true)
+    public static class UsersCacheSpec extends CacheSpec {
+
+        /**
+         * Where resolved users are cached. {@code memory} keeps them local to the
+         * gateway instance, {@code shared} uses a cache obtained from the
+         * application's Spring {@code CacheManager} (e.g. Redis, as configured
+         * through the {@literal spring.cache.*} properties), so a user resolved by
+         * one gateway instance is served from cache by the others.
+         */
+        private Backend backend = Backend.MEMORY;
+
+        /**
+         * Name of the cache to obtain from the {@code CacheManager} when
+         * {@link #getBackend() backend} is {@code shared}
+         */
+        private String sharedCacheName = "georchestra.users";
+
+        public static enum Backend {
+            MEMORY, SHARED
+        }
+    }
+
+    /**
+     * Settings of the startup warm-up, that pre-loads the users and organizations
+     * of each enabled extended LDAP configuration in the background once the
+     * application is ready, to avoid all active users hitting the LDAP database
+     * at once after a restart
+     */
+    @Data
+    @Generated
+    @Accessors(chain = true)
+    public static class WarmUp {
+
+        /**
+         * Whether to pre-load LDAP users and organizations at startup
+         */
+        private boolean enabled = false;
+
+        /**
+         * Whether to pre-load users
+         */
+        private boolean users = true;
+
+        /**
+         * Whether to pre-load organizations into the {@literal organizations}
+         * cache
+         */
+        private boolean organizations = true;
+
+        /**
+         * Maximum number of pre-loaded users kept, across all LDAP configurations
+         */
+        private long maximumSize = 100_000;
+    }
+
+    /**
+     * Settings of the JSON Web Key sets cache. JWK sets are re-fetched in the
+     * background once older than {@literal time-to-live} minus
+     * {@literal refresh-ahead}, and right away when a token is signed with an
+     * unknown key id (e.g. after a key rotation), at most once every
+     * {@literal min-refetch-interval}
+     */
+    @Data
+    @Generated
+    @Accessors(chain = true)
+    public static class Jwks {
+
+        /**
+         * Whether to cache JWK sets. If disabled, each OpenID Connect registration
+         * and signature algorithm still reuses its own JWT decoder, which keeps
+         * the JWK set it fetched until a token with an unknown key id shows up.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Time after which a JWK set must be fetched again before verifying a
+         * token. If fetching fails, the expired JWK set keeps being used.
+         */
+        private Duration timeToLive = Duration.ofMinutes(5);
+
+        /**
+         * How long before expiring a JWK set is re-fetched in the background,
+         * without delaying token verification
+         */
+        private Duration refreshAhead = Duration.ofSeconds(30);
+
+        /**
+         * Minimum time between two fetches of a JWK set triggered by unknown key
+         * ids or refresh-ahead, so that tokens with bogus key ids can't flood the
+         * OpenID Connect provider
+         */
+        private Duration minRefetchInterval = Duration.ofSeconds(30);
+    }
+}
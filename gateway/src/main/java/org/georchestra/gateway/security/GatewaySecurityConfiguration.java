@@ -19,20 +19,35 @@
 package org.georchestra.gateway.security;
 
 import lombok.extern.slf4j.Slf4j;
+import org.georchestra.gateway.model.CacheConfigProperties;
+import org.georchestra.gateway.model.CacheConfigProperties.UsersCacheSpec;
+import org.georchestra.gateway.model.CacheConfigProperties.UsersCacheSpec.Backend;
 import org.georchestra.gateway.model.GatewayConfigProperties;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.config.web.server.ServerHttpSecurity.LogoutSpec;
 import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.authentication.logout.DelegatingServerLogoutHandler;
+import org.springframework.security.web.server.authentication.logout.SecurityContextServerLogoutHandler;
+import org.springframework.security.web.server.authentication.logout.ServerLogoutHandler;
 import org.springframework.security.web.server.authentication.logout.ServerLogoutSuccessHandler;
 
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import reactor.core.publisher.Mono;
+
 /**
  * {@link Configuration} to initialize the Gateway's
  * {@link SecurityWebFilterChain} during application start up, such as
@@ -48,7 +63,7 @@ import java.util.stream.Stream;
  */
 @Configuration(proxyBeanMethods = false)
 @EnableWebFluxSecurity
-@EnableConfigurationProperties({ GatewayConfigProperties.class })
+@EnableConfigurationProperties({ GatewayConfigProperties.class, CacheConfigProperties.class })
 @Slf4j(topic = "org.georchestra.gateway.security")
 public class GatewaySecurityConfiguration {
 
@@ -63,7 +78,7 @@ public class GatewaySecurityConfiguration {
 
     @Bean
     public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http,
-            List<ServerHttpSecurityCustomizer> customizers) throws Exception {
+            List<ServerHttpSecurityCustomizer> customizers, ResolvedUserCache resolvedUserCache) throws Exception {
 
         log.info("Initializing security filter chain...");
         // disable csrf and cors or the websocket connection gets a 403 Forbidden.
@@ -82,25 +97,89 @@ public class GatewaySecurityConfiguration {
 
         log.info("Security filter chain initialized");
 
+        LogoutSpec logout = http.formLogin().loginPage("/login").and().logout().logoutUrl("/logout")
+                .logoutHandler(logoutHandler(resolvedUserCache));
         if (oidcLogoutSuccessHandler != null) {
-            return http.formLogin().loginPage("/login").and().logout().logoutUrl("/logout")
-                    .logoutSuccessHandler(oidcLogoutSuccessHandler).and().build();
-        } else {
-            return http.formLogin().loginPage("/login").and().logout().logoutUrl("/logout").and().build();
+            logout.logoutSuccessHandler(oidcLogoutSuccessHandler);
         }
+        return logout.and().build();
+    }
+
+    /**
+     * Setting a logout handler replaces the default
+     * {@link SecurityContextServerLogoutHandler}, so we keep it and add one to
+     * evict the logged out user from the {@link ResolvedUserCache} and the web
+     * session
+     */
+    private ServerLogoutHandler logoutHandler(ResolvedUserCache resolvedUserCache) {
+        ServerLogoutHandler evictUser = (exchange, authentication) -> Mono
+                .fromRunnable(() -> resolvedUserCache.invalidate(authentication))//
+                .then(exchange.getExchange().getSession())//
+                .doOnNext(GeorchestraUserMapper::invalidate)//
+                .then();
+        return new DelegatingServerLogoutHandler(new SecurityContextServerLogoutHandler(), evictUser);
     }
 
     private Stream<ServerHttpSecurityCustomizer> sortedCustomizers(List<ServerHttpSecurityCustomizer> customizers) {
         return customizers.stream().sorted((c1, c2) -> Integer.compare(c1.getOrder(), c2.getOrder()));
     }
 
+    /**
+     * Users resolved for a web session are reused for as long as they'd be kept in
+     * the {@link ResolvedUserCache}, and resolved on every request if it's
+     * disabled
+     */
     public @Bean GeorchestraUserMapper georchestraUserResolver(List<GeorchestraUserMapperExtension> resolvers,
-            List<GeorchestraUserCustomizerExtension> customizers) {
-        return new GeorchestraUserMapper(resolvers, customizers);
+            List<GeorchestraUserCustomizerExtension> customizers, ResolvedUserCache resolvedUserCache,
+            CacheConfigProperties config) {
+        GeorchestraUserMapper mapper = new GeorchestraUserMapper(resolvers, customizers, resolvedUserCache);
+        UsersCacheSpec spec = config.getUsers();
+        if (spec.isEnabled()) {
+            mapper.setSessionTimeToLive(spec.getTimeToLive());
+        }
+        return mapper;
+    }
+
+    /**
+     * Cache of users resolved by {@link GeorchestraUserMapper}, configured through
+     * {@link CacheConfigProperties#getUsers()}, either in-memory or shared across
+     * gateway instances through the application's {@link CacheManager}
+     */
+    public @Bean ResolvedUserCache resolvedUserCache(CacheConfigProperties config,
+            ObjectProvider<CacheManager> cacheManager) {
+        UsersCacheSpec spec = config.getUsers();
+        if (spec.isEnabled() && spec.getBackend() == Backend.SHARED) {
+            CacheManager manager = cacheManager.getIfAvailable();
+            if (manager == null) {
+                throw new IllegalStateException(
+                        "georchestra.gateway.cache.users.backend is shared, but no CacheManager is configured");
+            }
+            Cache cache = manager.getCache(spec.getSharedCacheName());
+            if (cache == null) {
+                throw new IllegalStateException("CacheManager " + manager.getClass().getName()
+                        + " does not provide cache " + spec.getSharedCacheName());
+            }
+            return new SharedResolvedUserCache(cache, spec.getTimeToLive());
+        }
+        return new InMemoryResolvedUserCache(spec);
+    }
+
+    /**
+     * Enables Spring Boot's cache auto-configuration, so that a
+     * {@link CacheManager} is available for the shared resolved users cache,
+     * according to the {@literal spring.cache.*} configuration properties (e.g.
+     * {@literal spring.cache.type=redis})
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnProperty(name = "georchestra.gateway.cache.users.backend", havingValue = "shared")
+    @EnableCaching
+    static class SharedResolvedUserCacheConfiguration {
     }
 
-    public @Bean ResolveGeorchestraUserGlobalFilter resolveGeorchestraUserGlobalFilter(GeorchestraUserMapper resolver) {
-        return new ResolveGeorchestraUserGlobalFilter(resolver);
+    public @Bean ResolveGeorchestraUserGlobalFilter resolveGeorchestraUserGlobalFilter(GeorchestraUserMapper resolver,
+            ObjectProvider<GeorchestraOrganizationResolverExtension> organizationResolvers) {
+        return new ResolveGeorchestraUserGlobalFilter(resolver,
+                organizationResolvers.orderedStream().collect(Collectors.toList()));
     }
 
     /**
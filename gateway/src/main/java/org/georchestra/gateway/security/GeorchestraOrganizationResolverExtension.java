@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security;
+
+import org.georchestra.gateway.model.GeorchestraOrganizations;
+import org.georchestra.security.model.GeorchestraUser;
+import org.georchestra.security.model.Organization;
+import org.springframework.core.Ordered;
+import org.springframework.security.core.Authentication;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Extension point to resolve the {@link Organization} of an authenticated
+ * {@link GeorchestraUser}.
+ * <p>
+ * Beans of this type will be asked by {@link ResolveGeorchestraUserGlobalFilter}
+ * to obtain the user's organization once the user is resolved, in order, and
+ * the first one returned is {@link GeorchestraOrganizations#store stored} in
+ * the exchange. An instance that knows where to look up organizations for the
+ * kind of authentication represented by the token shall return a non-empty
+ * organization.
+ */
+public interface GeorchestraOrganizationResolverExtension extends Ordered {
+
+    /**
+     * @return the organization of {@code user}, or an empty {@link Mono} if this
+     *         instance can't resolve it
+     */
+    Mono<Organization> resolve(Authentication authToken, GeorchestraUser user);
+
+    default int getOrder() {
+        return 0;
+    }
+}
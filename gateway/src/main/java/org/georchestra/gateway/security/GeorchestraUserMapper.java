@@ -18,16 +18,36 @@
  */
 package org.georchestra.gateway.security;
 
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.georchestra.gateway.events.LdapModificationEvent;
 import org.georchestra.gateway.model.GeorchestraUsers;
+import org.georchestra.gateway.security.ResolvedUserCache.Key;
 import org.georchestra.security.model.GeorchestraUser;
+import org.springframework.context.event.EventListener;
 import org.springframework.core.Ordered;
 import org.springframework.security.core.Authentication;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebSession;
+
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
 
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 /**
  * Aids {@link ResolveGeorchestraUserGlobalFilter} in resolving the
@@ -48,6 +68,19 @@ import lombok.RequiredArgsConstructor;
  * any additional customization to the {@link GeorchestraUser} object after it
  * has been extracted from the {@link Authentication} created by the actual
  * authentication provider.
+ * <p>
+ * {@link #resolveReactive(Authentication, ServerWebExchange)} memoizes the
+ * resolved user for the request, and, if a {@link #setSessionTimeToLive session
+ * time to live} is set, keeps a read-only snapshot of it in the request's
+ * {@link WebSession}, so that the extensions only run again once the snapshot
+ * expires, or the session's authentication changes (e.g. different granted
+ * authorities, or a new login).
+ * <p>
+ * Upon {@link LdapModificationEvent}s, evicts the affected users from the
+ * {@link ResolvedUserCache}, and discards their session snapshots: those of the
+ * modified user, or all of them if a role was modified, or a user modification
+ * doesn't tell which user. Organization modifications don't affect resolved
+ * users.
  * 
  * @see GeorchestraUserMapperExtension
  * @see GeorchestraUserCustomizerExtension
@@ -62,6 +95,41 @@ public class GeorchestraUserMapper {
 
     private final @NonNull List<GeorchestraUserCustomizerExtension> customizers;
 
+    private final @NonNull ResolvedUserCache cache;
+
+    /**
+     * {@link WebSession} attribute holding the {@link SessionUser} resolved for
+     * the session's authentication
+     */
+    static final String SESSION_USER_ATTRIBUTE = GeorchestraUserMapper.class.getName() + ".user";
+
+    private static final ObjectMapper COPIER = new ObjectMapper()//
+            .setSerializationInclusion(Include.NON_NULL)//
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * How long users resolved for a web session are reused, {@code null} if they
+     * aren't
+     */
+    private Duration sessionTimeToLive;
+
+    /**
+     * Incremented upon LDAP modifications that may affect any user, session
+     * snapshots taken with a previous generation are discarded
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    static final int MAXIMUM_MODIFIED_USERS = 10_000;
+
+    /**
+     * Time of the last LDAP modification of each user, by user name, kept for the
+     * session time to live, since older snapshots are discarded anyway. Session
+     * snapshots of a user resolved before it was modified are discarded. If the
+     * limit is reached, the generation is incremented instead of forgetting a
+     * modification. {@code null} if session snapshots are disabled.
+     */
+    private volatile Cache<String, Long> modifiedUsers;
+
     GeorchestraUserMapper() {
         this(List.of(), List.of());
     }
@@ -70,6 +138,30 @@ public class GeorchestraUserMapper {
         this(resolvers, List.of());
     }
 
+    public GeorchestraUserMapper(List<GeorchestraUserMapperExtension> resolvers,
+            List<GeorchestraUserCustomizerExtension> customizers) {
+        this(resolvers, customizers, ResolvedUserCache.disabled());
+    }
+
+    /**
+     * @param sessionTimeToLive how long to reuse the user resolved for a web
+     *                          session, or {@code null} to resolve it on every
+     *                          request
+     */
+    public void setSessionTimeToLive(Duration sessionTimeToLive) {
+        this.sessionTimeToLive = sessionTimeToLive;
+        this.modifiedUsers = sessionTimeToLive == null ? null
+                : CacheBuilder.newBuilder()//
+                        .maximumSize(MAXIMUM_MODIFIED_USERS)//
+                        .expireAfterWrite(sessionTimeToLive)//
+                        .<String, Long>removalListener(notification -> {
+                            if (notification.getCause() == RemovalCause.SIZE) {
+                                generation.incrementAndGet();
+                            }
+                        })//
+                        .build();
+    }
+
     /**
      * @return the first non-empty user from
      *         {@link GeorchestraUserMapperExtension#resolve asking} the extension
@@ -78,6 +170,146 @@ public class GeorchestraUserMapper {
      *         handle the auth token.
      */
     public Optional<GeorchestraUser> resolve(@NonNull Authentication authToken) {
+        return cache.get(authToken, this::doResolve);
+    }
+
+    /**
+     * Reactive variant of {@link #resolve(Authentication)}, composing the
+     * extensions' {@link GeorchestraUserMapperExtension#resolveReactive reactive}
+     * mapping in order, so that implementations performing blocking I/O don't
+     * block the calling thread.
+     * 
+     * @return the first user {@link GeorchestraUserMapperExtension#resolveReactive
+     *         resolved} by the extension point implementations, or an empty
+     *         {@link Mono} if no extension point implementation can handle the
+     *         auth token.
+     */
+    public Mono<GeorchestraUser> resolveReactive(@NonNull Authentication authToken) {
+        return cache.getReactive(authToken, this::doResolveReactive);
+    }
+
+    /**
+     * Resolves the user for the given request, reusing the one already
+     * {@link GeorchestraUsers#store stored} in the exchange, or the snapshot
+     * kept in its {@link WebSession} if still valid for {@code authToken}.
+     * <p>
+     * Snapshots are only kept for sessions that have already been started (e.g.
+     * by a form or OpenID Connect login), so stateless requests don't start a new
+     * session.
+     * 
+     * @return the resolved user, or an empty {@link Mono} if no extension point
+     *         implementation can handle the auth token. Users coming from the
+     *         session snapshot have read-only {@link GeorchestraUser#getRoles()
+     *         roles}.
+     */
+    public Mono<GeorchestraUser> resolveReactive(@NonNull Authentication authToken,
+            @NonNull ServerWebExchange exchange) {
+        Optional<GeorchestraUser> resolved = GeorchestraUsers.resolve(exchange);
+        if (resolved.isPresent()) {
+            return Mono.just(resolved.get());
+        }
+        if (sessionTimeToLive == null) {
+            return resolveReactive(authToken);
+        }
+        return exchange.getSession().flatMap(session -> resolveReactive(authToken, session));
+    }
+
+    private Mono<GeorchestraUser> resolveReactive(Authentication authToken, WebSession session) {
+        if (!session.isStarted()) {
+            return resolveReactive(authToken);
+        }
+        final String fingerprint = SessionUser.fingerprint(authToken, generation.get());
+        final long now = System.currentTimeMillis();
+        Object attribute = session.getAttributes().get(SESSION_USER_ATTRIBUTE);
+        if (attribute instanceof SessionUser) {
+            SessionUser snapshot = (SessionUser) attribute;
+            if (snapshot.isValid(fingerprint, now, sessionTimeToLive) && !isModifiedSince(snapshot.getResolvedAt(),
+                    authToken.getName(), snapshot.getUser().getUsername())) {
+                return Mono.just(snapshot.getUser());
+            }
+        }
+        return resolveReactive(authToken).map(user -> {
+            GeorchestraUser readOnly = readOnlyCopy(user);
+            session.getAttributes().put(SESSION_USER_ATTRIBUTE, new SessionUser(fingerprint, now, readOnly));
+            return readOnly;
+        });
+    }
+
+    /**
+     * @return whether any of {@code names} was modified at or after
+     *         {@code resolvedAt}
+     */
+    private boolean isModifiedSince(long resolvedAt, String... names) {
+        final Cache<String, Long> modified = this.modifiedUsers;
+        if (modified == null) {
+            return false;
+        }
+        for (String name : names) {
+            Long modifiedAt = name == null ? null : modified.getIfPresent(name);
+            if (modifiedAt != null && modifiedAt >= resolvedAt) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evicts the users that may be affected by an LDAP modification: the modified
+     * user, or all of them if a role was modified, since there's no telling which
+     * users it affects. Organization modifications are ignored.
+     */
+    @EventListener(LdapModificationEvent.class)
+    public void onLdapModification(LdapModificationEvent event) {
+        switch (event.getType()) {
+        case USER:
+            event.getName().ifPresentOrElse(this::invalidateUser, this::invalidateAll);
+            break;
+        case ROLE:
+            invalidateAll();
+            break;
+        default:
+            break;
+        }
+    }
+
+    private void invalidateUser(String username) {
+        final Cache<String, Long> modified = this.modifiedUsers;
+        if (modified != null) {
+            modified.put(username, System.currentTimeMillis());
+        }
+        cache.invalidatePrincipal(username);
+    }
+
+    private void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    /**
+     * Removes the user snapshot from the given session, if any. For example, upon
+     * logout.
+     */
+    public static void invalidate(@NonNull WebSession session) {
+        session.getAttributes().remove(SESSION_USER_ATTRIBUTE);
+    }
+
+    private static GeorchestraUser readOnlyCopy(GeorchestraUser user) {
+        GeorchestraUser copy = COPIER.convertValue(user, GeorchestraUser.class);
+        List<String> roles = copy.getRoles();
+        if (roles != null) {
+            copy.setRoles(Collections.unmodifiableList(new ArrayList<>(roles)));
+        }
+        return copy;
+    }
+
+    private Mono<GeorchestraUser> doResolveReactive(Authentication authToken) {
+        return Flux.fromIterable(resolvers)//
+                .concatMap(resolver -> resolver.resolveReactive(authToken))//
+                .next()//
+                .map(this::customize);
+    }
+
+    private Optional<GeorchestraUser> doResolve(Authentication authToken) {
         return resolvers.stream()//
                 .map(resolver -> resolver.resolve(authToken))//
                 .filter(Optional::isPresent)//
@@ -92,4 +324,32 @@ public class GeorchestraUserMapper {
         }
         return customized;
     }
-}
\ No newline at end of file
+
+    /**
+     * Snapshot of the user resolved for a web session, valid as long as the
+     * session's authentication {@link #fingerprint} doesn't change
+     */
+    @Value
+    static class SessionUser implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private String fingerprint;
+        private long resolvedAt;
+        private GeorchestraUser user;
+
+        /**
+         * @return the {@link Key cache key} of {@code auth}, which changes with its
+         *         granted authorities, plus its hash code, which changes on
+         *         re-authentication for token based authentications (e.g. a new
+         *         OpenID Connect ID token), plus the mapper's LDAP modifications
+         *         generation
+         */
+        static String fingerprint(Authentication auth, long generation) {
+            return Key.of(auth).asString() + "|" + Integer.toHexString(auth.hashCode()) + "|" + generation;
+        }
+
+        boolean isValid(String fingerprint, long now, Duration timeToLive) {
+            return this.fingerprint.equals(fingerprint) && now - resolvedAt < timeToLive.toMillis();
+        }
+    }
+}
@@ -25,6 +25,8 @@ import org.georchestra.security.model.GeorchestraUser;
 import org.springframework.core.Ordered;
 import org.springframework.security.core.Authentication;
 
+import reactor.core.publisher.Mono;
+
 /**
  * Extension point to decouple the authentication origin from the logic to
  * convey geOrchestra-specific HTTP security request headers to back-end
@@ -44,6 +46,24 @@ public interface GeorchestraUserMapperExtension extends Ordered {
      */
     Optional<GeorchestraUser> resolve(Authentication authToken);
 
+    /**
+     * Reactive variant of {@link #resolve(Authentication)}, used by
+     * {@link GeorchestraUserMapper} to resolve the user while processing a
+     * request.
+     * <p>
+     * The default implementation calls {@link #resolve(Authentication)} on the
+     * subscribing thread. Implementations performing blocking I/O (e.g. LDAP
+     * queries) shall override it to run on a dedicated scheduler instead of the
+     * reactive server's event loop.
+     * 
+     * @return the mapped {@link GeorchestraUser} based on the provided auth token,
+     *         or an empty {@link Mono} if this instance can't perform such
+     *         mapping.
+     */
+    default Mono<GeorchestraUser> resolveReactive(Authentication authToken) {
+        return Mono.fromSupplier(() -> resolve(authToken).orElse(null));
+    }
+
     default int getOrder() {
         return 0;
     }
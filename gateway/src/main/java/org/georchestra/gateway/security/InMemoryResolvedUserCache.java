@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security;
+
+import java.util.Optional;
+
+import org.georchestra.gateway.model.CacheConfigProperties.CacheSpec;
+import org.georchestra.security.model.GeorchestraUser;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bounded, time-to-live, in-memory {@link ResolvedUserCache}, local to the
+ * gateway instance.
+ * <p>
+ * Publishes the {@literal cache.gets}
+ * (hit/miss), {@literal cache.evictions}, {@literal cache.puts}, and
+ * {@literal cache.size} metrics under the {@literal cache=georchestra.users}
+ * tag.
+ */
+@Slf4j(topic = "org.georchestra.gateway.security")
+public class InMemoryResolvedUserCache implements ResolvedUserCache {
+
+    private final Cache<Key, GeorchestraUser> cache;
+
+    public InMemoryResolvedUserCache(@NonNull CacheSpec spec) {
+        if (spec.isEnabled()) {
+            log.info("Resolved users cache enabled, maximum size: {}, time to live: {}", spec.getMaximumSize(),
+                    spec.getTimeToLive());
+            this.cache = CacheBuilder.newBuilder()//
+                    .maximumSize(spec.getMaximumSize())//
+                    .expireAfterWrite(spec.getTimeToLive())//
+                    .recordStats()//
+                    .build();
+        } else {
+            log.info("Resolved users cache disabled");
+            this.cache = null;
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    @Override
+    public Optional<GeorchestraUser> getIfPresent(@NonNull Key key) {
+        return isEnabled() ? Optional.ofNullable(cache.getIfPresent(key)) : Optional.empty();
+    }
+
+    @Override
+    public void put(@NonNull Key key, @NonNull GeorchestraUser user) {
+        if (isEnabled()) {
+            cache.put(key, user);
+        }
+    }
+
+    @Override
+    public void evict(@NonNull Key key) {
+        if (isEnabled()) {
+            cache.invalidate(key);
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        if (isEnabled()) {
+            cache.invalidateAll();
+        }
+    }
+
+    @Override
+    public void invalidatePrincipal(@NonNull String principal) {
+        if (isEnabled()) {
+            // users may log in with their e-mail, so also match the resolved user name
+            cache.asMap().entrySet().removeIf(e -> principal.equals(e.getKey().getPrincipal())
+                    || principal.equals(e.getValue().getUsername()));
+        }
+    }
+
+    @VisibleForTesting
+    long size() {
+        return isEnabled() ? cache.size() : 0;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (isEnabled()) {
+            GuavaCacheMetrics.monitor(registry, cache, CACHE_NAME);
+        }
+    }
+}
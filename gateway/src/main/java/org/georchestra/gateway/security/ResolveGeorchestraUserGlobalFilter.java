@@ -18,9 +18,13 @@
  */
 package org.georchestra.gateway.security;
 
+import java.util.List;
+
+import org.georchestra.gateway.model.GeorchestraOrganizations;
 import org.georchestra.gateway.model.GeorchestraTargetConfig;
 import org.georchestra.gateway.model.GeorchestraUsers;
 import org.georchestra.security.model.GeorchestraUser;
+import org.georchestra.security.model.Organization;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.cloud.gateway.filter.GlobalFilter;
 import org.springframework.cloud.gateway.filter.RouteToRequestUrlFilter;
@@ -32,6 +36,7 @@ import org.springframework.web.server.ServerWebExchange;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 /**
@@ -42,8 +47,14 @@ import reactor.core.publisher.Mono;
  * The resolved per-request {@link GeorchestraUser user} object can then, for
  * example, be used to append the necessary {@literal sec-*} headers that relate
  * to user information to proxied http requests.
+ * <p>
+ * Once the user is resolved, its {@link Organization} is resolved by the first
+ * {@link GeorchestraOrganizationResolverExtension} that can, and
+ * {@link GeorchestraOrganizations#store stored} in the exchange as well. Failing
+ * to resolve the organization does not fail the request.
  * 
  * @see GeorchestraUserMapper
+ * @see GeorchestraOrganizationResolverExtension
  */
 @RequiredArgsConstructor
 @Slf4j(topic = "org.georchestra.gateway.security")
@@ -53,6 +64,15 @@ public class ResolveGeorchestraUserGlobalFilter implements GlobalFilter, Ordered
 
     private final @NonNull GeorchestraUserMapper resolver;
 
+    /**
+     * {@link Ordered ordered} list of organization resolver extensions
+     */
+    private final @NonNull List<GeorchestraOrganizationResolverExtension> organizationResolvers;
+
+    public ResolveGeorchestraUserGlobalFilter(GeorchestraUserMapper resolver) {
+        this(resolver, List.of());
+    }
+
     /**
      * @return a lower precedence than {@link RouteToRequestUrlFilter}'s, in order
      *         to make sure the matched {@link Route} has been set as a
@@ -74,10 +94,28 @@ public class ResolveGeorchestraUserGlobalFilter implements GlobalFilter, Ordered
                 .doOnNext(p -> log.debug("resolving user from {}", p.getClass().getName()))//
                 .filter(Authentication.class::isInstance)//
                 .map(Authentication.class::cast)//
-                .map(resolver::resolve)//
-                .map(user -> GeorchestraUsers.store(exchange, user.orElse(null)))//
+                .flatMap(auth -> resolver.resolveReactive(auth, exchange)//
+                        .flatMap(user -> resolveOrganization(auth, user, exchange)//
+                                .thenReturn(GeorchestraUsers.store(exchange, user)))//
+                        .defaultIfEmpty(exchange))//
                 .defaultIfEmpty(exchange)//
                 .flatMap(chain::filter);
     }
 
+    private Mono<Void> resolveOrganization(Authentication auth, GeorchestraUser user, ServerWebExchange exchange) {
+        if (organizationResolvers.isEmpty() || GeorchestraOrganizations.resolve(exchange).isPresent()) {
+            return Mono.empty();
+        }
+        return Flux.fromIterable(organizationResolvers)//
+                .concatMap(orgResolver -> orgResolver.resolve(auth, user))//
+                .next()//
+                .doOnNext(org -> GeorchestraOrganizations.store(exchange, org))//
+                .onErrorResume(e -> {
+                    log.warn("Error resolving organization {} of user {}", user.getOrganization(),
+                            user.getUsername(), e);
+                    return Mono.empty();
+                })//
+                .then();
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.georchestra.gateway.model.CacheConfigProperties.CacheSpec;
+import org.georchestra.security.model.GeorchestraUser;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.ldap.userdetails.LdapUserDetails;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+
+import com.google.common.hash.Hashing;
+
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+import lombok.Value;
+import reactor.core.publisher.Mono;
+
+/**
+ * Service provider interface for the cache of {@link GeorchestraUser}s resolved
+ * by {@link GeorchestraUserMapper}, so that the authentication back-ends (e.g.
+ * LDAP) are not hit on every proxied request.
+ * <p>
+ * Entries are keyed by the {@link Authentication} identity, that is, the
+ * authentication source (e.g. OAuth2 client registration id or LDAP user DN),
+ * the principal name, and the granted authorities, so a change in any of them
+ * results in a cache miss.
+ * <p>
+ * Implementations only provide the storage primitives,
+ * {@link #getIfPresent(Key)}, {@link #put(Key, GeorchestraUser)},
+ * {@link #evict(Key)}, {@link #invalidatePrincipal(String)}, and
+ * {@link #invalidateAll()}, and publish their metrics
+ * under the {@link #CACHE_NAME} cache tag as a {@link MeterBinder}.
+ *
+ * @see InMemoryResolvedUserCache
+ * @see SharedResolvedUserCache
+ */
+public interface ResolvedUserCache extends MeterBinder {
+
+    String CACHE_NAME = "georchestra.users";
+
+    /**
+     * @return a cache that always delegates to the loader function
+     */
+    static ResolvedUserCache disabled() {
+        return new InMemoryResolvedUserCache(new CacheSpec().setEnabled(false));
+    }
+
+    boolean isEnabled();
+
+    Optional<GeorchestraUser> getIfPresent(@NonNull Key key);
+
+    void put(@NonNull Key key, @NonNull GeorchestraUser user);
+
+    void evict(@NonNull Key key);
+
+    void invalidateAll();
+
+    /**
+     * Returns the cached user for the given authentication token, or resolves it
+     * through {@code loader} and caches it if present.
+     */
+    default Optional<GeorchestraUser> get(@NonNull Authentication auth,
+            @NonNull Function<Authentication, Optional<GeorchestraUser>> loader) {
+        if (!isEnabled()) {
+            return loader.apply(auth);
+        }
+        final Key key = Key.of(auth);
+        Optional<GeorchestraUser> cached = getIfPresent(key);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        Optional<GeorchestraUser> resolved = loader.apply(auth);
+        resolved.ifPresent(user -> put(key, user));
+        return resolved;
+    }
+
+    /**
+     * Reactive variant of {@link #get(Authentication, Function)}
+     */
+    default Mono<GeorchestraUser> getReactive(@NonNull Authentication auth,
+            @NonNull Function<Authentication, Mono<GeorchestraUser>> loader) {
+        if (!isEnabled()) {
+            return loader.apply(auth);
+        }
+        return Mono.defer(() -> {
+            final Key key = Key.of(auth);
+            return Mono.justOrEmpty(getIfPresent(key))//
+                    .switchIfEmpty(Mono.defer(() -> loader.apply(auth).doOnNext(user -> put(key, user))));
+        });
+    }
+
+    /**
+     * Evicts the user resolved for the given authentication token, if cached. For
+     * example, upon logout.
+     */
+    default void invalidate(Authentication auth) {
+        if (isEnabled() && auth != null) {
+            evict(Key.of(auth));
+        }
+    }
+
+    /**
+     * Evicts the users resolved for the given principal name, regardless of their
+     * authentication source and authorities. Also evicts the users whose
+     * {@link GeorchestraUser#getUsername() user name} is {@code principal}, since
+     * they may have logged in with another principal name, like their e-mail
+     * address.
+     */
+    void invalidatePrincipal(@NonNull String principal);
+
+    /**
+     * Cache key identifying an {@link Authentication} by its source, principal
+     * name, and granted authorities
+     */
+    @Value
+    class Key {
+        private String source;
+        private String principal;
+        /**
+         * Sorted, immutable authority names
+         */
+        private List<String> authorities;
+
+        public static Key of(@NonNull Authentication auth) {
+            return new Key(source(auth), auth.getName(), authorityNames(auth.getAuthorities()));
+        }
+
+        /**
+         * @return a string representation of the key suitable for external
+         *         key-value stores, with the SHA-256 digest of the authority names
+         */
+        public String asString() {
+            String digest = Hashing.sha256().hashString(String.join("\0", authorities), UTF_8).toString();
+            return String.format("%s|%s|%s", source, principal, digest);
+        }
+
+        private static String source(Authentication auth) {
+            final String type = auth.getClass().getName();
+            if (auth instanceof OAuth2AuthenticationToken) {
+                return type + ":" + ((OAuth2AuthenticationToken) auth).getAuthorizedClientRegistrationId();
+            }
+            if (auth.getPrincipal() instanceof LdapUserDetails) {
+                return type + ":" + ((LdapUserDetails) auth.getPrincipal()).getDn();
+            }
+            return type;
+        }
+
+        private static List<String> authorityNames(Collection<? extends GrantedAuthority> authorities) {
+            if (authorities == null || authorities.isEmpty()) {
+                return List.of();
+            }
+            return authorities.stream()//
+                    .map(GrantedAuthority::getAuthority)//
+                    .sorted()//
+                    .collect(Collectors.toUnmodifiableList());
+        }
+    }
+}
@@ -16,14 +16,16 @@
  * You should have received a copy of the GNU General Public License along with
  * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package org.georchestra.gateway.security;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -32,7 +34,11 @@ import org.georchestra.security.model.GeorchestraUser;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
@@ -41,12 +47,34 @@ import lombok.extern.slf4j.Slf4j;
 /**
  * Authenticated user customizer extension to expand the set of role names
  * assigned to a user by the actual authentication provider
+ * <p>
+ * Mapping keys without wildcards are looked up by exact role name, while keys
+ * with {@literal *} wildcards are indexed by their literal prefix, so that
+ * only the patterns whose prefix matches a role name are evaluated. The
+ * additional roles are memoized per role name, and the expanded role list per
+ * user role list.
+ * <p>
+ * Implements {@link MeterBinder} to publish the standard {@literal cache.*}
+ * metrics of both memoization caches, tagged {@literal cache=}
+ * {@value #ROLES_CACHE_NAME} and {@value #ROLE_SETS_CACHE_NAME} respectively.
  */
 @Slf4j
-public class RolesMappingsUserCustomizer implements GeorchestraUserCustomizerExtension {
+public class RolesMappingsUserCustomizer implements GeorchestraUserCustomizerExtension, MeterBinder {
+
+    static final String ROLES_CACHE_NAME = "georchestra.roles.mappings";
+    static final String ROLE_SETS_CACHE_NAME = "georchestra.roles.mappings.sets";
+
+    private static final int MAXIMUM_CACHE_SIZE = 10_000;
+
+    /**
+     * Matches any regular expression meta character other than {@literal .} and
+     * {@literal *}, which {@link #toPattern} translates
+     */
+    private static final Pattern REGEX_META_CHARS = Pattern.compile("[\\\\\\[\\](){}?+^$|]");
 
     @RequiredArgsConstructor
     private static class Matcher {
+        private final int order;
         private final @NonNull Pattern pattern;
         private final @NonNull @Getter List<String> extraRoles;
 
@@ -59,21 +87,86 @@ public class RolesMappingsUserCustomizer implements GeorchestraUserCustomizerExt
         }
     }
 
+    /**
+     * Character trie of the wildcard patterns' literal prefixes (the key up to the
+     * first {@literal *})
+     */
+    private static class PrefixTrie {
+        private final Map<Character, PrefixTrie> children = new HashMap<>();
+        private final List<Matcher> matchers = new ArrayList<>();
+
+        void add(String prefix, Matcher matcher) {
+            PrefixTrie node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.children.computeIfAbsent(prefix.charAt(i), c -> new PrefixTrie());
+            }
+            node.matchers.add(matcher);
+        }
+
+        /**
+         * Adds to {@code target} the matchers whose literal prefix is a prefix of
+         * {@code role} and whose pattern matches {@code role}
+         */
+        void collectMatching(String role, List<Matcher> target) {
+            PrefixTrie node = this;
+            for (int i = 0; node != null; i++) {
+                for (Matcher m : node.matchers) {
+                    if (m.matches(role)) {
+                        target.add(m);
+                    }
+                }
+                node = i < role.length() ? node.children.get(role.charAt(i)) : null;
+            }
+        }
+    }
+
     @VisibleForTesting
     final List<Matcher> rolesMappings;
 
-    private final Cache<String, List<String>> byRoleNameCache = CacheBuilder.newBuilder().maximumSize(1_000).build();
+    private final Map<String, Matcher> literalMappings = new HashMap<>();
+
+    private final PrefixTrie wildcardMappings = new PrefixTrie();
+
+    /**
+     * Keys using regular expression constructs other than {@literal *}, evaluated
+     * one by one
+     */
+    private final List<Matcher> regexMappings = new ArrayList<>();
+
+    private final Cache<String, List<String>> byRoleNameCache = CacheBuilder.newBuilder()//
+            .maximumSize(MAXIMUM_CACHE_SIZE)//
+            .recordStats()//
+            .build();
+
+    /**
+     * Role list as returned by the authentication provider to immutable expanded
+     * role list
+     */
+    private final Cache<List<String>, List<String>> byRoleSetCache = CacheBuilder.newBuilder()//
+            .maximumSize(MAXIMUM_CACHE_SIZE)//
+            .recordStats()//
+            .build();
 
     public RolesMappingsUserCustomizer(@NonNull Map<String, List<String>> rolesMappings) {
         this.rolesMappings = keysToRegularExpressions(rolesMappings);
     }
 
     private @NonNull List<Matcher> keysToRegularExpressions(Map<String, List<String>> mappings) {
-        return mappings.entrySet()//
-                .stream()//
-                .map(e -> new Matcher(toPattern(e.getKey()), e.getValue()))//
-                .peek(m -> log.info("Loaded role mapping {}", m))//
-                .collect(Collectors.toList());
+        List<Matcher> matchers = new ArrayList<>();
+        for (Map.Entry<String, List<String>> e : mappings.entrySet()) {
+            final String key = e.getKey();
+            final Matcher matcher = new Matcher(matchers.size(), toPattern(key), List.copyOf(e.getValue()));
+            log.info("Loaded role mapping {}", matcher);
+            matchers.add(matcher);
+            if (REGEX_META_CHARS.matcher(key).find()) {
+                regexMappings.add(matcher);
+            } else if (key.indexOf('*') == -1) {
+                literalMappings.put(key, matcher);
+            } else {
+                wildcardMappings.add(key.substring(0, key.indexOf('*')), matcher);
+            }
+        }
+        return List.copyOf(matchers);
     }
 
     static Pattern toPattern(String role) {
@@ -83,32 +176,67 @@ public class RolesMappingsUserCustomizer implements GeorchestraUserCustomizerExt
 
     @Override
     public GeorchestraUser apply(GeorchestraUser user) {
-
-        Set<String> additionalRoles = computeAdditionalRoles(user.getRoles());
-        if (!additionalRoles.isEmpty()) {
-            additionalRoles.addAll(user.getRoles());
-            user.setRoles(new ArrayList<>(additionalRoles));
+        final List<String> roles = user.getRoles();
+        if (rolesMappings.isEmpty() || roles == null || roles.isEmpty()) {
+            return user;
+        }
+        final List<String> authenticatedRoles = List.copyOf(roles);
+        List<String> expanded = get(byRoleSetCache, authenticatedRoles, () -> expand(authenticatedRoles));
+        if (!expanded.equals(authenticatedRoles)) {
+            user.setRoles(new ArrayList<>(expanded));
         }
         return user;
     }
 
     /**
-     * @param authenticatedRoles the role names extracted from the authentication
-     *                           provider
-     * @return the additional role names for the user
+     * @return the authenticated roles followed by the additional ones, or
+     *         {@code authenticatedRoles} itself if there are no additional roles
      */
-    private Set<String> computeAdditionalRoles(List<String> authenticatedRoles) {
-        final ConcurrentMap<String, List<String>> cache = byRoleNameCache.asMap();
-        return authenticatedRoles.stream().map(role -> cache.computeIfAbsent(role, this::computeAdditionalRoles))
-                .flatMap(List::stream).collect(Collectors.toSet());
+    private List<String> expand(List<String> authenticatedRoles) {
+        Set<String> additionalRoles = new LinkedHashSet<>();
+        for (String role : authenticatedRoles) {
+            additionalRoles.addAll(get(byRoleNameCache, role, () -> computeAdditionalRoles(role)));
+        }
+        if (additionalRoles.isEmpty()) {
+            return authenticatedRoles;
+        }
+        Set<String> expanded = new LinkedHashSet<>(authenticatedRoles);
+        expanded.addAll(additionalRoles);
+        return List.copyOf(expanded);
     }
 
     private List<String> computeAdditionalRoles(@NonNull String authenticatedRole) {
-
-        List<String> roles = rolesMappings.stream().filter(m -> m.matches(authenticatedRole))
-                .map(Matcher::getExtraRoles).flatMap(List::stream).collect(Collectors.toList());
+        List<Matcher> matches = new ArrayList<>();
+        Matcher literal = literalMappings.get(authenticatedRole);
+        if (literal != null) {
+            matches.add(literal);
+        }
+        wildcardMappings.collectMatching(authenticatedRole, matches);
+        for (Matcher m : regexMappings) {
+            if (m.matches(authenticatedRole)) {
+                matches.add(m);
+            }
+        }
+        // honor the configuration order
+        matches.sort((m1, m2) -> Integer.compare(m1.order, m2.order));
+        List<String> roles = matches.stream().map(Matcher::getExtraRoles).flatMap(List::stream).distinct()
+                .collect(Collectors.toUnmodifiableList());
 
         log.info("Computed additional roles for {}: {}", authenticatedRole, roles);
         return roles;
     }
+
+    private static <K> List<String> get(Cache<K, List<String>> cache, K key, Callable<List<String>> loader) {
+        try {
+            return cache.get(key, loader);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        GuavaCacheMetrics.monitor(registry, byRoleNameCache, ROLES_CACHE_NAME);
+        GuavaCacheMetrics.monitor(registry, byRoleSetCache, ROLE_SETS_CACHE_NAME);
+    }
 }
@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security;
+
+import java.io.Serializable;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.georchestra.security.model.GeorchestraUser;
+import org.springframework.cache.Cache;
+import org.springframework.cache.Cache.ValueWrapper;
+import org.springframework.cache.CacheManager;
+import org.springframework.security.core.Authentication;
+
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.annotations.VisibleForTesting;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * {@link ResolvedUserCache} backed by a Spring {@link Cache}, obtained from the
+ * application's {@link CacheManager}, in order to share the resolved users
+ * across gateway instances when the cache manager is backed by an external
+ * store (e.g. Redis, Hazelcast, Infinispan).
+ * <p>
+ * Users are stored as JSON, with their expiry time, under the
+ * {@link Key#asString() string form} of the cache key. Expiration is hence
+ * enforced by this class regardless of whether the backing store supports
+ * time-to-live.
+ * <p>
+ * Failures to reach the backing store are logged and treated as cache misses,
+ * so that users are still resolved if the store is unavailable.
+ * <p>
+ * Since the backing store is likely remote, {@link #getReactive} reads and
+ * writes it on a bounded {@link Scheduler}, off the calling (e.g. event loop)
+ * thread.
+ * <p>
+ * Cached users are also indexed by principal name and user name, so that
+ * {@link #invalidatePrincipal} evicts only the entries of that user. Index
+ * entries are updated with a non-atomic read-modify-write, so an entry indexed
+ * concurrently by another gateway instance may be missed, and is then only
+ * evicted once its time to live expires.
+ * <p>
+ * Publishes the {@literal cache.gets}
+ * (hit/miss) and {@literal cache.puts} metrics under the
+ * {@literal cache=georchestra.users} tag.
+ */
+@Slf4j(topic = "org.georchestra.gateway.security")
+public class SharedResolvedUserCache implements ResolvedUserCache {
+
+    /**
+     * Prefix of the ids of the per principal name index entries
+     */
+    static final String INDEX_PREFIX = "principal:";
+
+    private final Cache cache;
+    private final Duration timeToLive;
+    private final Clock clock;
+    private final Scheduler scheduler = Schedulers.boundedElastic();
+
+    private final ObjectWriter writer;
+    private final ObjectReader reader;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+
+    public SharedResolvedUserCache(@NonNull Cache cache, @NonNull Duration timeToLive) {
+        this(cache, timeToLive, Clock.systemUTC());
+    }
+
+    @VisibleForTesting
+    SharedResolvedUserCache(@NonNull Cache cache, @NonNull Duration timeToLive, @NonNull Clock clock) {
+        this.cache = cache;
+        this.timeToLive = timeToLive;
+        this.clock = clock;
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.setSerializationInclusion(Include.NON_NULL);
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.writer = mapper.writerFor(GeorchestraUser.class);
+        this.reader = mapper.readerFor(GeorchestraUser.class);
+        log.info("Resolved users cache shared through cache '{}' ({}), time to live: {}", cache.getName(),
+                cache.getClass().getName(), timeToLive);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * Reads and writes the backing store on a bounded scheduler, leaving only
+     * {@code loader} to run on the calling thread
+     */
+    @Override
+    public Mono<GeorchestraUser> getReactive(@NonNull Authentication auth,
+            @NonNull Function<Authentication, Mono<GeorchestraUser>> loader) {
+        return Mono.defer(() -> {
+            final Key key = Key.of(auth);
+            return Mono.fromCallable(() -> getIfPresent(key).orElse(null))//
+                    .subscribeOn(scheduler)//
+                    .switchIfEmpty(Mono.defer(() -> loader.apply(auth)//
+                            .flatMap(user -> Mono.fromRunnable(() -> put(key, user))//
+                                    .subscribeOn(scheduler)//
+                                    .thenReturn(user))));
+        });
+    }
+
+    @Override
+    public Optional<GeorchestraUser> getIfPresent(@NonNull Key key) {
+        final String id = key.asString();
+        Optional<GeorchestraUser> user = lookup(id);
+        if (user.isPresent()) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return user;
+    }
+
+    private Optional<GeorchestraUser> lookup(String id) {
+        final Object value;
+        try {
+            value = value(id);
+        } catch (RuntimeException e) {
+            log.warn("Error getting resolved user from shared cache, ignoring: {}", e.getMessage());
+            return Optional.empty();
+        }
+        if (!(value instanceof Entry)) {
+            return Optional.empty();
+        }
+        Entry entry = (Entry) value;
+        if (entry.getExpiresAt() <= clock.millis()) {
+            safeEvict(id);
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(reader.readValue(entry.getUser()));
+        } catch (JsonProcessingException e) {
+            log.warn("Unable to decode cached user, evicting: {}", e.getMessage());
+            safeEvict(id);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void put(@NonNull Key key, @NonNull GeorchestraUser user) {
+        final String json;
+        try {
+            json = writer.writeValueAsString(user);
+        } catch (JsonProcessingException e) {
+            log.warn("Unable to encode user {} for the shared cache: {}", user.getUsername(), e.getMessage());
+            return;
+        }
+        final String id = key.asString();
+        final long expiresAt = clock.millis() + timeToLive.toMillis();
+        try {
+            cache.put(id, new Entry(expiresAt, json));
+            puts.increment();
+            index(key.getPrincipal(), id, expiresAt);
+            if (user.getUsername() != null && !user.getUsername().equals(key.getPrincipal())) {
+                // e.g. logged in with the e-mail address
+                index(user.getUsername(), id, expiresAt);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Error putting resolved user in shared cache, ignoring: {}", e.getMessage());
+        }
+    }
+
+    private void index(String name, String id, long expiresAt) {
+        final String indexId = INDEX_PREFIX + name;
+        Set<String> ids = new HashSet<>();
+        Object current = value(indexId);
+        if (current instanceof IndexEntry && ((IndexEntry) current).getExpiresAt() > clock.millis()) {
+            ids.addAll(((IndexEntry) current).getIds());
+        }
+        ids.add(id);
+        cache.put(indexId, new IndexEntry(expiresAt, ids));
+    }
+
+    /**
+     * Evicts the users indexed under {@code principal}, either as the
+     * authentication's principal name or as the resolved user name
+     */
+    @Override
+    public void invalidatePrincipal(@NonNull String principal) {
+        final String indexId = INDEX_PREFIX + principal;
+        final Object index;
+        try {
+            index = value(indexId);
+        } catch (RuntimeException e) {
+            log.warn("Error getting the entries of {} from shared cache, ignoring: {}", principal, e.getMessage());
+            return;
+        }
+        if (index instanceof IndexEntry) {
+            ((IndexEntry) index).getIds().forEach(this::safeEvict);
+        }
+        safeEvict(indexId);
+    }
+
+    private Object value(String id) {
+        ValueWrapper wrapper = cache.get(id);
+        return wrapper == null ? null : wrapper.get();
+    }
+
+    @Override
+    public void evict(@NonNull Key key) {
+        safeEvict(key.asString());
+    }
+
+    @Override
+    public void invalidateAll() {
+        try {
+            cache.clear();
+        } catch (RuntimeException e) {
+            log.warn("Error clearing shared resolved users cache, ignoring: {}", e.getMessage());
+        }
+    }
+
+    private void safeEvict(String id) {
+        try {
+            cache.evict(id);
+        } catch (RuntimeException e) {
+            log.warn("Error evicting resolved user from shared cache, ignoring: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("cache.gets", hits, LongAdder::doubleValue)//
+                .tags("cache", CACHE_NAME, "result", "hit")//
+                .description("The number of times cache lookup methods have returned a cached value.")//
+                .register(registry);
+        FunctionCounter.builder("cache.gets", misses, LongAdder::doubleValue)//
+                .tags("cache", CACHE_NAME, "result", "miss")//
+                .description("The number of times cache lookup methods have not returned a value.")//
+                .register(registry);
+        FunctionCounter.builder("cache.puts", puts, LongAdder::doubleValue)//
+                .tags("cache", CACHE_NAME)//
+                .description("The number of entries added to the cache")//
+                .register(registry);
+    }
+
+    /**
+     * Shared cache entry, the JSON encoded user and its expiry time in epoch
+     * milliseconds
+     */
+    @Value
+    static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private long expiresAt;
+        private String user;
+    }
+
+    /**
+     * Shared cache index entry, the ids of the entries cached for a principal
+     * name, and the expiry time of the last of them in epoch milliseconds
+     */
+    @Value
+    static class IndexEntry implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private long expiresAt;
+        private Set<String> ids;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.accessrules;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.georchestra.gateway.model.CacheConfigProperties.CacheSpec;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bounded cache of role-based access decisions, keyed by the matched access
+ * rule and the user's role set.
+ * <p>
+ * Once a request is matched to an access rule, whether a user is granted
+ * access only depends on its granted authorities, so users with the same roles
+ * share the decision.
+ * <p>
+ * Decisions never go stale since access rules are fixed at startup, and the
+ * number of distinct role sets is usually small. Once
+ * {@link CacheSpec#getMaximumSize() maximum size} is reached, the least
+ * recently used decisions are evicted.
+ * <p>
+ * The role set of an {@link Authentication} is computed once, and kept for as
+ * long as the authentication object is in use (e.g. in the web session's
+ * security context), so subsequent requests don't sort its authorities again.
+ * <p>
+ * Implements {@link MeterBinder} to publish the {@literal cache.gets}
+ * (hit/miss), {@literal cache.puts}, {@literal cache.evictions}, and
+ * {@literal cache.size} metrics under the
+ * {@literal cache=georchestra.access.decisions} tag.
+ */
+@Slf4j(topic = "org.georchestra.gateway.config.security.accessrules")
+public class AccessDecisionCache implements MeterBinder {
+
+    static final String CACHE_NAME = "georchestra.access.decisions";
+
+    private final Cache<Key, Boolean> decisions;
+
+    /**
+     * Role sets by authentication object identity, weakly referenced so they go
+     * away with the authentication
+     */
+    private final Cache<Authentication, RoleSet> roleSets;
+
+    public AccessDecisionCache(@NonNull CacheSpec spec) {
+        if (spec.isEnabled()) {
+            log.info("Access decisions cache enabled, maximum size: {}", spec.getMaximumSize());
+            this.decisions = CacheBuilder.newBuilder()//
+                    .maximumSize(spec.getMaximumSize())//
+                    .recordStats()//
+                    .build();
+            this.roleSets = CacheBuilder.newBuilder()//
+                    .weakKeys()// identity comparison
+                    .maximumSize(spec.getMaximumSize())//
+                    .build();
+        } else {
+            log.info("Access decisions cache disabled");
+            this.decisions = null;
+            this.roleSets = null;
+        }
+    }
+
+    /**
+     * @return a cache that always evaluates the decision
+     */
+    public static AccessDecisionCache disabled() {
+        return new AccessDecisionCache(new CacheSpec().setEnabled(false));
+    }
+
+    public boolean isEnabled() {
+        return decisions != null;
+    }
+
+    /**
+     * @param rule     the matched access rule identifier
+     * @param auth     the authenticated user
+     * @param decision evaluates whether the sorted authority names grant access,
+     *                 on cache miss
+     * @return whether access is granted
+     */
+    public boolean isGranted(int rule, @NonNull Authentication auth, @NonNull Predicate<List<String>> decision) {
+        if (!isEnabled()) {
+            return decision.test(RoleSet.of(auth.getAuthorities()).getRoles());
+        }
+        final RoleSet roles = roleSets.asMap().computeIfAbsent(auth, a -> RoleSet.of(a.getAuthorities()));
+        try {
+            return decisions.get(new Key(rule, roles), () -> decision.test(roles.getRoles())).booleanValue();
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @VisibleForTesting
+    long size() {
+        return isEnabled() ? decisions.size() : 0;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (isEnabled()) {
+            GuavaCacheMetrics.monitor(registry, decisions, CACHE_NAME);
+        }
+    }
+
+    /**
+     * Cache key identifying an access rule and a role set
+     */
+    @Value
+    static class Key {
+        private int rule;
+        private RoleSet roles;
+    }
+
+    /**
+     * Sorted, immutable authority names, with a precomputed hash code
+     */
+    static final class RoleSet {
+        private final List<String> roles;
+        private final int hash;
+
+        private RoleSet(List<String> roles) {
+            this.roles = roles;
+            this.hash = roles.hashCode();
+        }
+
+        static RoleSet of(Collection<? extends GrantedAuthority> authorities) {
+            return new RoleSet(authorities.stream()//
+                    .map(GrantedAuthority::getAuthority)//
+                    .sorted()//
+                    .collect(Collectors.toUnmodifiableList()));
+        }
+
+        List<String> getRoles() {
+            return roles;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof RoleSet && ((RoleSet) o).hash == hash && ((RoleSet) o).roles.equals(roles);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.accessrules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+import org.georchestra.gateway.model.RoleBasedAccessRule;
+import org.springframework.http.server.PathContainer;
+import org.springframework.http.server.PathContainer.PathSegment;
+import org.springframework.security.authorization.AuthenticatedReactiveAuthorizationManager;
+import org.springframework.security.authorization.AuthorizationDecision;
+import org.springframework.security.authorization.ReactiveAuthorizationManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.web.server.authorization.AuthorizationContext;
+import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatcher;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import lombok.AccessLevel;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+
+/**
+ * {@link ReactiveAuthorizationManager} that evaluates all the
+ * {@link RoleBasedAccessRule access rules} compiled into a single lookup
+ * structure, instead of registering each rule as a separate
+ * {@link ServerWebExchangeMatcher} Spring Security would evaluate one by one.
+ * <p>
+ * Rule patterns are parsed with the same {@link PathPatternParser} Spring
+ * Security uses for
+ * {@link org.springframework.security.config.web.server.ServerHttpSecurity.AuthorizeExchangeSpec#pathMatchers(String...)
+ * pathMatchers(String...)}, after prepending a leading slash if missing, as it
+ * does, and indexed by their first path segment when it's a literal. A request
+ * path is hence only matched against the patterns that start with the same
+ * segment, plus the ones starting with a wildcard, still in the order the rules
+ * were added, so that the first matching rule wins, as before.
+ * <p>
+ * This class is also the {@link ServerWebExchangeMatcher} used to register it,
+ * matching only if any rule does, and handing the matched rule over to
+ * {@link #check} through the {@link AuthorizationContext#getVariables()
+ * authorization context variables}, so a request is matched only once.
+ * Requests matching no rule fall through to the next matcher, if any, or are
+ * denied.
+ * <p>
+ * Role-based decisions are memoized in an {@link AccessDecisionCache}, keyed by
+ * the matched rule and the user's role set.
+ *
+ * @see AccessRulesCustomizer
+ */
+public class AccessRulesAuthorizationManager
+        implements ReactiveAuthorizationManager<AuthorizationContext>, ServerWebExchangeMatcher {
+
+    static final String MATCHED_RULE_VARIABLE = AccessRulesAuthorizationManager.class.getName() + ".matchedRule";
+
+    private static final AuthorizationDecision GRANTED = new AuthorizationDecision(true);
+    private static final AuthorizationDecision DENIED = new AuthorizationDecision(false);
+
+    /**
+     * Patterns whose first segment is a literal, by first segment, merged with
+     * {@link #wildcardPatterns} in rule order
+     */
+    private final Map<String, CompiledPattern[]> patternsByFirstSegment;
+
+    /**
+     * Patterns whose first segment is not a literal (e.g. {@code /**},
+     * <code>/{service}/**</code>), in rule order
+     */
+    private final CompiledPattern[] wildcardPatterns;
+
+    private final int ruleCount;
+
+    private AccessRulesAuthorizationManager(List<CompiledPattern> patterns, int ruleCount) {
+        this.ruleCount = ruleCount;
+        this.wildcardPatterns = patterns.stream().filter(p -> p.firstSegment == null).toArray(CompiledPattern[]::new);
+
+        Map<String, List<CompiledPattern>> literals = new HashMap<>();
+        patterns.stream().filter(p -> p.firstSegment != null)
+                .forEach(p -> literals.computeIfAbsent(p.firstSegment, s -> new ArrayList<>()).add(p));
+
+        Map<String, CompiledPattern[]> index = new HashMap<>();
+        literals.forEach((segment, segmentPatterns) -> {
+            List<CompiledPattern> merged = new ArrayList<>(segmentPatterns);
+            merged.addAll(Arrays.asList(wildcardPatterns));
+            // stable sort, keeps the pattern order within a rule
+            merged.sort((p1, p2) -> Integer.compare(p1.rule.order, p2.rule.order));
+            index.put(segment, merged.toArray(CompiledPattern[]::new));
+        });
+        this.patternsByFirstSegment = Map.copyOf(index);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the number of compiled access rules
+     */
+    public int size() {
+        return ruleCount;
+    }
+
+    public boolean isEmpty() {
+        return ruleCount == 0;
+    }
+
+    @Override
+    public Mono<MatchResult> matches(ServerWebExchange exchange) {
+        return match(exchange)//
+                .map(rule -> MatchResult.match(Map.<String, Object>of(MATCHED_RULE_VARIABLE, rule)))//
+                .orElseGet(MatchResult::notMatch);
+    }
+
+    @Override
+    public Mono<AuthorizationDecision> check(Mono<Authentication> authentication, AuthorizationContext context) {
+        Object matched = context.getVariables().get(MATCHED_RULE_VARIABLE);
+        Optional<CompiledRule> rule = matched instanceof CompiledRule ? Optional.of((CompiledRule) matched)
+                : match(context.getExchange());
+        return rule.map(r -> r.check(authentication, context))//
+                .orElseGet(() -> Mono.just(DENIED));
+    }
+
+    Optional<CompiledRule> match(ServerWebExchange exchange) {
+        return match(exchange.getRequest().getPath().pathWithinApplication());
+    }
+
+    Optional<CompiledRule> match(PathContainer path) {
+        for (CompiledPattern candidate : candidates(path)) {
+            if (candidate.pattern.matches(path)) {
+                return Optional.of(candidate.rule);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private CompiledPattern[] candidates(PathContainer path) {
+        String firstSegment = firstSegment(path);
+        CompiledPattern[] candidates = patternsByFirstSegment.get(firstSegment);
+        return candidates == null ? wildcardPatterns : candidates;
+    }
+
+    /**
+     * @return the first segment of the request path as compared against pattern
+     *         literals (i.e. decoded and without matrix variables), or the empty
+     *         string for the root path
+     */
+    private static String firstSegment(PathContainer path) {
+        for (PathContainer.Element element : path.elements()) {
+            if (element instanceof PathSegment) {
+                return ((PathSegment) element).valueToMatch();
+            }
+        }
+        return "";
+    }
+
+    /**
+     * @return the first segment of the pattern if it's a plain literal,
+     *         {@code null} if it may match more than one value
+     */
+    static String literalFirstSegment(@NonNull String pattern) {
+        String path = pattern.startsWith("/") ? pattern.substring(1) : pattern;
+        int end = path.indexOf('/');
+        String segment = end == -1 ? path : path.substring(0, end);
+        boolean literal = segment.chars().noneMatch(c -> "*?{}%;".indexOf(c) != -1);
+        return literal ? segment : null;
+    }
+
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    private static class CompiledPattern {
+        final PathPattern pattern;
+        final String firstSegment;
+        final CompiledRule rule;
+    }
+
+    /**
+     * An access rule decision, as matched by any of its patterns
+     */
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    static class CompiledRule {
+        final int order;
+        final @NonNull List<String> patterns;
+        final @NonNull String description;
+        final @NonNull ReactiveAuthorizationManager<AuthorizationContext> decision;
+
+        Mono<AuthorizationDecision> check(Mono<Authentication> authentication, AuthorizationContext context) {
+            return decision.check(authentication, context);
+        }
+
+        public @Override String toString() {
+            return String.format("%s %s", patterns, description);
+        }
+    }
+
+    /**
+     * Builds an {@link AccessRulesAuthorizationManager} out of access rules added
+     * in order of precedence, mimicking the
+     * {@link org.springframework.security.config.web.server.ServerHttpSecurity.AuthorizeExchangeSpec
+     * AuthorizeExchangeSpec} API
+     */
+    public static class Builder {
+
+        private final PathPatternParser parser = PathPatternParser.defaultInstance;
+
+        private final List<CompiledPattern> patterns = new ArrayList<>();
+
+        private int ruleCount;
+
+        private AccessDecisionCache decisionCache = AccessDecisionCache.disabled();
+
+        private Builder() {
+        }
+
+        /**
+         * @param decisionCache the cache for role-based access decisions, disabled
+         *                      by default
+         */
+        public Builder decisionCache(@NonNull AccessDecisionCache decisionCache) {
+            this.decisionCache = decisionCache;
+            return this;
+        }
+
+        /**
+         * @param antPatterns the path patterns the rule applies to
+         * @return the {@link Access} to set up the access decision for requests
+         *         matching any of the patterns
+         */
+        public Access pathMatchers(@NonNull List<String> antPatterns) {
+            if (antPatterns.isEmpty())
+                throw new IllegalArgumentException("No path pattern provided");
+            antPatterns.forEach(Objects::requireNonNull);
+            return new Access(this, List.copyOf(antPatterns));
+        }
+
+        public AccessRulesAuthorizationManager build() {
+            return new AccessRulesAuthorizationManager(patterns, ruleCount);
+        }
+
+        private Builder add(List<String> antPatterns, String description,
+                IntFunction<ReactiveAuthorizationManager<AuthorizationContext>> decision) {
+            final int order = ruleCount++;
+            final CompiledRule rule = new CompiledRule(order, antPatterns, description, decision.apply(order));
+            antPatterns.forEach(p -> {
+                // as PathPatternParserServerWebExchangeMatcher does, e.g. test/** -> /test/**
+                final String fullPattern = parser.initFullPathPattern(p);
+                patterns.add(new CompiledPattern(parser.parse(fullPattern), literalFirstSegment(fullPattern), rule));
+            });
+            return this;
+        }
+    }
+
+    /**
+     * Access decision for the requests matching a set of path patterns
+     */
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    public static class Access {
+        private final Builder builder;
+        private final List<String> antPatterns;
+
+        public Builder denyAll() {
+            return builder.add(antPatterns, "denyAll", rule -> (a, c) -> Mono.just(DENIED));
+        }
+
+        public Builder permitAll() {
+            return builder.add(antPatterns, "permitAll", rule -> (a, c) -> Mono.just(GRANTED));
+        }
+
+        public Builder authenticated() {
+            return builder.add(antPatterns, "authenticated",
+                    rule -> AuthenticatedReactiveAuthorizationManager.authenticated());
+        }
+
+        public Builder hasAnyAuthority(@NonNull String... authorities) {
+            final Set<String> required = Set.copyOf(Arrays.asList(authorities));
+            final AccessDecisionCache cache = builder.decisionCache;
+            return builder.add(antPatterns, "hasAnyAuthority" + Arrays.toString(authorities),
+                    rule -> new HasAnyAuthority(rule, required, cache));
+        }
+    }
+
+    /**
+     * Equivalent to
+     * {@link org.springframework.security.authorization.AuthorityReactiveAuthorizationManager#hasAnyAuthority(String...)},
+     * memoizing the decision per role set
+     */
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    private static class HasAnyAuthority implements ReactiveAuthorizationManager<AuthorizationContext> {
+        private final int rule;
+        private final Set<String> required;
+        private final AccessDecisionCache cache;
+
+        @Override
+        public Mono<AuthorizationDecision> check(Mono<Authentication> authentication, AuthorizationContext context) {
+            return authentication.filter(Authentication::isAuthenticated)//
+                    .map(auth -> cache.isGranted(rule, auth, this::anyRequired))//
+                    .map(granted -> granted.booleanValue() ? GRANTED : DENIED)//
+                    .defaultIfEmpty(DENIED);
+        }
+
+        private boolean anyRequired(List<String> roles) {
+            return roles.stream().anyMatch(required::contains);
+        }
+    }
+}
@@ -18,17 +18,28 @@
  */
 package org.georchestra.gateway.security.accessrules;
 
+import org.georchestra.gateway.model.CacheConfigProperties;
 import org.georchestra.gateway.model.GatewayConfigProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 @Configuration
-@EnableConfigurationProperties(GatewayConfigProperties.class)
+@EnableConfigurationProperties({ GatewayConfigProperties.class, CacheConfigProperties.class })
 public class AccessRulesConfiguration {
 
     @Bean
-    AccessRulesCustomizer georchestraAccessRulesCustomizer(GatewayConfigProperties config) {
-        return new AccessRulesCustomizer(config);
+    AccessRulesCustomizer georchestraAccessRulesCustomizer(GatewayConfigProperties config,
+            AccessDecisionCache accessDecisionCache) {
+        return new AccessRulesCustomizer(config, accessDecisionCache);
+    }
+
+    /**
+     * Cache of role-based access decisions, configured through
+     * {@link CacheConfigProperties#getAccessDecisions()}
+     */
+    @Bean
+    AccessDecisionCache accessDecisionCache(CacheConfigProperties config) {
+        return new AccessDecisionCache(config.getAccessDecisions());
     }
 }
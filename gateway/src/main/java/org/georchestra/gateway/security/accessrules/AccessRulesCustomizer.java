@@ -26,9 +26,10 @@ import org.georchestra.gateway.model.GatewayConfigProperties;
 import org.georchestra.gateway.model.RoleBasedAccessRule;
 import org.georchestra.gateway.model.Service;
 import org.georchestra.gateway.security.ServerHttpSecurityCustomizer;
+import org.georchestra.gateway.security.accessrules.AccessRulesAuthorizationManager.Access;
+import org.georchestra.gateway.security.accessrules.AccessRulesAuthorizationManager.Builder;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
 import org.springframework.security.config.web.server.ServerHttpSecurity.AuthorizeExchangeSpec;
-import org.springframework.security.config.web.server.ServerHttpSecurity.AuthorizeExchangeSpec.Access;
 
 import com.google.common.annotations.VisibleForTesting;
 
@@ -47,6 +48,12 @@ import reactor.core.publisher.Mono;
  * {@link GatewayConfigProperties#getGlobalAccessRules() global rules}, and
  * overridden if needed on a per-service basis from
  * {@link GatewayConfigProperties#getServices()}.
+ * <p>
+ * All the rules are compiled into a single
+ * {@link AccessRulesAuthorizationManager}, which matches each request path only
+ * against the candidate patterns, instead of registering one
+ * {@link AuthorizeExchangeSpec#pathMatchers(String...) path matcher} per rule.
+ * Role-based decisions are memoized in the provided {@link AccessDecisionCache}.
  *
  * @see RoleBasedAccessRule
  * @see GatewayConfigProperties#getGlobalAccessRules()
@@ -57,6 +64,11 @@ import reactor.core.publisher.Mono;
 public class AccessRulesCustomizer implements ServerHttpSecurityCustomizer {
 
     private final @NonNull GatewayConfigProperties config;
+    private final @NonNull AccessDecisionCache decisionCache;
+
+    public AccessRulesCustomizer(GatewayConfigProperties config) {
+        this(config, AccessDecisionCache.disabled());
+    }
 
     @Override
     public void customize(ServerHttpSecurity http) {
@@ -76,33 +88,39 @@ public class AccessRulesCustomizer implements ServerHttpSecurityCustomizer {
             }
         }).authenticated();
 
+        Builder rules = AccessRulesAuthorizationManager.builder().decisionCache(decisionCache);
         config.getServices().forEach((name, service) -> {
             log.info("Applying access rules for backend service '{}' at {}", name, service.getTarget());
-            apply(name, authorizeExchange, service.getAccessRules());
+            apply(name, rules, service.getAccessRules());
         });
 
         log.info("Applying global access rules...");
-        apply("global", authorizeExchange, config.getGlobalAccessRules());
+        apply("global", rules, config.getGlobalAccessRules());
+
+        AccessRulesAuthorizationManager accessRules = rules.build();
+        if (!accessRules.isEmpty()) {
+            log.info("Compiled {} access rules", accessRules.size());
+            authorizeExchange.matchers(accessRules).access(accessRules);
+        }
     }
 
-    private void apply(String serviceName, AuthorizeExchangeSpec authorizeExchange,
-            List<RoleBasedAccessRule> accessRules) {
+    private void apply(String serviceName, Builder rules, List<RoleBasedAccessRule> accessRules) {
         if (accessRules == null || accessRules.isEmpty()) {
             log.debug("No {} access rules found.", serviceName);
             return;
         }
         for (RoleBasedAccessRule rule : accessRules) {
-            apply(authorizeExchange, rule);
+            apply(rules, rule);
         }
     }
 
     @VisibleForTesting
-    void apply(AuthorizeExchangeSpec authorizeExchange, RoleBasedAccessRule rule) {
+    void apply(Builder rules, RoleBasedAccessRule rule) {
         final List<String> antPatterns = resolveAntPatterns(rule);
         final boolean forbidden = rule.isForbidden();
         final boolean anonymous = rule.isAnonymous();
         final List<String> allowedRoles = rule.getAllowedRoles() == null ? List.of() : rule.getAllowedRoles();
-        Access access = authorizeExchange(authorizeExchange, antPatterns);
+        Access access = authorizeExchange(rules, antPatterns);
         if (forbidden) {
             log.debug("Denying access to everyone for {}", antPatterns);
             denyAll(access);
@@ -130,8 +148,8 @@ public class AccessRulesCustomizer implements ServerHttpSecurityCustomizer {
     }
 
     @VisibleForTesting
-    Access authorizeExchange(AuthorizeExchangeSpec authorizeExchange, List<String> antPatterns) {
-        return authorizeExchange.pathMatchers(antPatterns.toArray(String[]::new));
+    Access authorizeExchange(Builder rules, List<String> antPatterns) {
+        return rules.pathMatchers(antPatterns);
     }
 
     private List<String> resolveRoles(List<String> antPatterns, List<String> allowedRoles) {
@@ -22,6 +22,7 @@ import static java.util.Optional.ofNullable;
 
 import java.util.Optional;
 
+import org.georchestra.gateway.security.ldap.LdapConfigProperties.Pool;
 import org.georchestra.gateway.security.ldap.LdapConfigProperties.Server;
 import org.georchestra.gateway.security.ldap.basic.LdapServerConfig;
 import org.georchestra.gateway.security.ldap.extended.ExtendedLdapConfig;
@@ -66,6 +67,8 @@ class LdapConfigBuilder {
                 .orgsRdn(config.getOrgs().getRdn())//
                 .adminDn(toOptional(config.getAdminDn()))//
                 .adminPassword(toOptional(config.getAdminPassword()))//
+                .pool(config.getPool() == null ? new Pool() : config.getPool())//
+                .bindPool(config.getBindPool() == null ? new Pool().setEnabled(false) : config.getBindPool())//
                 .build();
     }
 
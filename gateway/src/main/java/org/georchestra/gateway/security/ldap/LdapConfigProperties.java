@@ -18,6 +18,7 @@
  */
 package org.georchestra.gateway.security.ldap;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -68,6 +69,29 @@ public class LdapConfigProperties implements Validator {
     @Valid
     private Map<String, Server> ldap = Map.of();
 
+    /**
+     * Thread pool used to run blocking LDAP queries (e.g. user lookups) off the
+     * reactive server's event loop threads
+     */
+    private ThreadPool ldapThreadPool = new ThreadPool();
+
+    /**
+     * How to authenticate users when several LDAP databases are enabled
+     */
+    private AuthenticationStrategy ldapAuthenticationStrategy = AuthenticationStrategy.SEQUENTIAL;
+
+    public static enum AuthenticationStrategy {
+        /**
+         * Try each LDAP database in turn until one authenticates the user
+         */
+        SEQUENTIAL,
+        /**
+         * Try all LDAP databases concurrently, the first one in configuration order
+         * that authenticates the user wins
+         */
+        RACE
+    }
+
     @Generated
     public static @Data class Server {
 
@@ -125,6 +149,18 @@ public class LdapConfigProperties implements Validator {
          * (optional).
          */
         private String adminPassword;
+
+        /**
+         * Connection pool settings for the LDAP connections used to query and
+         * manage user accounts
+         */
+        private Pool pool = new Pool();
+
+        /**
+         * Connection pool settings for the LDAP connections used to authenticate
+         * users. Disabled by default, in which case each login opens a new connection.
+         */
+        private Pool bindPool = new Pool().setEnabled(false);
     }
 
     @Generated
@@ -176,6 +212,93 @@ public class LdapConfigProperties implements Validator {
         private String rdn = "ou=orgs";
     }
 
+    @Generated
+    public static @Data @Accessors(chain = true) class ThreadPool {
+
+        /**
+         * Maximum number of threads running blocking LDAP queries concurrently
+         */
+        private int maxThreads = 4 * Runtime.getRuntime().availableProcessors();
+
+        /**
+         * Maximum number of LDAP queries waiting for a thread. Further queries are
+         * rejected until the queue drains.
+         */
+        private int queueCapacity = 10_000;
+
+        /**
+         * How long an idle thread is kept alive before being disposed
+         */
+        private Duration keepAlive = Duration.ofSeconds(60);
+    }
+
+    /**
+     * LDAP connection pool settings
+     */
+    @Generated
+    public static @Data @Accessors(chain = true) class Pool {
+
+        /**
+         * Whether to pool LDAP connections
+         */
+        private boolean enabled = true;
+
+        /**
+         * Maximum number of connections per kind (read-only/read-write) that can be
+         * borrowed from the pool at the same time, negative for no limit
+         */
+        private int maxActive = 8;
+
+        /**
+         * Maximum number of connections of all kinds that can be borrowed from the
+         * pool at the same time, negative for no limit
+         */
+        private int maxTotal = -1;
+
+        /**
+         * Maximum number of idle connections per kind kept in the pool, negative for
+         * no limit
+         */
+        private int maxIdle = 8;
+
+        /**
+         * Minimum number of idle connections per kind kept in the pool
+         */
+        private int minIdle = 1;
+
+        /**
+         * How long to wait for a connection when the pool is exhausted before
+         * failing. Negative to wait indefinitely.
+         */
+        private Duration maxWait = Duration.ofSeconds(10);
+
+        /**
+         * Whether to validate connections before borrowing them from the pool
+         */
+        private boolean testOnBorrow = true;
+
+        /**
+         * Whether to validate idle connections during eviction runs
+         */
+        private boolean testWhileIdle = false;
+
+        /**
+         * Time between idle connection eviction runs. Unset to disable the evictor.
+         */
+        private Duration timeBetweenEvictionRuns;
+
+        /**
+         * Minimum time a connection may sit idle in the pool before being eligible
+         * for eviction
+         */
+        private Duration minEvictableIdleTime = Duration.ofMinutes(30);
+
+        /**
+         * Number of idle connections examined on each eviction run
+         */
+        private int numTestsPerEvictionRun = 3;
+    }
+
     public @Override boolean supports(Class<?> clazz) {
         return LdapConfigProperties.class.equals(clazz);
     }
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.georchestra.gateway.security.ldap.LdapConfigProperties.Pool;
+import org.georchestra.gateway.security.ldap.extended.ExtendedPasswordPolicyAwareContextSource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.pool.factory.PoolingContextSource;
+import org.springframework.ldap.pool.validation.DefaultDirContextValidator;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Registry of pooled LDAP {@link ContextSource}s, one per LDAP datasource name,
+ * configured from {@link LdapConfigProperties.Server#getPool()}.
+ * <p>
+ * Implements {@link MeterBinder} to publish the
+ * {@literal georchestra.ldap.pool.active} and
+ * {@literal georchestra.ldap.pool.idle} gauges, tagged with the pool name.
+ * Closes the pooled connections on {@link #destroy()}.
+ * <p>
+ * User authentication context sources can also be {@link #register registered}
+ * to publish their bind metrics and close their bind pools along with the
+ * others, and pools owned elsewhere (e.g. by the application context) only
+ * {@link #monitor monitored}.
+ */
+@Slf4j(topic = "org.georchestra.gateway.security.ldap")
+public class LdapConnectionPools implements MeterBinder, DisposableBean {
+
+    private final Map<String, PoolingContextSource> pools = new ConcurrentHashMap<>();
+
+    private final Map<String, ExtendedPasswordPolicyAwareContextSource> bindSources = new ConcurrentHashMap<>();
+
+    /**
+     * Pools whose metrics are published, but not closed by {@link #destroy()}
+     */
+    private final Map<String, PoolingContextSource> monitored = new ConcurrentHashMap<>();
+
+    private MeterRegistry registry;
+
+    /**
+     * @param name     the pool name, usually the LDAP datasource name
+     * @param settings the pool settings
+     * @param target   creates the non-pooled {@link ContextSource} connections are
+     *                 obtained from
+     * @return the pooled context source for {@code name}, created on first call,
+     *         or {@code target}'s context source if pooling is disabled
+     */
+    public ContextSource contextSource(@NonNull String name, @NonNull Pool settings,
+            @NonNull Supplier<? extends ContextSource> target) {
+        if (!settings.isEnabled()) {
+            log.info("LDAP connection pooling disabled for {}", name);
+            return target.get();
+        }
+        return pools.computeIfAbsent(name, n -> {
+            PoolingContextSource pool = create(target.get(), settings);
+            log.info("Created LDAP connection pool {}: {}", n, settings);
+            synchronized (this) {
+                if (registry != null) {
+                    registerGauges(registry, n, pool);
+                }
+            }
+            return pool;
+        });
+    }
+
+    /**
+     * Creates a {@link PoolingContextSource} for {@code target} with the given
+     * settings
+     */
+    public static PoolingContextSource create(@NonNull ContextSource target, @NonNull Pool settings) {
+        PoolingContextSource pool = new PoolingContextSource();
+        pool.setContextSource(target);
+        pool.setDirContextValidator(new DefaultDirContextValidator());
+        pool.setMaxActive(settings.getMaxActive());
+        pool.setMaxTotal(settings.getMaxTotal());
+        pool.setMaxIdle(settings.getMaxIdle());
+        pool.setMinIdle(settings.getMinIdle());
+        pool.setMaxWait(millis(settings.getMaxWait()));
+        pool.setTestOnBorrow(settings.isTestOnBorrow());
+        pool.setTestWhileIdle(settings.isTestWhileIdle());
+        pool.setTimeBetweenEvictionRunsMillis(millis(settings.getTimeBetweenEvictionRuns()));
+        pool.setMinEvictableIdleTimeMillis(millis(settings.getMinEvictableIdleTime()));
+        pool.setNumTestsPerEvictionRun(settings.getNumTestsPerEvictionRun());
+        return pool;
+    }
+
+    private static long millis(Duration duration) {
+        return duration == null ? -1 : duration.toMillis();
+    }
+
+    /**
+     * Publishes the metrics of a pool closed by its owner, rather than by
+     * {@link #destroy()}
+     */
+    public void monitor(@NonNull String name, @NonNull PoolingContextSource pool) {
+        monitored.put(name, pool);
+        synchronized (this) {
+            if (registry != null) {
+                registerGauges(registry, name, pool);
+            }
+        }
+    }
+
+    /**
+     * Registers a user authentication context source for metrics and shutdown
+     */
+    public void register(@NonNull ExtendedPasswordPolicyAwareContextSource bindSource) {
+        bindSources.put(bindSource.getName(), bindSource);
+        synchronized (this) {
+            if (registry != null) {
+                bindSource.bindTo(registry);
+            }
+        }
+    }
+
+    /**
+     * @return the names of the pools created so far
+     */
+    public Set<String> getPoolNames() {
+        return Set.copyOf(pools.keySet());
+    }
+
+    @Override
+    public synchronized void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        pools.forEach((name, pool) -> registerGauges(registry, name, pool));
+        monitored.forEach((name, pool) -> registerGauges(registry, name, pool));
+        bindSources.values().forEach(source -> source.bindTo(registry));
+    }
+
+    private void registerGauges(MeterRegistry registry, String name, PoolingContextSource pool) {
+        Gauge.builder("georchestra.ldap.pool.active", pool, PoolingContextSource::getNumActive)//
+                .tag("pool", name)//
+                .description("Number of LDAP connections currently borrowed from the pool")//
+                .register(registry);
+        Gauge.builder("georchestra.ldap.pool.idle", pool, PoolingContextSource::getNumIdle)//
+                .tag("pool", name)//
+                .description("Number of idle LDAP connections in the pool")//
+                .register(registry);
+    }
+
+    @Override
+    public void destroy() {
+        pools.forEach((name, pool) -> {
+            try {
+                pool.destroy();
+            } catch (Exception e) {
+                log.warn("Error closing LDAP connection pool {}", name, e);
+            }
+        });
+        pools.clear();
+        bindSources.forEach((name, source) -> {
+            try {
+                source.destroy();
+            } catch (Exception e) {
+                log.warn("Error closing LDAP bind pool {}", name, e);
+            }
+        });
+        bindSources.clear();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.georchestra.gateway.security.ldap.LdapConfigProperties.ThreadPool;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Creates the bounded {@link Scheduler} used to run blocking LDAP queries off
+ * the reactor-netty event loop threads.
+ * <p>
+ * The scheduler is backed by a fixed size thread pool with a bounded work
+ * queue, so that a slow LDAP server results in rejected lookups instead of
+ * unbounded thread or memory growth. If a {@link MeterRegistry} is provided,
+ * the thread pool is instrumented with the standard {@literal executor.*}
+ * metrics under the {@literal name=georchestra.ldap} tag.
+ */
+@Slf4j(topic = "org.georchestra.gateway.security.ldap")
+public class LdapSchedulers {
+
+    public static final String NAME = "georchestra.ldap";
+
+    private LdapSchedulers() {
+        // utility class
+    }
+
+    public static Scheduler create(@NonNull ThreadPool config, MeterRegistry meterRegistry) {
+        final int maxThreads = config.getMaxThreads();
+        final int queueCapacity = config.getQueueCapacity();
+        log.info("Creating LDAP queries scheduler with {} max threads and a queue capacity of {}", maxThreads,
+                queueCapacity);
+
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()//
+                .setNameFormat("georchestra-ldap-%d")//
+                .setDaemon(true)//
+                .build();
+
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(maxThreads, maxThreads,
+                config.getKeepAlive().toMillis(), TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(queueCapacity),
+                threadFactory);
+        threadPool.allowCoreThreadTimeOut(true);
+
+        ExecutorService executor = threadPool;
+        if (meterRegistry != null) {
+            executor = ExecutorServiceMetrics.monitor(meterRegistry, threadPool, NAME, List.<Tag>of());
+        }
+        return Schedulers.fromExecutorService(executor, NAME);
+    }
+}
@@ -23,6 +23,7 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.georchestra.gateway.security.ServerHttpSecurityCustomizer;
+import org.georchestra.gateway.security.ldap.LdapConfigProperties.AuthenticationStrategy;
 import org.georchestra.gateway.security.ldap.basic.BasicLdapAuthenticationConfiguration;
 import org.georchestra.gateway.security.ldap.basic.BasicLdapAuthenticationProvider;
 import org.georchestra.gateway.security.ldap.extended.ExtendedLdapAuthenticationConfiguration;
@@ -43,6 +44,7 @@ import org.springframework.security.web.server.authentication.AuthenticationWebF
 import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatchers;
 
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.scheduler.Scheduler;
 
 /**
  * {@link ServerHttpSecurityCustomizer} to enable LDAP based authentication and
@@ -105,13 +107,18 @@ public class LdapSecurityConfiguration {
 
     @Bean
     public ReactiveAuthenticationManager ldapAuthenticationManager(List<BasicLdapAuthenticationProvider> basic,
-            List<GeorchestraLdapAuthenticationProvider> extended) {
+            List<GeorchestraLdapAuthenticationProvider> extended, LdapConfigProperties config,
+            Scheduler ldapScheduler) {
 
         List<AuthenticationProvider> flattened = Stream.concat(basic.stream(), extended.stream())
                 .map(AuthenticationProvider.class::cast).collect(Collectors.toList());
 
         if (flattened.isEmpty())
             return null;
+        if (flattened.size() > 1 && config.getLdapAuthenticationStrategy() == AuthenticationStrategy.RACE) {
+            log.info("Authenticating against {} LDAP databases concurrently", flattened.size());
+            return new RaceAuthenticationManager(flattened, ldapScheduler);
+        }
         ProviderManager providerManager = new ProviderManager(flattened);
         return new ReactiveAuthenticationManagerAdapter(providerManager);
     }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.authentication.AccountStatusException;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.InternalAuthenticationServiceException;
+import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.authentication.ProviderNotFoundException;
+import org.springframework.security.authentication.ReactiveAuthenticationManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.CredentialsContainer;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * {@link ReactiveAuthenticationManager} that submits the credentials to all
+ * its {@link AuthenticationProvider}s concurrently, instead of one after the
+ * other like {@link ProviderManager} does, so that authenticating against the
+ * last of several LDAP databases doesn't pay for the failed binds on the
+ * previous ones.
+ * <p>
+ * Results are still resolved in provider order, hence the outcome is the same
+ * as with {@link ProviderManager}: the first provider (in list order) that
+ * authenticates the user wins, and the attempts on the following providers are
+ * cancelled as soon as it does. An {@link AccountStatusException} or
+ * {@link InternalAuthenticationServiceException} from a provider ends the
+ * authentication if no previous provider succeeded, and if all providers fail,
+ * the error from the last one is propagated.
+ * <p>
+ * The blocking {@link AuthenticationProvider#authenticate} calls run on the
+ * provided bounded {@link Scheduler}.
+ */
+@RequiredArgsConstructor
+@Slf4j(topic = "org.georchestra.gateway.security.ldap")
+public class RaceAuthenticationManager implements ReactiveAuthenticationManager {
+
+    private final @NonNull List<AuthenticationProvider> providers;
+
+    private final @NonNull Scheduler scheduler;
+
+    @Override
+    public Mono<Authentication> authenticate(Authentication authentication) {
+        final Class<? extends Authentication> type = authentication.getClass();
+        final AuthenticationProvider[] candidates = providers.stream()//
+                .filter(p -> p.supports(type))//
+                .toArray(AuthenticationProvider[]::new);
+        if (candidates.length == 0) {
+            return Mono.error(new ProviderNotFoundException(
+                    "No AuthenticationProvider found for " + type.getName()));
+        }
+        final AtomicReferenceArray<AuthenticationException> failures = new AtomicReferenceArray<>(candidates.length);
+        return Flux.range(0, candidates.length)//
+                .flatMapSequential(i -> attempt(candidates[i], authentication, i, failures))//
+                .next()//
+                .flatMap(outcome -> outcome.resolve(authentication))//
+                .switchIfEmpty(Mono.defer(() -> Mono.error(lastFailure(failures, type))))//
+                .filter(Authentication::isAuthenticated);
+    }
+
+    private Mono<Outcome> attempt(AuthenticationProvider provider, Authentication authentication, int index,
+            AtomicReferenceArray<AuthenticationException> failures) {
+
+        return Mono.fromCallable(() -> provider.authenticate(authentication))//
+                .subscribeOn(scheduler)//
+                .map(Outcome::success)//
+                .onErrorResume(e -> {
+                    if (e instanceof AuthenticationException && !isFatal(e)) {
+                        log.debug("Authentication failed on provider {}: {}", index, e.getMessage());
+                        failures.set(index, (AuthenticationException) e);
+                        return Mono.empty();
+                    }
+                    return Mono.just(Outcome.failure(e));
+                })//
+                .doOnCancel(() -> log.debug("Cancelled authentication attempt on provider {}", index));
+    }
+
+    /**
+     * Same as {@link ProviderManager}, these stop trying the next providers
+     */
+    private boolean isFatal(Throwable e) {
+        return e instanceof AccountStatusException || e instanceof InternalAuthenticationServiceException;
+    }
+
+    private AuthenticationException lastFailure(AtomicReferenceArray<AuthenticationException> failures,
+            Class<? extends Authentication> type) {
+        for (int i = failures.length() - 1; i >= 0; i--) {
+            AuthenticationException failure = failures.get(i);
+            if (failure != null) {
+                return failure;
+            }
+        }
+        return new ProviderNotFoundException("No AuthenticationProvider authenticated " + type.getName());
+    }
+
+    @RequiredArgsConstructor
+    private static class Outcome {
+        private final Authentication result;
+        private final Throwable error;
+
+        static Outcome success(Authentication result) {
+            return new Outcome(result, null);
+        }
+
+        static Outcome failure(Throwable error) {
+            return new Outcome(null, error);
+        }
+
+        Mono<Authentication> resolve(Authentication request) {
+            if (error != null) {
+                return Mono.error(error);
+            }
+            if (result.getDetails() == null && result instanceof AbstractAuthenticationToken) {
+                ((AbstractAuthenticationToken) result).setDetails(request.getDetails());
+            }
+            if (result instanceof CredentialsContainer) {
+                ((CredentialsContainer) result).eraseCredentials();
+            }
+            return Mono.just(result);
+        }
+    }
+}
@@ -20,9 +20,14 @@ package org.georchestra.gateway.security.ldap.basic;
 
 import static java.util.Objects.requireNonNull;
 
+import java.util.function.UnaryOperator;
+
 import org.georchestra.ds.users.AccountDao;
+import org.georchestra.gateway.security.ldap.LdapConfigProperties.Pool;
+import org.georchestra.gateway.security.ldap.LdapConnectionPools;
 import org.georchestra.gateway.security.ldap.extended.ExtendedLdapAuthenticationProvider;
 import org.georchestra.gateway.security.ldap.extended.ExtendedPasswordPolicyAwareContextSource;
+import org.georchestra.gateway.security.ldap.extended.NegativeLookupCache;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.ldap.core.support.BaseLdapPathContextSource;
 import org.springframework.security.core.authority.mapping.GrantedAuthoritiesMapper;
@@ -30,6 +35,7 @@ import org.springframework.security.core.authority.mapping.SimpleAuthorityMapper
 import org.springframework.security.ldap.authentication.BindAuthenticator;
 import org.springframework.security.ldap.search.FilterBasedLdapUserSearch;
 import org.springframework.security.ldap.userdetails.DefaultLdapAuthoritiesPopulator;
+import org.springframework.security.ldap.userdetails.LdapAuthoritiesPopulator;
 
 import lombok.Setter;
 import lombok.experimental.Accessors;
@@ -54,6 +60,26 @@ public class LdapAuthenticatorProviderBuilder {
 
     private @Setter AccountDao accountDao;
 
+    /**
+     * LDAP config name and negative lookups cache used to skip e-mail lookups
+     * known to find no account
+     */
+    private @Setter String configName;
+    private @Setter NegativeLookupCache negativeLookupCache;
+
+    /**
+     * Optional pool of connections re-bound to authenticate users, and registry
+     * the context source is registered to for metrics and shutdown
+     */
+    private @Setter Pool bindPool;
+    private @Setter LdapConnectionPools connectionPools;
+
+    /**
+     * Optionally replaces or decorates the default roles search based authorities
+     * populator
+     */
+    private @Setter UnaryOperator<LdapAuthoritiesPopulator> rolesPopulatorDecorator = UnaryOperator.identity();
+
     // null = all atts, empty == none
     private @Setter String[] returningAttributes = null;
 
@@ -67,7 +93,8 @@ public class LdapAuthenticatorProviderBuilder {
 
         final ExtendedPasswordPolicyAwareContextSource source = contextSource();
         final BindAuthenticator authenticator = ldapAuthenticator(source);
-        final DefaultLdapAuthoritiesPopulator rolesPopulator = ldapAuthoritiesPopulator(source);
+        final LdapAuthoritiesPopulator rolesPopulator = rolesPopulatorDecorator
+                .apply(ldapAuthoritiesPopulator(source));
         ExtendedLdapAuthenticationProvider provider = new ExtendedLdapAuthenticationProvider(authenticator,
                 rolesPopulator);
 
@@ -75,6 +102,7 @@ public class LdapAuthenticatorProviderBuilder {
         provider.setAuthoritiesMapper(rolesMapper);
         provider.setUserDetailsContextMapper(new LdapUserDetailsMapper());
         provider.setAccountDao(accountDao);
+        provider.setNegativeLookupCache(configName, negativeLookupCache);
         return provider;
     }
 
@@ -97,7 +125,12 @@ public class LdapAuthenticatorProviderBuilder {
             context.setUserDn(adminDn);
             context.setPassword(adminPassword);
         }
+        context.setName(configName == null ? url : configName);
+        context.setBindPool(bindPool);
         context.afterPropertiesSet();
+        if (connectionPools != null) {
+            connectionPools.register(context);
+        }
         return context;
     }
 
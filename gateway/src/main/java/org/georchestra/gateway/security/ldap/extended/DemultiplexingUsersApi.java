@@ -19,19 +19,32 @@
 
 package org.georchestra.gateway.security.ldap.extended;
 
+import java.time.Duration;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 
+import org.georchestra.gateway.events.LdapModificationEvent;
+import org.georchestra.gateway.model.CacheConfigProperties;
+import org.georchestra.gateway.model.CacheConfigProperties.CacheSpec;
+import org.georchestra.gateway.model.CacheConfigProperties.WarmUp;
+import org.georchestra.gateway.security.ldap.extended.NegativeLookupCache.Attribute;
 import org.georchestra.security.api.UsersApi;
 import org.georchestra.security.model.GeorchestraUser;
+import org.springframework.context.event.EventListener;
 
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
+import lombok.Value;
 
 /**
  * Demultiplexer to call the appropriate {@link UsersApi} based on the
@@ -44,12 +57,77 @@ import lombok.RequiredArgsConstructor;
  * database the authentication object was created from, avoiding the need to
  * disambiguate if two configured LDAP databases have accounts with the same
  * {@literal username}.
+ * <p>
+ * Lookups that find no user are recorded in a {@link NegativeLookupCache}, so
+ * that repeated misses don't hit the LDAP database until they expire.
+ * <p>
+ * Users {@link #loadAuthenticated loaded} while authenticating are kept for a
+ * short while, as configured through
+ * {@link CacheConfigProperties#getAuthenticatedUsers()}, so that {@link GeorchestraLdapAuthenticatedUserMapper} can
+ * {@link #findAuthenticated reuse} them instead of querying the LDAP database
+ * again right after the login.
+ * <p>
+ * Users of an LDAP database can also be {@link #preload preloaded}, for example
+ * at startup, in which case {@link #findByUsername} returns copies of them
+ * instead of querying the LDAP database until they expire. Since it's also used
+ * to authenticate users, preloaded users shouldn't be kept longer than resolved
+ * users are cached.
+ * <p>
+ * Cached users are evicted upon {@link LdapModificationEvent}s: the modified
+ * user from all LDAP databases, since the event doesn't tell which one it comes
+ * from, or all users if a role was modified. Negative lookups are discarded on
+ * any user modification, since it may be a user creation or e-mail change.
  */
-@RequiredArgsConstructor
 class DemultiplexingUsersApi {
 
     private final @NonNull Map<String, UsersApi> targets;
 
+    private final @NonNull NegativeLookupCache negativeLookups;
+
+    /**
+     * Users loaded at authentication time, kept for the user mapper
+     */
+    private final Cache<UserKey, GeorchestraUser> authenticatedUsers;
+
+    /**
+     * Users {@link #preload preloaded} by user name, {@code null} until the first
+     * preload
+     */
+    private volatile Cache<UserKey, GeorchestraUser> preloadedUsers;
+
+    private static final ObjectMapper COPIER = new ObjectMapper()//
+            .setSerializationInclusion(Include.NON_NULL)//
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Value
+    private static class UserKey {
+        private String serviceName;
+        private String name;
+    }
+
+    DemultiplexingUsersApi(Map<String, UsersApi> targets) {
+        this(targets, NegativeLookupCache.disabled());
+    }
+
+    DemultiplexingUsersApi(Map<String, UsersApi> targets, NegativeLookupCache negativeLookups) {
+        this(targets, negativeLookups, new CacheConfigProperties().getAuthenticatedUsers());
+    }
+
+    /**
+     * @param authenticatedUsersSpec how many users loaded at authentication time
+     *                               are kept, and for how long. If disabled, they
+     *                               are not kept at all.
+     */
+    public DemultiplexingUsersApi(@NonNull Map<String, UsersApi> targets, @NonNull NegativeLookupCache negativeLookups,
+            @NonNull CacheSpec authenticatedUsersSpec) {
+        this.targets = targets;
+        this.negativeLookups = negativeLookups;
+        this.authenticatedUsers = CacheBuilder.newBuilder()//
+                .maximumSize(authenticatedUsersSpec.isEnabled() ? authenticatedUsersSpec.getMaximumSize() : 0)//
+                .expireAfterWrite(authenticatedUsersSpec.getTimeToLive())//
+                .build();
+    }
+
     public @VisibleForTesting Set<String> getTargetNames() {
         return new HashSet<>(targets.keySet());
     }
@@ -65,14 +143,117 @@ class DemultiplexingUsersApi {
      *         {@link UsersApi}, or {@link Optional#empty() empty} if not found
      */
     public Optional<GeorchestraUser> findByUsername(@NonNull String serviceName, @NonNull String username) {
-        UsersApi target = targets.get(serviceName);
-        Objects.requireNonNull(target, () -> "No UsersApi found for config named " + serviceName);
-        return target.findByUsername(username);
+        UsersApi target = target(serviceName);
+        final Cache<UserKey, GeorchestraUser> preloaded = this.preloadedUsers;
+        if (preloaded != null) {
+            GeorchestraUser user = preloaded.getIfPresent(new UserKey(serviceName, username));
+            if (user != null) {
+                // callers may modify the returned user
+                return Optional.of(COPIER.convertValue(user, GeorchestraUser.class));
+            }
+        }
+        return negativeLookups.lookup(serviceName, Attribute.USERNAME, username,
+                () -> target.findByUsername(username));
     }
 
     public Optional<GeorchestraUser> findByEmail(@NonNull String serviceName, @NonNull String email) {
+        UsersApi target = target(serviceName);
+        return negativeLookups.lookup(serviceName, Attribute.EMAIL, email, () -> target.findByEmail(email));
+    }
+
+    /**
+     * Looks up a user being authenticated, and keeps it for
+     * {@link #findAuthenticated} to return for a short while
+     * 
+     * @param serviceName the configured LDAP service name
+     * @param username    the user name of the authenticated LDAP entry
+     * @param loginName   the name the user logged in with, either the user name or
+     *                    the e-mail address
+     */
+    public Optional<GeorchestraUser> loadAuthenticated(@NonNull String serviceName, @NonNull String username,
+            @NonNull String loginName) {
+        Optional<GeorchestraUser> user = findByUsername(serviceName, username);
+        user.ifPresent(u -> authenticatedUsers.put(new UserKey(serviceName, loginName), u));
+        return user;
+    }
+
+    /**
+     * @return the user {@link #loadAuthenticated loaded} when authenticating with
+     *         {@code loginName} against {@code serviceName}, if it was loaded
+     *         recently enough. Callers get their own copy, so they may modify it.
+     */
+    public Optional<GeorchestraUser> findAuthenticated(@NonNull String serviceName, @NonNull String loginName) {
+        return Optional.ofNullable(authenticatedUsers.getIfPresent(new UserKey(serviceName, loginName)))
+                .map(user -> COPIER.convertValue(user, GeorchestraUser.class));
+    }
+
+    /**
+     * Loads all the users of {@code serviceName}, so that {@link #findByUsername}
+     * doesn't query the LDAP database for them until they expire after
+     * {@code timeToLive}. Blocking.
+     * 
+     * @param timeToLive how long preloaded users are used, only applied by the
+     *                   first preload
+     * @return the number of users loaded
+     */
+    public int preload(@NonNull String serviceName, @NonNull WarmUp spec, @NonNull Duration timeToLive) {
+        UsersApi target = target(serviceName);
+        Cache<UserKey, GeorchestraUser> preloaded = preloadedUsers(spec, timeToLive);
+        List<GeorchestraUser> all = target.findAll();
+        for (GeorchestraUser user : all) {
+            if (user.getUsername() != null) {
+                preloaded.put(new UserKey(serviceName, user.getUsername()), user);
+            }
+        }
+        return all.size();
+    }
+
+    @EventListener(LdapModificationEvent.class)
+    public void onLdapModification(LdapModificationEvent event) {
+        switch (event.getType()) {
+        case USER:
+            event.getName().ifPresentOrElse(this::invalidateUser, this::invalidateAll);
+            negativeLookups.invalidateAll();
+            break;
+        case ROLE:
+            invalidateAll();
+            break;
+        default:
+            break;
+        }
+    }
+
+    private void invalidateUser(String username) {
+        // authenticated users are keyed by login name, which may be the e-mail
+        authenticatedUsers.asMap().entrySet().removeIf(e -> username.equals(e.getKey().getName())
+                || username.equals(e.getValue().getUsername()));
+        final Cache<UserKey, GeorchestraUser> preloaded = this.preloadedUsers;
+        if (preloaded != null) {
+            preloaded.asMap().keySet().removeIf(key -> username.equals(key.getName()));
+        }
+    }
+
+    private void invalidateAll() {
+        authenticatedUsers.invalidateAll();
+        final Cache<UserKey, GeorchestraUser> preloaded = this.preloadedUsers;
+        if (preloaded != null) {
+            preloaded.invalidateAll();
+        }
+    }
+
+    private synchronized Cache<UserKey, GeorchestraUser> preloadedUsers(WarmUp spec, Duration timeToLive) {
+        if (preloadedUsers == null) {
+            preloadedUsers = CacheBuilder.newBuilder()//
+                    .maximumSize(spec.getMaximumSize())//
+                    .expireAfterWrite(timeToLive)//
+                    .build();
+        }
+        return preloadedUsers;
+    }
+
+    private UsersApi target(String serviceName) {
         UsersApi target = targets.get(serviceName);
         Objects.requireNonNull(target, () -> "No UsersApi found for config named " + serviceName);
-        return target.findByEmail(email);
+        return target;
     }
 }
@@ -25,6 +25,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 import org.georchestra.ds.orgs.OrgsDao;
@@ -32,28 +33,39 @@ import org.georchestra.ds.orgs.OrgsDaoImpl;
 import org.georchestra.ds.roles.RoleDao;
 import org.georchestra.ds.roles.RoleDaoImpl;
 import org.georchestra.ds.roles.RoleProtected;
+import org.georchestra.ds.security.OrganizationMapperImpl;
+import org.georchestra.ds.security.OrganizationsApiImpl;
 import org.georchestra.ds.security.UserMapper;
 import org.georchestra.ds.security.UserMapperImpl;
 import org.georchestra.ds.security.UsersApiImpl;
 import org.georchestra.ds.users.AccountDao;
 import org.georchestra.ds.users.AccountDaoImpl;
 import org.georchestra.ds.users.UserRule;
+import org.georchestra.gateway.model.CacheConfigProperties;
 import org.georchestra.gateway.security.GeorchestraUserMapperExtension;
 import org.georchestra.gateway.security.ldap.LdapConfigProperties;
-import org.georchestra.gateway.security.ldap.LdapConfigProperties.Server;
+import org.georchestra.gateway.security.ldap.LdapConnectionPools;
+import org.georchestra.gateway.security.ldap.LdapSchedulers;
 import org.georchestra.gateway.security.ldap.basic.LdapAuthenticatorProviderBuilder;
+import org.georchestra.security.api.OrganizationsApi;
 import org.georchestra.security.api.UsersApi;
 import org.georchestra.security.model.GeorchestraUser;
 import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.ldap.core.ContextSource;
 import org.springframework.ldap.core.LdapTemplate;
 import org.springframework.ldap.core.support.LdapContextSource;
 import org.springframework.security.ldap.authentication.LdapAuthenticationProvider;
+import org.springframework.security.ldap.userdetails.LdapAuthoritiesPopulator;
 import org.springframework.security.ldap.userdetails.LdapUserDetails;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.scheduler.Scheduler;
 
 /**
  * Sets up a {@link GeorchestraUserMapperExtension} that knows how to map an
@@ -64,13 +76,42 @@ import lombok.extern.slf4j.Slf4j;
  * {@literal georchestra-ldap-account-management} module's {@link UsersApi}.
  */
 @Configuration(proxyBeanMethods = false)
-@EnableConfigurationProperties(LdapConfigProperties.class)
+@EnableConfigurationProperties({ LdapConfigProperties.class, CacheConfigProperties.class })
 @Slf4j(topic = "org.georchestra.gateway.security.ldap.extended")
 public class ExtendedLdapAuthenticationConfiguration {
 
     @Bean
-    public GeorchestraLdapAuthenticatedUserMapper georchestraLdapAuthenticatedUserMapper(DemultiplexingUsersApi users) {
-        return users.getTargetNames().isEmpty() ? null : new GeorchestraLdapAuthenticatedUserMapper(users);
+    public GeorchestraLdapAuthenticatedUserMapper georchestraLdapAuthenticatedUserMapper(DemultiplexingUsersApi users,
+            Scheduler ldapScheduler) {
+        return users.getTargetNames().isEmpty() ? null
+                : new GeorchestraLdapAuthenticatedUserMapper(users, ldapScheduler);
+    }
+
+    /**
+     * Bounded scheduler to run the blocking {@link UsersApi} queries off the
+     * reactor-netty event loop threads
+     */
+    @Bean(destroyMethod = "dispose")
+    public Scheduler ldapScheduler(LdapConfigProperties config, ObjectProvider<MeterRegistry> meterRegistry) {
+        return LdapSchedulers.create(config.getLdapThreadPool(), meterRegistry.getIfAvailable());
+    }
+
+    /**
+     * Cache of LDAP lookups that found no user, configured through
+     * {@link CacheConfigProperties#getNegativeLookups()}
+     */
+    @Bean
+    public NegativeLookupCache ldapNegativeLookupCache(CacheConfigProperties config) {
+        return new NegativeLookupCache(config.getNegativeLookups());
+    }
+
+    /**
+     * Pooled LDAP connections for the account management {@link LdapTemplate}s,
+     * one pool per extended LDAP config
+     */
+    @Bean
+    public LdapConnectionPools ldapConnectionPools() {
+        return new LdapConnectionPools();
     }
 
     @Bean
@@ -79,16 +120,29 @@ public class ExtendedLdapAuthenticationConfiguration {
     }
 
     @Bean
-    List<GeorchestraLdapAuthenticationProvider> extendedLdapAuthenticationProviders(List<ExtendedLdapConfig> configs) {
-        return configs.stream().map(this::createLdapProvider).collect(Collectors.toList());
+    List<GeorchestraLdapAuthenticationProvider> extendedLdapAuthenticationProviders(List<ExtendedLdapConfig> configs,
+            NegativeLookupCache ldapNegativeLookupCache, LdapConnectionPools ldapConnectionPools,
+            DemultiplexingUsersApi demultiplexingUsersApi) {
+        return configs.stream().map(config -> createLdapProvider(config, ldapNegativeLookupCache, ldapConnectionPools,
+                demultiplexingUsersApi)).collect(Collectors.toList());
     }
 
-    private GeorchestraLdapAuthenticationProvider createLdapProvider(ExtendedLdapConfig config) {
+    private GeorchestraLdapAuthenticationProvider createLdapProvider(ExtendedLdapConfig config,
+            NegativeLookupCache negativeLookupCache, LdapConnectionPools pools, DemultiplexingUsersApi users) {
         log.info("Creating extended LDAP AuthenticationProvider {} at {}", config.getName(), config.getUrl());
 
+        // the UsersApi finds roles by member DN, only reuse it if the roles search does the same
+        final UnaryOperator<LdapAuthoritiesPopulator> rolesPopulator;
+        if (UsersApiAuthoritiesPopulator.supportsRolesSearchFilter(config.getRolesSearchFilter())) {
+            rolesPopulator = roleSearch -> new UsersApiAuthoritiesPopulator(config.getName(), users, roleSearch);
+        } else {
+            log.info("LDAP config {} has a custom roles search filter {}, roles will be searched separately",
+                    config.getName(), config.getRolesSearchFilter());
+            rolesPopulator = UnaryOperator.identity();
+        }
         final LdapTemplate ldapTemplate;
         try {
-            ldapTemplate = ldapTemplate(config);
+            ldapTemplate = ldapTemplate(config, pools);
             final AccountDao accountsDao = accountsDao(ldapTemplate, config);
             ExtendedLdapAuthenticationProvider delegate = new LdapAuthenticatorProviderBuilder()//
                     .url(config.getUrl())//
@@ -99,7 +153,12 @@ public class ExtendedLdapAuthenticationConfiguration {
                     .rolesSearchFilter(config.getRolesSearchFilter())//
                     .adminDn(config.getAdminDn().orElse(null))//
                     .adminPassword(config.getAdminPassword().orElse(null))//
-                    .returningAttributes(config.getReturningAttributes()).accountDao(accountsDao).build();
+                    .returningAttributes(config.getReturningAttributes()).accountDao(accountsDao)//
+                    .configName(config.getName()).negativeLookupCache(negativeLookupCache)//
+                    .bindPool(config.getBindPool()).connectionPools(pools)//
+                    // load the user and its roles in one go, and keep it for the user mapper
+                    .rolesPopulatorDecorator(rolesPopulator)//
+                    .build();
             return new GeorchestraLdapAuthenticationProvider(config.getName(), delegate);
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -107,25 +166,61 @@ public class ExtendedLdapAuthenticationConfiguration {
     }
 
     @Bean
-    DemultiplexingUsersApi demultiplexingUsersApi(List<ExtendedLdapConfig> configs) {
+    DemultiplexingUsersApi demultiplexingUsersApi(List<ExtendedLdapConfig> configs,
+            NegativeLookupCache ldapNegativeLookupCache, LdapConnectionPools ldapConnectionPools,
+            CacheConfigProperties cacheConfig) {
         Map<String, UsersApi> targets = new HashMap<>();
         for (ExtendedLdapConfig config : configs) {
             try {
-                targets.put(config.getName(), createUsersApi(config));
+                targets.put(config.getName(), createUsersApi(config, ldapConnectionPools));
             } catch (Exception ex) {
                 throw new BeanInitializationException(
                         "Error creating georchestra users api for ldap config " + config.getName(), ex);
             }
         }
-        return new DemultiplexingUsersApi(targets);
+        return new DemultiplexingUsersApi(targets, ldapNegativeLookupCache, cacheConfig.getAuthenticatedUsers());
+    }
+
+    /**
+     * Resolves the organization of LDAP authenticated users, caching them as
+     * configured through {@link CacheConfigProperties#getOrganizations()}
+     */
+    @Bean
+    LdapOrganizationResolver ldapOrganizationResolver(List<ExtendedLdapConfig> configs,
+            LdapConnectionPools ldapConnectionPools, Scheduler ldapScheduler, CacheConfigProperties cacheConfig) {
+        Map<String, OrganizationsApi> targets = new HashMap<>();
+        for (ExtendedLdapConfig config : configs) {
+            try {
+                targets.put(config.getName(), createOrgsApi(config, ldapConnectionPools));
+            } catch (Exception ex) {
+                throw new BeanInitializationException(
+                        "Error creating georchestra organizations api for ldap config " + config.getName(), ex);
+            }
+        }
+        return targets.isEmpty() ? null
+                : new LdapOrganizationResolver(targets, cacheConfig.getOrganizations(), ldapScheduler);
+    }
+
+    /**
+     * Pre-loads LDAP users and organizations once the application is ready, if
+     * enabled through {@link CacheConfigProperties#getWarmUp()}
+     */
+    @Bean
+    @ConditionalOnProperty(name = "georchestra.gateway.cache.warm-up.enabled", havingValue = "true")
+    LdapCacheWarmUp ldapCacheWarmUp(List<ExtendedLdapConfig> configs, DemultiplexingUsersApi demultiplexingUsersApi,
+            ObjectProvider<LdapOrganizationResolver> ldapOrganizationResolver, Scheduler ldapScheduler,
+            CacheConfigProperties cacheConfig) {
+        List<String> configNames = configs.stream().map(ExtendedLdapConfig::getName).collect(Collectors.toList());
+        return new LdapCacheWarmUp(configNames, demultiplexingUsersApi, ldapOrganizationResolver.getIfAvailable(),
+                cacheConfig.getWarmUp(), cacheConfig.getUsers().getTimeToLive(), ldapScheduler);
     }
 
     //////////////////////////////////////////////
     /// Low level LDAP account management beans
     //////////////////////////////////////////////
 
-    private UsersApi createUsersApi(ExtendedLdapConfig ldapConfig) throws Exception {
-        final LdapTemplate ldapTemplate = ldapTemplate(ldapConfig);
+    private UsersApi createUsersApi(ExtendedLdapConfig ldapConfig, LdapConnectionPools pools) throws Exception {
+        final LdapTemplate ldapTemplate = ldapTemplate(ldapConfig, pools);
         final AccountDao accountsDao = accountsDao(ldapTemplate, ldapConfig);
         final RoleDao roleDao = roleDao(ldapTemplate, ldapConfig, accountsDao);
 
@@ -139,17 +234,29 @@ public class ExtendedLdapAuthenticationConfiguration {
         return impl;
     }
 
+    private OrganizationsApi createOrgsApi(ExtendedLdapConfig ldapConfig, LdapConnectionPools pools)
+            throws Exception {
+        final LdapTemplate ldapTemplate = ldapTemplate(ldapConfig, pools);
+        OrganizationsApiImpl impl = new OrganizationsApiImpl();
+        impl.setOrgsDao(orgsDao(ldapTemplate, ldapConfig));
+        impl.setOrgMapper(new OrganizationMapperImpl());
+        return impl;
+    }
+
     private UserMapper createUserMapper(RoleDao roleDao) {
         UserMapperImpl impl = new UserMapperImpl();
         impl.setRoleDao(roleDao);
         return impl;
     }
 
-    private LdapTemplate ldapTemplate(ExtendedLdapConfig server) throws Exception {
-        LdapContextSource contextSource = new LdapContextSource();
-        contextSource.setUrl(server.getUrl());
-        contextSource.setBase(server.getBaseDn());
-        contextSource.afterPropertiesSet();
+    private LdapTemplate ldapTemplate(ExtendedLdapConfig server, LdapConnectionPools pools) throws Exception {
+        ContextSource contextSource = pools.contextSource(server.getName(), server.getPool(), () -> {
+            LdapContextSource target = new LdapContextSource();
+            target.setUrl(server.getUrl());
+            target.setBase(server.getBaseDn());
+            target.afterPropertiesSet();
+            return target;
+        });
 
         LdapTemplate ldapTemplate = new LdapTemplate(contextSource);
         ldapTemplate.afterPropertiesSet();
@@ -197,12 +304,11 @@ public class ExtendedLdapAuthenticationConfiguration {
         return impl;
     }
 
-    @SuppressWarnings("unused")
-    private OrgsDao orgsDao(LdapTemplate ldapTemplate, Server ldapConfig) {
+    private OrgsDao orgsDao(LdapTemplate ldapTemplate, ExtendedLdapConfig ldapConfig) {
         OrgsDaoImpl impl = new OrgsDaoImpl();
         impl.setLdapTemplate(ldapTemplate);
         impl.setBasePath(ldapConfig.getBaseDn());
-        impl.setOrgSearchBaseDN(ldapConfig.getOrgs().getRdn());
+        impl.setOrgSearchBaseDN(ldapConfig.getOrgsRdn());
 
         final String pendingOrgSearchBaseDN = "ou=pendingorgs";
 
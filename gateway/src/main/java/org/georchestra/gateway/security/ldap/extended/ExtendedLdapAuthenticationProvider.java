@@ -3,6 +3,7 @@ package org.georchestra.gateway.security.ldap.extended;
 import org.georchestra.ds.DataServiceException;
 import org.georchestra.ds.users.Account;
 import org.georchestra.ds.users.AccountDao;
+import org.georchestra.gateway.security.ldap.extended.NegativeLookupCache.Attribute;
 import org.springframework.ldap.NameNotFoundException;
 import org.springframework.ldap.core.DirContextOperations;
 import org.springframework.security.authentication.BadCredentialsException;
@@ -20,6 +21,10 @@ public class ExtendedLdapAuthenticationProvider extends LdapAuthenticationProvid
 
     private AccountDao accountDao;
 
+    private String configName;
+
+    private NegativeLookupCache negativeLookups = NegativeLookupCache.disabled();
+
     public ExtendedLdapAuthenticationProvider(LdapAuthenticator authenticator,
             LdapAuthoritiesPopulator authoritiesPopulator) {
         super(authenticator, authoritiesPopulator);
@@ -29,18 +34,23 @@ public class ExtendedLdapAuthenticationProvider extends LdapAuthenticationProvid
         this.accountDao = accountDao;
     }
 
+    /**
+     * Sets the cache of e-mail addresses known not to belong to any account in the
+     * LDAP config named {@code configName}, to avoid looking them up on every
+     * login attempt of users logging in with their user name
+     */
+    public void setNegativeLookupCache(String configName, NegativeLookupCache negativeLookups) {
+        this.configName = configName;
+        this.negativeLookups = negativeLookups == null ? NegativeLookupCache.disabled() : negativeLookups;
+    }
+
     @Override
     public Authentication authenticate(Authentication authentication) throws AuthenticationException {
         Assert.isInstanceOf(UsernamePasswordAuthenticationToken.class, authentication,
                 () -> this.messages.getMessage("LdapAuthenticationProvider.onlySupports",
                         "Only UsernamePasswordAuthenticationToken is supported"));
         UsernamePasswordAuthenticationToken userToken = (UsernamePasswordAuthenticationToken) authentication;
-        Account account = null;
-        try {
-            account = accountDao.findByEmail(userToken.getName());
-        } catch (DataServiceException e) {
-        } catch (NameNotFoundException e) {
-        }
+        Account account = findByEmail(userToken.getName());
         if (account != null) {
             userToken = new UsernamePasswordAuthenticationToken(account.getUid(), userToken.getCredentials());
         }
@@ -63,4 +73,20 @@ public class ExtendedLdapAuthenticationProvider extends LdapAuthenticationProvid
 
         return createSuccessfulAuthentication(userToken, user);
     }
+
+    private Account findByEmail(String email) {
+        final boolean cacheable = configName != null && email != null;
+        if (cacheable && negativeLookups.isMissing(configName, Attribute.EMAIL, email)) {
+            return null;
+        }
+        try {
+            return accountDao.findByEmail(email);
+        } catch (NameNotFoundException e) {
+            if (cacheable) {
+                negativeLookups.putMissing(configName, Attribute.EMAIL, email);
+            }
+        } catch (DataServiceException e) {
+        }
+        return null;
+    }
 }
@@ -21,6 +21,8 @@ package org.georchestra.gateway.security.ldap.extended;
 
 import java.util.Optional;
 
+import org.georchestra.gateway.security.ldap.LdapConfigProperties.Pool;
+
 import lombok.Builder;
 import lombok.Generated;
 import lombok.NonNull;
@@ -46,4 +48,10 @@ public class ExtendedLdapConfig {
     private @NonNull Optional<String> adminPassword;
 
     private @NonNull String orgsRdn;
+
+    @Builder.Default
+    private @NonNull Pool pool = new Pool();
+
+    @Builder.Default
+    private @NonNull Pool bindPool = new Pool().setEnabled(false);
 }
\ No newline at end of file
@@ -1,28 +1,171 @@
 package org.georchestra.gateway.security.ldap.extended;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.pool.BasePoolableObjectFactory;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.georchestra.gateway.security.ldap.LdapConfigProperties.Pool;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.core.log.LogMessage;
+import org.springframework.ldap.UncategorizedLdapException;
+import org.springframework.ldap.pool.DirContextType;
+import org.springframework.ldap.pool.validation.DefaultDirContextValidator;
 import org.springframework.ldap.support.LdapUtils;
 import org.springframework.security.ldap.ppolicy.*;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
 import javax.naming.Context;
 import javax.naming.directory.DirContext;
 import javax.naming.ldap.Control;
 import javax.naming.ldap.LdapContext;
 
-public class ExtendedPasswordPolicyAwareContextSource extends PasswordPolicyAwareContextSource {
+/**
+ * {@link PasswordPolicyAwareContextSource} that binds as the manager user
+ * before re-binding as the user being authenticated.
+ * <p>
+ * By default, each user bind opens a new connection. If a
+ * {@link #setBindPool(Pool) bind pool} is configured, user binds re-bind a
+ * connection borrowed from a dedicated pool instead, which is returned to the
+ * pool once the returned context is closed. Pooled connections are only ever
+ * used to authenticate users, and are re-bound as the manager user when
+ * returned to the pool, so that idle connections are never left bound as the
+ * last user authenticated.
+ * <p>
+ * Implements {@link MeterBinder} to publish the {@literal georchestra.ldap.bind}
+ * timer, tagged with the {@link #setName(String) config name}, the bind
+ * {@literal mode} ({@literal pooled} or {@literal direct}), and the
+ * {@literal outcome}, and the bind pool's {@literal georchestra.ldap.pool.*}
+ * gauges.
+ */
+public class ExtendedPasswordPolicyAwareContextSource extends PasswordPolicyAwareContextSource
+        implements MeterBinder, DisposableBean {
+
+    static final String BIND_TIMER = "georchestra.ldap.bind";
+
+    private static final String JNDI_POOLING_FLAG = "com.sun.jndi.ldap.connect.pool";
+
+    private String name = "default";
+
+    private GenericObjectPool<LdapContext> bindPool;
+
+    private volatile Timer successTimer;
+    private volatile Timer failureTimer;
 
     public ExtendedPasswordPolicyAwareContextSource(String providerUrl) {
         super(providerUrl);
     }
 
+    /**
+     * @param name the LDAP config name used to tag the published metrics
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Enables re-binding pooled connections to authenticate users, with the given
+     * pool settings. Does nothing if {@code settings} is disabled.
+     * <p>
+     * The bind pool holds a single kind of connections, so at most the lowest of
+     * {@link Pool#getMaxActive() max-active} and {@link Pool#getMaxTotal()
+     * max-total} connections are borrowed at the same time.
+     */
+    public void setBindPool(Pool settings) {
+        if (settings == null || !settings.isEnabled()) {
+            return;
+        }
+        GenericObjectPool<LdapContext> pool = new GenericObjectPool<>(new BindConnectionFactory());
+        pool.setWhenExhaustedAction(GenericObjectPool.WHEN_EXHAUSTED_BLOCK);
+        pool.setMaxActive(maxActive(settings));
+        pool.setMaxIdle(settings.getMaxIdle());
+        pool.setMinIdle(settings.getMinIdle());
+        pool.setMaxWait(millis(settings.getMaxWait()));
+        pool.setTestOnBorrow(settings.isTestOnBorrow());
+        pool.setTestWhileIdle(settings.isTestWhileIdle());
+        pool.setTimeBetweenEvictionRunsMillis(millis(settings.getTimeBetweenEvictionRuns()));
+        pool.setMinEvictableIdleTimeMillis(millis(settings.getMinEvictableIdleTime()));
+        pool.setNumTestsPerEvictionRun(settings.getNumTestsPerEvictionRun());
+        this.bindPool = pool;
+    }
+
+    private static int maxActive(Pool settings) {
+        final int maxActive = settings.getMaxActive();
+        final int maxTotal = settings.getMaxTotal();
+        if (maxTotal < 0) {
+            return maxActive;
+        }
+        return maxActive < 0 ? maxTotal : Math.min(maxActive, maxTotal);
+    }
+
+    private static long millis(Duration duration) {
+        return duration == null ? -1 : duration.toMillis();
+    }
+
+    public boolean isBindPoolEnabled() {
+        return bindPool != null;
+    }
+
     @Override
     public DirContext getContext(String principal, String credentials) throws PasswordPolicyException {
         if (principal.equals(this.userDn)) {
             return super.getContext(principal, credentials);
         }
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            DirContext ctx = bindPool == null ? bindDirect(principal, credentials) : bindPooled(principal, credentials);
+            success = true;
+            return ctx;
+        } finally {
+            recordBindTime(System.nanoTime() - start, success);
+        }
+    }
+
+    private DirContext bindDirect(String principal, String credentials) {
         this.logger.trace(LogMessage.format("Binding as %s, prior to reconnect as user %s", this.userDn, principal));
         // First bind as manager user before rebinding as the specific principal.
         LdapContext ctx = (LdapContext) super.getContext(this.userDn, this.password);
+        try {
+            reconnect(ctx, principal, credentials);
+        } catch (RuntimeException e) {
+            LdapUtils.closeContext(ctx);
+            throw e;
+        }
+        return ctx;
+    }
+
+    private DirContext bindPooled(String principal, String credentials) {
+        this.logger.trace(LogMessage.format("Reconnecting pooled connection as user %s", principal));
+        final LdapContext ctx = borrow();
+        try {
+            reconnect(ctx, principal, credentials);
+        } catch (PasswordPolicyException | org.springframework.ldap.AuthenticationException e) {
+            // the bind was rejected, but the connection is still usable
+            release(ctx, false);
+            throw e;
+        } catch (RuntimeException e) {
+            release(ctx, true);
+            throw e;
+        }
+        return pooledContext(ctx);
+    }
+
+    private void reconnect(LdapContext ctx, String principal, String credentials) {
         Control[] rctls = { new PasswordPolicyControl(false) };
         try {
             ctx.addToEnvironment(Context.SECURITY_PRINCIPAL, principal);
@@ -33,13 +176,153 @@ public class ExtendedPasswordPolicyAwareContextSource extends PasswordPolicyAwar
             if (this.logger.isDebugEnabled()) {
                 this.logger.debug(LogMessage.format("Failed to bind with %s", ctrl), ex);
             }
-            LdapUtils.closeContext(ctx);
             if (ctrl != null && ctrl.getErrorStatus() != null) {
                 throw new PasswordPolicyException(ctrl.getErrorStatus());
             }
             throw LdapUtils.convertLdapException(ex);
         }
         this.logger.debug(LogMessage.of(() -> "Bound with " + PasswordPolicyControlExtractor.extractControl(ctx)));
-        return ctx;
     }
-}
\ No newline at end of file
+
+    private LdapContext borrow() {
+        try {
+            return bindPool.borrowObject();
+        } catch (javax.naming.NamingException e) {
+            throw LdapUtils.convertLdapException(e);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new UncategorizedLdapException("Unable to borrow a connection from the LDAP bind pool", e);
+        }
+    }
+
+    private void release(LdapContext ctx, boolean invalidate) {
+        try {
+            if (invalidate) {
+                bindPool.invalidateObject(ctx);
+            } else {
+                bindPool.returnObject(ctx);
+            }
+        } catch (Exception e) {
+            this.logger.debug("Error returning connection to the LDAP bind pool", e);
+        }
+    }
+
+    /**
+     * @return a proxy to {@code ctx} that returns it to the bind pool when closed,
+     *         or invalidates it if it failed with a
+     *         {@link javax.naming.CommunicationException}
+     */
+    private LdapContext pooledContext(LdapContext ctx) {
+        final AtomicBoolean closed = new AtomicBoolean();
+        final AtomicBoolean broken = new AtomicBoolean();
+        InvocationHandler handler = (proxy, method, args) -> {
+            if ("close".equals(method.getName()) && method.getParameterCount() == 0) {
+                if (closed.compareAndSet(false, true)) {
+                    release(ctx, broken.get());
+                }
+                return null;
+            }
+            if (closed.get()) {
+                throw new IllegalStateException("LDAP context has been returned to the pool");
+            }
+            try {
+                return method.invoke(ctx, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof javax.naming.CommunicationException
+                        || cause instanceof javax.naming.ServiceUnavailableException) {
+                    broken.set(true);
+                }
+                throw cause;
+            }
+        };
+        return (LdapContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { LdapContext.class },
+                handler);
+    }
+
+    private void recordBindTime(long nanos, boolean success) {
+        Timer timer = success ? successTimer : failureTimer;
+        if (timer != null) {
+            timer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        successTimer = bindTimer(registry, "success");
+        failureTimer = bindTimer(registry, "failure");
+        final GenericObjectPool<LdapContext> pool = this.bindPool;
+        if (pool != null) {
+            String poolName = name + "-bind";
+            Gauge.builder("georchestra.ldap.pool.active", pool, GenericObjectPool::getNumActive)//
+                    .tag("pool", poolName)//
+                    .description("Number of LDAP connections currently borrowed from the pool")//
+                    .register(registry);
+            Gauge.builder("georchestra.ldap.pool.idle", pool, GenericObjectPool::getNumIdle)//
+                    .tag("pool", poolName)//
+                    .description("Number of idle LDAP connections in the pool")//
+                    .register(registry);
+        }
+    }
+
+    private Timer bindTimer(MeterRegistry registry, String outcome) {
+        return Timer.builder(BIND_TIMER)//
+                .tag("ldap", name)//
+                .tag("mode", bindPool == null ? "direct" : "pooled")//
+                .tag("outcome", outcome)//
+                .description("Time taken to bind as the user being authenticated")//
+                .publishPercentileHistogram()//
+                .register(registry);
+    }
+
+    /**
+     * Closes the bind pool connections, if any
+     */
+    @Override
+    public void destroy() throws Exception {
+        if (bindPool != null) {
+            bindPool.close();
+        }
+    }
+
+    /**
+     * Creates non JNDI-pooled connections bound as the manager user, which are
+     * then re-bound as each user to authenticate
+     */
+    private class BindConnectionFactory extends BasePoolableObjectFactory<LdapContext> {
+
+        private final DefaultDirContextValidator validator = new DefaultDirContextValidator();
+
+        @Override
+        public LdapContext makeObject() throws Exception {
+            Hashtable<String, Object> env = getAuthenticatedEnv(userDn, password);
+            env.remove(JNDI_POOLING_FLAG);
+            return (LdapContext) createContext(env);
+        }
+
+        @Override
+        public boolean validateObject(LdapContext ctx) {
+            return validator.validateDirContext(DirContextType.READ_ONLY, ctx);
+        }
+
+        /**
+         * Re-binds the connection as the manager user, so that it's neither left
+         * bound as the last user authenticated while idle, nor validated under
+         * their identity. If the bind fails, the connection is destroyed instead of
+         * returned to the pool.
+         */
+        @Override
+        public void passivateObject(LdapContext ctx) throws Exception {
+            ctx.setRequestControls(null);
+            ctx.addToEnvironment(Context.SECURITY_PRINCIPAL, userDn);
+            ctx.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
+            ctx.reconnect(null);
+        }
+
+        @Override
+        public void destroyObject(LdapContext ctx) throws Exception {
+            LdapUtils.closeContext(ctx);
+        }
+    }
+}
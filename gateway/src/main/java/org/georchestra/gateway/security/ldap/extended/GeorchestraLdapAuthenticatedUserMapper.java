@@ -34,6 +34,10 @@ import org.springframework.security.ldap.userdetails.LdapUserDetails;
 
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
 import org.springframework.security.ldap.userdetails.LdapUserDetailsImpl;
 
 /**
@@ -41,9 +45,15 @@ import org.springframework.security.ldap.userdetails.LdapUserDetailsImpl;
  * {@link GeorchestraUser} by calling {@link UsersApi#findByUsername(String)},
  * with the authentication token's principal name as argument.
  * <p>
+ * Reuses the user loaded at authentication time by
+ * {@link UsersApiAuthoritiesPopulator}, if available.
+ * <p>
  * Resolves only {@link GeorchestraUserNamePasswordAuthenticationToken}, using
  * its {@link GeorchestraUserNamePasswordAuthenticationToken#getConfigName()
  * configName} to disambiguate amongst different configured LDAP databases.
+ * <p>
+ * {@link #resolveReactive} runs the blocking {@link UsersApi} calls on the
+ * provided {@link Scheduler}, to keep them off the reactive server's event loop.
  * 
  * @see DemultiplexingUsersApi
  */
@@ -52,21 +62,43 @@ class GeorchestraLdapAuthenticatedUserMapper implements GeorchestraUserMapperExt
 
     private final @NonNull DemultiplexingUsersApi users;
 
+    private final @NonNull Scheduler scheduler;
+
+    GeorchestraLdapAuthenticatedUserMapper(DemultiplexingUsersApi users) {
+        this(users, Schedulers.immediate());
+    }
+
     @Override
     public Optional<GeorchestraUser> resolve(Authentication authToken) {
         return Optional.ofNullable(authToken)//
-                .filter(GeorchestraUserNamePasswordAuthenticationToken.class::isInstance)
+                .filter(this::canResolve)//
                 .map(GeorchestraUserNamePasswordAuthenticationToken.class::cast)//
-                .filter(token -> token.getPrincipal() instanceof LdapUserDetails)//
                 .flatMap(this::map);
     }
 
+    @Override
+    public Mono<GeorchestraUser> resolveReactive(Authentication authToken) {
+        if (!canResolve(authToken)) {
+            return Mono.empty();
+        }
+        GeorchestraUserNamePasswordAuthenticationToken token = (GeorchestraUserNamePasswordAuthenticationToken) authToken;
+        return Mono.fromSupplier(() -> map(token).orElse(null)).subscribeOn(scheduler);
+    }
+
+    private boolean canResolve(Authentication authToken) {
+        return authToken instanceof GeorchestraUserNamePasswordAuthenticationToken
+                && authToken.getPrincipal() instanceof LdapUserDetails;
+    }
+
     Optional<GeorchestraUser> map(GeorchestraUserNamePasswordAuthenticationToken token) {
         final LdapUserDetails principal = (LdapUserDetails) token.getPrincipal();
         final String ldapConfigName = token.getConfigName();
         final String username = principal.getUsername();
 
-        Optional<GeorchestraUser> user = users.findByUsername(ldapConfigName, username);
+        Optional<GeorchestraUser> user = users.findAuthenticated(ldapConfigName, username);
+        if (user.isEmpty()) {
+            user = users.findByUsername(ldapConfigName, username);
+        }
         if (user.isEmpty()) {
             user = users.findByEmail(ldapConfigName, username);
         }
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.georchestra.gateway.model.CacheConfigProperties.WarmUp;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Pre-loads the users and organizations of each enabled extended LDAP
+ * configuration, in the background, once the application is ready, so that
+ * active users logging in again after a restart don't all hit the LDAP
+ * databases at once.
+ * <p>
+ * LDAP configurations are processed one at a time, on the LDAP
+ * {@link Scheduler}. Failing to pre-load a configuration is logged, and does
+ * not prevent the others from being pre-loaded.
+ * <p>
+ * Pre-loaded users are kept for {@code usersTimeToLive}, the time to live of
+ * the resolved users cache, so they're no staler than cached users.
+ * <p>
+ * As a {@link HealthIndicator}, reports the custom {@link #WARMING_UP} status
+ * until the warm-up is over. Statuses not in a health group's
+ * {@literal status.order} are ignored when aggregating the group's status, so
+ * it doesn't affect the overall {@literal /actuator/health} status, nor the
+ * liveness probe. Adding it to the {@literal readiness} health group, with
+ * {@literal warming-up} in its status order and HTTP mapping, makes the
+ * readiness probe wait for it. Implements {@link MeterBinder} to publish the
+ * {@literal georchestra.cache.warmup.*} progress metrics.
+ * 
+ * @see DemultiplexingUsersApi#preload
+ * @see LdapOrganizationResolver#preload
+ */
+@RequiredArgsConstructor
+@Slf4j(topic = "org.georchestra.gateway.security.ldap.extended")
+class LdapCacheWarmUp implements HealthIndicator, MeterBinder {
+
+    enum State {
+        PENDING, RUNNING, DONE
+    }
+
+    static final Status WARMING_UP = new Status("WARMING_UP", "LDAP users and organizations are being pre-loaded");
+
+    private final @NonNull List<String> configNames;
+
+    private final @NonNull DemultiplexingUsersApi users;
+
+    /**
+     * {@code null} if there are no organizations to pre-load
+     */
+    private final LdapOrganizationResolver organizations;
+
+    private final @NonNull WarmUp spec;
+
+    private final @NonNull Duration usersTimeToLive;
+
+    private final @NonNull Scheduler scheduler;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.PENDING);
+
+    private final AtomicLong usersLoaded = new AtomicLong();
+
+    private final AtomicLong organizationsLoaded = new AtomicLong();
+
+    private final AtomicInteger configsDone = new AtomicInteger();
+
+    private final AtomicInteger configsFailed = new AtomicInteger();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        run().subscribe();
+    }
+
+    /**
+     * @return a {@link Mono} that pre-loads all LDAP configurations when
+     *         subscribed to, only once
+     */
+    @VisibleForTesting
+    Mono<Void> run() {
+        return Mono.defer(() -> {
+            if (!state.compareAndSet(State.PENDING, State.RUNNING)) {
+                return Mono.empty();
+            }
+            log.info("Warming up users and organizations of LDAP configs {}", configNames);
+            final long start = System.nanoTime();
+            return Flux.fromIterable(configNames)//
+                    .concatMap(this::preload)//
+                    .then()//
+                    .doFinally(signal -> {
+                        state.set(State.DONE);
+                        log.info("LDAP warm-up done in {}: {} users, {} organizations, {} failed configs",
+                                Duration.ofNanos(System.nanoTime() - start), usersLoaded.get(),
+                                organizationsLoaded.get(), configsFailed.get());
+                    });
+        });
+    }
+
+    private Mono<Void> preload(String configName) {
+        return Mono.<Void>fromRunnable(() -> {
+            if (spec.isUsers()) {
+                int count = users.preload(configName, spec, usersTimeToLive);
+                usersLoaded.addAndGet(count);
+                log.debug("Pre-loaded {} users of LDAP config {}", count, configName);
+            }
+            if (spec.isOrganizations() && organizations != null) {
+                int count = organizations.preload(configName);
+                organizationsLoaded.addAndGet(count);
+                log.debug("Pre-loaded {} organizations of LDAP config {}", count, configName);
+            }
+            configsDone.incrementAndGet();
+        })//
+                .subscribeOn(scheduler)//
+                .onErrorResume(e -> {
+                    configsFailed.incrementAndGet();
+                    log.warn("Error warming up LDAP config {}", configName, e);
+                    return Mono.empty();
+                });
+    }
+
+    @VisibleForTesting
+    State getState() {
+        return state.get();
+    }
+
+    @Override
+    public Health health() {
+        Health.Builder health = state.get() == State.DONE ? Health.up() : Health.status(WARMING_UP);
+        return health//
+                .withDetail("state", state.get())//
+                .withDetail("configs", configNames.size())//
+                .withDetail("configsDone", configsDone.get())//
+                .withDetail("configsFailed", configsFailed.get())//
+                .withDetail("users", usersLoaded.get())//
+                .withDetail("organizations", organizationsLoaded.get())//
+                .build();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("georchestra.cache.warmup.running", state, s -> s.get() == State.DONE ? 0 : 1)//
+                .description("Whether the LDAP users and organizations warm-up is pending or running")//
+                .register(registry);
+        Gauge.builder("georchestra.cache.warmup.loaded", usersLoaded, AtomicLong::get)//
+                .tag("type", "users")//
+                .description("Number of pre-loaded LDAP entries")//
+                .register(registry);
+        Gauge.builder("georchestra.cache.warmup.loaded", organizationsLoaded, AtomicLong::get)//
+                .tag("type", "organizations")//
+                .description("Number of pre-loaded LDAP entries")//
+                .register(registry);
+        Gauge.builder("georchestra.cache.warmup.configs", configsFailed, AtomicInteger::get)//
+                .tag("outcome", "failure")//
+                .description("Number of LDAP configs warmed up")//
+                .register(registry);
+        Gauge.builder("georchestra.cache.warmup.configs", configsDone, AtomicInteger::get)//
+                .tag("outcome", "success")//
+                .description("Number of LDAP configs warmed up")//
+                .register(registry);
+    }
+}
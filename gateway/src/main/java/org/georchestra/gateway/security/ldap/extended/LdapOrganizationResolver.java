@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.georchestra.gateway.events.LdapModificationEvent;
+import org.georchestra.gateway.model.CacheConfigProperties.CacheSpec;
+import org.georchestra.gateway.security.GeorchestraOrganizationResolverExtension;
+import org.georchestra.security.api.OrganizationsApi;
+import org.georchestra.security.model.GeorchestraUser;
+import org.georchestra.security.model.Organization;
+import org.springframework.context.event.EventListener;
+import org.springframework.security.core.Authentication;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * {@link GeorchestraOrganizationResolverExtension} that looks up the
+ * organization of LDAP-authenticated users by its short name, as given by
+ * {@link GeorchestraUser#getOrganization()}, through the {@link OrganizationsApi}
+ * of the LDAP database the user authenticated against.
+ * <p>
+ * Resolves only {@link GeorchestraUserNamePasswordAuthenticationToken}s, using
+ * their {@link GeorchestraUserNamePasswordAuthenticationToken#getConfigName()
+ * configName} to select the LDAP database.
+ * <p>
+ * Organizations are cached per LDAP database and short name, and re-validated
+ * against the LDAP database once older than the cache's
+ * {@link CacheSpec#getTimeToLive() time to live}. If the re-loaded
+ * organization's {@link Organization#getLastUpdated() lastUpdated} timestamp
+ * did not change, the cached instance is kept, so that anything derived from it
+ * (e.g. the encoded {@literal sec-organization} header) can be reused too.
+ * Organizations are not expected to be many, so entries are only evicted once
+ * the cache reaches its {@link CacheSpec#getMaximumSize() maximum size}.
+ * <p>
+ * LDAP queries run on the provided {@link Scheduler}, to keep them off the
+ * reactive server's event loop.
+ */
+@Slf4j(topic = "org.georchestra.gateway.security.ldap.extended")
+class LdapOrganizationResolver implements GeorchestraOrganizationResolverExtension, MeterBinder {
+
+    static final String CACHE_NAME = "georchestra.organizations";
+
+    private final @NonNull Map<String, OrganizationsApi> targets;
+
+    private final @NonNull Scheduler scheduler;
+
+    private final Duration timeToLive;
+
+    private final Cache<OrgKey, CachedOrg> cache;
+
+    @Value
+    private static class OrgKey {
+        private String serviceName;
+        private String shortName;
+    }
+
+    /**
+     * A looked up organization, {@code null} if not found, and when it was looked
+     * up
+     */
+    @Value
+    private static class CachedOrg {
+        private Organization organization;
+        private long loadedAt;
+    }
+
+    LdapOrganizationResolver(@NonNull Map<String, OrganizationsApi> targets, @NonNull CacheSpec spec,
+            @NonNull Scheduler scheduler) {
+        this.targets = Map.copyOf(targets);
+        this.scheduler = scheduler;
+        this.timeToLive = spec.getTimeToLive();
+        if (spec.isEnabled()) {
+            log.info("Organizations cache enabled, maximum size: {}, time to live: {}", spec.getMaximumSize(),
+                    spec.getTimeToLive());
+            this.cache = CacheBuilder.newBuilder()//
+                    .maximumSize(spec.getMaximumSize())//
+                    .recordStats()//
+                    .build();
+        } else {
+            log.info("Organizations cache disabled");
+            this.cache = null;
+        }
+    }
+
+    @Override
+    public Mono<Organization> resolve(Authentication authToken, GeorchestraUser user) {
+        if (!(authToken instanceof GeorchestraUserNamePasswordAuthenticationToken) || user == null
+                || user.getOrganization() == null) {
+            return Mono.empty();
+        }
+        final String serviceName = ((GeorchestraUserNamePasswordAuthenticationToken) authToken).getConfigName();
+        if (!targets.containsKey(serviceName)) {
+            return Mono.empty();
+        }
+        final OrgKey key = new OrgKey(serviceName, user.getOrganization());
+        final CachedOrg cached = cache == null ? null : cache.getIfPresent(key);
+        if (cached != null && !isStale(cached, System.currentTimeMillis())) {
+            return Mono.justOrEmpty(cached.getOrganization());
+        }
+        return Mono.fromCallable(() -> load(key)).subscribeOn(scheduler);
+    }
+
+    private boolean isStale(CachedOrg cached, long now) {
+        return now - cached.getLoadedAt() >= timeToLive.toMillis();
+    }
+
+    private Organization load(OrgKey key) {
+        log.debug("Loading organization {} from LDAP config {}", key.getShortName(), key.getServiceName());
+        final long now = System.currentTimeMillis();
+        Organization org = targets.get(key.getServiceName()).findByShortName(key.getShortName()).orElse(null);
+        if (cache != null) {
+            CachedOrg previous = cache.getIfPresent(key);
+            if (previous != null && isSameVersion(previous.getOrganization(), org)) {
+                org = previous.getOrganization();
+            }
+            cache.put(key, new CachedOrg(org, now));
+        }
+        return org;
+    }
+
+    private boolean isSameVersion(Organization previous, Organization current) {
+        if (previous == null || current == null) {
+            return previous == current;
+        }
+        return previous.getLastUpdated() != null && Objects.equals(previous.getId(), current.getId())
+                && previous.getLastUpdated().equals(current.getLastUpdated());
+    }
+
+    /**
+     * Loads all the organizations of {@code serviceName} into the cache. Blocking.
+     * 
+     * @return the number of organizations loaded, {@code 0} if the cache is
+     *         disabled
+     */
+    public int preload(@NonNull String serviceName) {
+        OrganizationsApi target = targets.get(serviceName);
+        if (cache == null || target == null) {
+            return 0;
+        }
+        final long now = System.currentTimeMillis();
+        List<Organization> all = target.findAll();
+        for (Organization org : all) {
+            if (org.getShortName() != null) {
+                cache.put(new OrgKey(serviceName, org.getShortName()), new CachedOrg(org, now));
+            }
+        }
+        return all.size();
+    }
+
+    /**
+     * Evicts the given organization, so it's looked up again next time it's
+     * needed
+     */
+    public void invalidate(@NonNull String serviceName, @NonNull String shortName) {
+        if (cache != null) {
+            cache.invalidate(new OrgKey(serviceName, shortName));
+        }
+    }
+
+    /**
+     * Evicts the modified organization from all LDAP databases, since the event
+     * doesn't tell which one it comes from, or all of them if the event doesn't
+     * name it
+     */
+    @EventListener(LdapModificationEvent.class)
+    public void onLdapModification(LdapModificationEvent event) {
+        if (event.getType() != LdapModificationEvent.Type.ORGANIZATION) {
+            return;
+        }
+        event.getName().ifPresentOrElse(//
+                shortName -> targets.keySet().forEach(serviceName -> invalidate(serviceName, shortName)), //
+                this::invalidateAll);
+    }
+
+    public void invalidateAll() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    @VisibleForTesting
+    long size() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (cache != null) {
+            GuavaCacheMetrics.monitor(registry, cache, CACHE_NAME);
+        }
+    }
+}
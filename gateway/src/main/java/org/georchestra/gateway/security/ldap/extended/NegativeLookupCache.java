@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import org.georchestra.gateway.model.CacheConfigProperties.CacheSpec;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Short-lived cache of LDAP lookups known to have found no user, per LDAP
+ * configuration name, so that repeated misses (e.g. looking up by e-mail users
+ * that log in with their user name) don't hit the LDAP server.
+ * <p>
+ * Only "not found" results shall be recorded, never lookup errors.
+ * <p>
+ * Implements {@link MeterBinder} to publish the {@literal cache.gets}
+ * (hit/miss), {@literal cache.evictions}, {@literal cache.puts}, and
+ * {@literal cache.size} metrics under the
+ * {@literal cache=georchestra.ldap.negative-lookups} tag.
+ */
+@Slf4j(topic = "org.georchestra.gateway.security.ldap.extended")
+public class NegativeLookupCache implements MeterBinder {
+
+    static final String CACHE_NAME = "georchestra.ldap.negative-lookups";
+
+    public enum Attribute {
+        USERNAME, EMAIL
+    }
+
+    private final Cache<Key, Boolean> misses;
+
+    public NegativeLookupCache(@NonNull CacheSpec spec) {
+        if (spec.isEnabled()) {
+            log.info("LDAP negative lookups cache enabled, maximum size: {}, time to live: {}",
+                    spec.getMaximumSize(), spec.getTimeToLive());
+            this.misses = CacheBuilder.newBuilder()//
+                    .maximumSize(spec.getMaximumSize())//
+                    .expireAfterWrite(spec.getTimeToLive())//
+                    .recordStats()//
+                    .build();
+        } else {
+            log.info("LDAP negative lookups cache disabled");
+            this.misses = null;
+        }
+    }
+
+    /**
+     * @return a cache that never records misses
+     */
+    public static NegativeLookupCache disabled() {
+        return new NegativeLookupCache(new CacheSpec().setEnabled(false));
+    }
+
+    public boolean isEnabled() {
+        return misses != null;
+    }
+
+    /**
+     * @return {@code true} if a lookup of {@code value} by {@code attribute} in
+     *         the LDAP config {@code configName} recently found no user
+     */
+    public boolean isMissing(@NonNull String configName, @NonNull Attribute attribute, @NonNull String value) {
+        return isEnabled() && misses.getIfPresent(new Key(configName, attribute, value)) != null;
+    }
+
+    /**
+     * Records that a lookup of {@code value} by {@code attribute} in the LDAP
+     * config {@code configName} found no user
+     */
+    public void putMissing(@NonNull String configName, @NonNull Attribute attribute, @NonNull String value) {
+        if (isEnabled()) {
+            misses.put(new Key(configName, attribute, value), Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Short-circuits {@code query} if the lookup is known to find nothing,
+     * otherwise runs it and records the miss if it returns empty.
+     */
+    public <T> Optional<T> lookup(@NonNull String configName, @NonNull Attribute attribute, @NonNull String value,
+            @NonNull Supplier<Optional<T>> query) {
+        if (isMissing(configName, attribute, value)) {
+            log.trace("Skipping LDAP lookup of {} {} in {}, recently not found", attribute, value, configName);
+            return Optional.empty();
+        }
+        Optional<T> found = query.get();
+        if (found.isEmpty()) {
+            putMissing(configName, attribute, value);
+        }
+        return found;
+    }
+
+    public void invalidateAll() {
+        if (isEnabled()) {
+            misses.invalidateAll();
+        }
+    }
+
+    @VisibleForTesting
+    long size() {
+        return isEnabled() ? misses.size() : 0;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (isEnabled()) {
+            GuavaCacheMetrics.monitor(registry, misses, CACHE_NAME);
+        }
+    }
+
+    @Value
+    private static class Key {
+        private String configName;
+        private Attribute attribute;
+        private String value;
+    }
+}
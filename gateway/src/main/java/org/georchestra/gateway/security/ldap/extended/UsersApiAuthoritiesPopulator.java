@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.ldap.extended;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.georchestra.security.api.UsersApi;
+import org.georchestra.security.model.GeorchestraUser;
+import org.springframework.ldap.core.DirContextOperations;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.ldap.userdetails.DefaultLdapAuthoritiesPopulator;
+import org.springframework.security.ldap.userdetails.LdapAuthoritiesPopulator;
+import org.springframework.util.StringUtils;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * {@link LdapAuthoritiesPopulator} that loads the authenticated user and its
+ * roles through the {@link UsersApi} of the LDAP config it authenticated
+ * against, instead of running a separate roles search like
+ * {@link DefaultLdapAuthoritiesPopulator}.
+ * <p>
+ * The loaded user is kept by {@link DemultiplexingUsersApi#loadAuthenticated},
+ * so that {@link GeorchestraLdapAuthenticatedUserMapper} doesn't need to query
+ * the LDAP database again to resolve it right after the login.
+ * <p>
+ * Role names are mapped to authorities the same way
+ * {@link DefaultLdapAuthoritiesPopulator} does by default, that is, upper case
+ * and prefixed by {@literal ROLE_}. Falls back to the {@code fallback}
+ * populator if the user can't be found through the {@link UsersApi}.
+ * <p>
+ * The {@link UsersApi} finds the roles under the configured roles base whose
+ * {@literal member} attribute is the user's DN, which is what the
+ * {@link #DEFAULT_ROLES_SEARCH_FILTER default roles search filter} does. Since
+ * it ignores the configured roles search filter, this populator shall only be
+ * used if {@link #supportsRolesSearchFilter supported}.
+ */
+@RequiredArgsConstructor
+@Slf4j(topic = "org.georchestra.gateway.security.ldap.extended")
+class UsersApiAuthoritiesPopulator implements LdapAuthoritiesPopulator {
+
+    static final String ROLE_PREFIX = "ROLE_";
+
+    static final String DEFAULT_ROLES_SEARCH_FILTER = "(member={0})";
+
+    private final @NonNull String configName;
+
+    private final @NonNull DemultiplexingUsersApi users;
+
+    private final @NonNull LdapAuthoritiesPopulator fallback;
+
+    @Override
+    public Collection<? extends GrantedAuthority> getGrantedAuthorities(DirContextOperations userData,
+            String username) {
+        final String uid = Optional.ofNullable(userData.getStringAttribute("uid")).filter(StringUtils::hasText)
+                .orElse(username);
+        Optional<GeorchestraUser> user = users.loadAuthenticated(configName, uid, username);
+        if (user.isEmpty()) {
+            log.debug("User {} not found through {} UsersApi, falling back to LDAP roles search", uid, configName);
+            return fallback.getGrantedAuthorities(userData, username);
+        }
+        List<String> roles = user.get().getRoles();
+        return roles == null ? List.of() : roles.stream().map(this::toAuthority).collect(Collectors.toList());
+    }
+
+    /**
+     * @return whether the roles returned by the {@link UsersApi} are the same as
+     *         the ones {@code rolesSearchFilter} would find, that is, if it's the
+     *         {@link #DEFAULT_ROLES_SEARCH_FILTER default one}
+     */
+    static boolean supportsRolesSearchFilter(String rolesSearchFilter) {
+        return rolesSearchFilter != null
+                && DEFAULT_ROLES_SEARCH_FILTER.equals(StringUtils.trimAllWhitespace(rolesSearchFilter));
+    }
+
+    private GrantedAuthority toAuthority(String role) {
+        String name = role.startsWith(ROLE_PREFIX) ? role.substring(ROLE_PREFIX.length()) : role;
+        return new SimpleGrantedAuthority(ROLE_PREFIX + name.toUpperCase(Locale.ROOT));
+    }
+}
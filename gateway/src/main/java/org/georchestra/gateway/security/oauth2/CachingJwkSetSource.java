@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.oauth2;
+
+import java.text.ParseException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.georchestra.gateway.model.CacheConfigProperties.Jwks;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Caches the {@link JWKSet} published at a JWK set URI, shared by all the JWT
+ * decoders verifying tokens signed with its keys.
+ * <p>
+ * The JWK set is fetched on first use, and then:
+ * <ul>
+ * <li>re-fetched in the background once older than
+ * {@link Jwks#getTimeToLive() timeToLive} minus {@link Jwks#getRefreshAhead()
+ * refreshAhead}, while still serving the cached one;
+ * <li>re-fetched before use once older than {@link Jwks#getTimeToLive()
+ * timeToLive}. If that fails, the expired JWK set keeps being used;
+ * <li>re-fetched before use when no key matches a token's key id, for example
+ * after a key rotation, at most once every
+ * {@link Jwks#getMinRefetchInterval() minRefetchInterval}.
+ * </ul>
+ * Concurrent fetches are coalesced, so a login burst results in at most one
+ * request to the JWK set URI.
+ * <p>
+ * Publishes the {@literal georchestra.oauth2.jwks.fetch} timer, tagged with the
+ * JWK set {@literal uri}, the fetch {@literal trigger} ({@literal initial},
+ * {@literal expired}, {@literal refresh-ahead}, or {@literal kid-miss}), and
+ * the {@literal outcome}, and the {@literal georchestra.oauth2.jwks.kid-miss}
+ * counter, tagged with whether the JWK set was {@literal refetched} or the
+ * re-fetch was {@literal rate-limited}.
+ */
+@Slf4j(topic = "org.georchestra.gateway.security.oauth2")
+class CachingJwkSetSource {
+
+    static final String FETCH_TIMER = "georchestra.oauth2.jwks.fetch";
+
+    static final String KID_MISS_COUNTER = "georchestra.oauth2.jwks.kid-miss";
+
+    private final @NonNull String jwkSetUri;
+
+    private final @NonNull WebClient webClient;
+
+    private final @NonNull Jwks spec;
+
+    private final @NonNull Clock clock;
+
+    private volatile CachedJwkSet cached;
+
+    /**
+     * Time of the last fetch attempt, guarded by {@code this}
+     */
+    private Instant lastFetch;
+
+    /**
+     * Fetch in progress, if any, guarded by {@code this}
+     */
+    private CompletableFuture<JWKSet> inFlight;
+
+    private volatile MeterRegistry registry;
+
+    @Value
+    private static class CachedJwkSet {
+        private JWKSet jwkSet;
+        private Instant fetchedAt;
+
+        Duration age(Instant now) {
+            return Duration.between(fetchedAt, now);
+        }
+    }
+
+    CachingJwkSetSource(@NonNull String jwkSetUri, @NonNull WebClient webClient, @NonNull Jwks spec,
+            @NonNull Clock clock) {
+        this.jwkSetUri = jwkSetUri;
+        this.webClient = webClient;
+        this.spec = spec;
+        this.clock = clock;
+    }
+
+    void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @return the keys matching the JWS header of the token to verify
+     */
+    public Flux<JWK> get(@NonNull JWSHeader header) {
+        final JWKSelector selector = new JWKSelector(JWKMatcher.forJWSHeader(header));
+        return current().flatMapMany(jwkSet -> {
+            List<JWK> keys = selector.select(jwkSet);
+            if (!keys.isEmpty() || header.getKeyID() == null) {
+                return Flux.fromIterable(keys);
+            }
+            return refetchOnKidMiss(jwkSet).flatMapIterable(selector::select);
+        });
+    }
+
+    private Mono<JWKSet> current() {
+        final CachedJwkSet current = this.cached;
+        if (current == null) {
+            return Mono.defer(() -> join(fetch("initial")));
+        }
+        final Duration age = current.age(clock.instant());
+        if (age.compareTo(spec.getTimeToLive()) >= 0) {
+            return Mono.defer(() -> join(fetch("expired"))).onErrorResume(e -> {
+                log.warn("Using expired JWK set from {}: {}", jwkSetUri, e.getMessage());
+                return Mono.just(current.getJwkSet());
+            });
+        }
+        if (age.compareTo(spec.getTimeToLive().minus(spec.getRefreshAhead())) >= 0) {
+            fetchIfAllowed("refresh-ahead");
+        }
+        return Mono.just(current.getJwkSet());
+    }
+
+    private Mono<JWKSet> refetchOnKidMiss(JWKSet current) {
+        CompletableFuture<JWKSet> refetch = fetchIfAllowed("kid-miss");
+        countKidMiss(refetch == null ? "rate-limited" : "refetched");
+        if (refetch == null) {
+            return Mono.just(current);
+        }
+        return join(refetch).onErrorReturn(current);
+    }
+
+    /**
+     * @return a {@link Mono} of a dependent future per subscriber, so cancelling
+     *         one doesn't cancel the shared {@code fetch} other logins wait on
+     */
+    private static Mono<JWKSet> join(CompletableFuture<JWKSet> fetch) {
+        return Mono.fromFuture(fetch.thenApply(Function.identity()));
+    }
+
+    /**
+     * Fetches the JWK set unless it was fetched less than
+     * {@link Jwks#getMinRefetchInterval() minRefetchInterval} ago
+     * 
+     * @return the fetch in progress, or {@code null} if rate-limited
+     */
+    private synchronized CompletableFuture<JWKSet> fetchIfAllowed(String trigger) {
+        if (inFlight != null) {
+            return inFlight;
+        }
+        if (lastFetch != null && clock.instant().isBefore(lastFetch.plus(spec.getMinRefetchInterval()))) {
+            return null;
+        }
+        return fetch(trigger);
+    }
+
+    @VisibleForTesting
+    synchronized CompletableFuture<JWKSet> fetch(String trigger) {
+        if (inFlight != null) {
+            return inFlight;
+        }
+        log.debug("Fetching JWK set from {} ({})", jwkSetUri, trigger);
+        lastFetch = clock.instant();
+        final long start = System.nanoTime();
+        final CompletableFuture<JWKSet> future = webClient.get()//
+                .uri(jwkSetUri)//
+                .retrieve()//
+                .bodyToMono(String.class)//
+                .map(this::parse)//
+                .toFuture();
+        inFlight = future;
+        future.whenComplete((jwkSet, error) -> {
+            recordFetch(trigger, error == null, System.nanoTime() - start);
+            if (error == null) {
+                cached = new CachedJwkSet(jwkSet, clock.instant());
+            } else {
+                log.warn("Error fetching JWK set from {}: {}", jwkSetUri, error.getMessage());
+            }
+            synchronized (this) {
+                if (inFlight == future) {
+                    inFlight = null;
+                }
+            }
+        });
+        return future;
+    }
+
+    private JWKSet parse(String body) {
+        try {
+            return JWKSet.parse(body);
+        } catch (ParseException e) {
+            throw new JwtException("Unable to parse the JWK set from " + jwkSetUri + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void recordFetch(String trigger, boolean success, long nanos) {
+        final MeterRegistry registry = this.registry;
+        if (registry != null) {
+            Timer.builder(FETCH_TIMER)//
+                    .tag("uri", jwkSetUri)//
+                    .tag("trigger", trigger)//
+                    .tag("outcome", success ? "success" : "failure")//
+                    .description("Time taken to fetch the JWK set of an OpenID Connect provider")//
+                    .register(registry)//
+                    .record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void countKidMiss(String outcome) {
+        final MeterRegistry registry = this.registry;
+        if (registry != null) {
+            Counter.builder(KID_MISS_COUNTER)//
+                    .tag("uri", jwkSetUri)//
+                    .tag("outcome", outcome)//
+                    .description("Tokens signed with a key id missing from the cached JWK set")//
+                    .register(registry)//
+                    .increment();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.oauth2;
+
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.georchestra.gateway.model.CacheConfigProperties.Jwks;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.jose.jws.MacAlgorithm;
+import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
+import org.springframework.security.oauth2.jwt.BadJwtException;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoderFactory;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.nimbusds.jwt.JWTParser;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+import lombok.Value;
+import reactor.core.publisher.Mono;
+
+/**
+ * {@link ReactiveJwtDecoderFactory} for OpenID Connect ID tokens that reuses
+ * the JWT decoders it creates, per client registration and signature
+ * algorithm, instead of creating new ones for each token.
+ * <p>
+ * Tokens signed with a MAC algorithm are verified with the client secret, and
+ * tokens signed with an asymmetric algorithm with the keys published at the
+ * provider's JWK set URI. JWK sets are shared amongst the registrations of the
+ * same provider, and cached by {@link CachingJwkSetSource} as configured
+ * through {@literal georchestra.gateway.cache.jwks}.
+ * <p>
+ * Decoders use the {@link #webClient WebClient} provided, which can be set up
+ * to go through an HTTP proxy.
+ * <p>
+ * Implements {@link MeterBinder} to publish the number of decoders as the
+ * {@literal georchestra.oauth2.jwt.decoders} gauge, and the JWK set metrics
+ * described in {@link CachingJwkSetSource}.
+ */
+public class CachingJwtDecoderFactory implements ReactiveJwtDecoderFactory<ClientRegistration>, MeterBinder {
+
+    private final @NonNull WebClient webClient;
+
+    private final @NonNull Jwks spec;
+
+    private final @NonNull Clock clock;
+
+    private final Map<DecoderKey, ReactiveJwtDecoder> decoders = new ConcurrentHashMap<>();
+
+    private final Map<String, CachingJwkSetSource> jwkSets = new ConcurrentHashMap<>();
+
+    private volatile MeterRegistry registry;
+
+    @Value
+    private static class DecoderKey {
+        private String registrationId;
+        private String algorithm;
+    }
+
+    public CachingJwtDecoderFactory(@NonNull WebClient webClient, @NonNull Jwks spec) {
+        this(webClient, spec, Clock.systemUTC());
+    }
+
+    @VisibleForTesting
+    CachingJwtDecoderFactory(@NonNull WebClient webClient, @NonNull Jwks spec, @NonNull Clock clock) {
+        this.webClient = webClient;
+        this.spec = spec;
+        this.clock = clock;
+    }
+
+    @Override
+    public ReactiveJwtDecoder createDecoder(ClientRegistration clientRegistration) {
+        return token -> decode(clientRegistration, token);
+    }
+
+    private Mono<Jwt> decode(ClientRegistration clientRegistration, String token) {
+        final String algorithm;
+        try {
+            algorithm = JWTParser.parse(token).getHeader().getAlgorithm().getName();
+        } catch (ParseException exception) {
+            return Mono.error(new BadJwtException(
+                    "An error occurred while attempting to decode the Jwt: " + exception.getMessage(), exception));
+        }
+        final DecoderKey key = new DecoderKey(clientRegistration.getRegistrationId(), algorithm);
+        final ReactiveJwtDecoder decoder;
+        try {
+            decoder = decoders.computeIfAbsent(key, k -> newDecoder(clientRegistration, algorithm));
+        } catch (BadJwtException e) {
+            return Mono.error(e);
+        }
+        return decoder.decode(token);
+    }
+
+    private ReactiveJwtDecoder newDecoder(ClientRegistration clientRegistration, String algorithm) {
+        MacAlgorithm macAlgorithm = MacAlgorithm.from(algorithm);
+        if (macAlgorithm != null) {
+            var secretKey = clientRegistration.getClientSecret().getBytes(StandardCharsets.UTF_8);
+            if (secretKey.length < 64) {
+                secretKey = Arrays.copyOf(secretKey, 64);
+            }
+            SecretKeySpec secretKeySpec = new SecretKeySpec(secretKey, macAlgorithm.getName());
+            return NimbusReactiveJwtDecoder.withSecretKey(secretKeySpec).macAlgorithm(macAlgorithm).build();
+        }
+        SignatureAlgorithm signatureAlgorithm = SignatureAlgorithm.from(algorithm);
+        if (signatureAlgorithm == null) {
+            throw new BadJwtException("Unsupported JWT signature algorithm: " + algorithm);
+        }
+        final String jwkSetUri = clientRegistration.getProviderDetails().getJwkSetUri();
+        if (!spec.isEnabled()) {
+            return NimbusReactiveJwtDecoder.withJwkSetUri(jwkSetUri)//
+                    .jwsAlgorithm(signatureAlgorithm)//
+                    .webClient(webClient)//
+                    .build();
+        }
+        final CachingJwkSetSource jwkSet = jwkSets.computeIfAbsent(jwkSetUri, this::newJwkSetSource);
+        return NimbusReactiveJwtDecoder.withJwkSource(jwt -> jwkSet.get(jwt.getHeader()))//
+                .jwsAlgorithm(signatureAlgorithm)//
+                .build();
+    }
+
+    private CachingJwkSetSource newJwkSetSource(String jwkSetUri) {
+        CachingJwkSetSource source = new CachingJwkSetSource(jwkSetUri, webClient, spec, clock);
+        final MeterRegistry registry = this.registry;
+        if (registry != null) {
+            source.bindTo(registry);
+        }
+        return source;
+    }
+
+    @VisibleForTesting
+    int size() {
+        return decoders.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.registry = registry;
+        jwkSets.values().forEach(source -> source.bindTo(registry));
+        Gauge.builder("georchestra.oauth2.jwt.decoders", decoders, Map::size)//
+                .description("Number of JWT decoders, per client registration and signature algorithm")//
+                .register(registry);
+    }
+}
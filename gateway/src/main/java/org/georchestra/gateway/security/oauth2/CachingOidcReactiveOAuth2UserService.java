@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.oauth2;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+import org.georchestra.gateway.model.CacheConfigProperties.CacheSpec;
+import org.springframework.security.oauth2.client.oidc.userinfo.OidcReactiveOAuth2UserService;
+import org.springframework.security.oauth2.client.oidc.userinfo.OidcUserRequest;
+import org.springframework.security.oauth2.client.userinfo.OAuth2UserRequest;
+import org.springframework.security.oauth2.client.userinfo.ReactiveOAuth2UserService;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+/**
+ * {@link OidcReactiveOAuth2UserService} that avoids calling the provider's user
+ * info endpoint on every login.
+ * <p>
+ * User info responses are cached, as configured through
+ * {@literal georchestra.gateway.cache.user-info}, by client registration, ID
+ * token subject, and granted scopes, so that returning users don't wait for
+ * the user info endpoint again. The subject comes from the ID token, whose
+ * signature has already been verified. Entries expire after the cache's
+ * {@link CacheSpec#getTimeToLive() time to live}, or when the access token used
+ * to fetch them expires, whichever comes first.
+ * <p>
+ * If an {@link #setIdTokenComplete ID token completeness} predicate is set, the
+ * user info endpoint is not called at all for ID tokens that satisfy it, and
+ * the user is built from the ID token claims alone.
+ * <p>
+ * Implements {@link MeterBinder} to publish the standard {@literal cache.*}
+ * metrics under the {@literal cache=georchestra.oauth2.userinfo} tag, and the
+ * number of skipped user info requests as the
+ * {@literal georchestra.oauth2.userinfo.skipped} counter.
+ */
+@Slf4j(topic = "org.georchestra.gateway.security.oauth2")
+public class CachingOidcReactiveOAuth2UserService extends OidcReactiveOAuth2UserService implements MeterBinder {
+
+    static final String CACHE_NAME = "georchestra.oauth2.userinfo";
+
+    /**
+     * The service calling the user info endpoint, whose responses are cached
+     */
+    private final @NonNull ReactiveOAuth2UserService<OAuth2UserRequest, OAuth2User> userInfoService;
+
+    private final Cache<UserInfoKey, CachedUserInfo> cache;
+
+    private final @NonNull Clock clock;
+
+    private Predicate<OidcIdToken> idTokenComplete;
+
+    private volatile Counter skipped;
+
+    @Value
+    private static class UserInfoKey {
+        private String registrationId;
+        private String subject;
+        private Set<String> scopes;
+    }
+
+    @Value
+    private static class CachedUserInfo {
+        private OAuth2User user;
+        private Instant expiresAt;
+    }
+
+    public CachingOidcReactiveOAuth2UserService(
+            @NonNull ReactiveOAuth2UserService<OAuth2UserRequest, OAuth2User> userInfoService,
+            @NonNull CacheSpec spec) {
+        this(userInfoService, spec, Clock.systemUTC());
+    }
+
+    @VisibleForTesting
+    CachingOidcReactiveOAuth2UserService(
+            @NonNull ReactiveOAuth2UserService<OAuth2UserRequest, OAuth2User> userInfoService,
+            @NonNull CacheSpec spec, @NonNull Clock clock) {
+        this.clock = clock;
+        this.cache = spec.isEnabled() ? CacheBuilder.newBuilder()//
+                .maximumSize(spec.getMaximumSize())//
+                .expireAfterWrite(spec.getTimeToLive())//
+                .recordStats()//
+                .build() : null;
+        this.userInfoService = userInfoService;
+        setOauth2UserService(this::loadUserInfo);
+    }
+
+    /**
+     * @param idTokenComplete tells whether an ID token contains all the claims
+     *                        needed, so that the user info endpoint needs not be
+     *                        called, or {@code null} to always call it
+     */
+    public void setIdTokenComplete(Predicate<OidcIdToken> idTokenComplete) {
+        this.idTokenComplete = idTokenComplete;
+    }
+
+    /**
+     * Called by {@link OidcReactiveOAuth2UserService} only if the user info
+     * endpoint is to be called. Returning empty builds the user from the ID token
+     * alone.
+     */
+    private Mono<OAuth2User> loadUserInfo(OAuth2UserRequest request) {
+        final OidcIdToken idToken = request instanceof OidcUserRequest ? ((OidcUserRequest) request).getIdToken()
+                : null;
+        if (idToken != null && idTokenComplete != null && idTokenComplete.test(idToken)) {
+            log.debug("ID token of {} has all the required claims, skipping user info request", idToken.getSubject());
+            countSkipped();
+            return Mono.empty();
+        }
+        if (cache == null || idToken == null || idToken.getSubject() == null) {
+            return userInfoService.loadUser(request);
+        }
+        final UserInfoKey key = new UserInfoKey(request.getClientRegistration().getRegistrationId(),
+                idToken.getSubject(), new TreeSet<>(request.getAccessToken().getScopes()));
+        final CachedUserInfo cached = cache.getIfPresent(key);
+        if (cached != null) {
+            if (clock.instant().isBefore(cached.getExpiresAt())) {
+                return Mono.just(cached.getUser());
+            }
+            cache.invalidate(key);
+        }
+        final Instant expiresAt = expiresAt(request.getAccessToken());
+        return userInfoService.loadUser(request).doOnNext(user -> cache.put(key, new CachedUserInfo(user, expiresAt)));
+    }
+
+    private Instant expiresAt(OAuth2AccessToken accessToken) {
+        Instant tokenExpiry = accessToken.getExpiresAt();
+        // the cache's time to live applies on top of it
+        return tokenExpiry == null ? Instant.MAX : tokenExpiry;
+    }
+
+    public void invalidateAll() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    @VisibleForTesting
+    long size() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    private void countSkipped() {
+        final Counter counter = this.skipped;
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (cache != null) {
+            GuavaCacheMetrics.monitor(registry, cache, CACHE_NAME);
+        }
+        skipped = Counter.builder(CACHE_NAME + ".skipped")//
+                .description("User info requests skipped because the ID token had all the required claims")//
+                .register(registry);
+    }
+}
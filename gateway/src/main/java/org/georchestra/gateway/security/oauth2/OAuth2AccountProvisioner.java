@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.oauth2;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.georchestra.ds.DataServiceException;
+import org.georchestra.ds.roles.Role;
+import org.georchestra.ds.roles.RoleDao;
+import org.georchestra.ds.security.UserMapperImpl;
+import org.georchestra.ds.security.UsersApiImpl;
+import org.georchestra.ds.users.Account;
+import org.georchestra.ds.users.AccountDao;
+import org.georchestra.ds.users.DuplicatedEmailException;
+import org.georchestra.ds.users.DuplicatedUidException;
+import org.georchestra.ds.users.UserRule;
+import org.georchestra.gateway.events.LdapModificationEvent;
+import org.georchestra.gateway.model.CacheConfigProperties.CacheSpec;
+import org.georchestra.security.api.UsersApi;
+import org.georchestra.security.model.GeorchestraUser;
+import org.springframework.context.event.EventListener;
+
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Finds or creates the LDAP accounts of users authenticated through OpenID
+ * Connect, by their OAuth2 provider id (e.g.
+ * {@literal <registrationId>;<subject>}).
+ * <p>
+ * Lookups and account creation run on a dedicated {@link Scheduler}, and are
+ * coalesced per provider id: concurrent first logins of the same user share a
+ * single lookup and creation, instead of racing to create the account. If the
+ * account is created concurrently elsewhere anyway (e.g. by another gateway
+ * instance), the existing account is used. Lookups that take longer than
+ * {@link #LOOKUP_TIMEOUT} fail, so that a stalled LDAP connection doesn't hold
+ * all further logins of the same user.
+ * <p>
+ * Found accounts are then cached by provider id, as configured through
+ * {@literal georchestra.gateway.cache.oauth2-accounts}. Each call gets its own
+ * copy of the cached user, so callers are free to modify it.
+ * <p>
+ * Implements {@link MeterBinder} to publish the standard {@literal cache.*}
+ * metrics under the {@literal cache=georchestra.oauth2.accounts} tag, and the
+ * number of lookups in progress as the
+ * {@literal georchestra.oauth2.accounts.in-flight} gauge.
+ */
+@Slf4j(topic = "org.georchestra.gateway.security.oauth2")
+public class OAuth2AccountProvisioner implements MeterBinder {
+
+    static final String CACHE_NAME = "georchestra.oauth2.accounts";
+
+    static final Duration LOOKUP_TIMEOUT = Duration.ofSeconds(30);
+
+    private final @NonNull AccountDao accountDao;
+
+    private final @NonNull RoleDao roleDao;
+
+    private final @NonNull UsersApi usersApi;
+
+    private final @NonNull Scheduler scheduler;
+
+    private final @NonNull Duration lookupTimeout;
+
+    private final Cache<String, GeorchestraUser> accounts;
+
+    private final ConcurrentMap<String, CompletableFuture<GeorchestraUser>> inFlight = new ConcurrentHashMap<>();
+
+    private final ObjectMapper copier;
+
+    public OAuth2AccountProvisioner(@NonNull AccountDao accountDao, @NonNull RoleDao roleDao,
+            @NonNull CacheSpec cacheSpec) {
+        this(accountDao, roleDao, createUsersApi(accountDao, roleDao), cacheSpec, Schedulers.boundedElastic(),
+                LOOKUP_TIMEOUT);
+    }
+
+    @VisibleForTesting
+    OAuth2AccountProvisioner(@NonNull AccountDao accountDao, @NonNull RoleDao roleDao, @NonNull UsersApi usersApi,
+            @NonNull CacheSpec cacheSpec, @NonNull Scheduler scheduler, @NonNull Duration lookupTimeout) {
+        this.accountDao = accountDao;
+        this.roleDao = roleDao;
+        this.usersApi = usersApi;
+        this.scheduler = scheduler;
+        this.lookupTimeout = lookupTimeout;
+        if (cacheSpec.isEnabled()) {
+            log.info("OAuth2 accounts cache enabled, maximum size: {}, time to live: {}", cacheSpec.getMaximumSize(),
+                    cacheSpec.getTimeToLive());
+            this.accounts = CacheBuilder.newBuilder()//
+                    .maximumSize(cacheSpec.getMaximumSize())//
+                    .expireAfterWrite(cacheSpec.getTimeToLive())//
+                    .recordStats()//
+                    .build();
+        } else {
+            log.info("OAuth2 accounts cache disabled");
+            this.accounts = null;
+        }
+        this.copier = new ObjectMapper();
+        this.copier.setSerializationInclusion(Include.NON_NULL);
+        this.copier.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    private static UsersApi createUsersApi(AccountDao accountDao, RoleDao roleDao) {
+        UserMapperImpl mapper = new UserMapperImpl();
+        mapper.setRoleDao(roleDao);
+        UserRule rule = new UserRule();
+        rule.setListOfprotectedUsers(new String[0]);
+        UsersApiImpl usersApi = new UsersApiImpl();
+        usersApi.setAccountsDao(accountDao);
+        usersApi.setMapper(mapper);
+        usersApi.setUserRule(rule);
+        return usersApi;
+    }
+
+    /**
+     * @param oAuth2ProviderId the account's OAuth2 provider id
+     * @param newAccount       creates the account to insert if not found
+     * @param onCreated        called once the account is created, only by the
+     *                         call that created it
+     * @return the user for the existing or created account, with {@literal ROLE_}
+     *         prefixed role names
+     */
+    public Mono<GeorchestraUser> findOrCreate(@NonNull String oAuth2ProviderId, @NonNull Supplier<Account> newAccount,
+            @NonNull Runnable onCreated) {
+        return Mono.defer(() -> {
+            GeorchestraUser cached = accounts == null ? null : accounts.getIfPresent(oAuth2ProviderId);
+            if (cached != null) {
+                return Mono.just(copy(cached));
+            }
+            // a dependent future per subscriber, so cancelling one doesn't cancel the
+            // shared lookup
+            return Mono.fromFuture(lookup(oAuth2ProviderId, newAccount, onCreated).thenApply(this::copy));
+        });
+    }
+
+    private CompletableFuture<GeorchestraUser> lookup(String oAuth2ProviderId, Supplier<Account> newAccount,
+            Runnable onCreated) {
+        final CompletableFuture<GeorchestraUser> flight = new CompletableFuture<>();
+        final CompletableFuture<GeorchestraUser> existing = inFlight.putIfAbsent(oAuth2ProviderId, flight);
+        if (existing != null) {
+            log.debug("Joining in-flight account lookup for {}", oAuth2ProviderId);
+            return existing;
+        }
+        // however the lookup ends, including timing out, later calls start a new one
+        flight.whenComplete((user, error) -> inFlight.remove(oAuth2ProviderId, flight));
+        flight.orTimeout(lookupTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        try {
+            scheduler.schedule(() -> {
+                try {
+                    GeorchestraUser user = findOrCreate(oAuth2ProviderId, newAccount.get(), onCreated);
+                    if (accounts != null) {
+                        accounts.put(oAuth2ProviderId, user);
+                    }
+                    flight.complete(user);
+                } catch (Throwable e) {
+                    flight.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Unable to schedule the account lookup for {}: {}", oAuth2ProviderId, e.getMessage());
+            flight.completeExceptionally(e);
+        }
+        return flight;
+    }
+
+    private GeorchestraUser findOrCreate(String oAuth2ProviderId, Account newAccount, Runnable onCreated) {
+        Optional<GeorchestraUser> user = usersApi.findByOAuth2ProviderId(oAuth2ProviderId);
+        if (user.isEmpty()) {
+            user = create(oAuth2ProviderId, newAccount, onCreated);
+        }
+        GeorchestraUser found = user.orElseThrow(() -> new IllegalStateException(
+                "Account " + oAuth2ProviderId + " not found after creating it"));
+        List<String> roles = found.getRoles().stream().map(r -> r.contains("ROLE_") ? r : "ROLE_" + r)
+                .collect(Collectors.toList());
+        found.setRoles(roles);
+        return found;
+    }
+
+    private Optional<GeorchestraUser> create(String oAuth2ProviderId, Account newAccount, Runnable onCreated) {
+        try {
+            accountDao.insert(newAccount);
+            roleDao.addUser(Role.USER, newAccount);
+        } catch (DuplicatedUidException | DuplicatedEmailException e) {
+            // created concurrently, e.g. by another gateway instance
+            Optional<GeorchestraUser> created = usersApi.findByOAuth2ProviderId(oAuth2ProviderId);
+            if (created.isPresent()) {
+                log.info("Account {} was created concurrently, using it", oAuth2ProviderId);
+                return created;
+            }
+            throw new IllegalStateException(e);
+        } catch (DataServiceException e) {
+            throw new IllegalStateException(e);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        log.info("Created account {} for OAuth2 user {}", newAccount.getUid(), oAuth2ProviderId);
+        onCreated.run();
+        return usersApi.findByOAuth2ProviderId(oAuth2ProviderId);
+    }
+
+    private GeorchestraUser copy(GeorchestraUser user) {
+        return copier.convertValue(user, GeorchestraUser.class);
+    }
+
+    /**
+     * Evicts the cached accounts of the modified user, or all of them if a role
+     * was modified. Organization modifications don't affect the cached accounts.
+     */
+    @EventListener(LdapModificationEvent.class)
+    public void onLdapModification(LdapModificationEvent event) {
+        if (accounts == null) {
+            return;
+        }
+        switch (event.getType()) {
+        case USER:
+            Optional<String> name = event.getName();
+            if (name.isPresent()) {
+                accounts.asMap().values().removeIf(user -> name.get().equals(user.getUsername()));
+            } else {
+                accounts.invalidateAll();
+            }
+            break;
+        case ROLE:
+            accounts.invalidateAll();
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Evicts all cached accounts
+     */
+    public void invalidateAll() {
+        if (accounts != null) {
+            accounts.invalidateAll();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (accounts != null) {
+            GuavaCacheMetrics.monitor(registry, accounts, CACHE_NAME);
+        }
+        Gauge.builder(CACHE_NAME + ".in-flight", inFlight, ConcurrentMap::size)//
+                .description("Number of OAuth2 account lookups or creations in progress")//
+                .register(registry);
+    }
+}
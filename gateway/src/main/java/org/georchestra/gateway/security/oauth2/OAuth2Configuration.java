@@ -18,60 +18,58 @@
  */
 package org.georchestra.gateway.security.oauth2;
 
-import com.nimbusds.jwt.JWT;
-import com.nimbusds.jwt.JWTParser;
 import org.georchestra.ds.roles.RoleDao;
 import org.georchestra.ds.roles.RoleDaoImpl;
 import org.georchestra.ds.roles.RoleProtected;
 import org.georchestra.ds.users.AccountDao;
 import org.georchestra.ds.users.AccountDaoImpl;
+import org.georchestra.gateway.model.CacheConfigProperties;
 import org.georchestra.gateway.security.ServerHttpSecurityCustomizer;
 import org.georchestra.gateway.security.ldap.LdapConfigProperties;
+import org.georchestra.gateway.security.ldap.LdapConfigProperties.Pool;
+import org.georchestra.gateway.security.ldap.LdapConnectionPools;
 import org.georchestra.gateway.security.ldap.extended.ExtendedLdapConfig;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.ldap.core.ContextSource;
 import org.springframework.ldap.core.LdapTemplate;
 import org.springframework.ldap.core.support.LdapContextSource;
 import org.springframework.ldap.pool.factory.PoolingContextSource;
-import org.springframework.ldap.pool.validation.DefaultDirContextValidator;
 import org.springframework.security.authentication.ReactiveAuthenticationManager;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
 import org.springframework.security.config.web.server.ServerHttpSecurity.OAuth2LoginSpec;
 import org.springframework.security.oauth2.client.endpoint.OAuth2AuthorizationCodeGrantRequest;
 import org.springframework.security.oauth2.client.endpoint.ReactiveOAuth2AccessTokenResponseClient;
 import org.springframework.security.oauth2.client.endpoint.WebClientReactiveAuthorizationCodeTokenResponseClient;
-import org.springframework.security.oauth2.client.oidc.userinfo.OidcReactiveOAuth2UserService;
 import org.springframework.security.oauth2.client.oidc.web.server.logout.OidcClientInitiatedServerLogoutSuccessHandler;
 import org.springframework.security.oauth2.client.registration.ClientRegistration;
 import org.springframework.security.oauth2.client.registration.InMemoryReactiveClientRegistrationRepository;
 import org.springframework.security.oauth2.client.userinfo.DefaultReactiveOAuth2UserService;
-import org.springframework.security.oauth2.jose.jws.MacAlgorithm;
-import org.springframework.security.oauth2.jwt.BadJwtException;
-import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
-import org.springframework.security.oauth2.jwt.ReactiveJwtDecoderFactory;
 import org.springframework.security.web.server.authentication.logout.ServerLogoutSuccessHandler;
 import org.springframework.web.reactive.function.client.WebClient;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
 import lombok.extern.slf4j.Slf4j;
+import reactor.netty.http.HttpProtocol;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 import reactor.netty.transport.ProxyProvider;
 
-import javax.crypto.spec.SecretKeySpec;
 import java.lang.reflect.Field;
-import java.nio.charset.StandardCharsets;
-import java.text.ParseException;
-import java.util.Arrays;
 import java.util.Collections;
 
 import static java.util.Objects.requireNonNull;
 
 @Configuration(proxyBeanMethods = false)
 @EnableConfigurationProperties({ OAuth2ProxyConfigProperties.class, OpenIdConnectCustomClaimsConfigProperties.class,
-        LdapConfigProperties.class, ExtendedOAuth2ClientProperties.class })
+        LdapConfigProperties.class, ExtendedOAuth2ClientProperties.class, CacheConfigProperties.class,
+        OAuth2HttpClientConfigProperties.class })
 @Slf4j(topic = "org.georchestra.gateway.security.oauth2")
 public class OAuth2Configuration {
 
@@ -122,23 +120,24 @@ public class OAuth2Configuration {
 
     @Bean
     @ConditionalOnExpression("${georchestra.gateway.security.createNonExistingUsersInLDAP:true}")
-    public PoolingContextSource contextSource(LdapConfigProperties config, LdapContextSource singleContextSource) {
+    public ContextSource contextSource(LdapConfigProperties config, LdapContextSource singleContextSource,
+            ObjectProvider<LdapConnectionPools> ldapConnectionPools) {
         ExtendedLdapConfig ldapConfig = config.extendedEnabled().get(0);
-        PoolingContextSource contextSource = new PoolingContextSource();
-        contextSource.setContextSource(singleContextSource);
-        contextSource.setDirContextValidator(new DefaultDirContextValidator());
-        contextSource.setTestOnBorrow(true);
-        contextSource.setMaxActive(8);
-        contextSource.setMinIdle(1);
-        contextSource.setMaxIdle(8);
-        contextSource.setMaxTotal(-1);
-        contextSource.setMaxWait(-1);
-        return contextSource;
+        Pool settings = ldapConfig.getPool();
+        if (!settings.isEnabled()) {
+            return singleContextSource;
+        }
+        // admin-bound connections, not to be shared with the extended config's pool.
+        // Closed by the application context as a DisposableBean, hence only
+        // monitored by LdapConnectionPools
+        PoolingContextSource pool = LdapConnectionPools.create(singleContextSource, settings);
+        ldapConnectionPools.ifAvailable(pools -> pools.monitor(ldapConfig.getName() + "-admin", pool));
+        return pool;
     }
 
     @Bean
     @ConditionalOnExpression("${georchestra.gateway.security.createNonExistingUsersInLDAP:true}")
-    public LdapTemplate ldapTemplate(PoolingContextSource contextSource) throws Exception {
+    public LdapTemplate ldapTemplate(@Qualifier("contextSource") ContextSource contextSource) throws Exception {
         LdapTemplate ldapTemplate = new LdapTemplate(contextSource);
         return ldapTemplate;
     }
@@ -195,6 +194,17 @@ public class OAuth2Configuration {
         return roleProtected;
     }
 
+    /**
+     * Finds or creates the LDAP accounts of OpenID Connect users, caching them as
+     * configured through {@link CacheConfigProperties#getOauth2Accounts()}
+     */
+    @Bean
+    @ConditionalOnExpression("${georchestra.gateway.security.createNonExistingUsersInLDAP:true}")
+    public OAuth2AccountProvisioner oauth2AccountProvisioner(AccountDao accountDao, RoleDao roleDao,
+            CacheConfigProperties cacheConfig) {
+        return new OAuth2AccountProvisioner(accountDao, roleDao, cacheConfig.getOauth2Accounts());
+    }
+
     @Bean
     ServerHttpSecurityCustomizer oauth2LoginEnablingCustomizer() {
         return new OAuth2AuthenticationCustomizer();
@@ -236,31 +246,13 @@ public class OAuth2Configuration {
 
     /**
      * Custom JWT decoder factory to use the web client that can be set up to go
-     * through an HTTP proxy
+     * through an HTTP proxy, reusing decoders and JWK sets as configured through
+     * {@link CacheConfigProperties#getJwks()}
      */
     @Bean
-    public ReactiveJwtDecoderFactory<ClientRegistration> idTokenDecoderFactory(
-            @Qualifier("oauth2WebClient") WebClient oauth2WebClient) {
-        return (clientRegistration) -> (token) -> {
-            try {
-                JWT jwt = JWTParser.parse(token);
-                MacAlgorithm macAlgorithm = MacAlgorithm.from(jwt.getHeader().getAlgorithm().getName());
-                if (macAlgorithm != null) {
-                    var secretKey = clientRegistration.getClientSecret().getBytes(StandardCharsets.UTF_8);
-                    if (secretKey.length < 64) {
-                        secretKey = Arrays.copyOf(secretKey, 64);
-                    }
-                    SecretKeySpec secretKeySpec = new SecretKeySpec(secretKey, macAlgorithm.getName());
-                    return NimbusReactiveJwtDecoder.withSecretKey(secretKeySpec).macAlgorithm(macAlgorithm).build()
-                            .decode(token);
-                }
-                return NimbusReactiveJwtDecoder.withJwkSetUri(clientRegistration.getProviderDetails().getJwkSetUri())
-                        .webClient(oauth2WebClient).build().decode(token);
-            } catch (ParseException exception) {
-                throw new BadJwtException(
-                        "An error occurred while attempting to decode the Jwt: " + exception.getMessage(), exception);
-            }
-        };
+    public CachingJwtDecoderFactory idTokenDecoderFactory(@Qualifier("oauth2WebClient") WebClient oauth2WebClient,
+            CacheConfigProperties cacheConfig) {
+        return new CachingJwtDecoderFactory(oauth2WebClient, cacheConfig.getJwks());
     }
 
     @Bean
@@ -272,18 +264,56 @@ public class OAuth2Configuration {
         return service;
     };
 
+    /**
+     * OpenID Connect user service caching the user info responses as configured
+     * through {@link CacheConfigProperties#getUserInfo()}, and skipping them
+     * altogether for complete ID tokens if
+     * {@link OpenIdConnectCustomClaimsConfigProperties#isSkipUserInfoIfIdTokenComplete()}
+     */
     @Bean
-    public OidcReactiveOAuth2UserService oidcReactiveOAuth2UserService(
-            DefaultReactiveOAuth2UserService oauth2Delegate) {
-        OidcReactiveOAuth2UserService oidUserService = new OidcReactiveOAuth2UserService();
-        oidUserService.setOauth2UserService(oauth2Delegate);
+    public CachingOidcReactiveOAuth2UserService oidcReactiveOAuth2UserService(
+            DefaultReactiveOAuth2UserService oauth2Delegate, CacheConfigProperties cacheConfig,
+            OpenIdConnectCustomClaimsConfigProperties claimsConfig) {
+        CachingOidcReactiveOAuth2UserService oidUserService = new CachingOidcReactiveOAuth2UserService(
+                oauth2Delegate, cacheConfig.getUserInfo());
+        if (claimsConfig.isSkipUserInfoIfIdTokenComplete()) {
+            log.info("OpenID Connect user info requests will be skipped for ID tokens with all the required claims");
+            oidUserService.setIdTokenComplete(idToken -> claimsConfig.isSatisfiedBy(idToken.getClaims()));
+        }
         return oidUserService;
     };
 
+    /**
+     * Pool of connections to the OAuth2 providers used by the
+     * {@link #oauth2WebClient}, disposed on shutdown
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider oauth2ConnectionProvider(OAuth2HttpClientConfigProperties config) {
+        OAuth2HttpClientConfigProperties.Pool pool = config.getPool();
+        ConnectionProvider.Builder builder = ConnectionProvider.builder("oauth2")//
+                .maxConnections(pool.getMaxConnections())//
+                .pendingAcquireMaxCount(pool.getPendingAcquireMaxCount())//
+                .pendingAcquireTimeout(pool.getPendingAcquireTimeout())//
+                .maxIdleTime(pool.getMaxIdleTime())//
+                .metrics(config.isMetrics());
+        if (pool.getMaxLifeTime() != null) {
+            builder = builder.maxLifeTime(pool.getMaxLifeTime());
+        }
+        if (pool.getEvictionInterval() != null) {
+            builder = builder.evictInBackground(pool.getEvictionInterval());
+        }
+        return builder.build();
+    }
+
     /**
      * {@link WebClient} to use when performing HTTP POST requests to the OAuth2
      * service providers, that can be configured to use an HTTP proxy through the
      * {@link OAuth2ProxyConfigProperties} configuration properties.
+     * <p>
+     * Connections are pooled by {@link #oauth2ConnectionProvider}, and timeouts,
+     * keep-alive, HTTP/2 negotiation, and request metrics are configured through
+     * {@link OAuth2HttpClientConfigProperties}, so that a slow provider can't tie
+     * up an unbounded number of connections and login requests.
      *
      * @param proxyConfig defines the HTTP proxy settings specific for the OAuth2
      *                    client. If not
@@ -293,13 +323,23 @@ public class OAuth2Configuration {
      *                    and {@literal http(s).proxyPort}), if any.
      */
     @Bean("oauth2WebClient")
-    public WebClient oauth2WebClient(OAuth2ProxyConfigProperties proxyConfig) {
+    public WebClient oauth2WebClient(OAuth2ProxyConfigProperties proxyConfig,
+            OAuth2HttpClientConfigProperties clientConfig, ConnectionProvider oauth2ConnectionProvider,
+            ObjectProvider<MeterRegistry> meterRegistry,
+            ObjectProvider<InMemoryReactiveClientRegistrationRepository> clientRegistrations) {
         final String proxyHost = proxyConfig.getHost();
         final Integer proxyPort = proxyConfig.getPort();
         final String proxyUser = proxyConfig.getUsername();
         final String proxyPassword = proxyConfig.getPassword();
 
-        HttpClient httpClient = HttpClient.create();
+        HttpClient httpClient = HttpClient.create(oauth2ConnectionProvider)//
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) clientConfig.getConnectTimeout().toMillis())//
+                .option(ChannelOption.SO_KEEPALIVE, clientConfig.isKeepAlive())//
+                .keepAlive(clientConfig.isKeepAlive())//
+                .responseTimeout(clientConfig.getResponseTimeout());
+        if (clientConfig.isHttp2()) {
+            httpClient = httpClient.protocol(HttpProtocol.H2, HttpProtocol.HTTP11);
+        }
         if (proxyConfig.isEnabled()) {
             if (proxyHost == null || proxyPort == null) {
                 throw new IllegalStateException("OAuth2 client HTTP proxy is enabled, but host and port not provided");
@@ -315,8 +355,12 @@ public class OAuth2Configuration {
         }
         ReactorClientHttpConnector conn = new ReactorClientHttpConnector(httpClient);
 
-        WebClient webClient = WebClient.builder().clientConnector(conn).build();
-        return webClient;
+        WebClient.Builder builder = WebClient.builder().clientConnector(conn);
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        if (clientConfig.isMetrics() && registry != null) {
+            builder = builder.filter(new OAuth2HttpClientMetricsFilter(registry, clientRegistrations::getIfAvailable));
+        }
+        return builder.build();
     }
 
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.oauth2;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import lombok.Data;
+import lombok.Generated;
+import lombok.experimental.Accessors;
+
+/**
+ * Settings of the HTTP client used to call the OAuth2 and OpenID Connect
+ * providers' token, user info, and JWK set endpoints, for example:
+ * 
+ * <pre>
+ * <code>
+ * georchestra:
+ *   gateway:
+ *     security:
+ *       oauth2:
+ *         http-client:
+ *           connect-timeout: 5s
+ *           response-timeout: 10s
+ *           pool:
+ *             max-connections: 50
+ * </code>
+ * </pre>
+ * 
+ * @see OAuth2ProxyConfigProperties
+ */
+@Data
+@Generated
+@Accessors(chain = true)
+@ConfigurationProperties(prefix = "georchestra.gateway.security.oauth2.http-client")
+public class OAuth2HttpClientConfigProperties {
+
+    /**
+     * Maximum time to establish a connection to a provider
+     */
+    private Duration connectTimeout = Duration.ofSeconds(5);
+
+    /**
+     * Maximum time to wait for a provider's response after sending a request
+     */
+    private Duration responseTimeout = Duration.ofSeconds(10);
+
+    /**
+     * Whether to enable TCP keep-alive on provider connections
+     */
+    private boolean keepAlive = true;
+
+    /**
+     * Whether to negotiate HTTP/2 with providers that support it, falling back to
+     * HTTP/1.1 otherwise
+     */
+    private boolean http2 = false;
+
+    /**
+     * Whether to publish the connection pool metrics, and the
+     * {@literal georchestra.oauth2.http.client.requests} request latency metrics
+     * tagged with the client registration id
+     */
+    private boolean metrics = true;
+
+    private Pool pool = new Pool();
+
+    /**
+     * Provider connections pool settings
+     */
+    @Data
+    @Generated
+    @Accessors(chain = true)
+    public static class Pool {
+
+        /**
+         * Maximum number of connections per provider host
+         */
+        private int maxConnections = 50;
+
+        /**
+         * Maximum number of requests waiting for a connection once
+         * {@literal max-connections} are in use, negative for no limit. Requests
+         * beyond this limit fail right away.
+         */
+        private int pendingAcquireMaxCount = 1_000;
+
+        /**
+         * Maximum time a request waits for a connection once
+         * {@literal max-connections} are in use
+         */
+        private Duration pendingAcquireTimeout = Duration.ofSeconds(10);
+
+        /**
+         * Time after which an idle connection is closed
+         */
+        private Duration maxIdleTime = Duration.ofSeconds(30);
+
+        /**
+         * Time after which a connection is closed once returned to the pool,
+         * regardless of its activity. Unset for no limit.
+         */
+        private Duration maxLifeTime;
+
+        /**
+         * Interval of the background eviction of idle and expired connections.
+         * Unset to only evict them when connections are acquired or released.
+         */
+        private Duration evictionInterval = Duration.ofSeconds(60);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.georchestra.gateway.security.oauth2;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.ConnectTimeoutException;
+import io.netty.handler.timeout.ReadTimeoutException;
+import lombok.NonNull;
+import reactor.core.publisher.Mono;
+
+/**
+ * {@link ExchangeFilterFunction} publishing the latency of the requests sent to
+ * the OAuth2 and OpenID Connect providers as the
+ * {@literal georchestra.oauth2.http.client.requests} timer, tagged with the
+ * {@literal registration} id whose token, user info, or JWK set URI was called
+ * ({@literal unknown} if none), the HTTP {@literal method}, and the response
+ * {@literal status}, or {@literal TIMEOUT}/{@literal IO_ERROR} if no response
+ * was received.
+ * <p>
+ * Registrations are looked up lazily, on the first request, since the
+ * {@literal WebClient} may be created before the client registrations.
+ */
+class OAuth2HttpClientMetricsFilter implements ExchangeFilterFunction {
+
+    static final String REQUESTS_TIMER = "georchestra.oauth2.http.client.requests";
+
+    private final @NonNull MeterRegistry registry;
+
+    private final Supplier<Map<String, String>> registrationsByUri;
+
+    OAuth2HttpClientMetricsFilter(@NonNull MeterRegistry registry,
+            @NonNull Supplier<Iterable<ClientRegistration>> registrations) {
+        this.registry = registry;
+        this.registrationsByUri = Suppliers.memoize(() -> registrationsByUri(registrations.get()));
+    }
+
+    private static Map<String, String> registrationsByUri(Iterable<ClientRegistration> registrations) {
+        Map<String, String> byUri = new HashMap<>();
+        if (registrations != null) {
+            for (ClientRegistration registration : registrations) {
+                ClientRegistration.ProviderDetails provider = registration.getProviderDetails();
+                String id = registration.getRegistrationId();
+                put(byUri, provider.getTokenUri(), id);
+                put(byUri, provider.getJwkSetUri(), id);
+                put(byUri, provider.getUserInfoEndpoint().getUri(), id);
+            }
+        }
+        return byUri;
+    }
+
+    private static void put(Map<String, String> byUri, String uri, String registrationId) {
+        if (uri != null) {
+            // registrations of the same provider share its endpoints
+            byUri.merge(uri, registrationId, (r1, r2) -> Objects.equals(r1, r2) ? r1 : r1 + "," + r2);
+        }
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        return Mono.defer(() -> {
+            final long start = System.nanoTime();
+            return next.exchange(request)//
+                    .doOnSuccess(response -> record(request,
+                            response == null ? "NONE" : String.valueOf(response.rawStatusCode()), start))//
+                    .doOnError(error -> record(request, status(error), start));
+        });
+    }
+
+    private String status(Throwable error) {
+        // connection errors are wrapped by the WebClient
+        boolean timeout = Throwables.getCausalChain(error).stream()
+                .anyMatch(e -> e instanceof TimeoutException || e instanceof ReadTimeoutException
+                        || e instanceof ConnectTimeoutException);
+        return timeout ? "TIMEOUT" : "IO_ERROR";
+    }
+
+    private void record(ClientRequest request, String status, long start) {
+        String uri = request.url().toString();
+        int query = uri.indexOf('?');
+        if (query > -1) {
+            uri = uri.substring(0, query);
+        }
+        Timer.builder(REQUESTS_TIMER)//
+                .tag("registration", registrationsByUri.get().getOrDefault(uri, "unknown"))//
+                .tag("method", request.method().name())//
+                .tag("status", status)//
+                .description("Latency of the requests to the OAuth2 and OpenID Connect providers")//
+                .register(registry)//
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+}
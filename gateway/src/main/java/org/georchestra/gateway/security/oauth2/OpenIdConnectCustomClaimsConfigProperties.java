@@ -18,25 +18,29 @@
  */
 package org.georchestra.gateway.security.oauth2;
 
-import java.text.Normalizer;
-import java.text.Normalizer.Form;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import org.georchestra.security.model.GeorchestraUser;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.security.oauth2.core.oidc.StandardClaimNames;
 import org.springframework.util.StringUtils;
 
+import com.jayway.jsonpath.Configuration;
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.PathNotFoundException;
+import com.jayway.jsonpath.ParseContext;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NonNull;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
 
@@ -48,6 +52,46 @@ public @Data class OpenIdConnectCustomClaimsConfigProperties {
     private RolesMapping roles = new RolesMapping();
     private JsonPathExtractor organization = new JsonPathExtractor();
 
+    /**
+     * Whether to skip calling the provider's user info endpoint when the ID token
+     * already contains all the claims needed to map the user, as per
+     * {@link #isSatisfiedBy(Map)}
+     */
+    private boolean skipUserInfoIfIdTokenComplete = false;
+
+    private static final ParseContext PARSE_CONTEXT = JsonPath.using(Configuration.defaultConfiguration());
+
+    /**
+     * Wraps the claims map in a {@link DocumentContext} that can be shared by all
+     * the {@link JsonPathExtractor}s evaluated for the same token
+     */
+    public static DocumentContext parse(@NonNull Map<String, Object> claims) {
+        // if we call claims.get(key) and the result is a JSON object,
+        // the json api used is a shaded version of org.json at package
+        // com.nimbusds.jose.shaded.json, we don't want to use that
+        // since it's obviously internal to com.nimbusds.jose
+        // JsonPath works fine with it though, as it's designed
+        // to work on POJOS, JSONObject is a Map and JSONArray is a List so it's ok
+        return PARSE_CONTEXT.parse(claims);
+    }
+
+    /**
+     * @return whether {@code claims} contain a user name ({@literal preferred_username}
+     *         or {@literal email}), and a value for each configured
+     *         {@link #getId() id}, {@link #getRoles() roles}, and
+     *         {@link #getOrganization() organization} JsonPath expression
+     */
+    public boolean isSatisfiedBy(@NonNull Map<String, Object> claims) {
+        if (claims.get(StandardClaimNames.PREFERRED_USERNAME) == null
+                && claims.get(StandardClaimNames.EMAIL) == null) {
+            return false;
+        }
+        DocumentContext document = parse(claims);
+        return id().map(extractor -> extractor.matches(document)).orElse(true)
+                && roles().flatMap(RolesMapping::json).map(extractor -> extractor.matches(document)).orElse(true)
+                && organization().map(extractor -> extractor.matches(document)).orElse(true);
+    }
+
     public Optional<JsonPathExtractor> id() {
         return Optional.ofNullable(id);
     }
@@ -86,12 +130,15 @@ public @Data class OpenIdConnectCustomClaimsConfigProperties {
         }
 
         public void apply(Map<String, Object> claims, GeorchestraUser target) {
+            apply(parse(claims), target);
+        }
+
+        public void apply(DocumentContext claims, GeorchestraUser target) {
 
             json().ifPresent(json -> {
-                List<String> rawValues = json.extract(claims);
-                List<String> roles = rawValues.stream().map(this::applyTransforms)
-                        // make sure the resulting list is mutable, Stream.toList() is not
-                        .collect(Collectors.toList());
+                List<String> roles = json.extract(claims);
+                // extract() returns a new mutable list
+                roles.replaceAll(this::applyTransforms);
                 if (roles.isEmpty()) {
                     return;
                 }
@@ -111,20 +158,46 @@ public @Data class OpenIdConnectCustomClaimsConfigProperties {
             return result;
         }
 
+        /**
+         * Replaces all whitespace groups by a single underscore, and removes any other
+         * character but ASCII letters, digits, and underscores (e.g. parenthesis,
+         * commas, accented letters, etc.), in a single pass.
+         * 
+         * @return {@code value} itself if it needs no changes
+         */
         public String normalize(@NonNull String value) {
-            // apply Unicode Normalization (NFC: a + ◌̂ = â) (see
-            // https://www.unicode.org/reports/tr15/)
-            String normalized = Normalizer.normalize(value, Form.NFC);
-
-            // remove unicode accents and diacritics
-            normalized = normalized.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
+            StringBuilder normalized = null;
+            boolean inWhitespace = false;
+            final int length = value.length();
+            for (int i = 0; i < length; i++) {
+                final char c = value.charAt(i);
+                final boolean whitespace = isWhitespace(c);
+                final boolean keep = !whitespace && isAllowed(c);
+                if (normalized == null && !keep) {
+                    // first change, copy what's been kept so far
+                    normalized = new StringBuilder(length).append(value, 0, i);
+                }
+                if (whitespace) {
+                    if (!inWhitespace) {
+                        normalized.append('_');
+                    }
+                } else if (keep && normalized != null) {
+                    normalized.append(c);
+                }
+                inWhitespace = whitespace;
+            }
+            return normalized == null ? value : normalized.toString();
+        }
 
-            // replace all whitespace groups by a single underscore
-            normalized = value.replaceAll("\\s+", "_");
+        /**
+         * Same as the regular expression {@literal \s} character class
+         */
+        private static boolean isWhitespace(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+        }
 
-            // remove remaining characters like parenthesis, commas, etc
-            normalized = normalized.replaceAll("[^a-zA-Z0-9_]", "");
-            return normalized;
+        private static boolean isAllowed(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
         }
     }
 
@@ -159,43 +232,105 @@ public @Data class OpenIdConnectCustomClaimsConfigProperties {
         private List<String> path = new ArrayList<>();
 
         /**
-         * @param claims
-         * @return
+         * {@link #path} expressions compiled on first use, recompiled if
+         * {@link #path} changes
          */
-        public @NonNull List<String> extract(@NonNull Map<String, Object> claims) {
-            return this.path.stream()//
-                    .map(jsonPathExpression -> this.extract(jsonPathExpression, claims))//
-                    .flatMap(List::stream)//
-                    .collect(Collectors.toList());
+        @Getter(AccessLevel.NONE)
+        @Setter(AccessLevel.NONE)
+        @ToString.Exclude
+        @EqualsAndHashCode.Exclude
+        private volatile CompiledPaths compiled;
+
+        private static class CompiledPaths {
+            final List<String> expressions;
+            final List<JsonPath> paths;
+
+            CompiledPaths(List<String> expressions) {
+                this.expressions = List.copyOf(expressions);
+                List<JsonPath> compiledPaths = new ArrayList<>(expressions.size());
+                for (String expression : this.expressions) {
+                    if (StringUtils.hasText(expression)) {
+                        compiledPaths.add(JsonPath.compile(expression));
+                    }
+                }
+                this.paths = List.copyOf(compiledPaths);
+            }
+        }
+
+        private List<JsonPath> compiledPaths() {
+            CompiledPaths current = this.compiled;
+            final List<String> expressions = this.path == null ? List.of() : this.path;
+            if (current == null || !current.expressions.equals(expressions)) {
+                current = new CompiledPaths(expressions);
+                this.compiled = current;
+            }
+            return current.paths;
         }
 
-        private List<String> extract(final String jsonPathExpression, Map<String, Object> claims) {
-            if (!StringUtils.hasText(jsonPathExpression)) {
-                return List.of();
+        /**
+         * @param claims the OIDC token claims as returned by
+         *               {@link OpenIdConnectCustomClaimsConfigProperties#parse}
+         * @return whether all {@link #path} expressions match a non empty value
+         */
+        public boolean matches(@NonNull DocumentContext claims) {
+            for (JsonPath jsonPath : compiledPaths()) {
+                final Object matched;
+                try {
+                    matched = claims.read(jsonPath);
+                } catch (PathNotFoundException e) {
+                    return false;
+                }
+                if (matched == null || (matched instanceof List && ((List<?>) matched).isEmpty())) {
+                    return false;
+                }
             }
-            // if we call claims.get(key) and the result is a JSON object,
-            // the json api used is a shaded version of org.json at package
-            // com.nimbusds.jose.shaded.json, we don't want to use that
-            // since it's obviously internal to com.nimbusds.jose
-            // JsonPath works fine with it though, as it's designed
-            // to work on POJOS, JSONObject is a Map and JSONArray is a List so it's ok
-            DocumentContext context = JsonPath.parse(claims);
-            Object matched = context.read(jsonPathExpression);
+            return true;
+        }
 
-            if (null == matched) {
-                log.warn("The JSONPath expession {} evaluates to null", jsonPathExpression);
-                return List.of();
+        /**
+         * @param claims the OIDC token claims
+         * @return a new mutable list with the values matched by all {@link #path}
+         *         expressions
+         */
+        public @NonNull List<String> extract(@NonNull Map<String, Object> claims) {
+            return extract(parse(claims));
+        }
+
+        /**
+         * @param claims the OIDC token claims as returned by
+         *               {@link OpenIdConnectCustomClaimsConfigProperties#parse}
+         * @return a new mutable list with the values matched by all {@link #path}
+         *         expressions
+         */
+        public @NonNull List<String> extract(@NonNull DocumentContext claims) {
+            List<JsonPath> paths = compiledPaths();
+            List<String> values = new ArrayList<>();
+            for (JsonPath jsonPath : paths) {
+                extract(jsonPath, claims, values);
             }
+            return values;
+        }
 
-            final List<?> list = (matched instanceof List) ? (List<?>) matched : List.of(matched);
+        private void extract(final JsonPath jsonPath, DocumentContext claims, List<String> target) {
+            Object matched = claims.read(jsonPath);
 
-            List<String> values = IntStream.range(0, list.size())//
-                    .mapToObj(list::get)//
-                    .filter(Objects::nonNull)//
-                    .map(value -> validateValueIsString(jsonPathExpression, value))//
-                    .collect(Collectors.toList());
+            if (null == matched) {
+                log.warn("The JSONPath expession {} evaluates to null", jsonPath.getPath());
+                return;
+            }
 
-            return values;
+            if (matched instanceof List) {
+                final List<?> list = (List<?>) matched;
+                final int size = list.size();
+                for (int i = 0; i < size; i++) {
+                    Object value = list.get(i);
+                    if (value != null) {
+                        target.add(validateValueIsString(jsonPath.getPath(), value));
+                    }
+                }
+            } else {
+                target.add(validateValueIsString(jsonPath.getPath(), matched));
+            }
         }
 
         private String validateValueIsString(final String jsonPathExpression, @NonNull Object v) {
@@ -19,23 +19,20 @@
 
 package org.georchestra.gateway.security.oauth2;
 
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import org.georchestra.ds.DataServiceException;
-import org.georchestra.ds.roles.Role;
 import org.georchestra.ds.roles.RoleDao;
-import org.georchestra.ds.security.UserMapperImpl;
-import org.georchestra.ds.security.UsersApiImpl;
-import org.georchestra.ds.users.*;
+import org.georchestra.ds.users.Account;
+import org.georchestra.ds.users.AccountDao;
+import org.georchestra.ds.users.AccountFactory;
 import org.georchestra.gateway.events.RabbitmqEventsSender;
+import org.georchestra.gateway.model.CacheConfigProperties.CacheSpec;
 import org.georchestra.gateway.security.ldap.LdapConfigProperties;
 import org.georchestra.security.model.GeorchestraUser;
 import org.slf4j.Logger;
@@ -43,6 +40,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.core.Ordered;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
 import org.springframework.security.oauth2.core.oidc.AddressStandardClaim;
 import org.springframework.security.oauth2.core.oidc.OidcIdToken;
@@ -51,10 +49,12 @@ import org.springframework.security.oauth2.core.oidc.StandardClaimAccessor;
 import org.springframework.security.oauth2.core.oidc.user.OidcUser;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.jayway.jsonpath.DocumentContext;
 
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
 
 /**
  * Maps an OpenID authenticated {@link OidcUser user} to a
@@ -140,6 +140,12 @@ import lombok.extern.slf4j.Slf4j;
  * given by the OAuth2 authentication. (true), or replace them (false). Defaults
  * to {@code true}.
  * </ul>
+ * <p>
+ * If {@link LdapConfigProperties#isCreateNonExistingUsersInLDAP()
+ * createNonExistingUsersInLDAP} is enabled, the user is instead looked up in
+ * LDAP by its OAuth2 provider id, and its account created on first login,
+ * through an {@link OAuth2AccountProvisioner}. {@link #resolveReactive} does so
+ * without blocking the calling thread.
  */
 @RequiredArgsConstructor
 @EnableConfigurationProperties({ LdapConfigProperties.class })
@@ -160,6 +166,9 @@ public class OpenIdConnectUserMapper extends OAuth2UserMapper {
     @Autowired(required = false)
     private RabbitmqEventsSender eventsSender;
 
+    @Autowired(required = false)
+    private OAuth2AccountProvisioner accountProvisioner;
+
     private final @NonNull OpenIdConnectCustomClaimsConfigProperties nonStandardClaimsConfig;
 
     protected @Override Predicate<OAuth2AuthenticationToken> tokenFilter() {
@@ -171,53 +180,25 @@ public class OpenIdConnectUserMapper extends OAuth2UserMapper {
         return Ordered.HIGHEST_PRECEDENCE;
     }
 
+    /**
+     * Provisions the LDAP account asynchronously if
+     * {@link LdapConfigProperties#isCreateNonExistingUsersInLDAP()
+     * createNonExistingUsersInLDAP} is enabled, otherwise maps the token as
+     * {@link #resolve(Authentication)} does.
+     */
+    @Override
+    public Mono<GeorchestraUser> resolveReactive(Authentication authToken) {
+        if (config.isCreateNonExistingUsersInLDAP() && authToken instanceof OAuth2AuthenticationToken
+                && tokenFilter().test((OAuth2AuthenticationToken) authToken)) {
+            return provision((OAuth2AuthenticationToken) authToken);
+        }
+        return super.resolveReactive(authToken);
+    }
+
     protected @Override Optional<GeorchestraUser> map(OAuth2AuthenticationToken token) {
 
         if (config.isCreateNonExistingUsersInLDAP()) {
-            String oAuth2ProviderId = String.format("%s;%s", token.getAuthorizedClientRegistrationId(),
-                    token.getName());
-
-            UserMapperImpl mapper = new UserMapperImpl();
-            mapper.setRoleDao(roleDao);
-            List<String> protectedUsers = Collections.emptyList();
-            UserRule rule = new UserRule();
-            rule.setListOfprotectedUsers(protectedUsers.toArray(String[]::new));
-            UsersApiImpl usersApi = new UsersApiImpl();
-            usersApi.setAccountsDao(accountDao);
-            usersApi.setMapper(mapper);
-            usersApi.setUserRule(rule);
-
-            Optional<GeorchestraUser> userOpt = usersApi.findByOAuth2ProviderId(oAuth2ProviderId);
-
-            if (userOpt.isEmpty()) {
-                try {
-                    OidcUser oidcUser = (OidcUser) token.getPrincipal();
-                    Account newAccount = AccountFactory.createBrief(oidcUser.getEmail(), null, oidcUser.getGivenName(),
-                            oidcUser.getFamilyName(), oidcUser.getEmail(), "", "", "", oAuth2ProviderId);
-                    newAccount.setPending(false);
-                    accountDao.insert(newAccount);
-                    roleDao.addUser(Role.USER, newAccount);
-                    userOpt = usersApi.findByOAuth2ProviderId(oAuth2ProviderId);
-                    if (enableRabbitmq && eventsSender != null) {
-                        eventsSender.sendNewOAuthAccountMessage(
-                                oidcUser.getGivenName() + " " + oidcUser.getFamilyName(), oidcUser.getEmail(),
-                                token.getAuthorizedClientRegistrationId());
-                    }
-                } catch (DuplicatedUidException e) {
-                    throw new IllegalStateException(e);
-                } catch (DuplicatedEmailException e) {
-                    throw new IllegalStateException(e);
-                } catch (DataServiceException e) {
-                    throw new IllegalStateException(e);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-            }
-
-            List<String> roles = userOpt.get().getRoles().stream().map(r -> r.contains("ROLE_") ? r : "ROLE_" + r)
-                    .collect(Collectors.toList());
-            userOpt.get().setRoles(roles);
-            return userOpt;
+            return provision(token).blockOptional();
         } else {
             GeorchestraUser user = super.map(token).orElseGet(GeorchestraUser::new);
             OidcUser oidcUser = (OidcUser) token.getPrincipal();
@@ -232,6 +213,39 @@ public class OpenIdConnectUserMapper extends OAuth2UserMapper {
         }
     }
 
+    private Mono<GeorchestraUser> provision(OAuth2AuthenticationToken token) {
+        final String registrationId = token.getAuthorizedClientRegistrationId();
+        final String oAuth2ProviderId = String.format("%s;%s", registrationId, token.getName());
+        final OidcUser oidcUser = (OidcUser) token.getPrincipal();
+
+        return accountProvisioner().findOrCreate(oAuth2ProviderId, () -> newAccount(oidcUser, oAuth2ProviderId),
+                () -> {
+                    if (enableRabbitmq && eventsSender != null) {
+                        eventsSender.sendNewOAuthAccountMessage(
+                                oidcUser.getGivenName() + " " + oidcUser.getFamilyName(), oidcUser.getEmail(),
+                                registrationId);
+                    }
+                });
+    }
+
+    private Account newAccount(OidcUser oidcUser, String oAuth2ProviderId) {
+        Account newAccount = AccountFactory.createBrief(oidcUser.getEmail(), null, oidcUser.getGivenName(),
+                oidcUser.getFamilyName(), oidcUser.getEmail(), "", "", "", oAuth2ProviderId);
+        newAccount.setPending(false);
+        return newAccount;
+    }
+
+    /**
+     * @return the {@link OAuth2AccountProvisioner} bean, or a non caching one if
+     *         there's none in the application context
+     */
+    private synchronized OAuth2AccountProvisioner accountProvisioner() {
+        if (accountProvisioner == null) {
+            accountProvisioner = new OAuth2AccountProvisioner(accountDao, roleDao, new CacheSpec().setEnabled(false));
+        }
+        return accountProvisioner;
+    }
+
     /**
      * @param claims OpenId Connect merged claims from {@link OidcUserInfo} and
      *               {@link OidcIdToken}
@@ -239,14 +253,16 @@ public class OpenIdConnectUserMapper extends OAuth2UserMapper {
      */
     @VisibleForTesting
     void applyNonStandardClaims(Map<String, Object> claims, GeorchestraUser target) {
+        // evaluate all JSONPath expressions against the same document
+        final DocumentContext document = OpenIdConnectCustomClaimsConfigProperties.parse(claims);
 
-        nonStandardClaimsConfig.id().map(jsonEvaluator -> jsonEvaluator.extract(claims))//
+        nonStandardClaimsConfig.id().map(jsonEvaluator -> jsonEvaluator.extract(document))//
                 .map(List::stream)//
                 .flatMap(Stream::findFirst)//
                 .ifPresent(target::setId);
 
-        nonStandardClaimsConfig.roles().ifPresent(rolesMapper -> rolesMapper.apply(claims, target));
-        nonStandardClaimsConfig.organization().map(jsonEvaluator -> jsonEvaluator.extract(claims))//
+        nonStandardClaimsConfig.roles().ifPresent(rolesMapper -> rolesMapper.apply(document, target));
+        nonStandardClaimsConfig.organization().map(jsonEvaluator -> jsonEvaluator.extract(document))//
                 .map(List::stream)//
                 .flatMap(Stream::findFirst)//
                 .ifPresent(target::setOrganization);
@@ -27,6 +27,7 @@ import java.util.List;
 
 import org.georchestra.ds.users.AccountDaoImpl;
 import org.georchestra.gateway.security.oauth2.OAuth2Configuration.OAuth2AuthenticationCustomizer;
+import org.georchestra.gateway.security.oauth2.OAuth2HttpClientConfigProperties;
 import org.georchestra.gateway.security.oauth2.OAuth2ProxyConfigProperties;
 import org.georchestra.gateway.security.oauth2.OpenIdConnectCustomClaimsConfigProperties;
 import org.georchestra.gateway.security.oauth2.OpenIdConnectCustomClaimsConfigProperties.RolesMapping;
@@ -92,6 +93,8 @@ class OAuth2SecurityAutoConfigurationTest {
                     assertThat(context).hasSingleBean(DefaultReactiveOAuth2UserService.class);
                     assertThat(context).hasSingleBean(OidcReactiveOAuth2UserService.class);
                     assertThat(context).hasBean("oauth2WebClient");
+                    assertThat(context).hasBean("oauth2ConnectionProvider");
+                    assertThat(context).hasSingleBean(OAuth2HttpClientConfigProperties.class);
                     assertThat(context).hasBean("oAuth2GeorchestraUserUserMapper");
                     assertThat(context).hasBean("openIdConnectGeorchestraUserUserMapper");
                 });
@@ -153,6 +156,7 @@ class OAuth2SecurityAutoConfigurationTest {
             assertThat(context).doesNotHaveBean(ReactiveOAuth2AccessTokenResponseClient.class);
             assertThat(context).doesNotHaveBean(ReactiveOAuth2UserService.class);
             assertThat(context).doesNotHaveBean("oauth2WebClient");
+            assertThat(context).doesNotHaveBean("oauth2ConnectionProvider");
             assertThat(context).doesNotHaveBean("oAuth2GeorchestraUserUserMapper");
             assertThat(context).doesNotHaveBean("openIdConnectGeorchestraUserUserMapper");
         });
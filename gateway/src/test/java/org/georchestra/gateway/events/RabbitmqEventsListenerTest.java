@@ -0,0 +1,132 @@
+package org.georchestra.gateway.events;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.georchestra.gateway.events.LdapModificationEvent.Type;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+import com.google.common.base.Ticker;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test suite for {@link RabbitmqEventsListener}
+ */
+class RabbitmqEventsListenerTest {
+
+    private RabbitmqEventsListener listener;
+    private List<Object> published;
+
+    @BeforeEach
+    void setUp() {
+        published = new ArrayList<>();
+        listener = new RabbitmqEventsListener();
+        listener.setApplicationEventPublisher(published::add);
+    }
+
+    private Message message(JSONObject body) {
+        return new Message(body.toString().getBytes(StandardCharsets.UTF_8), new MessageProperties());
+    }
+
+    @Test
+    void testPublishesLdapModificationEvents() {
+        listener.onMessage(message(new JSONObject().put("subject", "LDAP-USER-MODIFIED").put("name", "testuser")));
+        listener.onMessage(message(new JSONObject().put("subject", "LDAP-ROLE-MODIFIED").put("name", "ADMINISTRATOR")));
+        listener.onMessage(message(new JSONObject().put("subject", "LDAP-ORG-MODIFIED").put("name", "PSC")));
+
+        assertThat(published).hasSize(3).allMatch(LdapModificationEvent.class::isInstance);
+        LdapModificationEvent user = (LdapModificationEvent) published.get(0);
+        assertThat(user.getType()).isEqualTo(Type.USER);
+        assertThat(user.getName()).hasValue("testuser");
+        assertThat(((LdapModificationEvent) published.get(1)).getType()).isEqualTo(Type.ROLE);
+        LdapModificationEvent org = (LdapModificationEvent) published.get(2);
+        assertThat(org.getType()).isEqualTo(Type.ORGANIZATION);
+        assertThat(org.getName()).hasValue("PSC");
+    }
+
+    @Test
+    void testModificationWithoutName() {
+        listener.onMessage(message(new JSONObject().put("subject", "LDAP-USER-MODIFIED")));
+
+        assertThat(published).singleElement().isInstanceOf(LdapModificationEvent.class);
+        assertThat(((LdapModificationEvent) published.get(0)).getName()).isEmpty();
+    }
+
+    @Test
+    void testAccountCreationMessageDoesNotPublishEvents() {
+        listener.onMessage(message(new JSONObject().put("subject", "OAUTH2-ACCOUNT-CREATION-RECEIVED")
+                .put("uid", "1234").put("msg", "account created")));
+
+        assertThat(published).isEmpty();
+    }
+
+    @Test
+    void testDuplicateMessagesAreDropped() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        listener.bindTo(registry);
+        JSONObject message = new JSONObject().put("subject", "OAUTH2-ACCOUNT-CREATION-RECEIVED").put("uid", "1234")
+                .put("msg", "account created");
+
+        listener.onMessage(message(message));
+        listener.onMessage(message(message));
+        listener.onMessage(message(message.put("uid", "5678")));
+
+        assertThat(listener.deduplicationSize()).isEqualTo(2);
+        assertThat(registry.get("georchestra.events.deduplication.duplicates").counter().count()).isEqualTo(1);
+        assertThat(registry.get("georchestra.events.deduplication.size").gauge().value()).isEqualTo(2);
+    }
+
+    @Test
+    void testDeduplicationWindow() {
+        final AtomicLong nanos = new AtomicLong();
+        Ticker ticker = new Ticker() {
+            public @Override long read() {
+                return nanos.get();
+            }
+        };
+        listener = new RabbitmqEventsListener(100, Duration.ofMinutes(1), ticker);
+        assertThat(listener.firstReceived("1234")).isTrue();
+
+        nanos.addAndGet(Duration.ofSeconds(59).toNanos());
+        assertThat(listener.firstReceived("1234")).isFalse();
+
+        nanos.addAndGet(Duration.ofSeconds(1).toNanos());
+        assertThat(listener.firstReceived("1234")).isTrue();
+    }
+
+    /**
+     * Soak test: the number of uids kept stays bounded no matter how many
+     * distinct messages are received, while recent duplicates are still dropped
+     */
+    @Test
+    void testDeduplicationMemoryIsBounded() {
+        final int maximumSize = 10_000;
+        listener = new RabbitmqEventsListener(maximumSize, Duration.ofHours(1));
+        final int events = 2_000_000;
+        int duplicates = 0;
+        for (int i = 0; i < events; i++) {
+            String uid = Integer.toString(i);
+            if (!listener.firstReceived(uid)) {
+                duplicates++;
+            }
+            // only assert on sampled iterations, to keep the loop cheap
+            if (i % 100_000 == 0) {
+                assertThat(listener.firstReceived(uid)).as("duplicate of " + uid).isFalse();
+                assertThat(listener.deduplicationSize()).isLessThanOrEqualTo(maximumSize);
+            }
+        }
+        assertThat(duplicates).as("distinct uids reported as duplicates").isZero();
+        assertThat(listener.deduplicationSize()).isLessThanOrEqualTo(maximumSize);
+        assertThat(listener.firstReceived(Integer.toString(events - 1))).isFalse();
+    }
+}
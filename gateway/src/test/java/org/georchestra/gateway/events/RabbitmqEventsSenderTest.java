@@ -0,0 +1,260 @@
+package org.georchestra.gateway.events;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.georchestra.gateway.events.RabbitmqEventsSenderConfigProperties.OverflowPolicy;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.AmqpTimeoutException;
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitOperations.OperationsCallback;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test suite for {@link RabbitmqEventsSender}, against a {@link RabbitTemplate}
+ * stand-in with publisher confirms enabled, that records the events sent, and
+ * the batches confirmed
+ */
+class RabbitmqEventsSenderTest {
+
+    private RabbitTemplate template;
+
+    private List<String> sent;
+    private List<List<String>> confirmed;
+
+    /**
+     * Holds the stand-in's publishing while closed, to let events pile up
+     */
+    private volatile CountDownLatch gate;
+    private volatile CountDownLatch publishing;
+
+    private RabbitmqEventsSenderConfigProperties config;
+    private SimpleMeterRegistry registry;
+    private RabbitmqEventsSender sender;
+
+    @SuppressWarnings("unchecked")
+    @BeforeEach
+    void setUp() {
+        sent = new CopyOnWriteArrayList<>();
+        confirmed = new CopyOnWriteArrayList<>();
+        gate = new CountDownLatch(0);
+        publishing = new CountDownLatch(1);
+
+        ConnectionFactory connectionFactory = mock(ConnectionFactory.class);
+        when(connectionFactory.isSimplePublisherConfirms()).thenReturn(true);
+        template = mock(RabbitTemplate.class);
+        when(template.getConnectionFactory()).thenReturn(connectionFactory);
+        doAnswer(invocation -> {
+            publishing.countDown();
+            gate.await(5, TimeUnit.SECONDS);
+            sent.add(invocation.getArgument(1));
+            return null;
+        }).when(template).convertAndSend(eq(RabbitmqEventsSender.ROUTING_KEY), anyString());
+        when(template.invoke(any())).thenAnswer(invocation -> {
+            final int from = sent.size();
+            Object result = ((OperationsCallback<Object>) invocation.getArgument(0)).doInRabbit(template);
+            confirmed.add(List.copyOf(sent.subList(from, sent.size())));
+            return result;
+        });
+
+        config = new RabbitmqEventsSenderConfigProperties()//
+                .setInitialBackoff(Duration.ofMillis(10))//
+                .setMaxBackoff(Duration.ofMillis(20))//
+                .setShutdownTimeout(Duration.ofSeconds(1));
+        registry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        gate.countDown();
+        if (sender != null) {
+            sender.destroy();
+        }
+    }
+
+    private RabbitmqEventsSender start(RabbitmqEventsSenderConfigProperties config) {
+        sender = new RabbitmqEventsSender(template, config);
+        sender.bindTo(registry);
+        return sender;
+    }
+
+    /**
+     * Closes the gate and queues {@code message}, returning once the sender is
+     * publishing it
+     */
+    private void holdPublishing(String message) throws InterruptedException {
+        gate = new CountDownLatch(1);
+        assertThat(sender.enqueue(message)).isTrue();
+        assertThat(publishing.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private double count(String name) {
+        return registry.get(name).counter().count();
+    }
+
+    private void await(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("condition not met in time");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void testSendNewOAuthAccountMessage() throws InterruptedException {
+        start(config);
+        gate = new CountDownLatch(1);
+
+        // returns right away, even though the broker is not responding
+        sender.sendNewOAuthAccountMessage("John Doe", "john@doe.com", "proconnect");
+
+        gate.countDown();
+        await(() -> sent.size() == 1);
+        JSONObject message = new JSONObject(sent.get(0));
+        assertThat(message.getString("subject")).isEqualTo(RabbitmqEventsSender.OAUTH2_ACCOUNT_CREATION);
+        assertThat(message.getString("username")).isEqualTo("John Doe");
+        assertThat(message.getString("email")).isEqualTo("john@doe.com");
+        assertThat(message.getString("provider")).isEqualTo("proconnect");
+        assertThat(message.getString("uid")).isNotBlank();
+
+        await(() -> count("georchestra.events.outbox.published") == 1);
+        assertThat(registry.get("georchestra.events.outbox.depth").gauge().value()).isZero();
+    }
+
+    @Test
+    void testPublishesInBatchesAndWaitsForConfirms() throws InterruptedException {
+        start(config.setBatchSize(3));
+        holdPublishing("m0");
+        for (int i = 1; i <= 5; i++) {
+            assertThat(sender.enqueue("m" + i)).isTrue();
+        }
+        assertThat(sender.depth()).isEqualTo(5);
+
+        gate.countDown();
+        await(() -> confirmed.size() == 3);
+
+        assertThat(confirmed).containsExactly(List.of("m0"), List.of("m1", "m2", "m3"), List.of("m4", "m5"));
+        verify(template, times(3)).waitForConfirmsOrDie(config.getConfirmTimeout().toMillis());
+        await(() -> count("georchestra.events.outbox.published") == 6);
+    }
+
+    @Test
+    void testRetriesFailedBatches() throws InterruptedException {
+        doThrow(new AmqpTimeoutException("not confirmed in time")).doNothing().when(template)
+                .waitForConfirmsOrDie(anyLong());
+        start(config);
+
+        assertThat(sender.enqueue("m1")).isTrue();
+
+        await(() -> confirmed.size() == 1);
+        // the first attempt was not confirmed, so it was sent again
+        assertThat(sent).containsExactly("m1", "m1");
+        assertThat(confirmed).containsExactly(List.of("m1"));
+        await(() -> count("georchestra.events.outbox.published") == 1);
+        assertThat(count("georchestra.events.outbox.failed")).isZero();
+    }
+
+    @Test
+    void testDiscardsBatchAfterMaxAttempts() throws InterruptedException {
+        doThrow(new AmqpTimeoutException("not confirmed in time")).when(template).waitForConfirmsOrDie(anyLong());
+        start(config.setMaxAttempts(3));
+
+        assertThat(sender.enqueue("m1")).isTrue();
+
+        await(() -> count("georchestra.events.outbox.failed") == 1);
+        verify(template, times(3)).waitForConfirmsOrDie(anyLong());
+        assertThat(confirmed).isEmpty();
+        assertThat(count("georchestra.events.outbox.published")).isZero();
+    }
+
+    @Test
+    void testDropPolicy() throws InterruptedException {
+        start(config.setQueueCapacity(2).setOverflowPolicy(OverflowPolicy.DROP));
+        holdPublishing("m0");
+
+        assertThat(sender.enqueue("m1")).isTrue();
+        assertThat(sender.enqueue("m2")).isTrue();
+        assertThat(sender.enqueue("m3")).isFalse();
+        assertThat(sender.depth()).isEqualTo(2);
+        assertThat(count("georchestra.events.outbox.dropped")).isEqualTo(1);
+
+        gate.countDown();
+        await(() -> count("georchestra.events.outbox.published") == 3);
+        assertThat(sent).containsExactly("m0", "m1", "m2");
+    }
+
+    @Test
+    void testBlockPolicy() throws Exception {
+        start(config.setQueueCapacity(1).setOverflowPolicy(OverflowPolicy.BLOCK)
+                .setOfferTimeout(Duration.ofSeconds(5)));
+        holdPublishing("m0");
+        assertThat(sender.enqueue("m1")).isTrue();
+
+        CompletableFuture<Boolean> blocked = CompletableFuture.supplyAsync(() -> sender.enqueue("m2"));
+        Thread.sleep(100);
+        assertThat(blocked).isNotDone();
+
+        gate.countDown();
+        assertThat(blocked.get(5, TimeUnit.SECONDS)).isTrue();
+        await(() -> count("georchestra.events.outbox.published") == 3);
+        assertThat(sent).containsExactly("m0", "m1", "m2");
+        assertThat(count("georchestra.events.outbox.dropped")).isZero();
+    }
+
+    @Test
+    void testBlockPolicyTimeout() throws InterruptedException {
+        start(config.setQueueCapacity(1).setOverflowPolicy(OverflowPolicy.BLOCK)
+                .setOfferTimeout(Duration.ofMillis(50)));
+        holdPublishing("m0");
+        assertThat(sender.enqueue("m1")).isTrue();
+
+        assertThat(sender.enqueue("m2")).isFalse();
+        assertThat(count("georchestra.events.outbox.dropped")).isEqualTo(1);
+    }
+
+    @Test
+    void testWithoutPublisherConfirms() throws InterruptedException {
+        AmqpTemplate amqpTemplate = mock(AmqpTemplate.class);
+        sender = new RabbitmqEventsSender(amqpTemplate, config);
+
+        assertThat(sender.enqueue("m1")).isTrue();
+
+        verify(amqpTemplate, timeout(5_000)).convertAndSend(RabbitmqEventsSender.ROUTING_KEY, "m1");
+    }
+
+    @Test
+    void testDiscardsEventsAfterShutdown() throws InterruptedException {
+        start(config);
+        sender.destroy();
+
+        assertThat(sender.enqueue("m1")).isFalse();
+        assertThat(count("georchestra.events.outbox.dropped")).isEqualTo(1);
+    }
+}
@@ -21,6 +21,7 @@ package org.georchestra.gateway.filter.global;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -115,6 +116,7 @@ class ResolveTargetGlobalFilterTest {
 
         Service service2 = service(URI.create("https://backend.service.2"), new HeaderMappings());
         config.setServices(Map.of("service1", serviceWithNoHeaderMappings, "service2", service2));
+        filter.rebuildIndex();
 
         GeorchestraTargetConfig target = filter.resolveTarget(matchedRoute);
         assertSame(defaultHeaders, target.headers());
@@ -129,12 +131,32 @@ class ResolveTargetGlobalFilterTest {
 
         Service service2 = service(URI.create("https://backend.service.2"), new HeaderMappings());
         config.setServices(Map.of("service1", serviceWithNoAccessRules, "service2", service2));
+        filter.rebuildIndex();
 
         GeorchestraTargetConfig target = filter.resolveTarget(matchedRoute);
         assertEquals(defaultRules, target.accessRules());
         assertSame(serviceHeaders, target.headers());
     }
 
+    @Test
+    void resolveTarget_returns_same_instance_until_refreshed() {
+        Service service = service(matchedURI, new HeaderMappings());
+        config.setServices(Map.of("service1", service));
+        filter.rebuildIndex();
+
+        GeorchestraTargetConfig target = filter.resolveTarget(matchedRoute);
+        assertSame(target, filter.resolveTarget(matchedRoute));
+        assertSame(service.getHeaders().get(), target.headers());
+
+        HeaderMappings newHeaders = new HeaderMappings();
+        service.setHeaders(Optional.of(newHeaders));
+        assertSame(target, filter.resolveTarget(matchedRoute), "index shall not change until refreshed");
+
+        filter.onRefreshRoutes();
+        assertNotSame(target, filter.resolveTarget(matchedRoute));
+        assertSame(newHeaders, filter.resolveTarget(matchedRoute).headers());
+    }
+
     private Service service(URI targetURI) {
         return service(targetURI, null);
     }
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.gateway.filter.headers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Test suite for {@link HeaderPlan}
+ */
+class HeaderPlanTest {
+
+    private final Map<String, String> source = Map.of("a", "value-a", "b", "value-b");
+
+    @Test
+    void testOnlyEnabledHeadersArePlanned() {
+        HeaderPlan<Map<String, String>> plan = HeaderPlan.<Map<String, String>>builder()//
+                .add("sec-a", Optional.of(true), m -> m.get("a"))//
+                .add("sec-b", Optional.of(false), m -> m.get("b"))//
+                .add("sec-c", Optional.empty(), m -> m.get("a"))//
+                .build();
+
+        HttpHeaders headers = new HttpHeaders();
+        plan.apply(source, headers);
+        assertThat(headers).containsOnlyKeys("sec-a");
+        assertThat(headers.get("sec-a")).isEqualTo(List.of("value-a"));
+    }
+
+    @Test
+    void testNullValuesAreSkipped() {
+        HeaderPlan<Map<String, String>> plan = HeaderPlan.<Map<String, String>>builder()//
+                .add("sec-a", m -> m.get("a"))//
+                .add("sec-missing", m -> m.get("missing"))//
+                .build();
+
+        HttpHeaders headers = new HttpHeaders();
+        plan.apply(source, headers);
+        assertThat(headers).containsOnlyKeys("sec-a");
+    }
+
+    @Test
+    void testEmpty() {
+        HeaderPlan<Map<String, String>> plan = HeaderPlan.<Map<String, String>>builder()//
+                .add("sec-a", Optional.of(false), m -> m.get("a"))//
+                .build();
+        assertThat(plan.isEmpty()).isTrue();
+        assertThat(plan).isSameAs(HeaderPlan.empty());
+
+        HttpHeaders headers = new HttpHeaders();
+        plan.apply(source, headers);
+        assertThat(headers).isEmpty();
+    }
+}
@@ -20,7 +20,9 @@
 package org.georchestra.gateway.filter.headers.providers;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -114,8 +116,43 @@ class JsonPayloadHeadersContributorTest {
         testContributesJsonHeader(org, "sec-organization");
     }
 
-    private void testContributesJsonHeader(Object object, String headerName)
-            throws JsonProcessingException, JsonMappingException {
+    @Test
+    void testUserPayloadIsMemoized() throws Exception {
+        GeorchestraUser user = new GeorchestraUser();
+        user.setId("abc");
+        user.setUsername("testuser");
+        user.setLastUpdated("1");
+        user.setRoles(List.of("ROLE_USER"));
+        GeorchestraUsers.store(exchange, user);
+
+        String first = contribute("sec-user");
+        assertSame(first, contribute("sec-user"), "expected the cached encoded payload");
+
+        user.setRoles(List.of("ROLE_USER", "ROLE_ADMIN"));
+        user.setLastUpdated("2");
+        String updated = contribute("sec-user");
+        assertNotEquals(first, updated, "expected payload to be re-encoded after lastUpdated changed");
+        testContributesJsonHeader(user, "sec-user");
+    }
+
+    @Test
+    void testOrganizationPayloadIsMemoized() throws Exception {
+        Organization org = new Organization();
+        org.setId("abc");
+        org.setShortName("PSC");
+        org.setLastUpdated("1");
+        GeorchestraOrganizations.store(exchange, org);
+
+        String first = contribute("sec-organization");
+        assertSame(first, contribute("sec-organization"), "expected the cached encoded payload");
+
+        org.setName("Project Steering Committee");
+        org.setLastUpdated("2");
+        assertNotEquals(first, contribute("sec-organization"));
+        testContributesJsonHeader(org, "sec-organization");
+    }
+
+    private String contribute(String headerName) {
         Consumer<HttpHeaders> contributor = headerContributor.prepare(exchange);
         assertNotNull(contributor);
 
@@ -124,7 +161,12 @@ class JsonPayloadHeadersContributorTest {
 
         List<String> val = target.get(headerName);
         assertNotNull(val);
-        String base64Ecnoded = val.get(0);
+        return val.get(0);
+    }
+
+    private void testContributesJsonHeader(Object object, String headerName)
+            throws JsonProcessingException, JsonMappingException {
+        String base64Ecnoded = contribute(headerName);
         String json = SecurityHeaders.decode(base64Ecnoded);
         Object decoded = new ObjectMapper().readValue(json, object.getClass());
         assertEquals(object, decoded);
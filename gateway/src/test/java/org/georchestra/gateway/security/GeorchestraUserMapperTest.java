@@ -20,22 +20,38 @@
 package org.georchestra.gateway.security;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
+import org.georchestra.gateway.events.LdapModificationEvent;
+import org.georchestra.gateway.events.LdapModificationEvent.Type;
+import org.georchestra.gateway.model.GeorchestraUsers;
 import org.georchestra.security.model.GeorchestraUser;
 import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.mock.web.server.MockWebSession;
 import org.springframework.security.core.Authentication;
 
+import reactor.core.publisher.Mono;
+
 /**
  * Test suite for {@link GeorchestraUserMapper}
  */
@@ -120,4 +136,214 @@ class GeorchestraUserMapperTest {
         assertEquals("customizer1", resolved.get().getUsername());
         assertEquals(List.of("ROLE_1", "ROLE_2"), resolved.get().getRoles());
     }
+
+    @Test
+    void testResolveReactive_no_extensions() {
+        GeorchestraUserMapper mapper = new GeorchestraUserMapper(List.of());
+        Authentication auth = mock(Authentication.class);
+        assertNull(mapper.resolveReactive(auth).block());
+    }
+
+    @Test
+    void testResolveReactiveOrder() {
+        Authentication auth = mock(Authentication.class);
+
+        GeorchestraUserMapperExtension ext1 = mock(GeorchestraUserMapperExtension.class);
+        when(ext1.resolveReactive(same(auth))).thenReturn(Mono.empty());
+
+        GeorchestraUser user2 = mock(GeorchestraUser.class);
+        GeorchestraUserMapperExtension ext2 = mock(GeorchestraUserMapperExtension.class);
+        when(ext2.resolveReactive(same(auth))).thenReturn(Mono.just(user2));
+
+        GeorchestraUserMapperExtension ext3 = mock(GeorchestraUserMapperExtension.class);
+        when(ext3.resolveReactive(same(auth))).thenReturn(Mono.just(mock(GeorchestraUser.class)));
+
+        GeorchestraUserMapper mapper = new GeorchestraUserMapper(List.of(ext1, ext2, ext3));
+        assertSame(user2, mapper.resolveReactive(auth).block());
+        verify(ext3, never()).resolveReactive(any());
+    }
+
+    @Test
+    void testResolveReactiveAppliesCustomizers() {
+        Authentication auth = mock(Authentication.class);
+        GeorchestraUserMapperExtension userMapper = mock(GeorchestraUserMapperExtension.class);
+        when(userMapper.resolveReactive(same(auth))).thenReturn(Mono.just(new GeorchestraUser()));
+
+        GeorchestraUserCustomizerExtension customizer = u -> {
+            u.setUsername("customized");
+            return u;
+        };
+        GeorchestraUserMapper mapper = new GeorchestraUserMapper(List.of(userMapper), List.of(customizer));
+        assertEquals("customized", mapper.resolveReactive(auth).block().getUsername());
+    }
+
+    @Test
+    void testExtensionDefaultResolveReactiveDelegatesToResolve() {
+        Authentication auth = mock(Authentication.class);
+        GeorchestraUser user = new GeorchestraUser();
+        GeorchestraUserMapperExtension ext = authToken -> Optional.of(user);
+        assertSame(user, ext.resolveReactive(auth).block());
+
+        GeorchestraUserMapperExtension empty = authToken -> Optional.empty();
+        assertNull(empty.resolveReactive(auth).block());
+    }
+
+    @Test
+    void testResolveReactiveReusesExchangeUser() {
+        Authentication auth = mock(Authentication.class);
+        GeorchestraUserMapperExtension ext = mock(GeorchestraUserMapperExtension.class);
+        GeorchestraUser user = new GeorchestraUser();
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/"));
+        GeorchestraUsers.store(exchange, user);
+
+        GeorchestraUserMapper mapper = new GeorchestraUserMapper(List.of(ext));
+        assertSame(user, mapper.resolveReactive(auth, exchange).block());
+        verify(ext, never()).resolveReactive(any());
+    }
+
+    @Test
+    void testResolveReactiveSessionSnapshot() {
+        Authentication auth = mock(Authentication.class);
+        GeorchestraUserMapperExtension ext = mock(GeorchestraUserMapperExtension.class);
+        when(ext.resolveReactive(same(auth))).thenAnswer(i -> Mono.just(user("ROLE_USER")));
+
+        GeorchestraUserMapper mapper = new GeorchestraUserMapper(List.of(ext));
+        mapper.setSessionTimeToLive(Duration.ofMinutes(1));
+        MockWebSession session = new MockWebSession();
+        session.start();
+
+        GeorchestraUser first = mapper.resolveReactive(auth, exchange(session)).block();
+        GeorchestraUser second = mapper.resolveReactive(auth, exchange(session)).block();
+        assertSame(first, second);
+        verify(ext, times(1)).resolveReactive(any());
+        assertEquals(List.of("ROLE_USER"), first.getRoles());
+        assertThrows(UnsupportedOperationException.class, () -> first.getRoles().add("ROLE_ADMIN"));
+
+        GeorchestraUserMapper.invalidate(session);
+        mapper.resolveReactive(auth, exchange(session)).block();
+        verify(ext, times(2)).resolveReactive(any());
+    }
+
+    @Test
+    void testResolveReactiveSessionSnapshotAuthenticationChanged() {
+        Authentication auth1 = mock(Authentication.class);
+        Authentication auth2 = mock(Authentication.class);
+        GeorchestraUserMapperExtension ext = mock(GeorchestraUserMapperExtension.class);
+        when(ext.resolveReactive(same(auth1))).thenAnswer(i -> Mono.just(user("ROLE_USER")));
+        when(ext.resolveReactive(same(auth2))).thenAnswer(i -> Mono.just(user("ROLE_ADMIN")));
+
+        GeorchestraUserMapper mapper = new GeorchestraUserMapper(List.of(ext));
+        mapper.setSessionTimeToLive(Duration.ofMinutes(1));
+        MockWebSession session = new MockWebSession();
+        session.start();
+
+        mapper.resolveReactive(auth1, exchange(session)).block();
+        GeorchestraUser user2 = mapper.resolveReactive(auth2, exchange(session)).block();
+        assertEquals(List.of("ROLE_ADMIN"), user2.getRoles());
+    }
+
+    @Test
+    void testResolveReactiveSessionSnapshotExpired() {
+        Authentication auth = mock(Authentication.class);
+        GeorchestraUserMapperExtension ext = mock(GeorchestraUserMapperExtension.class);
+        when(ext.resolveReactive(same(auth))).thenAnswer(i -> Mono.just(user("ROLE_USER")));
+
+        GeorchestraUserMapper mapper = new GeorchestraUserMapper(List.of(ext));
+        mapper.setSessionTimeToLive(Duration.ZERO);
+        MockWebSession session = new MockWebSession();
+        session.start();
+
+        mapper.resolveReactive(auth, exchange(session)).block();
+        mapper.resolveReactive(auth, exchange(session)).block();
+        verify(ext, times(2)).resolveReactive(any());
+    }
+
+    @Test
+    void testLdapModificationDiscardsSessionSnapshots() {
+        Authentication auth = mock(Authentication.class);
+        GeorchestraUserMapperExtension ext = mock(GeorchestraUserMapperExtension.class);
+        when(ext.resolveReactive(same(auth))).thenAnswer(i -> Mono.just(user("ROLE_USER")));
+        ResolvedUserCache cache = spy(ResolvedUserCache.disabled());
+
+        GeorchestraUserMapper mapper = new GeorchestraUserMapper(List.of(ext), List.of(), cache);
+        mapper.setSessionTimeToLive(Duration.ofMinutes(1));
+        MockWebSession session = new MockWebSession();
+        session.start();
+
+        mapper.resolveReactive(auth, exchange(session)).block();
+        mapper.onLdapModification(new LdapModificationEvent(this, Type.USER, "testuser"));
+        verify(cache).invalidatePrincipal("testuser");
+        mapper.resolveReactive(auth, exchange(session)).block();
+        verify(ext, times(2)).resolveReactive(any());
+
+        mapper.onLdapModification(new LdapModificationEvent(this, Type.ROLE, "USER"));
+        verify(cache).invalidateAll();
+        mapper.resolveReactive(auth, exchange(session)).block();
+        verify(ext, times(3)).resolveReactive(any());
+    }
+
+    @Test
+    void testLdapModificationKeepsUnaffectedSessionSnapshots() {
+        Authentication auth = mock(Authentication.class);
+        GeorchestraUserMapperExtension ext = mock(GeorchestraUserMapperExtension.class);
+        when(ext.resolveReactive(same(auth))).thenAnswer(i -> Mono.just(user("ROLE_USER")));
+        ResolvedUserCache cache = spy(ResolvedUserCache.disabled());
+
+        GeorchestraUserMapper mapper = new GeorchestraUserMapper(List.of(ext), List.of(), cache);
+        mapper.setSessionTimeToLive(Duration.ofMinutes(1));
+        MockWebSession session = new MockWebSession();
+        session.start();
+
+        mapper.resolveReactive(auth, exchange(session)).block();
+        mapper.onLdapModification(new LdapModificationEvent(this, Type.USER, "otheruser"));
+        mapper.onLdapModification(new LdapModificationEvent(this, Type.ORGANIZATION, "PSC"));
+        mapper.resolveReactive(auth, exchange(session)).block();
+
+        verify(ext, times(1)).resolveReactive(any());
+        verify(cache).invalidatePrincipal("otheruser");
+        verify(cache, never()).invalidateAll();
+    }
+
+    @Test
+    void testUnnamedUserModificationDiscardsAllSessionSnapshots() {
+        Authentication auth = mock(Authentication.class);
+        GeorchestraUserMapperExtension ext = mock(GeorchestraUserMapperExtension.class);
+        when(ext.resolveReactive(same(auth))).thenAnswer(i -> Mono.just(user("ROLE_USER")));
+
+        GeorchestraUserMapper mapper = new GeorchestraUserMapper(List.of(ext));
+        mapper.setSessionTimeToLive(Duration.ofMinutes(1));
+        MockWebSession session = new MockWebSession();
+        session.start();
+
+        mapper.resolveReactive(auth, exchange(session)).block();
+        mapper.onLdapModification(new LdapModificationEvent(this, Type.USER, null));
+        mapper.resolveReactive(auth, exchange(session)).block();
+        verify(ext, times(2)).resolveReactive(any());
+    }
+
+    @Test
+    void testResolveReactiveDoesNotStartSession() {
+        Authentication auth = mock(Authentication.class);
+        GeorchestraUserMapperExtension ext = mock(GeorchestraUserMapperExtension.class);
+        when(ext.resolveReactive(same(auth))).thenAnswer(i -> Mono.just(user("ROLE_USER")));
+
+        GeorchestraUserMapper mapper = new GeorchestraUserMapper(List.of(ext));
+        mapper.setSessionTimeToLive(Duration.ofMinutes(1));
+        MockWebSession session = new MockWebSession();
+
+        assertNotNull(mapper.resolveReactive(auth, exchange(session)).block());
+        assertFalse(session.isStarted());
+        assertTrue(session.getAttributes().isEmpty());
+    }
+
+    private MockServerWebExchange exchange(MockWebSession session) {
+        return MockServerWebExchange.builder(MockServerHttpRequest.get("/")).session(session).build();
+    }
+
+    private GeorchestraUser user(String... roles) {
+        GeorchestraUser user = new GeorchestraUser();
+        user.setUsername("testuser");
+        user.setRoles(new ArrayList<>(List.of(roles)));
+        return user;
+    }
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.gateway.security;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+import org.georchestra.gateway.model.CacheConfigProperties.CacheSpec;
+import org.georchestra.security.model.GeorchestraUser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test suite for {@link InMemoryResolvedUserCache}
+ */
+class InMemoryResolvedUserCacheTest {
+
+    private InMemoryResolvedUserCache cache;
+    private Function<Authentication, Optional<GeorchestraUser>> loader;
+
+    @SuppressWarnings("unchecked")
+    @BeforeEach
+    void setUp() {
+        cache = new InMemoryResolvedUserCache(new CacheSpec().setMaximumSize(10).setTimeToLive(Duration.ofMinutes(1)));
+        loader = mock(Function.class);
+        when(loader.apply(any())).thenAnswer(invocation -> Optional.of(new GeorchestraUser()));
+    }
+
+    @Test
+    void testGetCachesResolvedUser() {
+        Authentication auth = new TestingAuthenticationToken("user", null, "ROLE_USER");
+        GeorchestraUser user1 = cache.get(auth, loader).orElseThrow();
+        GeorchestraUser user2 = cache.get(auth, loader).orElseThrow();
+
+        assertThat(user2).isSameAs(user1);
+        verify(loader, times(1)).apply(any());
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    void testKeyIncludesAuthorities() {
+        Authentication auth1 = new TestingAuthenticationToken("user", null, "ROLE_USER", "ROLE_ADMIN");
+        Authentication sameRoles = new TestingAuthenticationToken("user", null, "ROLE_ADMIN", "ROLE_USER");
+        Authentication otherRoles = new TestingAuthenticationToken("user", null, "ROLE_USER");
+
+        GeorchestraUser user = cache.get(auth1, loader).orElseThrow();
+        assertThat(cache.get(sameRoles, loader).orElseThrow()).isSameAs(user);
+        assertThat(cache.get(otherRoles, loader).orElseThrow()).isNotSameAs(user);
+        verify(loader, times(2)).apply(any());
+    }
+
+    @Test
+    void testKeyAuthoritiesDoNotCollide() {
+        // "Aa" and "BB" have the same String.hashCode(), and so do these role lists
+        Authentication auth1 = new TestingAuthenticationToken("user", null, "ROLE_Aa");
+        Authentication auth2 = new TestingAuthenticationToken("user", null, "ROLE_BB");
+        assertThat(List.of("ROLE_Aa").hashCode()).isEqualTo(List.of("ROLE_BB").hashCode());
+
+        GeorchestraUser user = cache.get(auth1, loader).orElseThrow();
+        assertThat(cache.get(auth2, loader).orElseThrow()).isNotSameAs(user);
+        assertThat(ResolvedUserCache.Key.of(auth1).asString()).isNotEqualTo(ResolvedUserCache.Key.of(auth2).asString());
+    }
+
+    @Test
+    void testEmptyResultIsNotCached() {
+        @SuppressWarnings("unchecked")
+        Function<Authentication, Optional<GeorchestraUser>> emptyLoader = mock(Function.class);
+        when(emptyLoader.apply(any())).thenReturn(Optional.empty());
+        Authentication auth = new TestingAuthenticationToken("user", null);
+
+        assertThat(cache.get(auth, emptyLoader)).isEmpty();
+        assertThat(cache.get(auth, emptyLoader)).isEmpty();
+        verify(emptyLoader, times(2)).apply(any());
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void testInvalidate() {
+        Authentication auth = new TestingAuthenticationToken("user", null, "ROLE_USER");
+        GeorchestraUser user = cache.get(auth, loader).orElseThrow();
+
+        cache.invalidate(new TestingAuthenticationToken("user", null, "ROLE_USER"));
+        assertThat(cache.size()).isZero();
+        assertThat(cache.get(auth, loader).orElseThrow()).isNotSameAs(user);
+    }
+
+    @Test
+    void testInvalidatePrincipal() {
+        cache.get(new TestingAuthenticationToken("user", null, "ROLE_USER"), loader);
+        cache.get(new TestingAuthenticationToken("user", null, "ROLE_ADMIN"), loader);
+        cache.get(new TestingAuthenticationToken("other", null, "ROLE_USER"), loader);
+
+        cache.invalidatePrincipal("user");
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    void testInvalidatePrincipalByUserName() {
+        GeorchestraUser user = new GeorchestraUser();
+        user.setUsername("user");
+        when(loader.apply(any())).thenReturn(Optional.of(user));
+        cache.get(new TestingAuthenticationToken("user@example.com", null, "ROLE_USER"), loader);
+        when(loader.apply(any())).thenReturn(Optional.of(new GeorchestraUser()));
+        cache.get(new TestingAuthenticationToken("other@example.com", null, "ROLE_USER"), loader);
+
+        cache.invalidatePrincipal("user");
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    void testDisabled() {
+        cache = (InMemoryResolvedUserCache) ResolvedUserCache.disabled();
+        Authentication auth = new TestingAuthenticationToken("user", null, "ROLE_USER");
+        cache.get(auth, loader);
+        cache.get(auth, loader);
+        verify(loader, times(2)).apply(any());
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void testMetrics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+
+        Authentication auth = new TestingAuthenticationToken("user", null, List.of());
+        cache.get(auth, loader);
+        cache.get(auth, loader);
+        cache.get(auth, loader);
+
+        assertThat(registry.get("cache.gets").tag("cache", ResolvedUserCache.CACHE_NAME).tag("result", "hit")
+                .functionCounter().count()).isEqualTo(2);
+        assertThat(registry.get("cache.gets").tag("cache", ResolvedUserCache.CACHE_NAME).tag("result", "miss")
+                .functionCounter().count()).isEqualTo(1);
+    }
+}
@@ -31,10 +31,13 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.security.Principal;
+import java.util.List;
 import java.util.Optional;
 
+import org.georchestra.gateway.model.GeorchestraOrganizations;
 import org.georchestra.gateway.model.GeorchestraUsers;
 import org.georchestra.security.model.GeorchestraUser;
+import org.georchestra.security.model.Organization;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
@@ -64,6 +67,7 @@ class ResolveGeorchestraUserGlobalFilterTest {
     @BeforeEach
     void setUp() throws Exception {
         mockMapper = mock(GeorchestraUserMapper.class);
+        when(mockMapper.resolveReactive(any(), any())).thenReturn(Mono.empty());
         filter = new ResolveGeorchestraUserGlobalFilter(mockMapper);
         mockChain = mock(GatewayFilterChain.class);
         when(mockChain.filter(any())).thenReturn(Mono.empty());
@@ -78,7 +82,7 @@ class ResolveGeorchestraUserGlobalFilterTest {
         assertNotNull(ret);
         ret.block();
         verify(mockChain, times(1)).filter(same(exchange));
-        verify(mockMapper, never()).resolve(any());
+        verify(mockMapper, never()).resolveReactive(any(), any());
     }
 
     @Test
@@ -89,7 +93,7 @@ class ResolveGeorchestraUserGlobalFilterTest {
         filter.filter(exchange, mockChain).block();
 
         verify(mockChain, times(1)).filter(same(exchange));
-        verify(mockMapper, never()).resolve(any());
+        verify(mockMapper, never()).resolveReactive(any(), any());
     }
 
     @Test
@@ -100,7 +104,7 @@ class ResolveGeorchestraUserGlobalFilterTest {
         filter.filter(exchange, mockChain).block();
 
         verify(mockChain, times(1)).filter(same(exchange));
-        verify(mockMapper, times(1)).resolve(any());
+        verify(mockMapper, times(1)).resolveReactive(any(), any());
 
         assertTrue(GeorchestraUsers.resolve(exchange).isEmpty());
     }
@@ -109,16 +113,54 @@ class ResolveGeorchestraUserGlobalFilterTest {
     void testFilter_UseResolved() {
         Authentication auth1 = mock(Authentication.class);
         GeorchestraUser user1 = mock(GeorchestraUser.class);
-        when(mockMapper.resolve(same(auth1))).thenReturn(Optional.of(user1));
+        when(mockMapper.resolveReactive(same(auth1), any())).thenReturn(Mono.just(user1));
 
         ServerWebExchange exchange = this.exchange.mutate().principal(Mono.just(auth1)).build();
 
         filter.filter(exchange, mockChain).block();
 
         verify(mockChain, times(1)).filter(same(exchange));
-        verify(mockMapper, times(1)).resolve(any());
+        verify(mockMapper, times(1)).resolveReactive(any(), any());
 
         Optional<GeorchestraUser> resolved = GeorchestraUsers.resolve(exchange);
         assertSame(user1, resolved.orElseThrow());
     }
+
+    @Test
+    void testFilter_ResolvesOrganization() {
+        Authentication auth = mock(Authentication.class);
+        GeorchestraUser user = mock(GeorchestraUser.class);
+        when(mockMapper.resolveReactive(same(auth), any())).thenReturn(Mono.just(user));
+
+        Organization org = new Organization();
+        GeorchestraOrganizationResolverExtension orgs1 = mock(GeorchestraOrganizationResolverExtension.class);
+        when(orgs1.resolve(same(auth), same(user))).thenReturn(Mono.empty());
+        GeorchestraOrganizationResolverExtension orgs2 = mock(GeorchestraOrganizationResolverExtension.class);
+        when(orgs2.resolve(same(auth), same(user))).thenReturn(Mono.just(org));
+        filter = new ResolveGeorchestraUserGlobalFilter(mockMapper, List.of(orgs1, orgs2));
+
+        ServerWebExchange exchange = this.exchange.mutate().principal(Mono.just(auth)).build();
+        filter.filter(exchange, mockChain).block();
+
+        assertSame(user, GeorchestraUsers.resolve(exchange).orElseThrow());
+        assertSame(org, GeorchestraOrganizations.resolve(exchange).orElseThrow());
+    }
+
+    @Test
+    void testFilter_OrganizationErrorDoesNotFailRequest() {
+        Authentication auth = mock(Authentication.class);
+        GeorchestraUser user = mock(GeorchestraUser.class);
+        when(mockMapper.resolveReactive(same(auth), any())).thenReturn(Mono.just(user));
+
+        GeorchestraOrganizationResolverExtension orgs = mock(GeorchestraOrganizationResolverExtension.class);
+        when(orgs.resolve(same(auth), same(user))).thenReturn(Mono.error(new IllegalStateException("test")));
+        filter = new ResolveGeorchestraUserGlobalFilter(mockMapper, List.of(orgs));
+
+        ServerWebExchange exchange = this.exchange.mutate().principal(Mono.just(auth)).build();
+        filter.filter(exchange, mockChain).block();
+
+        verify(mockChain, times(1)).filter(same(exchange));
+        assertSame(user, GeorchestraUsers.resolve(exchange).orElseThrow());
+        assertTrue(GeorchestraOrganizations.resolve(exchange).isEmpty());
+    }
 }
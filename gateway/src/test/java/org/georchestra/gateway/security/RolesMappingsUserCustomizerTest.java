@@ -21,10 +21,12 @@ package org.georchestra.gateway.security;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -34,6 +36,8 @@ import org.georchestra.security.model.GeorchestraUser;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 /**
  * Test suite for {@link RolesMappingsUserCustomizer}
  */
@@ -44,7 +48,7 @@ class RolesMappingsUserCustomizerTest {
 
     @BeforeEach
     void setUp() {
-        config = new HashMap<>();
+        config = new LinkedHashMap<>();
         user = new GeorchestraUser();
     }
 
@@ -123,4 +127,86 @@ class RolesMappingsUserCustomizerTest {
         assertEquals(Set.of("ROLE.TEST.ADMIN", "ROLE.GDI.USER", "ROLE_GN_ADMIN", "ROLE_ADMINISTRATOR", "ROLE_USER",
                 "ROLE_GUEST"), Set.copyOf(customized.getRoles()));
     }
+
+    @Test
+    void matchesLeadingWildcardAndRegexMappings() {
+        addConfig("*.ADMIN", "ROLE_ADMINISTRATOR");
+        addConfig("ROLE_(GN|GS)_EDITOR", "ROLE_EDITOR");
+
+        RolesMappingsUserCustomizer customizer = new RolesMappingsUserCustomizer(config);
+
+        user.setRoles(List.of("ROLE.GDI.ADMIN", "ROLE_GS_EDITOR", "ROLE_USER"));
+        GeorchestraUser customized = customizer.apply(user);
+        assertEquals(List.of("ROLE.GDI.ADMIN", "ROLE_GS_EDITOR", "ROLE_USER", "ROLE_ADMINISTRATOR", "ROLE_EDITOR"),
+                customized.getRoles());
+    }
+
+    @Test
+    void additionalRolesFollowConfigurationOrder() {
+        addConfig("ROLE.*", "ROLE_A");
+        addConfig("ROLE.GDI.USER", "ROLE_B");
+        addConfig("ROLE.GDI.*", "ROLE_C", "ROLE_A");
+
+        RolesMappingsUserCustomizer customizer = new RolesMappingsUserCustomizer(config);
+
+        user.setRoles(List.of("ROLE.GDI.USER"));
+        assertEquals(List.of("ROLE.GDI.USER", "ROLE_A", "ROLE_B", "ROLE_C"), customizer.apply(user).getRoles());
+    }
+
+    @Test
+    void expandedRolesAreMemoizedPerRoleSet() {
+        addConfig("ROLE.*.USER", "ROLE_USER");
+        RolesMappingsUserCustomizer customizer = new RolesMappingsUserCustomizer(config);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        customizer.bindTo(registry);
+
+        GeorchestraUser user1 = new GeorchestraUser();
+        user1.setRoles(List.of("ROLE.GDI.USER", "ROLE_GUEST"));
+        GeorchestraUser user2 = new GeorchestraUser();
+        user2.setRoles(List.of("ROLE.GDI.USER", "ROLE_GUEST"));
+
+        List<String> roles1 = customizer.apply(user1).getRoles();
+        List<String> roles2 = customizer.apply(user2).getRoles();
+        assertEquals(List.of("ROLE.GDI.USER", "ROLE_GUEST", "ROLE_USER"), roles1);
+        assertEquals(roles1, roles2);
+        // each user gets its own mutable copy
+        assertNotSame(roles1, roles2);
+        roles1.add("ROLE_OTHER");
+        assertEquals(List.of("ROLE.GDI.USER", "ROLE_GUEST", "ROLE_USER"), customizer.apply(user2).getRoles());
+
+        assertEquals(2, registry.get("cache.gets").tag("cache", RolesMappingsUserCustomizer.ROLE_SETS_CACHE_NAME)
+                .tag("result", "hit").functionCounter().count());
+        assertEquals(1, registry.get("cache.gets").tag("cache", RolesMappingsUserCustomizer.ROLE_SETS_CACHE_NAME)
+                .tag("result", "miss").functionCounter().count());
+        assertEquals(2, registry.get("cache.gets").tag("cache", RolesMappingsUserCustomizer.ROLES_CACHE_NAME)
+                .tag("result", "miss").functionCounter().count());
+    }
+
+    @Test
+    void rolesWithoutAdditionalRolesAreLeftAsIs() {
+        addConfig("ROLE.*.USER", "ROLE_USER");
+        RolesMappingsUserCustomizer customizer = new RolesMappingsUserCustomizer(config);
+
+        List<String> roles = new ArrayList<>(List.of("ROLE_GUEST"));
+        user.setRoles(roles);
+        assertSame(roles, customizer.apply(user).getRoles());
+    }
+
+    @Test
+    void manyDistinctRoles() {
+        for (int i = 0; i < 100; i++) {
+            addConfig("ROLE.ORG" + i + ".*", "ROLE_ORG" + i);
+        }
+        addConfig("ROLE.*.ADMIN", "ROLE_ADMINISTRATOR");
+        RolesMappingsUserCustomizer customizer = new RolesMappingsUserCustomizer(config);
+
+        for (int i = 0; i < 10_000; i++) {
+            int org = i % 100;
+            String role = "ROLE.ORG" + org + (i % 2 == 0 ? ".ADMIN" : ".USER" + i);
+            user.setRoles(List.of(role));
+            List<String> expected = i % 2 == 0 ? List.of(role, "ROLE_ORG" + org, "ROLE_ADMINISTRATOR")
+                    : List.of(role, "ROLE_ORG" + org);
+            assertEquals(expected, customizer.apply(user).getRoles(), role);
+        }
+    }
 }
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.gateway.security;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import org.georchestra.gateway.security.ResolvedUserCache.Key;
+import org.georchestra.security.model.GeorchestraUser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * Test suite for {@link SharedResolvedUserCache}, using a store-by-value
+ * {@link ConcurrentMapCacheManager} as a stand-in for an external cache shared
+ * by two gateway instances
+ */
+class SharedResolvedUserCacheTest {
+
+    private Cache sharedStore;
+    private SharedResolvedUserCache node1;
+    private SharedResolvedUserCache node2;
+    private Function<Authentication, Optional<GeorchestraUser>> loader;
+
+    @SuppressWarnings("unchecked")
+    @BeforeEach
+    void setUp() {
+        ConcurrentMapCacheManager cacheManager = new ConcurrentMapCacheManager();
+        cacheManager.setBeanClassLoader(getClass().getClassLoader());
+        cacheManager.setStoreByValue(true);
+        sharedStore = cacheManager.getCache(ResolvedUserCache.CACHE_NAME);
+
+        node1 = new SharedResolvedUserCache(sharedStore, Duration.ofMinutes(1));
+        node2 = new SharedResolvedUserCache(sharedStore, Duration.ofMinutes(1));
+
+        loader = mock(Function.class);
+        when(loader.apply(any())).thenAnswer(invocation -> Optional.of(user("testuser")));
+    }
+
+    @Test
+    void testUserResolvedOnOneNodeIsServedByTheOther() {
+        Authentication auth = new TestingAuthenticationToken("testuser", null, "ROLE_USER");
+        GeorchestraUser resolved = node1.get(auth, loader).orElseThrow();
+        GeorchestraUser cached = node2.get(new TestingAuthenticationToken("testuser", null, "ROLE_USER"), loader)
+                .orElseThrow();
+
+        assertThat(cached).isEqualTo(resolved);
+        verify(loader, times(1)).apply(any());
+    }
+
+    @Test
+    void testReactive() {
+        Authentication auth = new TestingAuthenticationToken("testuser", null, "ROLE_USER");
+        Function<Authentication, Mono<GeorchestraUser>> reactiveLoader = a -> Mono.justOrEmpty(loader.apply(a));
+        GeorchestraUser resolved = node1.getReactive(auth, reactiveLoader).block();
+        GeorchestraUser cached = node2.getReactive(auth, reactiveLoader).block();
+
+        assertThat(cached).isEqualTo(resolved);
+        verify(loader, times(1)).apply(any());
+    }
+
+    @Test
+    void testReactiveStoreAccessIsOffTheCallingThread() {
+        List<String> threads = new CopyOnWriteArrayList<>();
+        Cache store = spy(sharedStore);
+        doAnswer(invocation -> {
+            threads.add(Thread.currentThread().getName());
+            return invocation.callRealMethod();
+        }).when(store).get(any());
+        SharedResolvedUserCache cache = new SharedResolvedUserCache(store, Duration.ofMinutes(1));
+
+        Authentication auth = new TestingAuthenticationToken("testuser", null, "ROLE_USER");
+        Function<Authentication, Mono<GeorchestraUser>> reactiveLoader = a -> Mono.justOrEmpty(loader.apply(a));
+        assertThat(cache.getReactive(auth, reactiveLoader).block()).isNotNull();
+        assertThat(cache.getReactive(auth, reactiveLoader).block()).isNotNull();
+
+        verify(loader, times(1)).apply(any());
+        assertThat(threads).isNotEmpty().noneMatch(Thread.currentThread().getName()::equals);
+    }
+
+    @Test
+    void testInvalidatePrincipal() {
+        Authentication user = new TestingAuthenticationToken("testuser", null, "ROLE_USER");
+        Authentication userAsAdmin = new TestingAuthenticationToken("testuser", null, "ROLE_ADMINISTRATOR");
+        Authentication other = new TestingAuthenticationToken("other", null, "ROLE_USER");
+        node1.put(Key.of(user), user("testuser"));
+        node1.put(Key.of(userAsAdmin), user("testuser"));
+        node1.put(Key.of(other), user("other"));
+
+        node2.invalidatePrincipal("testuser");
+
+        assertThat(node1.getIfPresent(Key.of(user))).isEmpty();
+        assertThat(node1.getIfPresent(Key.of(userAsAdmin))).isEmpty();
+        assertThat(node1.getIfPresent(Key.of(other))).isPresent();
+    }
+
+    @Test
+    void testInvalidatePrincipalByUserName() {
+        // logged in with the e-mail address
+        Authentication auth = new TestingAuthenticationToken("testuser@example.com", null, "ROLE_USER");
+        node1.put(Key.of(auth), user("testuser"));
+
+        node2.invalidatePrincipal("testuser");
+
+        assertThat(node1.getIfPresent(Key.of(auth))).isEmpty();
+    }
+
+    @Test
+    void testInvalidateIsShared() {
+        Authentication auth = new TestingAuthenticationToken("testuser", null, "ROLE_USER");
+        node1.get(auth, loader);
+        node2.invalidate(auth);
+        assertThat(node1.getIfPresent(Key.of(auth))).isEmpty();
+    }
+
+    @Test
+    void testEntriesExpire() {
+        Instant now = Instant.now();
+        Authentication auth = new TestingAuthenticationToken("testuser", null, "ROLE_USER");
+        Key key = Key.of(auth);
+
+        SharedResolvedUserCache writer = new SharedResolvedUserCache(sharedStore, Duration.ofSeconds(10),
+                Clock.fixed(now, ZoneOffset.UTC));
+        writer.put(key, user("testuser"));
+
+        SharedResolvedUserCache beforeExpiry = new SharedResolvedUserCache(sharedStore, Duration.ofSeconds(10),
+                Clock.fixed(now.plusSeconds(9), ZoneOffset.UTC));
+        assertThat(beforeExpiry.getIfPresent(key)).isPresent();
+
+        SharedResolvedUserCache afterExpiry = new SharedResolvedUserCache(sharedStore, Duration.ofSeconds(10),
+                Clock.fixed(now.plusSeconds(10), ZoneOffset.UTC));
+        assertThat(afterExpiry.getIfPresent(key)).isEmpty();
+        assertThat(sharedStore.get(key.asString())).isNull();
+    }
+
+    @Test
+    void testStoreFailuresAreCacheMisses() {
+        Cache failing = mock(Cache.class);
+        when(failing.get(any())).thenThrow(new IllegalStateException("connection refused"));
+        doThrow(new IllegalStateException("connection refused")).when(failing).put(any(), any());
+        SharedResolvedUserCache cache = new SharedResolvedUserCache(failing, Duration.ofMinutes(1));
+
+        Authentication auth = new TestingAuthenticationToken("testuser", null, "ROLE_USER");
+        assertThat(cache.get(auth, loader)).isPresent();
+        assertThat(cache.get(auth, loader)).isPresent();
+        verify(loader, times(2)).apply(any());
+    }
+
+    @Test
+    void testMetrics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        node2.bindTo(registry);
+
+        Authentication auth = new TestingAuthenticationToken("testuser", null, List.of());
+        node1.get(auth, loader);
+        node2.get(auth, loader);
+        node2.get(auth, loader);
+
+        assertThat(registry.get("cache.gets").tag("cache", ResolvedUserCache.CACHE_NAME).tag("result", "hit")
+                .functionCounter().count()).isEqualTo(2);
+        assertThat(registry.get("cache.gets").tag("cache", ResolvedUserCache.CACHE_NAME).tag("result", "miss")
+                .functionCounter().count()).isZero();
+    }
+
+    private GeorchestraUser user(String username) {
+        GeorchestraUser user = new GeorchestraUser();
+        user.setId("abc");
+        user.setUsername(username);
+        user.setEmail(username + "@example.com");
+        user.setRoles(List.of("ROLE_USER"));
+        return user;
+    }
+}
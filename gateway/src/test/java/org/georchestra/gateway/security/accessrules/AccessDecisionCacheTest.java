@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.gateway.security.accessrules;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import org.georchestra.gateway.model.CacheConfigProperties.CacheSpec;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test suite for {@link AccessDecisionCache}
+ */
+class AccessDecisionCacheTest {
+
+    private AtomicInteger evaluations = new AtomicInteger();
+
+    private Predicate<List<String>> isAdmin = roles -> {
+        evaluations.incrementAndGet();
+        return roles.contains("ROLE_ADMINISTRATOR");
+    };
+
+    private Authentication user(String... roles) {
+        return new TestingAuthenticationToken("user", null, roles);
+    }
+
+    @Test
+    void testDecisionIsCachedPerRuleAndRoleSet() {
+        AccessDecisionCache cache = new AccessDecisionCache(new CacheSpec());
+
+        assertTrue(cache.isGranted(1, user("ROLE_USER", "ROLE_ADMINISTRATOR"), isAdmin));
+        // same role set, different order
+        assertTrue(cache.isGranted(1, user("ROLE_ADMINISTRATOR", "ROLE_USER"), isAdmin));
+        assertEquals(1, evaluations.get());
+
+        assertFalse(cache.isGranted(1, user("ROLE_USER"), isAdmin));
+        assertFalse(cache.isGranted(1, user("ROLE_USER"), isAdmin));
+        assertEquals(2, evaluations.get());
+
+        // different rule
+        assertFalse(cache.isGranted(2, user("ROLE_USER"), isAdmin));
+        assertEquals(3, evaluations.get());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    void testMaximumSize() {
+        AccessDecisionCache cache = new AccessDecisionCache(new CacheSpec().setMaximumSize(2));
+        for (int rule = 0; rule < 10; rule++) {
+            assertFalse(cache.isGranted(rule, user("ROLE_USER"), isAdmin));
+        }
+        assertEquals(2, cache.size());
+        // the most recently used decisions are kept
+        assertFalse(cache.isGranted(9, user("ROLE_USER"), isAdmin));
+        assertEquals(10, evaluations.get());
+        // and the least recently used ones evicted
+        assertFalse(cache.isGranted(0, user("ROLE_USER"), isAdmin));
+        assertEquals(11, evaluations.get());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void testRoleSetIsComputedOncePerAuthentication() {
+        AccessDecisionCache cache = new AccessDecisionCache(new CacheSpec());
+        Authentication auth = spy(user("ROLE_USER", "ROLE_ADMINISTRATOR"));
+
+        for (int rule = 0; rule < 5; rule++) {
+            assertTrue(cache.isGranted(rule, auth, isAdmin));
+        }
+        verify(auth, times(1)).getAuthorities();
+    }
+
+    @Test
+    void testRoleSet() {
+        AccessDecisionCache.RoleSet roles = AccessDecisionCache.RoleSet
+                .of(user("ROLE_USER", "ROLE_ADMINISTRATOR").getAuthorities());
+        assertEquals(List.of("ROLE_ADMINISTRATOR", "ROLE_USER"), roles.getRoles());
+        assertEquals(roles, AccessDecisionCache.RoleSet.of(user("ROLE_ADMINISTRATOR", "ROLE_USER").getAuthorities()));
+        assertThrows(UnsupportedOperationException.class, () -> roles.getRoles().add("ROLE_OTHER"));
+    }
+
+    @Test
+    void testDisabled() {
+        AccessDecisionCache cache = AccessDecisionCache.disabled();
+        assertFalse(cache.isEnabled());
+        assertTrue(cache.isGranted(1, user("ROLE_ADMINISTRATOR"), isAdmin));
+        assertTrue(cache.isGranted(1, user("ROLE_ADMINISTRATOR"), isAdmin));
+        assertEquals(2, evaluations.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testMetrics() {
+        AccessDecisionCache cache = new AccessDecisionCache(new CacheSpec());
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+
+        cache.isGranted(1, user("ROLE_USER"), isAdmin);
+        cache.isGranted(1, user("ROLE_USER"), isAdmin);
+        cache.isGranted(1, user("ROLE_USER"), isAdmin);
+
+        String name = AccessDecisionCache.CACHE_NAME;
+        assertEquals(2, registry.get("cache.gets").tags("cache", name, "result", "hit").functionCounter().count());
+        assertEquals(1, registry.get("cache.gets").tags("cache", name, "result", "miss").functionCounter().count());
+        assertEquals(1, registry.get("cache.puts").tags("cache", name).functionCounter().count());
+        assertEquals(1, registry.get("cache.size").tags("cache", name).gauge().value());
+    }
+}
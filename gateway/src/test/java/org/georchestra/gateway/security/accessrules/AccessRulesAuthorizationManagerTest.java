@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.gateway.security.accessrules;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import org.georchestra.gateway.model.CacheConfigProperties.CacheSpec;
+import org.georchestra.gateway.security.accessrules.AccessRulesAuthorizationManager.CompiledRule;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.server.PathContainer;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.authorization.AuthorizationDecision;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.web.server.authorization.AuthorizationContext;
+import org.springframework.security.web.server.util.matcher.ServerWebExchangeMatcher.MatchResult;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Test suite for {@link AccessRulesAuthorizationManager}
+ */
+class AccessRulesAuthorizationManagerTest {
+
+    private static final Authentication ANONYMOUS = new AnonymousAuthenticationToken("key", "anonymous",
+            AuthorityUtils.createAuthorityList("ROLE_ANONYMOUS"));
+
+    @Test
+    void testLiteralFirstSegment() {
+        assertEquals("geoserver", AccessRulesAuthorizationManager.literalFirstSegment("/geoserver/**"));
+        assertEquals("geoserver", AccessRulesAuthorizationManager.literalFirstSegment("/geoserver"));
+        assertEquals("geoserver", AccessRulesAuthorizationManager.literalFirstSegment("geoserver/web/"));
+        assertEquals("", AccessRulesAuthorizationManager.literalFirstSegment("/"));
+        assertNull(AccessRulesAuthorizationManager.literalFirstSegment("/**"));
+        assertNull(AccessRulesAuthorizationManager.literalFirstSegment("/geo*/**"));
+        assertNull(AccessRulesAuthorizationManager.literalFirstSegment("/{service}/**"));
+        assertNull(AccessRulesAuthorizationManager.literalFirstSegment("/test?login"));
+    }
+
+    @Test
+    void testEmptyPatternsNotAllowed() {
+        AccessRulesAuthorizationManager.Builder builder = AccessRulesAuthorizationManager.builder();
+        assertThrows(IllegalArgumentException.class, () -> builder.pathMatchers(List.of()));
+    }
+
+    @Test
+    void testNoRules() {
+        AccessRulesAuthorizationManager manager = AccessRulesAuthorizationManager.builder().build();
+        assertTrue(manager.isEmpty());
+        assertFalse(manager.matches(exchange("/any")).block().isMatch());
+        assertFalse(check(manager, "/any", ANONYMOUS));
+    }
+
+    @Test
+    void testFirstMatchWins() {
+        AccessRulesAuthorizationManager manager = AccessRulesAuthorizationManager.builder()//
+                .pathMatchers(List.of("/geoserver/web/**")).hasAnyAuthority("ROLE_ADMINISTRATOR")//
+                .pathMatchers(List.of("/*/*.css")).permitAll()//
+                .pathMatchers(List.of("/geoserver/**")).permitAll()//
+                .pathMatchers(List.of("/**")).authenticated()//
+                .build();
+
+        assertEquals(4, manager.size());
+        assertRule(manager, "/geoserver/web/wicket/style.css", 0);
+        assertRule(manager, "/geoserver/style.css", 1);
+        assertRule(manager, "/geoserver/wms", 2);
+        assertRule(manager, "/geoserver", 2);
+        assertRule(manager, "/console/account", 3);
+        assertRule(manager, "/", 3);
+    }
+
+    @Test
+    void testPatternWithoutLeadingSlash() {
+        AccessRulesAuthorizationManager manager = AccessRulesAuthorizationManager.builder()//
+                .pathMatchers(List.of("test/**")).hasAnyAuthority("ROLE_ADMINISTRATOR")//
+                .pathMatchers(List.of("/**")).permitAll()//
+                .build();
+
+        assertRule(manager, "/test/page", 0);
+        assertRule(manager, "/test", 0);
+        assertRule(manager, "/other", 1);
+        assertFalse(check(manager, "/test/page", ANONYMOUS));
+    }
+
+    @Test
+    void testWildcardRuleTakesPrecedenceOverLaterLiteralRule() {
+        AccessRulesAuthorizationManager manager = AccessRulesAuthorizationManager.builder()//
+                .pathMatchers(List.of("/*/private/**")).denyAll()//
+                .pathMatchers(List.of("/geoserver/**", "/console/**")).permitAll()//
+                .build();
+
+        assertRule(manager, "/geoserver/private/data", 0);
+        assertRule(manager, "/console/private/data", 0);
+        assertRule(manager, "/geoserver/wms", 1);
+        assertRule(manager, "/console/account", 1);
+        assertEquals(Optional.empty(), manager.match(PathContainer.parsePath("/header/index.html")));
+    }
+
+    @Test
+    void testManyRules() {
+        AccessRulesAuthorizationManager.Builder builder = AccessRulesAuthorizationManager.builder();
+        IntStream.range(0, 1000).forEach(i -> builder.pathMatchers(List.of("/service" + i + "/**")).permitAll());
+        builder.pathMatchers(List.of("/**")).denyAll();
+        AccessRulesAuthorizationManager manager = builder.build();
+
+        assertEquals(1001, manager.size());
+        assertRule(manager, "/service0/path", 0);
+        assertRule(manager, "/service999/path", 999);
+        assertRule(manager, "/service1000/path", 1000);
+    }
+
+    @Test
+    void testDecisions() {
+        AccessRulesAuthorizationManager manager = AccessRulesAuthorizationManager.builder()//
+                .pathMatchers(List.of("/forbidden/**")).denyAll()//
+                .pathMatchers(List.of("/public/**")).permitAll()//
+                .pathMatchers(List.of("/authenticated/**")).authenticated()//
+                .pathMatchers(List.of("/admin/**")).hasAnyAuthority("ROLE_ADMINISTRATOR", "ROLE_SUPERUSER")//
+                .build();
+
+        Authentication user = new TestingAuthenticationToken("user", null, "ROLE_USER");
+        Authentication admin = new TestingAuthenticationToken("admin", null, "ROLE_USER", "ROLE_SUPERUSER");
+
+        assertFalse(check(manager, "/forbidden/page", admin));
+        assertTrue(check(manager, "/public/page", ANONYMOUS));
+        assertTrue(check(manager, "/public/page", null));
+        assertFalse(check(manager, "/authenticated/page", ANONYMOUS));
+        assertFalse(check(manager, "/authenticated/page", null));
+        assertTrue(check(manager, "/authenticated/page", user));
+        assertFalse(check(manager, "/admin/page", ANONYMOUS));
+        assertFalse(check(manager, "/admin/page", user));
+        assertTrue(check(manager, "/admin/page", admin));
+        assertFalse(check(manager, "/unmatched", admin));
+    }
+
+    @Test
+    void testRoleDecisionsAreCached() {
+        AccessDecisionCache cache = new AccessDecisionCache(new CacheSpec());
+        AccessRulesAuthorizationManager manager = AccessRulesAuthorizationManager.builder()//
+                .decisionCache(cache)//
+                .pathMatchers(List.of("/admin/**")).hasAnyAuthority("ROLE_ADMINISTRATOR")//
+                .pathMatchers(List.of("/editor/**")).hasAnyAuthority("ROLE_EDITOR", "ROLE_ADMINISTRATOR")//
+                .build();
+
+        Authentication user = new TestingAuthenticationToken("user", null, "ROLE_USER");
+        Authentication admin = new TestingAuthenticationToken("admin", null, "ROLE_ADMINISTRATOR");
+        Authentication admin2 = new TestingAuthenticationToken("admin2", null, "ROLE_ADMINISTRATOR");
+
+        assertFalse(check(manager, "/admin/page", user));
+        assertTrue(check(manager, "/admin/page", admin));
+        assertTrue(check(manager, "/admin/other", admin2));
+        assertTrue(check(manager, "/editor/page", admin2));
+        assertEquals(3, cache.size());
+        // anonymous requests are not cached
+        assertFalse(check(manager, "/admin/page", null));
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    void testMatchResultCarriesMatchedRule() {
+        AccessRulesAuthorizationManager manager = AccessRulesAuthorizationManager.builder()//
+                .pathMatchers(List.of("/public/**")).permitAll()//
+                .build();
+
+        MatchResult result = manager.matches(exchange("/public/page")).block();
+        assertTrue(result.isMatch());
+        Object rule = result.getVariables().get(AccessRulesAuthorizationManager.MATCHED_RULE_VARIABLE);
+        assertEquals(List.of("/public/**"), ((CompiledRule) rule).patterns);
+    }
+
+    private void assertRule(AccessRulesAuthorizationManager manager, String path, int expectedRuleOrder) {
+        Optional<CompiledRule> match = manager.match(PathContainer.parsePath(path));
+        assertTrue(match.isPresent(), () -> "no rule matched " + path);
+        assertEquals(expectedRuleOrder, match.get().order, () -> "unexpected rule matched " + path);
+    }
+
+    private boolean check(AccessRulesAuthorizationManager manager, String path, Authentication authentication) {
+        MockServerWebExchange exchange = exchange(path);
+        Map<String, Object> variables = manager.matches(exchange).block().getVariables();
+        AuthorizationContext context = new AuthorizationContext(exchange, variables);
+        AuthorizationDecision decision = manager.check(Mono.justOrEmpty(authentication), context).block();
+        return decision.isGranted();
+    }
+
+    private MockServerWebExchange exchange(String path) {
+        return MockServerWebExchange.from(MockServerHttpRequest.get(path).build());
+    }
+}
@@ -39,11 +39,11 @@ import java.util.Map;
 import org.georchestra.gateway.model.GatewayConfigProperties;
 import org.georchestra.gateway.model.RoleBasedAccessRule;
 import org.georchestra.gateway.model.Service;
+import org.georchestra.gateway.security.accessrules.AccessRulesAuthorizationManager.Builder;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
-import org.springframework.security.config.web.server.ServerHttpSecurity.AuthorizeExchangeSpec;
 
 /**
  * Test suite for {@link AccessRulesCustomizer}
@@ -104,7 +104,7 @@ class AccessRulesCustomizerTest {
 
     @Test
     void testApplyRule_EmptyInterceptUrls() {
-        AuthorizeExchangeSpec spec = http.authorizeExchange();
+        Builder spec = AccessRulesAuthorizationManager.builder();
         RoleBasedAccessRule rule = rule().setAnonymous(true);
 
         assertThrows(IllegalArgumentException.class, () -> customizer.apply(spec, rule),
@@ -113,7 +113,7 @@ class AccessRulesCustomizerTest {
 
     @Test
     void testApplyRule_AuthorizeExchangeWithAntPatterns() {
-        AuthorizeExchangeSpec spec = http.authorizeExchange();
+        Builder spec = AccessRulesAuthorizationManager.builder();
 
         RoleBasedAccessRule rule = rule("/test/**", "/page1");
         customizer = spy(customizer);
@@ -124,7 +124,7 @@ class AccessRulesCustomizerTest {
 
     @Test
     void testApplyRule_anonymous() {
-        AuthorizeExchangeSpec spec = http.authorizeExchange();
+        Builder spec = AccessRulesAuthorizationManager.builder();
 
         RoleBasedAccessRule rule = rule("/test/**", "/page1").setAnonymous(true);
         customizer = spy(customizer);
@@ -136,7 +136,7 @@ class AccessRulesCustomizerTest {
 
     @Test
     void testApplyRule_anonymous_has_precedence_over_roles_list() {
-        AuthorizeExchangeSpec spec = http.authorizeExchange();
+        Builder spec = AccessRulesAuthorizationManager.builder();
 
         RoleBasedAccessRule rule = rule("/test/**", "/page1").setAnonymous(true).setAllowedRoles(List.of("ROLE_ADMIN"));
         customizer = spy(customizer);
@@ -150,7 +150,7 @@ class AccessRulesCustomizerTest {
 
     @Test
     void testApplyRule_authenticated() {
-        AuthorizeExchangeSpec spec = http.authorizeExchange();
+        Builder spec = AccessRulesAuthorizationManager.builder();
 
         RoleBasedAccessRule rule = rule("/test/**", "/page1").setAnonymous(false);
         customizer = spy(customizer);
@@ -162,7 +162,7 @@ class AccessRulesCustomizerTest {
 
     @Test
     void testApplyRule_roles() {
-        AuthorizeExchangeSpec spec = http.authorizeExchange();
+        Builder spec = AccessRulesAuthorizationManager.builder();
 
         List<String> roles = List.of("ROLE_ADMIN", "ROLE_TESTER");
         RoleBasedAccessRule rule = rule("/test/**", "/page1").setAllowedRoles(roles);
@@ -175,7 +175,7 @@ class AccessRulesCustomizerTest {
 
     @Test
     void testApplyRule_roles_prefix_added_if_missing() {
-        AuthorizeExchangeSpec spec = http.authorizeExchange();
+        Builder spec = AccessRulesAuthorizationManager.builder();
 
         List<String> roles = List.of("ADMIN", "TESTER");
         List<String> expected = List.of("ROLE_ADMIN", "ROLE_TESTER");
@@ -189,7 +189,7 @@ class AccessRulesCustomizerTest {
 
     @Test
     void testApplyRule_forbidden() {
-        AuthorizeExchangeSpec spec = http.authorizeExchange();
+        Builder spec = AccessRulesAuthorizationManager.builder();
         RoleBasedAccessRule rule = rule("/test/**", "/page1").setForbidden(true);
         customizer = spy(customizer);
         customizer.apply(spec, rule);
@@ -202,7 +202,7 @@ class AccessRulesCustomizerTest {
 
     @Test
     void testApplyRule_AppliesQueryParamAuthenticationRule() {
-        AuthorizeExchangeSpec spec = http.authorizeExchange();
+        Builder spec = AccessRulesAuthorizationManager.builder();
         RoleBasedAccessRule rule = rule("/test?login");
         customizer = spy(customizer);
         customizer.apply(spec, rule);
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.gateway.security.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import java.time.Duration;
+
+import org.georchestra.gateway.security.ldap.LdapConfigProperties.Pool;
+import org.junit.jupiter.api.Test;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.pool.factory.PoolingContextSource;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test suite for {@link LdapConnectionPools}
+ */
+class LdapConnectionPoolsTest {
+
+    private LdapConnectionPools pools = new LdapConnectionPools();
+
+    @Test
+    void testCreateAppliesSettings() {
+        Pool settings = new Pool()//
+                .setMaxActive(16)//
+                .setMaxTotal(32)//
+                .setMaxIdle(4)//
+                .setMinIdle(2)//
+                .setMaxWait(Duration.ofSeconds(5))//
+                .setTestOnBorrow(false)//
+                .setTestWhileIdle(true)//
+                .setTimeBetweenEvictionRuns(Duration.ofMinutes(1))//
+                .setMinEvictableIdleTime(Duration.ofMinutes(10))//
+                .setNumTestsPerEvictionRun(5);
+
+        ContextSource target = mock(ContextSource.class);
+        PoolingContextSource pool = LdapConnectionPools.create(target, settings);
+
+        assertThat(pool.getContextSource()).isSameAs(target);
+        assertThat(pool.getMaxActive()).isEqualTo(16);
+        assertThat(pool.getMaxTotal()).isEqualTo(32);
+        assertThat(pool.getMaxIdle()).isEqualTo(4);
+        assertThat(pool.getMinIdle()).isEqualTo(2);
+        assertThat(pool.getMaxWait()).isEqualTo(5_000);
+        assertThat(pool.isTestOnBorrow()).isFalse();
+        assertThat(pool.isTestWhileIdle()).isTrue();
+        assertThat(pool.getTimeBetweenEvictionRunsMillis()).isEqualTo(60_000);
+        assertThat(pool.getMinEvictableIdleTimeMillis()).isEqualTo(600_000);
+        assertThat(pool.getNumTestsPerEvictionRun()).isEqualTo(5);
+    }
+
+    @Test
+    void testDefaults() {
+        PoolingContextSource pool = LdapConnectionPools.create(mock(ContextSource.class), new Pool());
+        assertThat(pool.getMaxWait()).isEqualTo(10_000);
+        assertThat(pool.getTimeBetweenEvictionRunsMillis()).isEqualTo(-1);
+    }
+
+    @Test
+    void testUnsetDurationsDefaultToNoLimit() {
+        PoolingContextSource pool = LdapConnectionPools.create(mock(ContextSource.class),
+                new Pool().setMaxWait(null));
+        assertThat(pool.getMaxWait()).isEqualTo(-1);
+    }
+
+    @Test
+    void testOnePoolPerName() {
+        ContextSource target = mock(ContextSource.class);
+        ContextSource ldap1 = pools.contextSource("ldap1", new Pool(), () -> target);
+        ContextSource ldap1Again = pools.contextSource("ldap1", new Pool(), () -> mock(ContextSource.class));
+        ContextSource ldap2 = pools.contextSource("ldap2", new Pool(), () -> target);
+
+        assertThat(ldap1).isInstanceOf(PoolingContextSource.class).isSameAs(ldap1Again);
+        assertThat(ldap2).isInstanceOf(PoolingContextSource.class).isNotSameAs(ldap1);
+        assertThat(pools.getPoolNames()).containsOnly("ldap1", "ldap2");
+    }
+
+    @Test
+    void testDisabled() {
+        ContextSource target = mock(ContextSource.class);
+        ContextSource contextSource = pools.contextSource("ldap1", new Pool().setEnabled(false), () -> target);
+        assertThat(contextSource).isSameAs(target);
+        assertThat(pools.getPoolNames()).isEmpty();
+    }
+
+    @Test
+    void testMonitoredPoolsAreNotClosed() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PoolingContextSource owned = spy(LdapConnectionPools.create(mock(ContextSource.class), new Pool()));
+        pools.bindTo(registry);
+        pools.monitor("ldap1-admin", owned);
+
+        assertThat(registry.get("georchestra.ldap.pool.active").tag("pool", "ldap1-admin").gauge().value()).isZero();
+        assertThat(pools.getPoolNames()).isEmpty();
+        pools.destroy();
+        verify(owned, never()).destroy();
+    }
+
+    @Test
+    void testMetrics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        pools.contextSource("ldap1", new Pool(), () -> mock(ContextSource.class));
+        pools.bindTo(registry);
+        pools.contextSource("ldap2", new Pool(), () -> mock(ContextSource.class));
+
+        for (String name : new String[] { "ldap1", "ldap2" }) {
+            assertThat(registry.get("georchestra.ldap.pool.active").tag("pool", name).gauge().value()).isZero();
+            assertThat(registry.get("georchestra.ldap.pool.idle").tag("pool", name).gauge().value()).isZero();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.gateway.security.ldap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.LockedException;
+import org.springframework.security.authentication.ProviderNotFoundException;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+import lombok.RequiredArgsConstructor;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Test suite for {@link RaceAuthenticationManager}
+ */
+class RaceAuthenticationManagerTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private Scheduler scheduler;
+    private UsernamePasswordAuthenticationToken credentials;
+
+    @BeforeEach
+    void setUp() {
+        scheduler = Schedulers.newParallel("test-ldap", 4);
+        credentials = new UsernamePasswordAuthenticationToken("user", "secret");
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.dispose();
+    }
+
+    private Authentication authenticate(AuthenticationProvider... providers) {
+        return new RaceAuthenticationManager(List.of(providers), scheduler).authenticate(credentials).block(TIMEOUT);
+    }
+
+    private static Authentication authenticated(String name) {
+        return new UsernamePasswordAuthenticationToken(name, "secret", List.of());
+    }
+
+    @Test
+    void testProvidersRunConcurrently() {
+        // each provider waits for the other one to start
+        CountDownLatch started = new CountDownLatch(2);
+        Callable<Authentication> awaitAll = () -> {
+            started.countDown();
+            if (!started.await(2, TimeUnit.SECONDS)) {
+                throw new BadCredentialsException("providers did not run concurrently");
+            }
+            return null;
+        };
+        TestProvider p1 = new TestProvider(awaitAll);
+        TestProvider p2 = new TestProvider(() -> {
+            awaitAll.call();
+            return authenticated("p2");
+        });
+        assertThat(authenticate(p1, p2).getPrincipal()).isEqualTo("p2");
+    }
+
+    @Test
+    void testFirstProviderInOrderWins() {
+        TestProvider slow = new TestProvider(() -> {
+            Thread.sleep(200);
+            return authenticated("p1");
+        });
+        TestProvider fast = new TestProvider(() -> authenticated("p2"));
+        assertThat(authenticate(slow, fast).getPrincipal()).isEqualTo("p1");
+    }
+
+    @Test
+    void testDoesNotWaitForFollowingProviders() {
+        CountDownLatch never = new CountDownLatch(1);
+        TestProvider p1 = new TestProvider(() -> authenticated("p1"));
+        TestProvider p2 = new TestProvider(() -> {
+            never.await(10, TimeUnit.SECONDS);
+            return authenticated("p2");
+        });
+        long start = System.nanoTime();
+        assertThat(authenticate(p1, p2).getPrincipal()).isEqualTo("p1");
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(TIMEOUT);
+    }
+
+    @Test
+    void testCredentialsAreErased() {
+        TestProvider p1 = new TestProvider(() -> authenticated("p1"));
+        assertThat(authenticate(p1).getCredentials()).isNull();
+    }
+
+    @Test
+    void testAllFailedPropagatesLastError() {
+        TestProvider p1 = new TestProvider(() -> {
+            throw new BadCredentialsException("p1");
+        });
+        TestProvider p2 = new TestProvider(() -> {
+            throw new BadCredentialsException("p2");
+        });
+        BadCredentialsException ex = assertThrows(BadCredentialsException.class, () -> authenticate(p1, p2));
+        assertThat(ex.getMessage()).isEqualTo("p2");
+    }
+
+    @Test
+    void testAccountStatusErrorStopsAuthentication() {
+        TestProvider p1 = new TestProvider(() -> {
+            throw new LockedException("locked");
+        });
+        TestProvider p2 = new TestProvider(() -> authenticated("p2"));
+        assertThrows(LockedException.class, () -> authenticate(p1, p2));
+    }
+
+    @Test
+    void testAccountStatusErrorIgnoredIfPreviousProviderSucceeds() {
+        TestProvider p1 = new TestProvider(() -> {
+            Thread.sleep(100);
+            return authenticated("p1");
+        });
+        TestProvider p2 = new TestProvider(() -> {
+            throw new LockedException("locked");
+        });
+        assertThat(authenticate(p1, p2).getPrincipal()).isEqualTo("p1");
+    }
+
+    @Test
+    void testNoSupportingProvider() {
+        TestProvider p1 = new TestProvider(() -> authenticated("p1"));
+        RaceAuthenticationManager manager = new RaceAuthenticationManager(List.of(p1), scheduler);
+        TestingAuthenticationToken unsupported = new TestingAuthenticationToken("user", "secret");
+        assertThrows(ProviderNotFoundException.class, () -> manager.authenticate(unsupported).block(TIMEOUT));
+    }
+
+    @RequiredArgsConstructor
+    private static class TestProvider implements AuthenticationProvider {
+        private final Callable<Authentication> result;
+
+        @Override
+        public Authentication authenticate(Authentication authentication) {
+            try {
+                return result.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public boolean supports(Class<?> authentication) {
+            return UsernamePasswordAuthenticationToken.class.isAssignableFrom(authentication);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.gateway.security.ldap.extended;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.georchestra.gateway.events.LdapModificationEvent;
+import org.georchestra.gateway.events.LdapModificationEvent.Type;
+import org.georchestra.gateway.model.CacheConfigProperties.CacheSpec;
+import org.georchestra.gateway.model.CacheConfigProperties.WarmUp;
+import org.georchestra.security.api.UsersApi;
+import org.georchestra.security.model.GeorchestraUser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test suite for {@link DemultiplexingUsersApi}
+ */
+class DemultiplexingUsersApiTest {
+
+    private UsersApi ldap1;
+    private UsersApi ldap2;
+    private DemultiplexingUsersApi users;
+
+    @BeforeEach
+    void setUp() {
+        ldap1 = mock(UsersApi.class);
+        ldap2 = mock(UsersApi.class);
+        users = new DemultiplexingUsersApi(Map.of("ldap1", ldap1, "ldap2", ldap2),
+                new NegativeLookupCache(new CacheSpec()));
+    }
+
+    @Test
+    void testUnknownConfigName() {
+        assertThrows(NullPointerException.class, () -> users.findByUsername("ldap3", "user"));
+    }
+
+    @Test
+    void testFindByUsernameQueriesTargetConfig() {
+        GeorchestraUser user = new GeorchestraUser();
+        when(ldap2.findByUsername("user")).thenReturn(Optional.of(user));
+
+        assertThat(users.findByUsername("ldap2", "user")).containsSame(user);
+        assertThat(users.findByUsername("ldap2", "user")).containsSame(user);
+        verify(ldap2, times(2)).findByUsername("user");
+    }
+
+    @Test
+    void testRepeatedMissesDontHitTheBackend() {
+        when(ldap1.findByEmail("user")).thenReturn(Optional.empty());
+        when(ldap2.findByEmail("user")).thenReturn(Optional.empty());
+
+        assertThat(users.findByEmail("ldap1", "user")).isEmpty();
+        assertThat(users.findByEmail("ldap1", "user")).isEmpty();
+        verify(ldap1, times(1)).findByEmail("user");
+
+        assertThat(users.findByEmail("ldap2", "user")).isEmpty();
+        verify(ldap2, times(1)).findByEmail("user");
+    }
+
+    @Test
+    void testAuthenticatedUserIsKeptByLoginName() {
+        GeorchestraUser user = new GeorchestraUser();
+        when(ldap1.findByUsername("user")).thenReturn(Optional.of(user));
+
+        assertThat(users.findAuthenticated("ldap1", "user@example.com")).isEmpty();
+        assertThat(users.loadAuthenticated("ldap1", "user", "user@example.com")).containsSame(user);
+        assertThat(users.findAuthenticated("ldap1", "user@example.com")).contains(user);
+        assertThat(users.findAuthenticated("ldap2", "user@example.com")).isEmpty();
+        verify(ldap1, times(1)).findByUsername("user");
+    }
+
+    @Test
+    void testAuthenticatedUserIsCopied() {
+        GeorchestraUser user = new GeorchestraUser();
+        user.setUsername("user");
+        user.setRoles(List.of("USER"));
+        when(ldap1.findByUsername("user")).thenReturn(Optional.of(user));
+        users.loadAuthenticated("ldap1", "user", "user");
+
+        GeorchestraUser found = users.findAuthenticated("ldap1", "user").orElseThrow();
+        assertThat(found).isNotSameAs(user).isEqualTo(user);
+        found.setRoles(List.of("ROLE_USER", "ROLE_MAPPED"));
+        found.setLdapWarn(true);
+
+        GeorchestraUser next = users.findAuthenticated("ldap1", "user").orElseThrow();
+        assertThat(next.getRoles()).containsExactly("USER");
+        assertThat(next.getLdapWarn()).isNotEqualTo(Boolean.TRUE);
+    }
+
+    @Test
+    void testAuthenticatedUsersCacheDisabled() {
+        users = new DemultiplexingUsersApi(Map.of("ldap1", ldap1), NegativeLookupCache.disabled(),
+                new CacheSpec().setEnabled(false));
+        GeorchestraUser user = new GeorchestraUser();
+        when(ldap1.findByUsername("user")).thenReturn(Optional.of(user));
+
+        assertThat(users.loadAuthenticated("ldap1", "user", "user")).containsSame(user);
+        assertThat(users.findAuthenticated("ldap1", "user")).isEmpty();
+    }
+
+    @Test
+    void testAuthenticatedUserNotFound() {
+        when(ldap1.findByUsername("user")).thenReturn(Optional.empty());
+
+        assertThat(users.loadAuthenticated("ldap1", "user", "user")).isEmpty();
+        assertThat(users.findAuthenticated("ldap1", "user")).isEmpty();
+    }
+
+    @Test
+    void testPreloadedUsers() {
+        GeorchestraUser user = new GeorchestraUser();
+        user.setUsername("user");
+        user.setRoles(List.of("USER"));
+        when(ldap1.findAll()).thenReturn(List.of(user));
+
+        assertThat(users.preload("ldap1", new WarmUp(), Duration.ofMinutes(1))).isEqualTo(1);
+
+        GeorchestraUser found = users.findByUsername("ldap1", "user").orElseThrow();
+        assertThat(found).as("expected a copy of the preloaded user").isNotSameAs(user).isEqualTo(user);
+        verify(ldap1, never()).findByUsername("user");
+
+        // preloaded per config
+        when(ldap2.findByUsername("user")).thenReturn(Optional.empty());
+        assertThat(users.findByUsername("ldap2", "user")).isEmpty();
+        verify(ldap2, times(1)).findByUsername("user");
+    }
+
+    @Test
+    void testPreloadedUsersTimeToLive() {
+        GeorchestraUser user = new GeorchestraUser();
+        user.setUsername("user");
+        when(ldap1.findAll()).thenReturn(List.of(user));
+        when(ldap1.findByUsername("user")).thenReturn(Optional.of(user));
+
+        users.preload("ldap1", new WarmUp(), Duration.ZERO);
+
+        users.findByUsername("ldap1", "user");
+        verify(ldap1, times(1)).findByUsername("user");
+    }
+
+    @Test
+    void testUserModificationEvictsUser() {
+        GeorchestraUser user = new GeorchestraUser();
+        user.setUsername("user");
+        GeorchestraUser other = new GeorchestraUser();
+        other.setUsername("other");
+        when(ldap1.findAll()).thenReturn(List.of(user, other));
+        when(ldap1.findByUsername("user")).thenReturn(Optional.of(user));
+        when(ldap2.findByEmail("user@example.com")).thenReturn(Optional.empty());
+        users.preload("ldap1", new WarmUp(), Duration.ofMinutes(1));
+        users.loadAuthenticated("ldap1", "user", "user@example.com");
+        users.findByEmail("ldap2", "user@example.com");
+
+        users.onLdapModification(new LdapModificationEvent(this, Type.USER, "user"));
+
+        assertThat(users.findAuthenticated("ldap1", "user@example.com")).isEmpty();
+        users.findByUsername("ldap1", "user");
+        verify(ldap1, times(1)).findByUsername("user");
+        users.findByUsername("ldap1", "other");
+        verify(ldap1, never()).findByUsername("other");
+        // may have been a new user or e-mail
+        users.findByEmail("ldap2", "user@example.com");
+        verify(ldap2, times(2)).findByEmail("user@example.com");
+    }
+
+    @Test
+    void testRoleModificationEvictsAllUsers() {
+        GeorchestraUser user = new GeorchestraUser();
+        user.setUsername("user");
+        when(ldap1.findAll()).thenReturn(List.of(user));
+        when(ldap1.findByUsername("user")).thenReturn(Optional.of(user));
+        users.preload("ldap1", new WarmUp(), Duration.ofMinutes(1));
+        users.loadAuthenticated("ldap1", "user", "user");
+
+        users.onLdapModification(new LdapModificationEvent(this, Type.ORGANIZATION, "PSC"));
+        assertThat(users.findAuthenticated("ldap1", "user")).isPresent();
+
+        users.onLdapModification(new LdapModificationEvent(this, Type.ROLE, "ADMINISTRATOR"));
+        assertThat(users.findAuthenticated("ldap1", "user")).isEmpty();
+        users.findByUsername("ldap1", "user");
+        verify(ldap1, times(1)).findByUsername("user");
+    }
+}
@@ -24,6 +24,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 import java.util.List;
 import java.util.Set;
 
+import org.georchestra.gateway.security.ldap.LdapConnectionPools;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.context.annotation.UserConfigurations;
 import org.springframework.boot.test.context.runner.ApplicationContextRunner;
@@ -47,6 +48,8 @@ class ExtendedLdapAuthenticationConfigurationTest {
 
             assertThat(context.getBean("georchestraLdapAuthenticatedUserMapper").getClass().getName())
                     .isEqualTo("org.springframework.beans.factory.support.NullBean");
+            assertThat(context.getBean("ldapOrganizationResolver").getClass().getName())
+                    .isEqualTo("org.springframework.beans.factory.support.NullBean");
 
             assertThat(context.getBean(DemultiplexingUsersApi.class)).hasFieldOrPropertyWithValue("targetNames",
                     Set.of());
@@ -78,6 +81,8 @@ class ExtendedLdapAuthenticationConfigurationTest {
 
             assertThat(context.getBean(DemultiplexingUsersApi.class)).hasFieldOrPropertyWithValue("targetNames",
                     Set.of("ldap1"));
+            assertThat(context.getBean(LdapConnectionPools.class).getPoolNames()).containsOnly("ldap1");
+            assertThat(context.getBean("ldapOrganizationResolver")).isInstanceOf(LdapOrganizationResolver.class);
         });
     }
 
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.gateway.security.ldap.extended;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.naming.Context;
+import javax.naming.directory.DirContext;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+
+import org.georchestra.gateway.security.ldap.LdapConfigProperties.Pool;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.ldap.AuthenticationException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test suite for {@link ExtendedPasswordPolicyAwareContextSource}
+ */
+class ExtendedPasswordPolicyAwareContextSourceTest {
+
+    private List<LdapContext> created;
+    private ExtendedPasswordPolicyAwareContextSource source;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        created = new ArrayList<>();
+        source = new ExtendedPasswordPolicyAwareContextSource("ldap://localhost:389/dc=georchestra,dc=org") {
+            protected @Override DirContext createContext(Hashtable<String, Object> environment) {
+                LdapContext ctx = mock(LdapContext.class);
+                created.add(ctx);
+                return ctx;
+            }
+        };
+        source.setUserDn("cn=admin,dc=georchestra,dc=org");
+        source.setPassword("secret");
+        source.setName("ldap1");
+        registry = new SimpleMeterRegistry();
+    }
+
+    private void enableBindPool() {
+        source.setBindPool(new Pool().setTestOnBorrow(false).setMinIdle(0));
+        source.afterPropertiesSet();
+        source.bindTo(registry);
+    }
+
+    @Test
+    void directBindOpensAConnectionPerLogin() throws Exception {
+        source.afterPropertiesSet();
+        source.bindTo(registry);
+        assertThat(source.isBindPoolEnabled()).isFalse();
+
+        source.getContext("uid=user1", "pwd1").close();
+        source.getContext("uid=user2", "pwd2").close();
+
+        assertThat(created).hasSize(2);
+        assertThat(registry.get(ExtendedPasswordPolicyAwareContextSource.BIND_TIMER).tag("mode", "direct")
+                .tag("outcome", "success").timer().count()).isEqualTo(2);
+    }
+
+    @Test
+    void pooledBindReusesConnection() throws Exception {
+        enableBindPool();
+
+        DirContext ctx1 = source.getContext("uid=user1", "pwd1");
+        ctx1.close();
+        DirContext ctx2 = source.getContext("uid=user2", "pwd2");
+        ctx2.close();
+
+        assertThat(created).hasSize(1);
+        LdapContext connection = created.get(0);
+        verify(connection).addToEnvironment(Context.SECURITY_PRINCIPAL, "uid=user1");
+        verify(connection).addToEnvironment(Context.SECURITY_PRINCIPAL, "uid=user2");
+        verify(connection, times(2)).reconnect(any(Control[].class));
+        verify(connection, times(0)).close();
+
+        assertThat(registry.get(ExtendedPasswordPolicyAwareContextSource.BIND_TIMER).tag("mode", "pooled")
+                .tag("outcome", "success").timer().count()).isEqualTo(2);
+        assertThat(registry.get("georchestra.ldap.pool.idle").tag("pool", "ldap1-bind").gauge().value())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void pooledConnectionIsReboundAsManagerWhenReturned() throws Exception {
+        enableBindPool();
+
+        DirContext ctx = source.getContext("uid=user1", "pwd1");
+        LdapContext connection = created.get(0);
+        verify(connection, times(0)).reconnect(null);
+        ctx.close();
+
+        InOrder inOrder = inOrder(connection);
+        inOrder.verify(connection).addToEnvironment(Context.SECURITY_PRINCIPAL, "uid=user1");
+        inOrder.verify(connection).addToEnvironment(Context.SECURITY_CREDENTIALS, "pwd1");
+        inOrder.verify(connection).reconnect(any(Control[].class));
+        inOrder.verify(connection).addToEnvironment(Context.SECURITY_PRINCIPAL, "cn=admin,dc=georchestra,dc=org");
+        inOrder.verify(connection).addToEnvironment(Context.SECURITY_CREDENTIALS, "secret");
+        inOrder.verify(connection).reconnect(null);
+    }
+
+    @Test
+    void pooledConnectionIsDestroyedIfManagerRebindFails() throws Exception {
+        enableBindPool();
+
+        DirContext ctx = source.getContext("uid=user1", "pwd1");
+        LdapContext connection = created.get(0);
+        doThrow(new javax.naming.CommunicationException("connection reset")).when(connection).reconnect(null);
+        ctx.close();
+
+        assertThat(registry.get("georchestra.ldap.pool.idle").gauge().value()).isZero();
+        verify(connection).close();
+    }
+
+    @Test
+    void bindPoolHonorsMaxTotal() throws Exception {
+        source.setBindPool(new Pool().setTestOnBorrow(false).setMinIdle(0).setMaxActive(8).setMaxTotal(1)
+                .setMaxWait(Duration.ofMillis(10)));
+        source.afterPropertiesSet();
+
+        DirContext ctx = source.getContext("uid=user1", "pwd1");
+        assertThrows(NoSuchElementException.class, () -> source.getContext("uid=user2", "pwd2"));
+        ctx.close();
+        source.getContext("uid=user2", "pwd2").close();
+        assertThat(created).hasSize(1);
+    }
+
+    @Test
+    void pooledContextIsReturnedOnlyOnce() throws Exception {
+        enableBindPool();
+
+        DirContext ctx = source.getContext("uid=user1", "pwd1");
+        assertThat(registry.get("georchestra.ldap.pool.active").gauge().value()).isEqualTo(1);
+        ctx.close();
+        ctx.close();
+        assertThat(registry.get("georchestra.ldap.pool.active").gauge().value()).isZero();
+        assertThat(registry.get("georchestra.ldap.pool.idle").gauge().value()).isEqualTo(1);
+        assertThrows(IllegalStateException.class, () -> ctx.getAttributes("uid=user1"));
+    }
+
+    @Test
+    void pooledBindFailureReturnsConnection() throws Exception {
+        enableBindPool();
+        // first connection fails to bind with bad credentials
+        source.getContext("uid=user1", "pwd1").close();
+        LdapContext connection = created.get(0);
+        doThrow(new javax.naming.AuthenticationException("bad credentials")).when(connection)
+                .reconnect(any(Control[].class));
+
+        assertThrows(AuthenticationException.class, () -> source.getContext("uid=user1", "bad"));
+
+        assertThat(registry.get("georchestra.ldap.pool.idle").gauge().value()).isEqualTo(1);
+        assertThat(registry.get(ExtendedPasswordPolicyAwareContextSource.BIND_TIMER).tag("outcome", "failure")
+                .timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void pooledBindCommunicationFailureInvalidatesConnection() throws Exception {
+        enableBindPool();
+        source.getContext("uid=user1", "pwd1").close();
+        LdapContext connection = created.get(0);
+        doThrow(new javax.naming.CommunicationException("connection reset")).when(connection)
+                .reconnect(any(Control[].class));
+
+        assertThrows(org.springframework.ldap.CommunicationException.class,
+                () -> source.getContext("uid=user1", "pwd1"));
+
+        assertThat(registry.get("georchestra.ldap.pool.idle").gauge().value()).isZero();
+        verify(connection).close();
+    }
+}
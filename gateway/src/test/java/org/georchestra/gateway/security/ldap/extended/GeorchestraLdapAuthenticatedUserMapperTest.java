@@ -20,6 +20,7 @@
 package org.georchestra.gateway.security.ldap.extended;
 
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -34,6 +35,7 @@ import static org.mockito.Mockito.when;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.georchestra.security.api.UsersApi;
 import org.georchestra.security.model.GeorchestraUser;
@@ -46,6 +48,9 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.ldap.userdetails.LdapUserDetails;
 import org.springframework.security.ldap.userdetails.LdapUserDetailsImpl;
 
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
 /**
  * Test suite for {@link GeorchestraLdapAuthenticatedUserMapper}
  *
@@ -113,4 +118,58 @@ class GeorchestraLdapAuthenticatedUserMapperTest {
         verify(mockUsers, atLeastOnce()).findByUsername(eq("ldapuser"));
         verifyNoMoreInteractions(mockUsers);
     }
+
+    @Test
+    void testReusesUserLoadedAtAuthentication() {
+        GeorchestraUser expected = mock(GeorchestraUser.class);
+        when(mockUsers.findByUsername(eq("ldapuser"))).thenReturn(Optional.of(expected));
+        DemultiplexingUsersApi demultiplexingUsers = new DemultiplexingUsersApi(Map.of("default", mockUsers));
+        demultiplexingUsers.loadAuthenticated("default", "ldapuser", "ldapuser@example.com");
+        mapper = new GeorchestraLdapAuthenticatedUserMapper(demultiplexingUsers);
+
+        LdapUserDetailsImpl principal = mock(LdapUserDetailsImpl.class);
+        when(principal.getUsername()).thenReturn("ldapuser@example.com");
+        UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(principal, null);
+
+        Optional<GeorchestraUser> resolve = mapper
+                .resolve(new GeorchestraUserNamePasswordAuthenticationToken("default", auth));
+        assertSame(expected, resolve.orElseThrow());
+
+        // loaded once at authentication time, not queried again by the mapper
+        verify(mockUsers).findByUsername(eq("ldapuser"));
+        verifyNoMoreInteractions(mockUsers);
+    }
+
+    @Test
+    void testResolveReactiveNotAGeorchestraUserNamePasswordAuthenticationToken() {
+        Authentication auth = mock(Authentication.class);
+        assertNull(mapper.resolveReactive(auth).block());
+        verifyNoInteractions(mockUsers);
+    }
+
+    @Test
+    void testResolveReactiveRunsOnScheduler() {
+        GeorchestraUser expected = mock(GeorchestraUser.class);
+        LdapUserDetailsImpl principal = mock(LdapUserDetailsImpl.class);
+        when(principal.getUsername()).thenReturn("ldapuser");
+
+        AtomicReference<String> lookupThread = new AtomicReference<>();
+        when(mockUsers.findByUsername(eq("ldapuser"))).thenAnswer(invocation -> {
+            lookupThread.set(Thread.currentThread().getName());
+            return Optional.of(expected);
+        });
+        UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(principal, null);
+
+        Scheduler scheduler = Schedulers.newSingle("ldap-test");
+        try {
+            mapper = new GeorchestraLdapAuthenticatedUserMapper(new DemultiplexingUsersApi(Map.of("default", mockUsers)),
+                    scheduler);
+            GeorchestraUser resolved = mapper
+                    .resolveReactive(new GeorchestraUserNamePasswordAuthenticationToken("default", auth)).block();
+            assertSame(expected, resolved);
+            assertTrue(lookupThread.get().startsWith("ldap-test"), lookupThread.get());
+        } finally {
+            scheduler.dispose();
+        }
+    }
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.gateway.security.ldap.extended;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.georchestra.gateway.model.CacheConfigProperties.CacheSpec;
+import org.georchestra.gateway.model.CacheConfigProperties.WarmUp;
+import org.georchestra.gateway.security.ldap.extended.LdapCacheWarmUp.State;
+import org.georchestra.security.api.OrganizationsApi;
+import org.georchestra.security.api.UsersApi;
+import org.georchestra.security.model.GeorchestraUser;
+import org.georchestra.security.model.Organization;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.SimpleStatusAggregator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.boot.actuate.health.StatusAggregator;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Test suite for {@link LdapCacheWarmUp}
+ */
+class LdapCacheWarmUpTest {
+
+    private UsersApi users1;
+    private UsersApi users2;
+    private OrganizationsApi orgs1;
+    private OrganizationsApi orgs2;
+    private DemultiplexingUsersApi users;
+    private LdapOrganizationResolver organizations;
+
+    @BeforeEach
+    void setUp() {
+        users1 = mock(UsersApi.class);
+        users2 = mock(UsersApi.class);
+        orgs1 = mock(OrganizationsApi.class);
+        orgs2 = mock(OrganizationsApi.class);
+        users = new DemultiplexingUsersApi(Map.of("ldap1", users1, "ldap2", users2));
+        organizations = new LdapOrganizationResolver(Map.of("ldap1", orgs1, "ldap2", orgs2), new CacheSpec(),
+                Schedulers.immediate());
+
+        when(users1.findAll()).thenReturn(List.of(user("user1"), user("user2")));
+        when(users2.findAll()).thenReturn(List.of(user("user3")));
+        when(orgs1.findAll()).thenReturn(List.of(org("org1")));
+        when(orgs2.findAll()).thenReturn(List.of(org("org2"), org("org3")));
+    }
+
+    private LdapCacheWarmUp warmUp(WarmUp spec) {
+        return new LdapCacheWarmUp(List.of("ldap1", "ldap2"), users, organizations, spec, Duration.ofMinutes(1),
+                Schedulers.immediate());
+    }
+
+    private GeorchestraUser user(String username) {
+        GeorchestraUser user = new GeorchestraUser();
+        user.setUsername(username);
+        return user;
+    }
+
+    private Organization org(String shortName) {
+        Organization org = new Organization();
+        org.setShortName(shortName);
+        return org;
+    }
+
+    @Test
+    void testWarmUp() {
+        LdapCacheWarmUp warmUp = warmUp(new WarmUp());
+        assertThat(warmUp.health().getStatus()).isEqualTo(LdapCacheWarmUp.WARMING_UP);
+
+        warmUp.run().block();
+
+        assertThat(warmUp.getState()).isEqualTo(State.DONE);
+        assertThat(warmUp.health().getStatus()).isEqualTo(Status.UP);
+        assertThat(warmUp.health().getDetails()).containsEntry("users", 3L).containsEntry("organizations", 3L)
+                .containsEntry("configsDone", 2).containsEntry("configsFailed", 0);
+        assertThat(users.findByUsername("ldap2", "user3")).isPresent();
+        assertThat(organizations.size()).isEqualTo(3);
+        verify(users2, never()).findByUsername("user3");
+    }
+
+    @Test
+    void testWarmingUpDoesNotAffectOverallHealth() {
+        LdapCacheWarmUp warmUp = warmUp(new WarmUp());
+        StatusAggregator defaultAggregator = StatusAggregator.getDefault();
+        StatusAggregator readiness = new SimpleStatusAggregator("down", "out-of-service", "warming-up", "up");
+
+        Set<Status> statuses = Set.of(Status.UP, warmUp.health().getStatus());
+        assertThat(defaultAggregator.getAggregateStatus(statuses)).isEqualTo(Status.UP);
+        assertThat(readiness.getAggregateStatus(statuses)).isEqualTo(LdapCacheWarmUp.WARMING_UP);
+    }
+
+    @Test
+    void testRunsOnce() {
+        LdapCacheWarmUp warmUp = warmUp(new WarmUp());
+        warmUp.run().block();
+        warmUp.run().block();
+        verify(users1, times(1)).findAll();
+    }
+
+    @Test
+    void testUsersOnly() {
+        LdapCacheWarmUp warmUp = warmUp(new WarmUp().setOrganizations(false));
+        warmUp.run().block();
+        verify(orgs1, never()).findAll();
+        assertThat(organizations.size()).isZero();
+    }
+
+    @Test
+    void testFailedConfigDoesNotStopWarmUp() {
+        when(users1.findAll()).thenThrow(new IllegalStateException("test"));
+
+        LdapCacheWarmUp warmUp = warmUp(new WarmUp());
+        warmUp.run().block();
+
+        assertThat(warmUp.health().getStatus()).isEqualTo(Status.UP);
+        assertThat(warmUp.health().getDetails()).containsEntry("configsDone", 1).containsEntry("configsFailed", 1)
+                .containsEntry("users", 1L);
+    }
+
+    @Test
+    void testMetrics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        LdapCacheWarmUp warmUp = warmUp(new WarmUp());
+        warmUp.bindTo(registry);
+        assertThat(registry.get("georchestra.cache.warmup.running").gauge().value()).isEqualTo(1d);
+
+        warmUp.run().block();
+        assertThat(registry.get("georchestra.cache.warmup.running").gauge().value()).isZero();
+        assertThat(registry.get("georchestra.cache.warmup.loaded").tag("type", "users").gauge().value())
+                .isEqualTo(3d);
+    }
+}
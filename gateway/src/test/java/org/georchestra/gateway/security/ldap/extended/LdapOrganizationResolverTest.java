@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.gateway.security.ldap.extended;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+
+import org.georchestra.gateway.events.LdapModificationEvent;
+import org.georchestra.gateway.events.LdapModificationEvent.Type;
+import org.georchestra.gateway.model.CacheConfigProperties.CacheSpec;
+import org.georchestra.security.api.OrganizationsApi;
+import org.georchestra.security.model.GeorchestraUser;
+import org.georchestra.security.model.Organization;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.Authentication;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Test suite for {@link LdapOrganizationResolver}
+ */
+class LdapOrganizationResolverTest {
+
+    private OrganizationsApi orgs;
+    private GeorchestraUserNamePasswordAuthenticationToken auth;
+    private GeorchestraUser user;
+
+    @BeforeEach
+    void setUp() {
+        orgs = mock(OrganizationsApi.class);
+        auth = new GeorchestraUserNamePasswordAuthenticationToken("ldap1", mock(Authentication.class));
+        user = new GeorchestraUser();
+        user.setUsername("testuser");
+        user.setOrganization("PSC");
+    }
+
+    private LdapOrganizationResolver resolver(CacheSpec spec) {
+        return new LdapOrganizationResolver(Map.of("ldap1", orgs), spec, Schedulers.immediate());
+    }
+
+    private Organization org(String lastUpdated) {
+        Organization org = new Organization();
+        org.setId("abc");
+        org.setShortName("PSC");
+        org.setLastUpdated(lastUpdated);
+        return org;
+    }
+
+    @Test
+    void testResolvesOnlyLdapTokens() {
+        LdapOrganizationResolver resolver = resolver(new CacheSpec());
+        assertThat(resolver.resolve(mock(Authentication.class), user).blockOptional()).isEmpty();
+        assertThat(resolver.resolve(new GeorchestraUserNamePasswordAuthenticationToken("unknown",
+                mock(Authentication.class)), user).blockOptional()).isEmpty();
+
+        user.setOrganization(null);
+        assertThat(resolver.resolve(auth, user).blockOptional()).isEmpty();
+        verify(orgs, never()).findByShortName("PSC");
+    }
+
+    @Test
+    void testCachesOrganizations() {
+        Organization org = org("1");
+        when(orgs.findByShortName("PSC")).thenReturn(Optional.of(org));
+        LdapOrganizationResolver resolver = resolver(new CacheSpec());
+
+        assertThat(resolver.resolve(auth, user).block()).isSameAs(org);
+        assertThat(resolver.resolve(auth, user).block()).isSameAs(org);
+        verify(orgs, times(1)).findByShortName("PSC");
+    }
+
+    @Test
+    void testCachesMisses() {
+        when(orgs.findByShortName("PSC")).thenReturn(Optional.empty());
+        LdapOrganizationResolver resolver = resolver(new CacheSpec());
+
+        assertThat(resolver.resolve(auth, user).blockOptional()).isEmpty();
+        assertThat(resolver.resolve(auth, user).blockOptional()).isEmpty();
+        verify(orgs, times(1)).findByShortName("PSC");
+    }
+
+    @Test
+    void testRevalidatesByLastUpdated() {
+        Organization org = org("1");
+        Organization sameVersion = org("1");
+        Organization updated = org("2");
+        when(orgs.findByShortName("PSC")).thenReturn(Optional.of(org), Optional.of(sameVersion),
+                Optional.of(updated));
+        LdapOrganizationResolver resolver = resolver(new CacheSpec().setTimeToLive(Duration.ZERO));
+
+        assertThat(resolver.resolve(auth, user).block()).isSameAs(org);
+        assertThat(resolver.resolve(auth, user).block()).as("expected the unchanged cached instance")
+                .isSameAs(org);
+        assertThat(resolver.resolve(auth, user).block()).isSameAs(updated);
+        verify(orgs, times(3)).findByShortName("PSC");
+    }
+
+    @Test
+    void testInvalidate() {
+        when(orgs.findByShortName("PSC")).thenReturn(Optional.of(org("1")));
+        LdapOrganizationResolver resolver = resolver(new CacheSpec());
+
+        resolver.resolve(auth, user).block();
+        assertThat(resolver.size()).isEqualTo(1);
+        resolver.invalidate("ldap1", "PSC");
+        assertThat(resolver.size()).isZero();
+        resolver.resolve(auth, user).block();
+        verify(orgs, times(2)).findByShortName("PSC");
+    }
+
+    @Test
+    void testOrganizationModificationEvent() {
+        when(orgs.findByShortName("PSC")).thenReturn(Optional.of(org("1")));
+        LdapOrganizationResolver resolver = resolver(new CacheSpec());
+        resolver.resolve(auth, user).block();
+
+        resolver.onLdapModification(new LdapModificationEvent(this, Type.USER, "PSC"));
+        assertThat(resolver.size()).isEqualTo(1);
+        resolver.onLdapModification(new LdapModificationEvent(this, Type.ORGANIZATION, "other"));
+        assertThat(resolver.size()).isEqualTo(1);
+        resolver.onLdapModification(new LdapModificationEvent(this, Type.ORGANIZATION, "PSC"));
+        assertThat(resolver.size()).isZero();
+
+        resolver.resolve(auth, user).block();
+        resolver.onLdapModification(new LdapModificationEvent(this, Type.ORGANIZATION, null));
+        assertThat(resolver.size()).isZero();
+    }
+
+    @Test
+    void testDisabled() {
+        when(orgs.findByShortName("PSC")).thenReturn(Optional.of(org("1")));
+        LdapOrganizationResolver resolver = resolver(new CacheSpec().setEnabled(false));
+
+        resolver.resolve(auth, user).block();
+        resolver.resolve(auth, user).block();
+        verify(orgs, times(2)).findByShortName("PSC");
+    }
+
+    @Test
+    void testMetrics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        resolver(new CacheSpec()).bindTo(registry);
+        assertThat(registry.find("cache.size").tag("cache", LdapOrganizationResolver.CACHE_NAME).gauge())
+                .isNotNull();
+    }
+}
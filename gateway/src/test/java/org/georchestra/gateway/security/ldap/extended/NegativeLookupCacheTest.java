@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.gateway.security.ldap.extended;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.georchestra.gateway.model.CacheConfigProperties.CacheSpec;
+import org.georchestra.gateway.security.ldap.extended.NegativeLookupCache.Attribute;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test suite for {@link NegativeLookupCache}
+ */
+class NegativeLookupCacheTest {
+
+    private NegativeLookupCache cache;
+    private AtomicInteger queries;
+
+    @BeforeEach
+    void setUp() {
+        cache = new NegativeLookupCache(new CacheSpec().setTimeToLive(Duration.ofSeconds(30)));
+        queries = new AtomicInteger();
+    }
+
+    @Test
+    void testMissesAreCached() {
+        assertThat(cache.lookup("ldap1", Attribute.EMAIL, "user@example.com", this::notFound)).isEmpty();
+        assertThat(cache.lookup("ldap1", Attribute.EMAIL, "user@example.com", this::notFound)).isEmpty();
+        assertThat(queries.get()).isEqualTo(1);
+        assertThat(cache.isMissing("ldap1", Attribute.EMAIL, "user@example.com")).isTrue();
+    }
+
+    @Test
+    void testHitsAreNotCached() {
+        assertThat(cache.lookup("ldap1", Attribute.USERNAME, "user", () -> found("user"))).contains("user");
+        assertThat(cache.lookup("ldap1", Attribute.USERNAME, "user", () -> found("user"))).contains("user");
+        assertThat(queries.get()).isEqualTo(2);
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void testKeyIncludesConfigNameAndAttribute() {
+        cache.putMissing("ldap1", Attribute.EMAIL, "user");
+
+        assertThat(cache.isMissing("ldap1", Attribute.EMAIL, "user")).isTrue();
+        assertThat(cache.isMissing("ldap2", Attribute.EMAIL, "user")).isFalse();
+        assertThat(cache.isMissing("ldap1", Attribute.USERNAME, "user")).isFalse();
+    }
+
+    @Test
+    void testInvalidateAll() {
+        cache.putMissing("ldap1", Attribute.EMAIL, "user");
+        cache.invalidateAll();
+        assertThat(cache.isMissing("ldap1", Attribute.EMAIL, "user")).isFalse();
+    }
+
+    @Test
+    void testDisabled() {
+        cache = NegativeLookupCache.disabled();
+        cache.lookup("ldap1", Attribute.EMAIL, "user@example.com", this::notFound);
+        cache.lookup("ldap1", Attribute.EMAIL, "user@example.com", this::notFound);
+        assertThat(queries.get()).isEqualTo(2);
+        assertThat(cache.isMissing("ldap1", Attribute.EMAIL, "user@example.com")).isFalse();
+    }
+
+    @Test
+    void testMetrics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+
+        cache.lookup("ldap1", Attribute.EMAIL, "user@example.com", this::notFound);
+        cache.lookup("ldap1", Attribute.EMAIL, "user@example.com", this::notFound);
+
+        assertThat(registry.get("cache.gets").tag("cache", NegativeLookupCache.CACHE_NAME).tag("result", "hit")
+                .functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("cache.gets").tag("cache", NegativeLookupCache.CACHE_NAME).tag("result", "miss")
+                .functionCounter().count()).isEqualTo(1);
+    }
+
+    private Optional<String> notFound() {
+        queries.incrementAndGet();
+        return Optional.empty();
+    }
+
+    private Optional<String> found(String value) {
+        queries.incrementAndGet();
+        return Optional.of(value);
+    }
+}
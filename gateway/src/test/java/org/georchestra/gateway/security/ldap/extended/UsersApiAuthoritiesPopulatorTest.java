@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.gateway.security.ldap.extended;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.georchestra.security.api.UsersApi;
+import org.georchestra.security.model.GeorchestraUser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ldap.core.DirContextOperations;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.ldap.userdetails.LdapAuthoritiesPopulator;
+
+/**
+ * Test suite for {@link UsersApiAuthoritiesPopulator}
+ */
+class UsersApiAuthoritiesPopulatorTest {
+
+    private UsersApi usersApi;
+    private DemultiplexingUsersApi users;
+    private LdapAuthoritiesPopulator fallback;
+    private UsersApiAuthoritiesPopulator populator;
+    private DirContextOperations userData;
+
+    @BeforeEach
+    void setUp() {
+        usersApi = mock(UsersApi.class);
+        when(usersApi.findByUsername(anyString())).thenReturn(Optional.empty());
+        users = new DemultiplexingUsersApi(Map.of("ldap1", usersApi));
+        fallback = mock(LdapAuthoritiesPopulator.class);
+        populator = new UsersApiAuthoritiesPopulator("ldap1", users, fallback);
+        userData = mock(DirContextOperations.class);
+        when(userData.getStringAttribute("uid")).thenReturn("jdoe");
+    }
+
+    @Test
+    void testRolesMappedToAuthorities() {
+        GeorchestraUser user = new GeorchestraUser();
+        user.setRoles(List.of("USER", "ROLE_ADMINISTRATOR", "gn_editor"));
+        when(usersApi.findByUsername("jdoe")).thenReturn(Optional.of(user));
+
+        Collection<? extends GrantedAuthority> authorities = populator.getGrantedAuthorities(userData,
+                "jdoe@example.com");
+
+        assertThat(authorities.stream().map(GrantedAuthority::getAuthority).collect(Collectors.toList()))
+                .containsExactly("ROLE_USER", "ROLE_ADMINISTRATOR", "ROLE_GN_EDITOR");
+        assertThat(users.findAuthenticated("ldap1", "jdoe@example.com")).contains(user);
+        verifyNoInteractions(fallback);
+    }
+
+    @Test
+    void testFallsBackToUsernameWithoutUidAttribute() {
+        when(userData.getStringAttribute("uid")).thenReturn(null);
+        GeorchestraUser user = new GeorchestraUser();
+        user.setRoles(List.of("USER"));
+        when(usersApi.findByUsername("jdoe")).thenReturn(Optional.of(user));
+
+        assertThat(populator.getGrantedAuthorities(userData, "jdoe")).hasSize(1);
+        assertThat(users.findAuthenticated("ldap1", "jdoe")).contains(user);
+    }
+
+    @Test
+    void testSupportsRolesSearchFilter() {
+        assertThat(UsersApiAuthoritiesPopulator.supportsRolesSearchFilter("(member={0})")).isTrue();
+        assertThat(UsersApiAuthoritiesPopulator.supportsRolesSearchFilter(" ( member={0} ) ")).isTrue();
+        assertThat(UsersApiAuthoritiesPopulator.supportsRolesSearchFilter("(uniqueMember={0})")).isFalse();
+        assertThat(UsersApiAuthoritiesPopulator.supportsRolesSearchFilter("(&(member={0})(cn=GN_*))")).isFalse();
+        assertThat(UsersApiAuthoritiesPopulator.supportsRolesSearchFilter(null)).isFalse();
+    }
+
+    @Test
+    void testFallsBackToRolesSearchIfUserNotFound() {
+        List<GrantedAuthority> expected = List.of(new SimpleGrantedAuthority("ROLE_USER"));
+        doReturn(expected).when(fallback).getGrantedAuthorities(any(), anyString());
+
+        Collection<? extends GrantedAuthority> authorities = populator.getGrantedAuthorities(userData, "jdoe");
+
+        assertThat(authorities).isSameAs(expected);
+        verify(fallback).getGrantedAuthorities(userData, "jdoe");
+    }
+}
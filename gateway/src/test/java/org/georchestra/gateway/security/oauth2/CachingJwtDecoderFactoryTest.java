@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.gateway.security.oauth2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.georchestra.gateway.model.CacheConfigProperties.Jwks;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+/**
+ * Test suite for {@link CachingJwtDecoderFactory} and
+ * {@link CachingJwkSetSource}
+ */
+class CachingJwtDecoderFactoryTest {
+
+    private RSAKey key1;
+    private RSAKey key2;
+
+    private volatile String jwks;
+    private volatile HttpStatus jwksStatus;
+    private AtomicInteger fetches;
+
+    private TestClock clock;
+    private ClientRegistration registration;
+    private CachingJwtDecoderFactory factory;
+
+    @BeforeEach
+    void setUp() throws JOSEException {
+        key1 = new RSAKeyGenerator(2048).keyID("k1").generate();
+        key2 = new RSAKeyGenerator(2048).keyID("k2").generate();
+        jwks = new JWKSet(key1.toPublicJWK()).toString();
+        jwksStatus = HttpStatus.OK;
+        fetches = new AtomicInteger();
+
+        WebClient webClient = WebClient.builder().exchangeFunction(request -> {
+            fetches.incrementAndGet();
+            return Mono.just(ClientResponse.create(jwksStatus)//
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)//
+                    .body(jwks)//
+                    .build());
+        }).build();
+
+        registration = ClientRegistration.withRegistrationId("idp")//
+                .clientId("client")//
+                .clientSecret("secret")//
+                .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)//
+                .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")//
+                .authorizationUri("https://idp.test/auth")//
+                .tokenUri("https://idp.test/token")//
+                .jwkSetUri("https://idp.test/jwks")//
+                .build();
+
+        clock = new TestClock();
+        Jwks spec = new Jwks().setTimeToLive(Duration.ofMinutes(5)).setRefreshAhead(Duration.ofSeconds(30))
+                .setMinRefetchInterval(Duration.ofSeconds(30));
+        factory = new CachingJwtDecoderFactory(webClient, spec, clock);
+    }
+
+    private String token(JWSAlgorithm algorithm, String keyId, JWSSigner signer) throws JOSEException {
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()//
+                .subject("jdoe")//
+                .issueTime(new Date())//
+                .expirationTime(new Date(System.currentTimeMillis() + 60_000))//
+                .build();
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(algorithm).keyID(keyId).build(), claims);
+        jwt.sign(signer);
+        return jwt.serialize();
+    }
+
+    private String token(RSAKey key) throws JOSEException {
+        return token(JWSAlgorithm.RS256, key.getKeyID(), new RSASSASigner(key));
+    }
+
+    @Test
+    void testReusesDecodersAndJwkSet() throws JOSEException {
+        ReactiveJwtDecoder decoder = factory.createDecoder(registration);
+        assertThat(decoder.decode(token(key1)).block().getSubject()).isEqualTo("jdoe");
+        assertThat(decoder.decode(token(key1)).block().getSubject()).isEqualTo("jdoe");
+        assertThat(factory.createDecoder(registration).decode(token(key1)).block().getSubject()).isEqualTo("jdoe");
+
+        assertThat(fetches.get()).isEqualTo(1);
+        assertThat(factory.size()).isEqualTo(1);
+    }
+
+    @Test
+    void testMacAlgorithm() throws JOSEException {
+        byte[] secret = Arrays.copyOf("secret".getBytes(StandardCharsets.UTF_8), 64);
+        String token = token(JWSAlgorithm.HS256, null, new MACSigner(secret));
+
+        ReactiveJwtDecoder decoder = factory.createDecoder(registration);
+        assertThat(decoder.decode(token).block().getSubject()).isEqualTo("jdoe");
+        assertThat(fetches.get()).isZero();
+
+        decoder.decode(token(key1)).block();
+        assertThat(factory.size()).as("one decoder per algorithm").isEqualTo(2);
+    }
+
+    @Test
+    void testInvalidToken() {
+        ReactiveJwtDecoder decoder = factory.createDecoder(registration);
+        assertThrows(JwtException.class, () -> decoder.decode("not a token").block());
+    }
+
+    @Test
+    void testRefreshAhead() throws JOSEException {
+        ReactiveJwtDecoder decoder = factory.createDecoder(registration);
+        decoder.decode(token(key1)).block();
+
+        clock.advance(Duration.ofMinutes(4));
+        decoder.decode(token(key1)).block();
+        assertThat(fetches.get()).isEqualTo(1);
+
+        clock.advance(Duration.ofSeconds(40));
+        decoder.decode(token(key1)).block();
+        assertThat(fetches.get()).as("expected a background refresh").isEqualTo(2);
+
+        decoder.decode(token(key1)).block();
+        assertThat(fetches.get()).isEqualTo(2);
+    }
+
+    @Test
+    void testExpiredJwkSet() throws JOSEException {
+        ReactiveJwtDecoder decoder = factory.createDecoder(registration);
+        decoder.decode(token(key1)).block();
+
+        clock.advance(Duration.ofMinutes(5));
+        decoder.decode(token(key1)).block();
+        assertThat(fetches.get()).isEqualTo(2);
+    }
+
+    @Test
+    void testExpiredJwkSetIsUsedIfFetchFails() throws JOSEException {
+        ReactiveJwtDecoder decoder = factory.createDecoder(registration);
+        decoder.decode(token(key1)).block();
+
+        jwksStatus = HttpStatus.SERVICE_UNAVAILABLE;
+        clock.advance(Duration.ofMinutes(6));
+        assertThat(decoder.decode(token(key1)).block().getSubject()).isEqualTo("jdoe");
+        assertThat(fetches.get()).isEqualTo(2);
+    }
+
+    @Test
+    void testKeyRotation() throws JOSEException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        factory.bindTo(registry);
+        ReactiveJwtDecoder decoder = factory.createDecoder(registration);
+        decoder.decode(token(key1)).block();
+
+        jwks = new JWKSet(key2.toPublicJWK()).toString();
+        // fetched less than min-refetch-interval ago
+        assertThrows(JwtException.class, () -> decoder.decode(token(key2)).block());
+        assertThat(fetches.get()).isEqualTo(1);
+
+        clock.advance(Duration.ofSeconds(30));
+        assertThat(decoder.decode(token(key2)).block().getSubject()).isEqualTo("jdoe");
+        assertThat(fetches.get()).isEqualTo(2);
+
+        assertThat(registry.get(CachingJwkSetSource.KID_MISS_COUNTER).tag("outcome", "rate-limited").counter()
+                .count()).isEqualTo(1);
+        assertThat(registry.get(CachingJwkSetSource.KID_MISS_COUNTER).tag("outcome", "refetched").counter().count())
+                .isEqualTo(1);
+        assertThat(registry.get(CachingJwkSetSource.FETCH_TIMER).tag("trigger", "kid-miss").timer().count())
+                .isEqualTo(1);
+        assertThat(registry.get("georchestra.oauth2.jwt.decoders").gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    void testCancelledSubscriberDoesNotCancelSharedFetch() {
+        Sinks.One<ClientResponse> response = Sinks.one();
+        WebClient webClient = WebClient.builder().exchangeFunction(request -> {
+            fetches.incrementAndGet();
+            return response.asMono();
+        }).build();
+        CachingJwkSetSource source = new CachingJwkSetSource("https://idp.test/jwks", webClient, new Jwks(), clock);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        source.bindTo(registry);
+        JWSHeader header = new JWSHeader.Builder(JWSAlgorithm.RS256).keyID("k1").build();
+
+        CompletableFuture<List<JWK>> waiting = source.get(header).collectList().toFuture();
+        Disposable cancelled = source.get(header).subscribe();
+        cancelled.dispose();
+
+        response.tryEmitValue(ClientResponse.create(HttpStatus.OK)//
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)//
+                .body(jwks)//
+                .build());
+
+        assertThat(waiting.join()).singleElement().extracting(JWK::getKeyID).isEqualTo("k1");
+        assertThat(fetches.get()).isEqualTo(1);
+        assertThat(registry.get(CachingJwkSetSource.FETCH_TIMER).tag("outcome", "success").timer().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void testJwkSetCacheDisabled() throws JOSEException {
+        factory = new CachingJwtDecoderFactory(WebClient.builder().exchangeFunction(request -> {
+            fetches.incrementAndGet();
+            return Mono.just(ClientResponse.create(HttpStatus.OK)//
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)//
+                    .body(jwks)//
+                    .build());
+        }).build(), new Jwks().setEnabled(false), clock);
+
+        ReactiveJwtDecoder decoder = factory.createDecoder(registration);
+        decoder.decode(token(key1)).block();
+        decoder.decode(token(key1)).block();
+        assertThat(factory.size()).isEqualTo(1);
+        assertThat(fetches.get()).as("the reused decoder keeps its JWK set").isEqualTo(1);
+    }
+}
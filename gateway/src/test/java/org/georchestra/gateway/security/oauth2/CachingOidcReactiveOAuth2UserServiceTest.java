@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.gateway.security.oauth2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.georchestra.gateway.model.CacheConfigProperties.CacheSpec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.client.oidc.userinfo.OidcUserRequest;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.userinfo.OAuth2UserRequest;
+import org.springframework.security.oauth2.client.userinfo.ReactiveOAuth2UserService;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.core.oidc.user.OidcUser;
+import org.springframework.security.oauth2.core.user.DefaultOAuth2User;
+import org.springframework.security.oauth2.core.user.OAuth2User;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+/**
+ * Test suite for {@link CachingOidcReactiveOAuth2UserService}
+ */
+class CachingOidcReactiveOAuth2UserServiceTest {
+
+    private ReactiveOAuth2UserService<OAuth2UserRequest, OAuth2User> userInfo;
+    private ClientRegistration registration;
+    private TestClock clock;
+
+    @SuppressWarnings("unchecked")
+    @BeforeEach
+    void setUp() {
+        userInfo = mock(ReactiveOAuth2UserService.class);
+        when(userInfo.loadUser(any())).thenAnswer(invocation -> {
+            OidcUserRequest request = invocation.getArgument(0);
+            String subject = request.getIdToken().getSubject();
+            return Mono.just(new DefaultOAuth2User(Set.of(),
+                    Map.of("sub", subject, "email", subject + "@example.com"), "sub"));
+        });
+        registration = ClientRegistration.withRegistrationId("idp")//
+                .clientId("client")//
+                .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)//
+                .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")//
+                .scope("openid", "profile", "email")//
+                .authorizationUri("https://idp.test/auth")//
+                .tokenUri("https://idp.test/token")//
+                .userInfoUri("https://idp.test/userinfo")//
+                .jwkSetUri("https://idp.test/jwks")//
+                .build();
+        clock = new TestClock();
+    }
+
+    private CachingOidcReactiveOAuth2UserService service(CacheSpec spec) {
+        return new CachingOidcReactiveOAuth2UserService(userInfo, spec, clock);
+    }
+
+    private OidcUserRequest request(String subject, Duration tokenValidity) {
+        Instant now = clock.instant();
+        OAuth2AccessToken accessToken = new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER,
+                UUID.randomUUID().toString(), now, now.plus(tokenValidity), Set.of("openid", "profile", "email"));
+        OidcIdToken idToken = new OidcIdToken("id-token", now, now.plus(tokenValidity),
+                Map.of("sub", subject, "preferred_username", subject));
+        return new OidcUserRequest(registration, accessToken, idToken);
+    }
+
+    @Test
+    void testCachesUserInfoPerSubject() {
+        CachingOidcReactiveOAuth2UserService service = service(new CacheSpec());
+
+        OidcUser user1 = service.loadUser(request("jdoe", Duration.ofMinutes(5))).block();
+        OidcUser user2 = service.loadUser(request("jdoe", Duration.ofMinutes(5))).block();
+        assertThat(user1.getEmail()).isEqualTo("jdoe@example.com");
+        assertThat(user2.getEmail()).isEqualTo("jdoe@example.com");
+        verify(userInfo, times(1)).loadUser(any());
+
+        service.loadUser(request("other", Duration.ofMinutes(5))).block();
+        verify(userInfo, times(2)).loadUser(any());
+        assertThat(service.size()).isEqualTo(2);
+    }
+
+    @Test
+    void testEntriesExpireWithAccessToken() {
+        CachingOidcReactiveOAuth2UserService service = service(new CacheSpec().setTimeToLive(Duration.ofMinutes(10)));
+
+        service.loadUser(request("jdoe", Duration.ofSeconds(30))).block();
+        clock.advance(Duration.ofSeconds(20));
+        service.loadUser(request("jdoe", Duration.ofMinutes(5))).block();
+        verify(userInfo, times(1)).loadUser(any());
+
+        clock.advance(Duration.ofSeconds(10));
+        service.loadUser(request("jdoe", Duration.ofMinutes(5))).block();
+        verify(userInfo, times(2)).loadUser(any());
+    }
+
+    @Test
+    void testDisabled() {
+        CachingOidcReactiveOAuth2UserService service = service(new CacheSpec().setEnabled(false));
+
+        service.loadUser(request("jdoe", Duration.ofMinutes(5))).block();
+        service.loadUser(request("jdoe", Duration.ofMinutes(5))).block();
+        verify(userInfo, times(2)).loadUser(any());
+        assertThat(service.size()).isZero();
+    }
+
+    @Test
+    void testSkipsUserInfoForCompleteIdTokens() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CachingOidcReactiveOAuth2UserService service = service(new CacheSpec());
+        service.bindTo(registry);
+        service.setIdTokenComplete(idToken -> "jdoe".equals(idToken.getSubject()));
+
+        OidcUser user = service.loadUser(request("jdoe", Duration.ofMinutes(5))).block();
+        assertThat(user.getPreferredUsername()).isEqualTo("jdoe");
+        assertThat(user.getUserInfo()).isNull();
+        verify(userInfo, never()).loadUser(any());
+
+        assertThat(service.loadUser(request("other", Duration.ofMinutes(5))).block().getUserInfo()).isNotNull();
+        verify(userInfo, times(1)).loadUser(any());
+
+        assertThat(registry.get(CachingOidcReactiveOAuth2UserService.CACHE_NAME + ".skipped").counter().count())
+                .isEqualTo(1);
+        assertThat(registry.find("cache.size").tag("cache", CachingOidcReactiveOAuth2UserService.CACHE_NAME).gauge())
+                .isNotNull();
+    }
+}
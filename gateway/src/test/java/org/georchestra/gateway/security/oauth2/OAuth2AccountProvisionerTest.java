@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.gateway.security.oauth2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.georchestra.ds.roles.Role;
+import org.georchestra.ds.roles.RoleDao;
+import org.georchestra.ds.users.Account;
+import org.georchestra.ds.users.AccountDao;
+import org.georchestra.ds.users.DuplicatedUidException;
+import org.georchestra.gateway.events.LdapModificationEvent;
+import org.georchestra.gateway.events.LdapModificationEvent.Type;
+import org.georchestra.gateway.model.CacheConfigProperties.CacheSpec;
+import org.georchestra.security.api.UsersApi;
+import org.georchestra.security.model.GeorchestraUser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposables;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Test suite for {@link OAuth2AccountProvisioner}
+ */
+class OAuth2AccountProvisionerTest {
+
+    private static final String PROVIDER_ID = "keycloak;1234";
+
+    private AccountDao accountDao;
+    private RoleDao roleDao;
+    private UsersApi usersApi;
+    private Account newAccount;
+    private AtomicInteger created;
+
+    /**
+     * Scheduled tasks, run by the tests when they see fit
+     */
+    private List<Runnable> tasks;
+    private Scheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        accountDao = mock(AccountDao.class);
+        roleDao = mock(RoleDao.class);
+        usersApi = mock(UsersApi.class);
+        newAccount = mock(Account.class);
+        created = new AtomicInteger();
+        tasks = new ArrayList<>();
+        scheduler = Schedulers.fromExecutor(tasks::add);
+    }
+
+    private OAuth2AccountProvisioner provisioner(CacheSpec spec) {
+        return new OAuth2AccountProvisioner(accountDao, roleDao, usersApi, spec, scheduler,
+                OAuth2AccountProvisioner.LOOKUP_TIMEOUT);
+    }
+
+    private CompletableFuture<GeorchestraUser> findOrCreate(OAuth2AccountProvisioner provisioner) {
+        return provisioner.findOrCreate(PROVIDER_ID, () -> newAccount, created::incrementAndGet).toFuture();
+    }
+
+    private void runTasks() {
+        List<Runnable> pending = new ArrayList<>(tasks);
+        tasks.clear();
+        pending.forEach(Runnable::run);
+    }
+
+    private GeorchestraUser user(String... roles) {
+        GeorchestraUser user = new GeorchestraUser();
+        user.setUsername("jdoe");
+        user.setRoles(new ArrayList<>(List.of(roles)));
+        return user;
+    }
+
+    @Test
+    void testExistingAccount() throws Exception {
+        when(usersApi.findByOAuth2ProviderId(PROVIDER_ID)).thenReturn(Optional.of(user("USER", "ROLE_EDITOR")));
+
+        CompletableFuture<GeorchestraUser> result = findOrCreate(provisioner(new CacheSpec().setEnabled(false)));
+        runTasks();
+
+        assertThat(result.join().getRoles()).containsExactly("ROLE_USER", "ROLE_EDITOR");
+        verify(accountDao, never()).insert(any());
+        assertThat(created.get()).isZero();
+    }
+
+    @Test
+    void testCreatesMissingAccount() throws Exception {
+        when(usersApi.findByOAuth2ProviderId(PROVIDER_ID)).thenReturn(Optional.empty(),
+                Optional.of(user("USER")));
+
+        CompletableFuture<GeorchestraUser> result = findOrCreate(provisioner(new CacheSpec().setEnabled(false)));
+        runTasks();
+
+        assertThat(result.join().getRoles()).containsExactly("ROLE_USER");
+        verify(accountDao).insert(newAccount);
+        verify(roleDao).addUser(Role.USER, newAccount);
+        assertThat(created.get()).isEqualTo(1);
+    }
+
+    @Test
+    void testConcurrentLookupsAreCoalesced() throws Exception {
+        when(usersApi.findByOAuth2ProviderId(PROVIDER_ID)).thenReturn(Optional.empty(),
+                Optional.of(user("USER")));
+        OAuth2AccountProvisioner provisioner = provisioner(new CacheSpec().setEnabled(false));
+
+        CompletableFuture<GeorchestraUser> first = findOrCreate(provisioner);
+        CompletableFuture<GeorchestraUser> second = findOrCreate(provisioner);
+        assertThat(tasks).hasSize(1);
+        runTasks();
+
+        assertThat(first.join().getUsername()).isEqualTo("jdoe");
+        assertThat(second.join().getUsername()).isEqualTo("jdoe");
+        assertThat(first.join()).as("each caller gets its own copy").isNotSameAs(second.join());
+        verify(accountDao, times(1)).insert(newAccount);
+        assertThat(created.get()).isEqualTo(1);
+
+        // once completed, a new lookup is performed
+        findOrCreate(provisioner);
+        assertThat(tasks).hasSize(1);
+    }
+
+    @Test
+    void testRejectedLookupFailsAndIsNotKeptInFlight() throws Exception {
+        scheduler = mock(Scheduler.class);
+        when(scheduler.schedule(any())).thenThrow(new RejectedExecutionException("queue full"))
+                .thenReturn(Disposables.disposed());
+        OAuth2AccountProvisioner provisioner = provisioner(new CacheSpec().setEnabled(false));
+
+        CompletableFuture<GeorchestraUser> rejected = findOrCreate(provisioner);
+        ExecutionException error = assertThrows(ExecutionException.class, () -> rejected.get(5, TimeUnit.SECONDS));
+        assertThat(error).hasCauseInstanceOf(RejectedExecutionException.class);
+
+        // the next login doesn't join the failed lookup
+        findOrCreate(provisioner);
+        verify(scheduler, times(2)).schedule(any());
+    }
+
+    @Test
+    void testLookupTimeout() throws Exception {
+        OAuth2AccountProvisioner provisioner = new OAuth2AccountProvisioner(accountDao, roleDao, usersApi,
+                new CacheSpec().setEnabled(false), scheduler, Duration.ofMillis(10));
+
+        // the scheduled lookup never runs
+        CompletableFuture<GeorchestraUser> stalled = findOrCreate(provisioner);
+        ExecutionException error = assertThrows(ExecutionException.class, () -> stalled.get(5, TimeUnit.SECONDS));
+        assertThat(error).hasCauseInstanceOf(TimeoutException.class);
+
+        findOrCreate(provisioner);
+        assertThat(tasks).as("a new lookup is scheduled").hasSize(2);
+    }
+
+    @Test
+    void testCachedAccount() {
+        when(usersApi.findByOAuth2ProviderId(PROVIDER_ID)).thenReturn(Optional.of(user("USER")));
+        OAuth2AccountProvisioner provisioner = provisioner(new CacheSpec());
+
+        CompletableFuture<GeorchestraUser> first = findOrCreate(provisioner);
+        runTasks();
+        first.join().setRoles(List.of("ROLE_MODIFIED"));
+
+        CompletableFuture<GeorchestraUser> second = findOrCreate(provisioner);
+        assertThat(tasks).as("expected a cache hit").isEmpty();
+        assertThat(second.join().getRoles()).containsExactly("ROLE_USER");
+        verify(usersApi, times(1)).findByOAuth2ProviderId(PROVIDER_ID);
+
+        provisioner.invalidateAll();
+        findOrCreate(provisioner);
+        assertThat(tasks).hasSize(1);
+    }
+
+    @Test
+    void testLdapModificationEvent() {
+        when(usersApi.findByOAuth2ProviderId(PROVIDER_ID)).thenReturn(Optional.of(user("USER")));
+        OAuth2AccountProvisioner provisioner = provisioner(new CacheSpec());
+        findOrCreate(provisioner);
+        runTasks();
+
+        provisioner.onLdapModification(new LdapModificationEvent(this, Type.USER, "other"));
+        provisioner.onLdapModification(new LdapModificationEvent(this, Type.ORGANIZATION, "PSC"));
+        findOrCreate(provisioner);
+        assertThat(tasks).as("expected a cache hit").isEmpty();
+
+        provisioner.onLdapModification(new LdapModificationEvent(this, Type.USER, "jdoe"));
+        findOrCreate(provisioner);
+        assertThat(tasks).hasSize(1);
+        runTasks();
+
+        provisioner.onLdapModification(new LdapModificationEvent(this, Type.ROLE, "USER"));
+        findOrCreate(provisioner);
+        assertThat(tasks).hasSize(1);
+    }
+
+    @Test
+    void testAccountCreatedConcurrently() throws Exception {
+        when(usersApi.findByOAuth2ProviderId(PROVIDER_ID)).thenReturn(Optional.empty(),
+                Optional.of(user("USER")));
+        doThrow(new DuplicatedUidException("jdoe")).when(accountDao).insert(newAccount);
+
+        CompletableFuture<GeorchestraUser> result = findOrCreate(provisioner(new CacheSpec().setEnabled(false)));
+        runTasks();
+
+        assertThat(result.join().getUsername()).isEqualTo("jdoe");
+        verify(roleDao, never()).addUser(eq(Role.USER), any(Account.class));
+        assertThat(created.get()).isZero();
+    }
+
+    @Test
+    void testDuplicateAccountNotFound() throws Exception {
+        when(usersApi.findByOAuth2ProviderId(PROVIDER_ID)).thenReturn(Optional.empty());
+        doThrow(new DuplicatedUidException("jdoe")).when(accountDao).insert(newAccount);
+        OAuth2AccountProvisioner provisioner = provisioner(new CacheSpec().setEnabled(false));
+
+        CompletableFuture<GeorchestraUser> result = findOrCreate(provisioner);
+        runTasks();
+
+        Exception e = assertThrows(Exception.class, result::join);
+        assertThat(e).hasRootCauseInstanceOf(DuplicatedUidException.class);
+
+        // failures are not cached nor kept in-flight
+        findOrCreate(provisioner);
+        assertThat(tasks).hasSize(1);
+    }
+
+    @Test
+    void testMetrics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        provisioner(new CacheSpec()).bindTo(registry);
+
+        assertThat(registry.find("cache.size").tag("cache", OAuth2AccountProvisioner.CACHE_NAME).gauge()).isNotNull();
+        assertThat(registry.find(OAuth2AccountProvisioner.CACHE_NAME + ".in-flight").gauge()).isNotNull();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.gateway.security.oauth2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.net.URI;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.handler.timeout.ReadTimeoutException;
+import reactor.core.publisher.Mono;
+
+/**
+ * Test suite for {@link OAuth2HttpClientMetricsFilter}
+ */
+class OAuth2HttpClientMetricsFilterTest {
+
+    private SimpleMeterRegistry registry;
+    private OAuth2HttpClientMetricsFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        ClientRegistration registration = ClientRegistration.withRegistrationId("idp")//
+                .clientId("client")//
+                .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)//
+                .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")//
+                .authorizationUri("https://idp.test/auth")//
+                .tokenUri("https://idp.test/token")//
+                .userInfoUri("https://idp.test/userinfo")//
+                .jwkSetUri("https://idp.test/jwks")//
+                .build();
+        filter = new OAuth2HttpClientMetricsFilter(registry, () -> List.of(registration));
+    }
+
+    private ClientRequest request(HttpMethod method, String uri) {
+        return ClientRequest.create(method, URI.create(uri)).build();
+    }
+
+    @Test
+    void testRecordsLatencyPerRegistration() {
+        filter.filter(request(HttpMethod.POST, "https://idp.test/token"),
+                r -> Mono.just(ClientResponse.create(HttpStatus.OK).build())).block();
+        filter.filter(request(HttpMethod.GET, "https://idp.test/userinfo?schema=openid"),
+                r -> Mono.just(ClientResponse.create(HttpStatus.UNAUTHORIZED).build())).block();
+        filter.filter(request(HttpMethod.GET, "https://other.test/jwks"),
+                r -> Mono.just(ClientResponse.create(HttpStatus.OK).build())).block();
+
+        assertThat(registry.get(OAuth2HttpClientMetricsFilter.REQUESTS_TIMER).tag("registration", "idp")
+                .tag("method", "POST").tag("status", "200").timer().count()).isEqualTo(1);
+        assertThat(registry.get(OAuth2HttpClientMetricsFilter.REQUESTS_TIMER).tag("registration", "idp")
+                .tag("method", "GET").tag("status", "401").timer().count()).isEqualTo(1);
+        assertThat(registry.get(OAuth2HttpClientMetricsFilter.REQUESTS_TIMER).tag("registration", "unknown").timer()
+                .count()).isEqualTo(1);
+    }
+
+    @Test
+    void testRecordsTimeouts() {
+        ClientRequest request = request(HttpMethod.GET, "https://idp.test/jwks");
+        Mono<ClientResponse> response = filter.filter(request, r -> Mono.error(new WebClientRequestException(
+                ReadTimeoutException.INSTANCE, r.method(), r.url(), new HttpHeaders())));
+
+        assertThrows(WebClientRequestException.class, response::block);
+        assertThat(registry.get(OAuth2HttpClientMetricsFilter.REQUESTS_TIMER).tag("status", "TIMEOUT").timer()
+                .count()).isEqualTo(1);
+    }
+}
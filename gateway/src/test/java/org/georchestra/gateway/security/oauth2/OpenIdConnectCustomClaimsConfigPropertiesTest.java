@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2022 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.gateway.security.oauth2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.georchestra.gateway.security.oauth2.OpenIdConnectCustomClaimsConfigProperties.JsonPathExtractor;
+import org.georchestra.gateway.security.oauth2.OpenIdConnectCustomClaimsConfigProperties.RolesMapping;
+import org.georchestra.security.model.GeorchestraUser;
+import org.junit.jupiter.api.Test;
+
+import com.jayway.jsonpath.DocumentContext;
+
+/**
+ * Test suite for {@link OpenIdConnectCustomClaimsConfigProperties}
+ */
+class OpenIdConnectCustomClaimsConfigPropertiesTest {
+
+    private final Map<String, Object> claims = Map.of(//
+            "sub", "1234", //
+            "PartyOrganisationID", "6007280321", //
+            "realm_access", Map.of("roles", List.of("offline_access", "GDI Planer (extern)")), //
+            "groups", List.of("Admins", "Editors"));
+
+    /**
+     * The regular expressions based implementation {@link RolesMapping#normalize}
+     * replaced
+     */
+    private static String regexNormalize(String value) {
+        return value.replaceAll("\\s+", "_").replaceAll("[^a-zA-Z0-9_]", "");
+    }
+
+    @Test
+    void testNormalize() {
+        RolesMapping mapping = new RolesMapping();
+        List<String> values = List.of("", "ROLE_USER", "GDI Planer (extern)", "  leading and trailing\t\n",
+                "a ( b", "Société Générale", "tab\tand\u000Bvertical tab", "x-y.z, w", "___", "日本語 role");
+        for (String value : values) {
+            assertThat(mapping.normalize(value)).as(value).isEqualTo(regexNormalize(value));
+        }
+    }
+
+    @Test
+    void testNormalizeReturnsSameInstanceIfUnchanged() {
+        String value = "GDI_PLANER_EXTERN";
+        assertThat(new RolesMapping().normalize(value)).isSameAs(value);
+    }
+
+    @Test
+    void testExtractMultiplePaths() {
+        JsonPathExtractor extractor = new JsonPathExtractor();
+        extractor.getPath().add("$.realm_access.roles");
+        extractor.getPath().add("");
+        extractor.getPath().add("$.groups[0]");
+
+        assertThat(extractor.extract(claims)).isEqualTo(List.of("offline_access", "GDI Planer (extern)", "Admins"));
+    }
+
+    @Test
+    void testExtractRecompilesChangedPaths() {
+        JsonPathExtractor extractor = new JsonPathExtractor();
+        extractor.getPath().add("$.sub");
+        assertThat(extractor.extract(claims)).isEqualTo(List.of("1234"));
+
+        extractor.getPath().set(0, "$.PartyOrganisationID");
+        assertThat(extractor.extract(claims)).isEqualTo(List.of("6007280321"));
+
+        extractor.setPath(List.of("$.groups"));
+        assertThat(extractor.extract(claims)).isEqualTo(List.of("Admins", "Editors"));
+    }
+
+    @Test
+    void testRolesMappingSharedDocument() {
+        DocumentContext document = OpenIdConnectCustomClaimsConfigProperties.parse(claims);
+        OpenIdConnectCustomClaimsConfigProperties config = new OpenIdConnectCustomClaimsConfigProperties();
+        config.getRoles().getJson().getPath().add("$.realm_access.roles");
+        config.getOrganization().getPath().add("$.PartyOrganisationID");
+
+        GeorchestraUser user = new GeorchestraUser();
+        user.setRoles(new ArrayList<>(List.of("ROLE_USER")));
+        config.getRoles().apply(document, user);
+
+        assertThat(user.getRoles()).isEqualTo(List.of("OFFLINE_ACCESS", "GDI_PLANER_EXTERN", "ROLE_USER"));
+        assertThat(config.getOrganization().extract(document)).isEqualTo(List.of("6007280321"));
+    }
+
+    @Test
+    void testIsSatisfiedBy() {
+        OpenIdConnectCustomClaimsConfigProperties config = new OpenIdConnectCustomClaimsConfigProperties();
+        assertThat(config.isSatisfiedBy(claims)).as("no user name claim").isFalse();
+
+        Map<String, Object> idToken = new HashMap<>(claims);
+        idToken.put("preferred_username", "jdoe");
+        assertThat(config.isSatisfiedBy(idToken)).isTrue();
+
+        config.getRoles().getJson().getPath().add("$.realm_access.roles");
+        config.getOrganization().getPath().add("$.PartyOrganisationID");
+        assertThat(config.isSatisfiedBy(idToken)).isTrue();
+
+        config.getOrganization().getPath().add("$.missing");
+        assertThat(config.isSatisfiedBy(idToken)).isFalse();
+
+        config.getOrganization().setPath(List.of("$.groups[?(@ == 'Missing')]"));
+        assertThat(config.isSatisfiedBy(idToken)).as("no match").isFalse();
+    }
+}